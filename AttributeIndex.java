@@ -0,0 +1,116 @@
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * The <code>AttributeIndex</code> class maps one number kept by each file, such
+ * as its size or modification time, to every file with that value. The values
+ * are kept sorted, so a range search only visits the files inside the range.
+ * 
+ * <p>
+ * Each file is a separate entry, keyed by its value and then by its serial, so
+ * the index is a plain concurrent sorted map. Files in different directories
+ * are added and removed at the same time without any lock, and a search walks
+ * the map while it changes, seeing each file that stays in the range
+ * throughout.
+ * </p>
+ * 
+ * <p>
+ * The value a file is indexed under is read when it is added and when it is
+ * removed, so a file must be removed before its value changes and added again
+ * after.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class AttributeIndex {
+	private final ToLongFunction<DirectoryNode> attribute; // Reads the indexed value of a file
+	private final ConcurrentSkipListMap<Key, DirectoryNode> files; // Every indexed file, by value and serial
+
+	/**
+	 * The <code>Key</code> class is the place of one file in the index: its value,
+	 * then its serial, which no other node shares.
+	 **/
+	private static final class Key implements Comparable<Key> {
+		private final long value; // The indexed value of the file
+		private final long serial; // The serial of the file
+
+		/**
+		 * Orders keys by value, then by serial.
+		 * 
+		 * @param other The key to compare with
+		 * @return A negative number, zero or a positive number as this key is
+		 *         before, the same as or after the other one
+		 */
+		@Override
+		public int compareTo(Key other) {
+			int byValue = Long.compare(value, other.value);
+			return byValue != 0 ? byValue : Long.compare(serial, other.serial);
+		}
+
+		/**
+		 * Returns an instance of Key
+		 * 
+		 * @param value  The indexed value of the file
+		 * @param serial The serial of the file
+		 */
+		private Key(long value, long serial) {
+			this.value = value;
+			this.serial = serial;
+		}
+	}
+
+	/**
+	 * Adds a file to the index under its current value.
+	 * 
+	 * @param file The file to add
+	 */
+	public void add(DirectoryNode file) {
+		files.put(new Key(attribute.applyAsLong(file), file.getSerial()), file);
+	}
+
+	/**
+	 * Removes a file from the index, if it is present under its current value.
+	 * 
+	 * @param file The file to remove
+	 */
+	public void remove(DirectoryNode file) {
+		files.remove(new Key(attribute.applyAsLong(file), file.getSerial()));
+	}
+
+	/**
+	 * Hands every indexed file whose value is within a range to an action. Files
+	 * are visited by value in ascending order, and in the order they were created
+	 * within a value.
+	 * 
+	 * @param from   The lowest value in the range
+	 * @param to     The highest value in the range
+	 * @param action Called with each file in the range
+	 */
+	public void forEachInRange(long from, long to, Consumer<DirectoryNode> action) {
+		if (from > to) {
+			return;
+		}
+		files.subMap(new Key(from, Long.MIN_VALUE), true, new Key(to, Long.MAX_VALUE), true).values()
+				.forEach(action);
+	}
+
+	/**
+	 * Removes every file from the index.
+	 */
+	public void clear() {
+		files.clear();
+	}
+
+	/**
+	 * Returns an empty instance of AttributeIndex
+	 * 
+	 * @param attribute Reads the indexed value of a file
+	 */
+	public AttributeIndex(ToLongFunction<DirectoryNode> attribute) {
+		this.attribute = attribute;
+		files = new ConcurrentSkipListMap<>();
+	}
+}
@@ -1,31 +1,89 @@
 
-import java.util.Scanner;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
+import java.util.function.Function;
 
 /**
  * The <code>BashTerminal</code> class gives the user an interface to interact
- * with the file tree simulation.
+ * with the file tree simulation. Each instance is one user's session, with its
+ * own cursor and output; every session works on the same shared tree.
  * 
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
 public class BashTerminal {
 	private static final String PRE_COMMAND_STRING = "[110261379@hireMe]: $ ";
+	private static final String INVALID_COMMAND_MESSAGE = "That is not a valid command.";
+	private static final int BATCH_OUTPUT_BUFFER_SIZE = 1 << 16; // Bytes buffered before a batch write
+	private static final int DEFAULT_GROUP_COMMIT_SIZE = 256; // Journal records synced together
+	private static final int DEFAULT_GROUP_COMMIT_MILLIS = 20; // Most time a record waits to be synced
+	private static final String SNAPSHOT_FILE_NAME = "tree.snapshot"; // Snapshot inside --data
+	private static final String JOURNAL_FILE_NAME = "tree.journal"; // Journal inside --data
+	private static final int MAX_PORT = 65535; // Highest TCP port number
+	private static final int DEFAULT_STATISTICS_SECONDS = 60; // Time between statistics dumps
+	private static final int COMPLETION_LIMIT = 64; // Completions printed for one request
+	private static final int UNIX_FILE_TYPE = 0170000; // Bits of a Unix file mode that hold its type
+	private static final int UNIX_CHARACTER_DEVICE = 0020000; // File type of a terminal
+	private static final CommandRegistry COMMANDS = createCommands();
 
-	private static DirectoryTree directoryTree;
-	private static Scanner in;
+	private static DirectoryTree directoryTree; // The tree shared by every session
+	private static boolean interactive; // True if a prompt is shown before each command
+	private static boolean serving; // True while sessions are served over a socket
+	private static Path snapshotFile; // The snapshot the journal is compacted into, or null
+	private static Path statisticsFile; // Where statistics are dumped periodically, or null
+
+	private DirectorySession session; // This session's cursor into the tree
+	private final PrintStream out; // Where this session's output is written
+	private boolean running = true; // False once the user has asked to exit
 
 	/**
-	 * Gets input from the user.
+	 * Reads and parses commands until the user exits or the input ends.
 	 * 
 	 * <dl>
 	 * <dt>Postconditions:</dt>
-	 * <dd>The entered command is parsed by the program.</dd>
+	 * <dd>Every entered command has been parsed by the program.</dd>
 	 * </dl>
+	 * 
+	 * @param in The commands entered by the user
+	 * @throws IOException If the input cannot be read
 	 */
-	private static void getUserInput() {
-		System.out.print(PRE_COMMAND_STRING);
-		String command = in.nextLine();
-		parseCommand(command);
+	private void runCommandLoop(BufferedReader in) throws IOException {
+		while (true) {
+			if (interactive) {
+				out.print(PRE_COMMAND_STRING);
+			}
+			String command = in.readLine();
+			if (command == null || !parseCommand(command)) {
+				break;
+			}
+		}
+		out.flush();
 	}
 
 	/**
@@ -37,8 +95,8 @@ public class BashTerminal {
 	 * command.</dd>
 	 * </dl>
 	 */
-	private static void printWorkingDirectory() {
-		System.out.println(directoryTree.presentWorkingDirectory());
+	private void printWorkingDirectory() {
+		out.println(session.presentWorkingDirectory());
 	}
 
 	/**
@@ -49,32 +107,48 @@ public class BashTerminal {
 	 * <dd>The tree is printed, and the user is prompted for another command.</dd>
 	 * </dl>
 	 */
-	private static void listDirectory() {
-		directoryTree.printDirectoryTree();
-		getUserInput();
+	private void listDirectory() {
+		printTree(session.getCursor(), Integer.MAX_VALUE);
 	}
 
 	/**
 	 * Creates a file at the current working directory with the given name, if
-	 * possible.
+	 * possible, or marks the existing file with that name as modified now.
+	 * "--size N" before the name also sets the file's size, in bytes or with a
+	 * k, M or G suffix.
 	 * 
 	 * <dl>
 	 * <dt>Postconditions:</dt>
-	 * <dd>The file is made if possible, and the user is prompted for another
-	 * command.</dd>
+	 * <dd>The file is made or touched if possible, and the user is prompted for
+	 * another command.</dd>
 	 * </dl>
+	 * 
+	 * @param args The arguments given to touch
 	 */
-	private static void makeFile(String name) {
+	private void makeFile(String[] args) {
+		long size = -1;
+		if (args.length == 3 && args[0].equals("--size")) {
+			size = parseSize(args[1]);
+			if (size < 0) {
+				out.println("ERROR: '" + args[1] + "' is not a valid size.");
+				return;
+			}
+		} else if (args.length != 1) {
+			out.println(INVALID_COMMAND_MESSAGE);
+			return;
+		}
 		try {
-			directoryTree.makeFile(name);
+			session.touchFile(args[args.length - 1], size);
 		} catch (NotADirectoryException e) {
-			System.out.println("ERROR: You can only add files to a directory.");
+			out.println("ERROR: You can only add files to a directory.");
 		} catch (FullDirectoryException e) {
-			System.out.println("ERROR: This directory is already full.");
+			out.println("ERROR: This directory is already full.");
 		} catch (IllegalArgumentException e) {
-			System.out.println("ERROR: That is not a valid file name.");
+			out.println("ERROR: That is not a valid file name.");
 		} catch (ConflictingNamesException e) {
-			System.out.println("ERROR: There cannot be two directories or two files with the same name.");
+			out.println("ERROR: There cannot be two directories or two files with the same name.");
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: The working directory has been removed.");
 		}
 	}
 
@@ -88,17 +162,105 @@ public class BashTerminal {
 	 * command.</dd>
 	 * </dl>
 	 */
-	private static void makeDirectory(String name) {
+	private void makeDirectory(String name) {
 		try {
-			directoryTree.makeDirectory(name);
+			session.makeDirectory(name);
 		} catch (NotADirectoryException e) {
-			System.out.println("ERROR: You can only add files to a directory.");
+			out.println("ERROR: You can only add files to a directory.");
 		} catch (FullDirectoryException e) {
-			System.out.println("ERROR: This directory is already full.");
+			out.println("ERROR: This directory is already full.");
 		} catch (IllegalArgumentException e) {
-			System.out.println("ERROR: That is not a valid file name.");
+			out.println("ERROR: That is not a valid file name.");
+		} catch (ConflictingNamesException e) {
+			out.println("ERROR: There cannot be two directories or two files with the same name.");
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: The working directory has been removed.");
+		}
+	}
+
+	/**
+	 * Creates a directory, or with "-p" every missing directory on a path.
+	 * 
+	 * @param args The arguments given to mkdir
+	 */
+	private void makeDirectory(String[] args) {
+		if (args.length == 1) {
+			if (args[0].indexOf('/') != -1) {
+				out.println(INVALID_COMMAND_MESSAGE);
+			} else {
+				makeDirectory(args[0]);
+			}
+			return;
+		} else if (!args[0].equals("-p")) {
+			out.println(INVALID_COMMAND_MESSAGE);
+			return;
+		}
+		try {
+			session.makeDirectories(args[1]);
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + args[1] + "' passes through a file.");
+		} catch (FullDirectoryException e) {
+			out.println("ERROR: A directory on '" + args[1] + "' is already full.");
+		} catch (IllegalArgumentException e) {
+			out.println("ERROR: That is not a valid file name.");
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: The working directory has been removed.");
+		}
+	}
+
+	/**
+	 * Removes a file, or with "-r" a directory and everything under it.
+	 * 
+	 * @param args The arguments given to rm
+	 */
+	private void remove(String[] args) {
+		boolean recursive = args.length == 2;
+		if (recursive && !args[0].equals("-r")) {
+			out.println(INVALID_COMMAND_MESSAGE);
+			return;
+		}
+		String path = args[args.length - 1];
+		try {
+			if (!recursive && !session.lookupPath(path).isFile()) {
+				out.println("ERROR: '" + path + "' is a directory; use rm -r to remove it.");
+				return;
+			}
+			session.removeNode(path);
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: '" + path + "' cannot be found.");
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + path + "' passes through a file.");
+		}
+	}
+
+	/**
+	 * Copies a file, or with "-r" a directory and everything under it, into a
+	 * target directory.
+	 * 
+	 * @param args The arguments given to cp
+	 */
+	private void copy(String[] args) {
+		boolean recursive = args.length == 3;
+		if (recursive && !args[0].equals("-r")) {
+			out.println(INVALID_COMMAND_MESSAGE);
+			return;
+		}
+		String sourcePath = args[args.length - 2];
+		String targetPath = args[args.length - 1];
+		try {
+			if (!recursive && !session.lookupPath(sourcePath).isFile()) {
+				out.println("ERROR: '" + sourcePath + "' is a directory; use cp -r to copy it.");
+				return;
+			}
+			session.copyNode(sourcePath, targetPath);
+		} catch (UnresolvedPathException e) {
+			out.println("The source or target path is invalid.");
+		} catch (NotADirectoryException e) {
+			out.println("The target path does not resolve to a directory.");
+		} catch (FullDirectoryException e) {
+			out.println("The directory at the target path is already full.");
 		} catch (ConflictingNamesException e) {
-			System.out.println("ERROR: There cannot be two directories or two files with the same name.");
+			out.println("There cannot be two directories or two files with the same name.");
 		}
 	}
 
@@ -110,8 +272,24 @@ public class BashTerminal {
 	 * <dd>The tree is printed, and the user is prompted for another command.</dd>
 	 * </dl>
 	 */
-	private static void listDirectoryFromRoot() {
-		directoryTree.printDirectoryTreeFromRoot();
+	private void listDirectoryFromRoot() {
+		printTree(session.getTree().getRoot(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes the tree under a node to this session's output. Printing stops early
+	 * if the output can no longer be written, such as when a client disconnects.
+	 * 
+	 * @param node     The node to start from
+	 * @param maxDepth The most levels below the node to print
+	 */
+	private void printTree(DirectoryNode node, int maxDepth) {
+		try {
+			session.getTree().printDirectoryTree(node, 0, maxDepth, out, out::checkError);
+		} catch (IOException e) {
+			// PrintStream records errors instead of throwing them
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
@@ -123,8 +301,8 @@ public class BashTerminal {
 	 * for another command.</dd>
 	 * </dl>
 	 */
-	private static void moveToRoot() {
-		directoryTree.resetCursor();
+	private void moveToRoot() {
+		session.resetCursor();
 	}
 
 	/**
@@ -136,11 +314,11 @@ public class BashTerminal {
 	 * command.</dd>
 	 * </dl>
 	 */
-	private static void moveToParent() {
-		if (directoryTree.getCursor().equals(directoryTree.getRoot())) {
-			System.out.println("ERROR: Already at the root directory");
+	private void moveToParent() {
+		if (session.getCursor().equals(session.getTree().getRoot())) {
+			out.println("ERROR: Already at the root directory");
 		} else {
-			directoryTree.goToParent();
+			session.goToParent();
 		}
 	}
 
@@ -153,99 +331,880 @@ public class BashTerminal {
 	 * prompted for another command.</dd>
 	 * </dl>
 	 */
-	private static void moveToDirectory(String path) {
+	private void moveToDirectory(String path) {
 		try {
-			directoryTree.changeDirectory(path);
+			session.changeDirectory(path);
 		} catch (UnresolvedPathException e) {
-			System.out.println("ERROR: '" + path + "' cannot be found.");
+			out.println("ERROR: '" + path + "' cannot be found.");
 		} catch (NotADirectoryException e) {
-			System.out.println("ERROR: '" + path + "' is not a directory.");
+			out.println("ERROR: '" + path + "' is not a directory.");
 		}
 	}
 
-	private static void moveDirectory(String sourcePath, String targetPath) {
+	/**
+	 * Moves one or more nodes into the directory named by the last argument.
+	 * Nothing moves unless every node can.
+	 * 
+	 * @param args The source paths, then the target path
+	 */
+	private void move(String[] args) {
+		String targetPath = args[args.length - 1];
 		try {
-			directoryTree.moveDirectory(sourcePath, targetPath);
+			if (args.length == 2) {
+				session.moveDirectory(args[0], targetPath);
+			} else {
+				session.moveNodes(Arrays.copyOf(args, args.length - 1), targetPath);
+			}
 		} catch (UnresolvedPathException e) {
-			System.out.println("The source or target path is invalid.");
+			out.println("The source or target path is invalid.");
 		} catch (NotADirectoryException e) {
-			System.out.println("The target path does not resolve to a directory.");
+			out.println("The target path does not resolve to a directory.");
 		} catch (FullDirectoryException e) {
-			System.out.println("The directory at the target path is already full.");
+			out.println("The directory at the target path is already full.");
 		} catch (ConflictingNamesException e) {
-			System.out.println("There cannot be two directories or two files with the same name.");
+			out.println("There cannot be two directories or two files with the same name.");
+		}
+	}
+
+	/**
+	 * Prints the path of every node with an exact name, or, with "-name GLOB" or
+	 * "-regex REGEX", of every node whose name matches. A directory path before the
+	 * option limits the search to that directory. Paths are printed as they are
+	 * found.
+	 * 
+	 * <p>
+	 * "-size [+|-]N[c|k|M|G]" finds the files larger than, smaller than or of
+	 * size N, counted in bytes unless a suffix is given, and "-newer REF" the
+	 * files modified after the file at REF or after the time REF, given in
+	 * milliseconds since the epoch or as an ISO-8601 instant. These are printed
+	 * in order of size or time.
+	 * </p>
+	 * 
+	 * @param args The arguments given to find
+	 */
+	private void find(String[] args) {
+		String path = args.length == 3 ? args[0] : "/";
+		String option = args.length >= 2 ? args[args.length - 2] : "";
+		String value = args[args.length - 1];
+		try {
+			int found;
+			if (args.length == 1 && !args[0].contains("/")) {
+				found = session.find(path, NamePattern.literal(value), out::println);
+			} else if (option.equals("-name")) {
+				found = session.find(path, NamePattern.glob(value), out::println);
+			} else if (option.equals("-regex")) {
+				found = session.find(path, NamePattern.regex(value), out::println);
+			} else if (option.equals("-size")) {
+				long[] range = parseSizeRange(value);
+				if (range == null) {
+					out.println("ERROR: '" + value + "' is not a valid size.");
+					return;
+				}
+				found = session.findInRange(path, true, range[0], range[1], out::println);
+			} else if (option.equals("-newer")) {
+				long time = parseReferenceTime(value);
+				if (time == Long.MIN_VALUE) {
+					out.println("ERROR: '" + value + "' is neither a file nor a time.");
+					return;
+				}
+				found = time == Long.MAX_VALUE ? 0
+						: session.findInRange(path, false, time + 1, Long.MAX_VALUE, out::println);
+			} else {
+				out.println(INVALID_COMMAND_MESSAGE);
+				return;
+			}
+			if (found == 0) {
+				out.println("ERROR: No such file exists.");
+			}
+		} catch (PatternSyntaxException e) {
+			out.println("ERROR: '" + value + "' is not a valid pattern.");
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: '" + path + "' cannot be found.");
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + path + "' is not a directory.");
+		}
+	}
+
+	/**
+	 * Parses a size given as a command argument, in bytes or with a c, k, M or G
+	 * suffix.
+	 * 
+	 * @param arg The argument to parse
+	 * @return The size in bytes, or -1 if the argument is not a valid size
+	 */
+	private static long parseSize(String arg) {
+		if (arg.isEmpty() || !Character.isDigit(arg.charAt(0))) {
+			return -1;
+		}
+		long unit = unitOf(arg.charAt(arg.length() - 1));
+		try {
+			long count = Long.parseLong(unit == 0 ? arg : arg.substring(0, arg.length() - 1));
+			return Math.multiplyExact(count, Math.max(unit, 1));
+		} catch (NumberFormatException | ArithmeticException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param suffix The last character of a size
+	 * @return The bytes in the unit the suffix stands for, or 0 if it is not a
+	 *         unit suffix
+	 */
+	private static long unitOf(char suffix) {
+		switch (suffix) {
+		case 'c':
+			return 1;
+		case 'k':
+			return 1L << 10;
+		case 'M':
+			return 1L << 20;
+		case 'G':
+			return 1L << 30;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Parses the size test of <code>find -size</code>. As in GNU find, a size
+	 * with a unit matches the files that round up to it: "2k" matches files of
+	 * 1025 to 2048 bytes, "+2k" files of more than 2048 bytes, and "-2k" files of
+	 * at most 1024 bytes.
+	 * 
+	 * @param arg The argument to parse, "[+|-]N[c|k|M|G]"
+	 * @return The lowest and highest size matched, in bytes, or null if the
+	 *         argument is not a valid size
+	 */
+	private static long[] parseSizeRange(String arg) {
+		char sign = arg.isEmpty() ? ' ' : arg.charAt(0);
+		String size = sign == '+' || sign == '-' ? arg.substring(1) : arg;
+		long bytes = parseSize(size);
+		if (bytes < 0) {
+			return null;
+		}
+		long unit = Math.max(unitOf(size.charAt(size.length() - 1)), 1);
+		long count = bytes / unit;
+		if (sign == '+') {
+			return bytes == Long.MAX_VALUE ? new long[] { 1, 0 } : new long[] { bytes + 1, Long.MAX_VALUE };
+		} else if (sign == '-') {
+			return count == 0 ? new long[] { 1, 0 } : new long[] { 0, bytes - unit };
+		}
+		return new long[] { count == 0 ? 0 : bytes - unit + 1, bytes };
+	}
+
+	/**
+	 * Works out the time a <code>find -newer</code> reference stands for: the
+	 * modification time of the file at the path, or else a time in milliseconds
+	 * since the epoch, or else an ISO-8601 instant.
+	 * 
+	 * @param reference The argument given to -newer
+	 * @return The time in milliseconds since the epoch, or Long.MIN_VALUE if the
+	 *         reference is neither a file nor a time
+	 */
+	private long parseReferenceTime(String reference) {
+		try {
+			DirectoryNode node = session.lookupPath(reference);
+			return node.isFile() ? node.getModificationTime() : Long.MIN_VALUE;
+		} catch (UnresolvedPathException | NotADirectoryException e) {
+			// Not a node, so it should be a time
+		}
+		try {
+			return Long.parseLong(reference);
+		} catch (NumberFormatException e) {
+			// Not a number, so it should be an instant
+		}
+		try {
+			return Instant.parse(reference).toEpochMilli();
+		} catch (DateTimeParseException | ArithmeticException e) {
+			return Long.MIN_VALUE;
 		}
 	}
 
-	private static void find(String name) {
-		String result = directoryTree.find(name);
-		if (result.equals("")) {
-			System.out.println("ERROR: No such file exists.");
+	/**
+	 * Checks whether standard input is a terminal, whatever standard output is.
+	 * <code>System.console()</code> needs both to be terminals, so where the
+	 * system has <code>/dev/stdin</code>, the type of the file behind it decides:
+	 * a character device other than <code>/dev/null</code>. The console is only
+	 * asked elsewhere.
+	 * 
+	 * @return True if commands are typed by a user
+	 */
+	private static boolean isInputTerminal() {
+		try {
+			Path input = Paths.get("/dev/stdin");
+			int mode = (Integer) Files.getAttribute(input, "unix:mode");
+			return (mode & UNIX_FILE_TYPE) == UNIX_CHARACTER_DEVICE
+					&& !input.toRealPath().equals(Paths.get("/dev/null"));
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			return System.console() != null;
+		}
+	}
+
+	/**
+	 * Parses a non-negative count given as a command argument.
+	 * 
+	 * @param arg The argument to parse
+	 * @return The count, or -1 if the argument is not a non-negative int
+	 */
+	private static int parseCount(String arg) {
+		try {
+			int count = Integer.parseInt(arg);
+			return count < 0 ? -1 : count;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Prints the tree starting from the cursor, or from the root if "-R" is given.
+	 * "--max-depth N" limits how many levels below the start are printed.
+	 * 
+	 * <p>
+	 * With a "[DIR/]PREFIX*" argument, or any of "--offset N", "--limit M" and
+	 * "--sort name|type", only the children of the directory are printed instead,
+	 * sorted by name or with the directories first. The offset and limit pick out
+	 * one page of them.
+	 * </p>
+	 * 
+	 * @param args The arguments given to ls
+	 */
+	private void list(String[] args) {
+		boolean fromRoot = false;
+		int maxDepth = Integer.MAX_VALUE;
+		String pathPrefix = null;
+		boolean paged = false;
+		boolean byType = false;
+		int offset = 0;
+		int limit = Integer.MAX_VALUE;
+		for (int i = 0; i < args.length; i++) {
+			boolean hasValue = i + 1 < args.length;
+			if (args[i].equals("-R")) {
+				fromRoot = true;
+			} else if (args[i].equals("--max-depth") && hasValue && parseCount(args[i + 1]) != -1) {
+				maxDepth = parseCount(args[++i]);
+			} else if (args[i].equals("--offset") && hasValue && parseCount(args[i + 1]) != -1) {
+				offset = parseCount(args[++i]);
+				paged = true;
+			} else if (args[i].equals("--limit") && hasValue && parseCount(args[i + 1]) != -1) {
+				limit = parseCount(args[++i]);
+				paged = true;
+			} else if (args[i].equals("--sort") && hasValue
+					&& (args[i + 1].equals("name") || args[i + 1].equals("type"))) {
+				byType = args[++i].equals("type");
+				paged = true;
+			} else if (pathPrefix == null && args[i].endsWith("*")) {
+				pathPrefix = args[i].substring(0, args[i].length() - 1);
+			} else {
+				out.println(INVALID_COMMAND_MESSAGE);
+				return;
+			}
+		}
+		if (pathPrefix != null || paged) {
+			if (maxDepth != Integer.MAX_VALUE || fromRoot && pathPrefix != null && pathPrefix.contains("/")) {
+				out.println(INVALID_COMMAND_MESSAGE);
+			} else {
+				listPage(fromRoot, pathPrefix == null ? "" : pathPrefix, byType, offset, limit);
+			}
+		} else if (maxDepth == Integer.MAX_VALUE) {
+			if (fromRoot) {
+				listDirectoryFromRoot();
+			} else {
+				listDirectory();
+			}
 		} else {
-			directoryTree.printAllFound(name);
+			printTree(fromRoot ? session.getTree().getRoot() : session.getCursor(), maxDepth);
 		}
 	}
 
 	/**
-	 * Parses the input from the user.
+	 * Prints one page of the children of a directory whose names start with a
+	 * prefix, one line each in the same form as the first level of the tree. Each
+	 * line is printed as it is reached; no listing is built up first.
 	 * 
-	 * <dl>
-	 * <dt>Postconditions:</dt>
-	 * <dd>The input is handled appropriately, or a message is shown if the input is
-	 * invalid.</dd>
-	 * </dl>
+	 * @param fromRoot   True to list the root's children rather than the cursor's
+	 * @param pathPrefix The path of the directory from the cursor, a '/', and the
+	 *                   prefix, or just the prefix
+	 * @param byType     True to print the directories before the files
+	 * @param offset     The number of matching children skipped
+	 * @param limit      The most children printed
 	 */
-	private static void parseCommand(String command) {
-		switch (command) {
-		case "pwd":
-			printWorkingDirectory();
-			break;
-		case "ls":
-			listDirectory();
-			break;
-		case "ls -R":
-			listDirectoryFromRoot();
-			break;
-		case "cd /":
+	private void listPage(boolean fromRoot, String pathPrefix, boolean byType, int offset, int limit) {
+		int split = pathPrefix.lastIndexOf('/');
+		DirectoryNode directory = fromRoot ? session.getTree().getRoot() : session.getCursor();
+		if (split != -1) {
+			String path = pathPrefix.substring(0, split);
+			try {
+				directory = session.lookupPath(path);
+			} catch (UnresolvedPathException e) {
+				out.println("ERROR: '" + path + "' cannot be found.");
+				return;
+			} catch (NotADirectoryException e) {
+				directory = null;
+			}
+			if (directory == null || directory.isFile()) {
+				out.println("ERROR: '" + path + "' is not a directory.");
+				return;
+			}
+		}
+		session.getTree().listChildren(directory, pathPrefix.substring(split + 1), byType, offset, limit,
+				child -> out.println((child.isFile() ? " " : "|") + "- " + child.getName()));
+	}
+
+	/**
+	 * Prints the ways the last name of a path could be completed, in name order,
+	 * up to <code>COMPLETION_LIMIT</code> of them.
+	 * 
+	 * @param args The arguments given to complete
+	 */
+	private void complete(String[] args) {
+		try {
+			int completions = session.complete(args[0], COMPLETION_LIMIT, out::println);
+			if (completions == 0) {
+				out.println("ERROR: Nothing matches '" + args[0] + "'.");
+			} else if (completions > COMPLETION_LIMIT) {
+				out.println("... and " + (completions - COMPLETION_LIMIT) + " more.");
+			}
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: '" + args[0] + "' cannot be found.");
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + args[0] + "' passes through a file.");
+		}
+	}
+
+	/**
+	 * Moves the cursor to the root for "/", to the parent for "..", and through
+	 * the specified path otherwise.
+	 * 
+	 * @param args The arguments given to cd
+	 */
+	private void changeDirectory(String[] args) {
+		switch (args[0]) {
+		case "/":
 			moveToRoot();
 			break;
-		case "cd ..":
+		case "..":
 			moveToParent();
 			break;
-		case "exit":
-			System.out.println("Program terminating normally");
-			System.exit(0);
-			// Handle regex matching here
 		default:
-			if (command.matches("touch\\s+[^/\\s]+")) {
-				makeFile(command.split(" ")[1].trim());
-			} else if (command.matches("mkdir\\s+[^/\\s]+")) {
-				makeDirectory(command.split(" ")[1].trim());
-			} else if (command.matches("cd\\s+[^\\s]+")) {
-				moveToDirectory(command.split(" ")[1].trim());
-			} else if (command.matches("mv\\s+[^\\s]+\\s+[^\\s]+")) {
-				moveDirectory(command.split(" ")[1].trim(), command.split(" ")[2].trim());
-			} else if (command.matches("find\\s+[^/\\s]+")) {
-				find(command.split(" ")[1].trim());
-			} else {
-				System.out.println("That is not a valid command.");
+			moveToDirectory(args[0]);
+		}
+	}
+
+	/**
+	 * Saves the file system to a snapshot file on the host.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The snapshot is written if possible, and the user is prompted for
+	 * another command.</dd>
+	 * </dl>
+	 * 
+	 * @param path The host path of the snapshot
+	 */
+	private void save(String path) {
+		try {
+			session.getTree().save(Paths.get(path));
+		} catch (IOException | InvalidPathException e) {
+			out.println("ERROR: The snapshot could not be saved: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the file system with one loaded from a snapshot file on the host.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>If the snapshot was loaded, the cursor is at its root, and the user is
+	 * prompted for another command.</dd>
+	 * </dl>
+	 * 
+	 * @param path The host path of the snapshot
+	 */
+	private void load(String path) {
+		if (directoryTree.getJournal() != null) {
+			out.println("ERROR: A snapshot cannot be loaded while changes are journaled.");
+			return;
+		} else if (serving) {
+			out.println("ERROR: A snapshot cannot be loaded while other sessions share the tree.");
+			return;
+		}
+		try {
+			directoryTree = DirectoryTree.load(Paths.get(path));
+			session = directoryTree.newSession();
+		} catch (IOException | InvalidPathException e) {
+			out.println("ERROR: The snapshot could not be loaded: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Copies a host file or directory, and everything under it, into the cursor,
+	 * or into the directory at the optional second argument. The host is read in
+	 * parallel and attached in one step, and the throughput is printed.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The host hierarchy is imported if possible, and the user is prompted for
+	 * another command.</dd>
+	 * </dl>
+	 * 
+	 * @param args The host path, then the target directory if any
+	 */
+	private void importHost(String[] args) {
+		HostImport imported;
+		try {
+			imported = HostImport.read(Paths.get(args[0]), HostImport.DEFAULT_PARALLELISM);
+		} catch (NoSuchFileException e) {
+			out.println("ERROR: '" + args[0] + "' cannot be found on the host.");
+			return;
+		} catch (IOException | IllegalArgumentException e) {
+			// InvalidPathException is an IllegalArgumentException
+			out.println("ERROR: The host path could not be imported: " + e.getMessage());
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			session.importSubtree(imported.getRoot(), args.length == 2 ? args[1] : null);
+		} catch (UnresolvedPathException e) {
+			out.println(args.length == 2 ? "ERROR: '" + args[1] + "' cannot be found."
+					: "ERROR: The working directory has been removed.");
+			return;
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + args[1] + "' is not a directory.");
+			return;
+		} catch (FullDirectoryException e) {
+			out.println("ERROR: This directory is already full.");
+			return;
+		} catch (ConflictingNamesException e) {
+			out.println("ERROR: There cannot be two directories or two files with the same name.");
+			return;
+		}
+		long nanos = Math.max(1, imported.getElapsedNanos() + System.nanoTime() - start);
+		out.println("Imported " + imported.getNodeCount() + " nodes in " + TimeUnit.NANOSECONDS.toMillis(nanos)
+				+ " ms (" + imported.getNodeCount() * TimeUnit.SECONDS.toNanos(1) / nanos + " nodes/s).");
+		if (imported.getSkippedCount() > 0 || imported.getUnreadableCount() > 0) {
+			out.println("Skipped " + imported.getSkippedCount() + " entries; " + imported.getUnreadableCount()
+					+ " directories could not be read.");
+		}
+	}
+
+	/**
+	 * Prints how many files and directories are below a node, and how deep its
+	 * deepest branch goes. The numbers are kept up to date by every change, so
+	 * nothing is walked.
+	 * 
+	 * @param args The path of the node from the cursor, if given
+	 */
+	private void diskUsage(String[] args) {
+		DirectoryNode node = nodeAt(args);
+		if (node != null) {
+			out.println(node.getDescendantFileCount() + " files, " + node.getDescendantDirectoryCount()
+					+ " directories, max depth " + node.getMaxDepth());
+		}
+	}
+
+	/**
+	 * Prints the size and the creation and modification times of a file.
+	 * 
+	 * @param args The path of the file from the cursor
+	 */
+	private void stat(String[] args) {
+		DirectoryNode node = nodeAt(args);
+		if (node == null) {
+			return;
+		} else if (!node.isFile()) {
+			out.println("ERROR: '" + args[0] + "' is not a file.");
+			return;
+		}
+		out.println(node.getSize() + " bytes, created " + Instant.ofEpochMilli(node.getCreationTime())
+				+ ", modified " + Instant.ofEpochMilli(node.getModificationTime()));
+	}
+
+	/**
+	 * Prints how many nodes are below a node.
+	 * 
+	 * @param args The path of the node from the cursor, if given
+	 */
+	private void count(String[] args) {
+		DirectoryNode node = nodeAt(args);
+		if (node != null) {
+			out.println(node.getDescendantFileCount() + node.getDescendantDirectoryCount());
+		}
+	}
+
+	/**
+	 * Finds the node a command is about, printing an error if there is none.
+	 * 
+	 * @param args The path of the node from the cursor, or nothing for the cursor
+	 * @return The node, or null if the path cannot be followed
+	 */
+	private DirectoryNode nodeAt(String[] args) {
+		if (args.length == 0) {
+			return session.getCursor();
+		}
+		try {
+			return session.lookupPath(args[0]);
+		} catch (UnresolvedPathException e) {
+			out.println("ERROR: '" + args[0] + "' cannot be found.");
+		} catch (NotADirectoryException e) {
+			out.println("ERROR: '" + args[0] + "' passes through a file.");
+		}
+		return null;
+	}
+
+	/**
+	 * Folds the journal into the data directory's snapshot in the background.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>A compaction has been started if the terminal is journaling, and the
+	 * user is prompted for another command.</dd>
+	 * </dl>
+	 */
+	private void compact() {
+		MutationJournal journal = session.getTree().getJournal();
+		if (journal == null) {
+			out.println("ERROR: Changes are not being journaled.");
+			return;
+		}
+		try {
+			journal.compact(snapshotFile).whenComplete((result, e) -> {
+				if (e != null) {
+					System.err.println("ERROR: The journal could not be compacted: " + e.getMessage());
+				}
+			});
+		} catch (IOException | IllegalStateException e) {
+			out.println("ERROR: The journal could not be compacted: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Prints the latencies and error counts of every command run so far, then of
+	 * the tree operations behind them. "reset" clears them instead.
+	 * 
+	 * @param args The arguments given to stats
+	 */
+	private void statistics(String[] args) {
+		if (args.length == 1) {
+			if (!args[0].equals("reset")) {
+				out.println(INVALID_COMMAND_MESSAGE);
+				return;
 			}
+			COMMANDS.getStatistics().reset();
+			directoryTree.getStatistics().reset();
+			return;
 		}
-		getUserInput();
+		try {
+			printStatistics(out);
+		} catch (IOException e) {
+			// PrintStream records errors instead of throwing them
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the command statistics followed by the tree operation statistics.
+	 * 
+	 * @param out Where the statistics are written
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	private static void printStatistics(Appendable out) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		out.append("Commands:").append(lineSeparator);
+		COMMANDS.getStatistics().print(out);
+		out.append(lineSeparator).append("Tree operations:").append(lineSeparator);
+		directoryTree.getStatistics().print(out);
+	}
+
+	/**
+	 * Replaces the statistics file with the current statistics. The file is
+	 * written beside its final place and moved over it, so readers never see it
+	 * half written.
+	 */
+	private static void dumpStatistics() {
+		Path temporary = statisticsFile.resolveSibling(statisticsFile.getFileName() + ".tmp");
+		try {
+			try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				printStatistics(writer);
+			}
+			Files.move(temporary, statisticsFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("ERROR: The statistics could not be written: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts dumping the statistics to <code>statisticsFile</code> on a daemon
+	 * thread.
+	 * 
+	 * @param seconds The time between dumps
+	 */
+	private static void startStatisticsDumps(int seconds) {
+		ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "statistics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleWithFixedDelay(BashTerminal::dumpStatistics, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Ends this session's command loop.
+	 */
+	private void exit() {
+		out.println("Program terminating normally");
+		running = false;
+	}
+
+	/**
+	 * Builds the table of commands understood by the terminal.
+	 * 
+	 * @return The registry of every terminal command
+	 */
+	private static CommandRegistry createCommands() {
+		CommandRegistry commands = new CommandRegistry();
+		commands.register(new Command("pwd", 0, 0, false, (terminal, args) -> terminal.printWorkingDirectory()));
+		commands.register(new Command("ls", 0, 8, true, BashTerminal::list));
+		commands.register(new Command("complete", 1, 1, true, BashTerminal::complete));
+		commands.register(new Command("cd", 1, 1, true, BashTerminal::changeDirectory));
+		commands.register(new Command("touch", 1, 3, false, BashTerminal::makeFile));
+		commands.register(new Command("mkdir", 1, 2, true, BashTerminal::makeDirectory));
+		commands.register(new Command("rm", 1, 2, true, BashTerminal::remove));
+		commands.register(new Command("cp", 2, 3, true, BashTerminal::copy));
+		commands.register(new Command("mv", 2, DirectoryTree.MAX_MOVE_SOURCES + 1, true, BashTerminal::move));
+		commands.register(new Command("find", 1, 3, true, BashTerminal::find));
+		commands.register(new Command("save", 1, 1, true, (terminal, args) -> terminal.save(args[0])));
+		commands.register(new Command("load", 1, 1, true, (terminal, args) -> terminal.load(args[0])));
+		commands.register(new Command("import", 1, 2, true, BashTerminal::importHost));
+		commands.register(new Command("du", 0, 1, true, BashTerminal::diskUsage));
+		commands.register(new Command("count", 0, 1, true, BashTerminal::count));
+		commands.register(new Command("stat", 1, 1, true, BashTerminal::stat));
+		commands.register(new Command("compact", 0, 0, false, (terminal, args) -> terminal.compact()));
+		commands.register(new Command("stats", 0, 1, false, BashTerminal::statistics));
+		commands.register(new Command("exit", 0, 0, false, (terminal, args) -> terminal.exit()));
+		return commands;
+	}
+
+	/**
+	 * Parses the input from the user.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The input is handled appropriately, or a message is shown if the input is
+	 * invalid.</dd>
+	 * </dl>
+	 * 
+	 * @param command The line entered by the user
+	 * @return False if the user asked to exit, true otherwise
+	 */
+	boolean parseCommand(String command) {
+		if (!COMMANDS.dispatch(this, command)) {
+			out.println(INVALID_COMMAND_MESSAGE);
+		}
+		return running;
+	}
+
+	/**
+	 * Prints the greeting shown when a session starts.
+	 */
+	void greet() {
+		out.println("Starting Bash Terminal.");
+		out.flush();
+	}
+
+	/**
+	 * Tells the user that a command failed unexpectedly.
+	 * 
+	 * @param e What went wrong
+	 */
+	void reportError(RuntimeException e) {
+		out.println("ERROR: The command failed: " + e.getMessage());
+	}
+
+	/**
+	 * Tells the user that a line they sent was not run.
+	 * 
+	 * @param reason Why the line was not run
+	 */
+	void reportRejectedLine(String reason) {
+		out.println("ERROR: " + reason);
+	}
+
+	/**
+	 * Sends any buffered output of this session.
+	 */
+	void flush() {
+		out.flush();
+	}
+
+	/**
+	 * Returns an instance of BashTerminal
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The session's cursor points to the root of the shared tree.</dd>
+	 * </dl>
+	 * 
+	 * @param out Where the session's output is written
+	 */
+	BashTerminal(PrintStream out) {
+		this(directoryTree.newSession(), out);
+	}
+
+	/**
+	 * Returns an instance of BashTerminal
+	 * 
+	 * @param session The session whose tree and cursor the commands use
+	 * @param out     Where the session's output is written
+	 */
+	BashTerminal(DirectorySession session, PrintStream out) {
+		this.session = session;
+		this.out = out;
 	}
 
 	/**
 	 * Runs a simulation that allows the user to interact with a file system.
+	 * Passing <code>--script &lt;file&gt;</code>, or piping commands into standard
+	 * input, runs the terminal in batch mode: no prompt is shown and output is
+	 * written in large blocks. Passing <code>--load &lt;snapshot&gt;</code> starts
+	 * from a tree saved with the save command. Passing
+	 * <code>--data &lt;dir&gt;</code> restores the tree kept in that directory and
+	 * journals every change to it; <code>--group-commit &lt;records&gt;</code> and
+	 * <code>--group-commit-ms &lt;ms&gt;</code> set how often the journal is synced.
+	 * Passing <code>--serve &lt;port&gt;</code> or
+	 * <code>--serve-unix &lt;socket&gt;</code> serves a session to every client
+	 * that connects instead of reading commands from this process. Passing
+	 * <code>--stats-file &lt;file&gt;</code> writes the output of the stats
+	 * command to that file every <code>--stats-interval &lt;seconds&gt;</code>
+	 * and on exit.
 	 * 
 	 * <dl>
 	 * <dt>Postconditions:</dt>
 	 * <dd>The bash terminal has started up.</dd>
 	 * </dl>
+	 * 
+	 * @throws IOException If the commands or the starting snapshot cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		String scriptPath = null;
+		String snapshotPath = null;
+		String dataPath = null;
+		String servePort = null;
+		String serveSocket = null;
+		int groupSize = DEFAULT_GROUP_COMMIT_SIZE;
+		int groupMillis = DEFAULT_GROUP_COMMIT_MILLIS;
+		int statisticsSeconds = DEFAULT_STATISTICS_SECONDS;
+		for (int i = 0; i < args.length; i++) {
+			String value = i + 1 < args.length ? args[i + 1] : null;
+			if (args[i].equals("--script") && value != null) {
+				scriptPath = args[++i];
+			} else if (args[i].equals("--load") && value != null) {
+				snapshotPath = args[++i];
+			} else if (args[i].equals("--data") && value != null) {
+				dataPath = args[++i];
+			} else if (args[i].equals("--group-commit") && value != null && parseCount(value) > 0) {
+				groupSize = parseCount(args[++i]);
+			} else if (args[i].equals("--group-commit-ms") && value != null && parseCount(value) > 0) {
+				groupMillis = parseCount(args[++i]);
+			} else if (args[i].equals("--serve") && value != null && parseCount(value) != -1
+					&& parseCount(value) <= MAX_PORT) {
+				servePort = args[++i];
+			} else if (args[i].equals("--serve-unix") && value != null) {
+				serveSocket = args[++i];
+			} else if (args[i].equals("--stats-file") && value != null) {
+				statisticsFile = Paths.get(args[++i]);
+			} else if (args[i].equals("--stats-interval") && value != null && parseCount(value) > 0) {
+				statisticsSeconds = parseCount(args[++i]);
+			} else {
+				System.err.println("Usage: java BashTerminal [--script <file> | --serve <port> | --serve-unix <socket>]"
+						+ " [--load <snapshot> | --data <dir> [--group-commit <records>] [--group-commit-ms <ms>]]"
+						+ " [--stats-file <file> [--stats-interval <seconds>]]");
+				System.exit(2);
+			}
+		}
+		if (dataPath != null) {
+			Path dataDirectory = Files.createDirectories(Paths.get(dataPath));
+			snapshotFile = dataDirectory.resolve(SNAPSHOT_FILE_NAME);
+			Path journalFile = dataDirectory.resolve(JOURNAL_FILE_NAME);
+			directoryTree = MutationJournal.recover(snapshotFile, journalFile);
+			directoryTree.setJournal(new MutationJournal(journalFile, groupSize, groupMillis));
+		} else if (snapshotPath != null) {
+			directoryTree = DirectoryTree.load(Paths.get(snapshotPath));
+		} else {
+			directoryTree = new DirectoryTree();
+		}
+		if (statisticsFile != null) {
+			startStatisticsDumps(statisticsSeconds);
+		}
+		if (servePort != null || serveSocket != null) {
+			serve(servePort, serveSocket);
+			return;
+		}
+		interactive = scriptPath == null && isInputTerminal();
+		BufferedReader in;
+		if (scriptPath != null) {
+			in = Files.newBufferedReader(Paths.get(scriptPath), StandardCharsets.UTF_8);
+		} else {
+			in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		}
+		if (!interactive) {
+			System.setOut(new PrintStream(
+					new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BATCH_OUTPUT_BUFFER_SIZE), false));
+		}
+		BashTerminal terminal = new BashTerminal(System.out);
+		terminal.greet();
+		try {
+			terminal.runCommandLoop(in);
+		} finally {
+			// Batch output is buffered, so it is sent even if the loop failed
+			terminal.flush();
+			in.close();
+			if (directoryTree.getJournal() != null) {
+				directoryTree.getJournal().close();
+			}
+			if (statisticsFile != null) {
+				dumpStatistics();
+			}
+		}
+	}
+
+	/**
+	 * Serves terminal sessions over a socket until the process is stopped. Every
+	 * session gets its own cursor over the shared tree.
+	 * 
+	 * @param port       The TCP port to listen on at the loopback address, or null
+	 * @param socketPath The Unix-domain socket file to listen on, used if the port
+	 *                   is null
+	 * @throws IOException If the socket cannot be listened on
 	 */
-	public static void main(String[] args) {
-		System.out.println("Starting Bash Terminal.");
-		directoryTree = new DirectoryTree();
-		in = new Scanner(System.in);
-		getUserInput();
+	private static void serve(String port, String socketPath) throws IOException {
+		serving = true;
+		Function<OutputStream, BashTerminal> sessions = output -> new BashTerminal(
+				new PrintStream(output, false, StandardCharsets.UTF_8));
+		TerminalServer server;
+		if (port != null) {
+			server = TerminalServer.openTcp(new InetSocketAddress(InetAddress.getLoopbackAddress(), parseCount(port)),
+					sessions);
+		} else {
+			server = TerminalServer.openUnix(UnixDomainSocketAddress.of(socketPath), sessions);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.close();
+				if (socketPath != null) {
+					Files.deleteIfExists(Paths.get(socketPath));
+				}
+				if (directoryTree.getJournal() != null) {
+					directoryTree.getJournal().close();
+				}
+				if (statisticsFile != null) {
+					dumpStatistics();
+				}
+			} catch (IOException e) {
+				System.err.println("ERROR: The server did not shut down cleanly: " + e.getMessage());
+			}
+		}, "terminal-shutdown"));
+		System.out.println("Serving terminal sessions on " + server.getAddress());
+		server.serve();
 	}
 }
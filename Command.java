@@ -0,0 +1,88 @@
+/**
+ * The <code>Command</code> class describes a command that can be entered in the
+ * terminal: its name, the arguments it accepts, and the action that runs it.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class Command {
+	/**
+	 * The <code>Action</code> interface is the code run when a command is
+	 * dispatched.
+	 */
+	public interface Action {
+		/**
+		 * Runs the command.
+		 * 
+		 * @param terminal The terminal session the command was entered in
+		 * @param args     The arguments that followed the command name
+		 */
+		void run(BashTerminal terminal, String[] args);
+	}
+
+	private final String name; // Name the command is entered by
+	private final int minArgs; // Least amount of arguments accepted
+	private final int maxArgs; // Most amount of arguments accepted
+	private final boolean allowsPaths; // True if arguments may contain '/'
+	private final Action action; // The code that runs the command
+
+	/**
+	 * @return The name of this instance
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Checks the arguments against this command's argument spec.
+	 * 
+	 * @param args The arguments that followed the command name
+	 * @return True if the amount of arguments is allowed and no argument contains a
+	 *         forbidden '/', false otherwise
+	 */
+	public boolean accepts(String[] args) {
+		if (args.length < minArgs || args.length > maxArgs) {
+			return false;
+		}
+		if (!allowsPaths) {
+			for (String arg : args) {
+				if (arg.indexOf('/') != -1) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the command with the specified arguments.
+	 * 
+	 * <dl>
+	 * <dt>Preconditions:</dt>
+	 * <dd><code>accepts(args)</code> is true.</dd>
+	 * </dl>
+	 * 
+	 * @param terminal The terminal session the command was entered in
+	 * @param args     The arguments that followed the command name
+	 */
+	public void run(BashTerminal terminal, String[] args) {
+		action.run(terminal, args);
+	}
+
+	/**
+	 * Returns an instance of Command
+	 * 
+	 * @param name        Name the command is entered by
+	 * @param minArgs     Least amount of arguments accepted
+	 * @param maxArgs     Most amount of arguments accepted
+	 * @param allowsPaths True if arguments may contain '/'
+	 * @param action      The code that runs the command
+	 */
+	public Command(String name, int minArgs, int maxArgs, boolean allowsPaths, Action action) {
+		this.name = name;
+		this.minArgs = minArgs;
+		this.maxArgs = maxArgs;
+		this.allowsPaths = allowsPaths;
+		this.action = action;
+	}
+}
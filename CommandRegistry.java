@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The <code>CommandRegistry</code> class maps command names to the commands
+ * they run. Each entered line is split into words once and dispatched through a
+ * table lookup on its first word. Every dispatched command is timed, and
+ * rejected lines are counted as errors of the command they name.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class CommandRegistry {
+	private static final String[] NO_WORDS = new String[0];
+	private static final String UNKNOWN_COMMAND = "(unknown)"; // Statistics name of unregistered commands
+
+	private final Map<String, Registered> commands; // Commands keyed by name
+	private final OperationStatistics statistics; // Latencies and errors of each command
+	private final OperationStatistics.Operation unknownCommands; // Lines naming no registered command
+
+	/**
+	 * Adds a command to this registry, replacing any command of the same name.
+	 * 
+	 * @param command The command to add
+	 */
+	public void register(Command command) {
+		commands.put(command.getName(), new Registered(command, statistics.operation(command.getName())));
+	}
+
+	/**
+	 * @return The latencies and errors of the commands dispatched by this registry
+	 */
+	public OperationStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Runs the command entered on the specified line.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>If the line names a registered command and its arguments match the
+	 * command's spec, the command has been run.</dd>
+	 * </dl>
+	 * 
+	 * @param terminal The terminal session the line was entered in
+	 * @param line     The line entered by the user
+	 * @return True if a command was run, false if the line is not a valid command
+	 */
+	public boolean dispatch(BashTerminal terminal, String line) {
+		String[] words = tokenize(line);
+		if (words.length == 0) {
+			return false;
+		}
+		Registered registered = commands.get(words[0]);
+		if (registered == null) {
+			unknownCommands.recordError("UnknownCommand");
+			return false;
+		}
+		String[] args = Arrays.copyOfRange(words, 1, words.length);
+		if (!registered.command.accepts(args)) {
+			registered.statistics.recordError("InvalidArguments");
+			return false;
+		}
+		long start = System.nanoTime();
+		try {
+			registered.command.run(terminal, args);
+		} catch (RuntimeException e) {
+			registered.statistics.recordError(e);
+			throw e;
+		} finally {
+			registered.statistics.recordSince(start);
+		}
+		return true;
+	}
+
+	/**
+	 * Splits a line into the words separated by whitespace.
+	 * 
+	 * @param line The line to split
+	 * @return The words of the line, without empty strings
+	 */
+	public static String[] tokenize(String line) {
+		int count = 0;
+		String[] words = NO_WORDS;
+		int length = line.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < length && !Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i > start) {
+				if (count == words.length) {
+					words = Arrays.copyOf(words, Math.max(4, count * 2));
+				}
+				words[count++] = line.substring(start, i);
+			}
+		}
+		return count == words.length ? words : Arrays.copyOf(words, count);
+	}
+
+	/**
+	 * The <code>Registered</code> class pairs a command with its statistics so a
+	 * dispatch finds both with one lookup.
+	 */
+	private static class Registered {
+		private final Command command; // The registered command
+		private final OperationStatistics.Operation statistics; // The command's latencies and errors
+
+		/**
+		 * Returns an instance of Registered
+		 * 
+		 * @param command    The registered command
+		 * @param statistics The command's latencies and errors
+		 */
+		private Registered(Command command, OperationStatistics.Operation statistics) {
+			this.command = command;
+			this.statistics = statistics;
+		}
+	}
+
+	/**
+	 * Returns an instance of CommandRegistry with no commands.
+	 */
+	public CommandRegistry() {
+		commands = new HashMap<>();
+		statistics = new OperationStatistics();
+		unknownCommands = statistics.operation(UNKNOWN_COMMAND);
+	}
+}
@@ -0,0 +1,561 @@
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The <code>CompactDirectoryTree</code> class offers the cursor operations of
+ * <code>DirectoryTree</code> over a <code>NodeStore</code>, where a node is an
+ * int ID into primitive columns rather than an object. A node costs a few dozen
+ * bytes instead of a few hundred, and walks follow int indexes rather than
+ * pointers, which suits trees too large for one object per node.
+ * 
+ * <p>
+ * Readers share a lock and writers hold it exclusively. The cursor belongs to
+ * the thread that moves it. Nodes are returned as IDs, which stay valid for the
+ * life of the tree.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class CompactDirectoryTree {
+	private static final int PRINT_BUFFER_SIZE = 1 << 16; // Characters collected before each write
+	private static final int CANCEL_CHECK_INTERVAL = 1024; // Nodes printed between cancellation checks
+
+	private final NodeStore store; // The nodes of the tree
+	private final StampedLock lock = new StampedLock(); // Shared by readers, held alone by writers
+	private int cursor; // The node the cursor points to
+
+	/**
+	 * @return The root of this instance
+	 */
+	public int getRoot() {
+		return store.getRoot();
+	}
+
+	/**
+	 * @return The node the cursor of this instance points to
+	 */
+	public int getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @param cursor The node the cursor should point to
+	 */
+	public void setCursor(int cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return The number of nodes in this instance, including the root
+	 */
+	public int getNodeCount() {
+		long stamp = lock.readLock();
+		try {
+			return store.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return The bytes reserved for the nodes of this instance, on or off the
+	 *         heap
+	 */
+	public long getMemoryUsage() {
+		long stamp = lock.readLock();
+		try {
+			return store.getMemoryUsage();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The name of the node
+	 */
+	public String getName(int node) {
+		long stamp = lock.readLock();
+		try {
+			return store.getName(node);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Moves the cursor to the root of the system.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor now points to the root</dd>
+	 * </dl>
+	 */
+	public void resetCursor() {
+		cursor = store.getRoot();
+	}
+
+	/**
+	 * Looks up a child of a directory.
+	 * 
+	 * @param directory The directory to look in
+	 * @param name      The name of the child
+	 * @return The child, or <code>NodeStore.NONE</code> if there is none
+	 */
+	public int lookupChild(int directory, String name) {
+		byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+		long stamp = lock.readLock();
+		try {
+			return store.findChild(directory, encoded);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Moves the cursor to the specified child.
+	 * 
+	 * @param name The name of the node to go to
+	 * @throws NotADirectoryException  If the target is not a directory
+	 * @throws UnresolvedPathException If the child cannot be found
+	 */
+	public void goToChild(String name) throws NotADirectoryException, UnresolvedPathException {
+		long stamp = lock.readLock();
+		try {
+			int child = store.findChild(cursor, name);
+			if (child == NodeStore.NONE) {
+				throw new UnresolvedPathException("There is no such child.");
+			} else if (store.isFile(child)) {
+				throw new NotADirectoryException("You cannot move to a file.");
+			}
+			cursor = child;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Moves the cursor through the specified path. If any part of the path cannot
+	 * be followed, the cursor does not move.
+	 * 
+	 * @param path The path to move through
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public void changeDirectory(String path) throws NotADirectoryException, UnresolvedPathException {
+		long stamp = lock.readLock();
+		try {
+			cursor = resolve(cursor, path);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Moves the cursor up to its parent directory. If the cursor is at the root,
+	 * this does nothing.
+	 */
+	public void goToParent() {
+		long stamp = lock.readLock();
+		try {
+			int parent = store.getParent(cursor);
+			if (parent != NodeStore.NONE) {
+				cursor = parent;
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return The path of the cursor, starting with the root's name
+	 */
+	public String presentWorkingDirectory() {
+		return getPath(cursor);
+	}
+
+	/**
+	 * Builds the path of a node from the names of its ancestors.
+	 * 
+	 * @param node A node ID
+	 * @return The path of the node, starting with the root's name, or null if the
+	 *         node is not in the tree
+	 */
+	public String getPath(int node) {
+		long stamp = lock.readLock();
+		try {
+			return buildPath(node);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Creates a new directory in the cursor.
+	 * 
+	 * @param name The name of the new directory
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the cursor does not have more room for a
+	 *                                   directory.
+	 * @throws NotADirectoryException    If the cursor is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 */
+	public void makeDirectory(String name)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException {
+		insertChild(cursor, name, false);
+	}
+
+	/**
+	 * Creates a new file in the cursor.
+	 * 
+	 * @param name The name of the new file
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the cursor does not have more room for a
+	 *                                   file.
+	 * @throws NotADirectoryException    If the cursor is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 */
+	public void makeFile(String name)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException {
+		insertChild(cursor, name, true);
+	}
+
+	/**
+	 * Creates a node in a directory.
+	 * 
+	 * @param directory The directory to add the node to
+	 * @param name      The name of the new node
+	 * @param isFile    True to create a file, false to create a directory
+	 * @return The ID of the new node
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the directory is full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 */
+	public int insertChild(int directory, String name, boolean isFile)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException {
+		name = name.trim();
+		if (name.indexOf("/") != -1 || name.indexOf(" ") != -1) {
+			throw new IllegalArgumentException("File name should not have whitespace or '/' characters.");
+		}
+		byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+		long stamp = lock.writeLock();
+		try {
+			checkRoomFor(directory, encoded);
+			return store.add(directory, name, isFile);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Moves the node located at sourcePath to targetPath, with both paths relative
+	 * to the cursor.
+	 * 
+	 * @param sourcePath The source of the node
+	 * @param targetPath The destination of the node
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If the sourcePath or targetPath are
+	 *                                   invalid, or the target is inside the
+	 *                                   source.
+	 * @throws FullDirectoryException    If the directory at targetPath is already
+	 *                                   full.
+	 * @throws ConflictingNamesException If a node of the same type and name already
+	 *                                   exists
+	 */
+	public void moveDirectory(String sourcePath, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		int split = sourcePath.lastIndexOf('/');
+		byte[] sourceName = sourcePath.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+		long stamp = lock.writeLock();
+		try {
+			// The target is resolved first, so a failure is reported as DirectoryTree does
+			int target = resolve(cursor, targetPath);
+			int sourceParent = split == -1 ? cursor : resolve(cursor, sourcePath.substring(0, split));
+			int source = store.findChild(sourceParent, sourceName);
+			if (source == NodeStore.NONE) {
+				throw new UnresolvedPathException("That node does not exist.");
+			}
+			// A node moved into its own parent only goes to the end of the children
+			boolean changesParent = store.getParent(source) != target;
+			if (changesParent && store.findChild(target, sourceName) != NodeStore.NONE) {
+				throw new ConflictingNamesException("You cannot have two nodes of the same type and name.");
+			}
+			for (int node = target; node != NodeStore.NONE; node = store.getParent(node)) {
+				if (node == source) {
+					throw new UnresolvedPathException("A node cannot be moved inside itself.");
+				}
+			}
+			if (changesParent) {
+				checkRoomFor(target, sourceName);
+			}
+			store.detach(source);
+			store.attach(source, target);
+		} catch (NotADirectoryException e) {
+			throw new NotADirectoryException("The target path does not resolve to a directory.");
+		} catch (UnresolvedPathException e) {
+			throw new UnresolvedPathException("The target or source path is invalid");
+		} catch (FullDirectoryException e) {
+			throw new FullDirectoryException("The directory at the target path is full.");
+		} catch (ConflictingNamesException e) {
+			throw new ConflictingNamesException("You cannot have two nodes of the same type and name.");
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Returns a string listing all the children of the cursor. Names are separated
+	 * by spaces " ".
+	 * 
+	 * @return A formatted string of the children's names
+	 */
+	public String listDirectory() {
+		StringBuilder names = new StringBuilder();
+		long stamp = lock.readLock();
+		try {
+			for (int child = store.getFirstChild(cursor); child != NodeStore.NONE; child = store
+					.getNextSibling(child)) {
+				if (names.length() > 0) {
+					names.append(' ');
+				}
+				names.append(store.getName(child));
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return names.toString();
+	}
+
+	/**
+	 * Returns the paths of every node with the specified name. The name columns
+	 * are scanned in ID order, which is the order the nodes were created in.
+	 * 
+	 * @param name Name of the desired nodes
+	 * @return The paths of the matching nodes, in the order they were created
+	 */
+	public List<String> findAll(String name) {
+		byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+		List<String> paths = new ArrayList<>();
+		long stamp = lock.readLock();
+		try {
+			int count = store.size();
+			for (int node = 0; node < count; node++) {
+				if (store.hasName(node, encoded)) {
+					String path = buildPath(node);
+					if (path != null) {
+						paths.add(path);
+					}
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return paths;
+	}
+
+	/**
+	 * Finds the first node with the specified name.
+	 * 
+	 * @param name Name of the desired node
+	 * @return The path of the node, or an empty string if there is none
+	 */
+	public String find(String name) {
+		List<String> paths = findAll(name);
+		return paths.isEmpty() ? "" : paths.get(0);
+	}
+
+	/**
+	 * Writes out the directory tree of a node in the same format as
+	 * <code>DirectoryTree</code>. The walk follows child and sibling links, so it
+	 * needs no stack however deep the tree is.
+	 * 
+	 * @param node      The node to start from.
+	 * @param depth     The depth of the node, which sets its indentation.
+	 * @param maxDepth  The most levels below the node to write.
+	 * @param out       Where the tree is written
+	 * @param cancelled Checked periodically; the traversal stops once it returns
+	 *                  true
+	 * @return True if the whole tree was written, false if it was cancelled
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	public boolean printDirectoryTree(int node, int depth, int maxDepth, Appendable out, BooleanSupplier cancelled)
+			throws IOException {
+		String lineSeparator = System.lineSeparator();
+		StringBuilder buffer = new StringBuilder(PRINT_BUFFER_SIZE);
+		ArrayList<String> indents = new ArrayList<>();
+		indents.add("");
+		long stamp = lock.readLock();
+		try {
+			int current = node;
+			int level = 0;
+			int printed = 0;
+			while (true) {
+				while (indents.size() <= depth + level) {
+					indents.add(indents.get(indents.size() - 1) + "    ");
+				}
+				buffer.append(indents.get(depth + level)).append(store.isFile(current) ? " " : "|").append("- ")
+						.append(store.getName(current)).append(lineSeparator);
+				if (buffer.length() >= PRINT_BUFFER_SIZE) {
+					out.append(buffer);
+					buffer.setLength(0);
+				}
+				if (++printed % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+					out.append(buffer);
+					return false;
+				}
+				int firstChild = store.getFirstChild(current);
+				if (level < maxDepth && firstChild != NodeStore.NONE) {
+					current = firstChild;
+					level++;
+					continue;
+				}
+				// Climb until a node with a next sibling is found below the start
+				while (level > 0 && store.getNextSibling(current) == NodeStore.NONE) {
+					current = store.getParent(current);
+					level--;
+				}
+				if (level == 0) {
+					break;
+				}
+				current = store.getNextSibling(current);
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		out.append(buffer);
+		return true;
+	}
+
+	/**
+	 * Copies a version of a <code>DirectoryTree</code> into a new compact tree.
+	 * Children keep their order.
+	 * 
+	 * @param version The version to copy
+	 * @param offHeap True to keep the new tree outside the Java heap
+	 * @return The new tree, with its cursor at the root
+	 */
+	public static CompactDirectoryTree copyOf(TreeVersion version, boolean offHeap) {
+		PersistentNode root = version.getRoot();
+		CompactDirectoryTree tree = new CompactDirectoryTree(root.getName(), offHeap);
+		ArrayDeque<PersistentNode> nodes = new ArrayDeque<>();
+		ArrayDeque<Integer> parents = new ArrayDeque<>();
+		for (PersistentNode child : root.getChildren()) {
+			nodes.add(child);
+			parents.add(tree.getRoot());
+		}
+		while (!nodes.isEmpty()) {
+			PersistentNode node = nodes.poll();
+			int id = tree.store.add(parents.poll(), node.getName(), node.isFile());
+			for (PersistentNode child : node.getChildren()) {
+				nodes.add(child);
+				parents.add(id);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Checks that a node with the specified name can be added to a directory.
+	 * Callers hold the lock.
+	 * 
+	 * @param directory The directory
+	 * @param name      The name of the node, encoded as UTF-8
+	 * @throws FullDirectoryException    If the directory is full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 */
+	private void checkRoomFor(int directory, byte[] name)
+			throws FullDirectoryException, NotADirectoryException, ConflictingNamesException {
+		if (store.getChildrenCount(directory) >= DirectoryNode.getDefaultChildLimit()) {
+			throw new FullDirectoryException("No more children can be added to this node.");
+		} else if (store.isFile(directory)) {
+			throw new NotADirectoryException("A file cannot have children.");
+		} else if (store.findChild(directory, name) != NodeStore.NONE) {
+			throw new ConflictingNamesException("You cannot have two files or two directories with the same name.");
+		}
+	}
+
+	/**
+	 * Follows a path of directories. Callers hold the lock.
+	 * 
+	 * @param from The directory the path starts from
+	 * @param path The path to follow
+	 * @return The directory the path leads to
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	private int resolve(int from, String path) throws NotADirectoryException, UnresolvedPathException {
+		int node = from;
+		for (String name : path.split("/")) {
+			int child = store.findChild(node, name);
+			if (child == NodeStore.NONE) {
+				throw new UnresolvedPathException("The path is invalid.");
+			} else if (store.isFile(child)) {
+				throw new NotADirectoryException("You cannot move to a file.");
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Builds the path of a node. Callers hold the lock.
+	 * 
+	 * @param node A node ID
+	 * @return The path of the node, or null if it is not in the tree
+	 */
+	private String buildPath(int node) {
+		int root = store.getRoot();
+		ArrayDeque<String> names = new ArrayDeque<>();
+		int current = node;
+		for (; current != NodeStore.NONE && current != root; current = store.getParent(current)) {
+			names.push(store.getName(current));
+		}
+		if (current == NodeStore.NONE) {
+			return null;
+		}
+		StringBuilder path = new StringBuilder(store.getName(root));
+		for (String name : names) {
+			path.append('/').append(name);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Returns an instance of CompactDirectoryTree
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The tree contains a single directory named "root", and the cursor
+	 * points to it</dd>
+	 * </dl>
+	 * 
+	 * @param offHeap True to keep the nodes outside the Java heap
+	 */
+	public CompactDirectoryTree(boolean offHeap) {
+		this("root", offHeap);
+	}
+
+	/**
+	 * Returns an instance of CompactDirectoryTree
+	 * 
+	 * @param rootName The name of the root directory
+	 * @param offHeap  True to keep the nodes outside the Java heap
+	 */
+	private CompactDirectoryTree(String rootName, boolean offHeap) {
+		store = new NodeStore(rootName, offHeap);
+		cursor = store.getRoot();
+	}
+}
@@ -3,6 +3,11 @@
  * <code>ConflictingNamesException</code> is thrown when there is an attempt to
  * make two nodes of the same type and name.
  *
+ * <p>
+ * The exception is thrown for ordinary outcomes, such as a name that is already
+ * taken, so it does not fill in a stack trace.
+ * </p>
+ *
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
@@ -13,7 +18,7 @@ public class ConflictingNamesException extends Exception {
 	 * Returns an instance of <code>ConflictingNamesException</code>.
 	 */
 	public ConflictingNamesException() {
-		super();
+		this(null);
 	}
 
 	/**
@@ -23,6 +28,6 @@ public class ConflictingNamesException extends Exception {
 	 * @param message The message that accompanies the error.
 	 */
 	public ConflictingNamesException(String message) {
-		super(message);
+		super(message, null, false, false);
 	}
 }
\ No newline at end of file
@@ -1,59 +1,190 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * The <code>DirectoryNode</code> class represents a node in the file tree.
+ * Names are kept as IDs from the <code>NameDictionary</code>, so nodes with the
+ * same name share one string and children are compared by ID.
+ * 
+ * <p>
+ * A directory copied from a <code>PersistentNode</code> does not build its
+ * children until they are first used. Until then it only holds the persistent
+ * node, which it shares with the tree version it was copied from, so copying
+ * a large subtree takes the same time as copying an empty one.
+ * </p>
+ * 
+ * <p>
+ * The first time a directory's children are asked for in sorted order, it
+ * sorts them into an index of child positions: its directories by name, then
+ * its files by name. From then on, adding children keeps the index sorted, so
+ * prefix and range queries only cost a binary search plus the children they
+ * return. Removing a child drops the index until it is next needed, so
+ * emptying a directory does not sort it again after every removal.
+ * </p>
+ * 
+ * <p>
+ * Children are kept in the order they were added. They fill a run of the child
+ * array that need not start at its first slot. Removing a child closes the gap
+ * by moving whichever side of it holds fewer children, and points the moved
+ * children's slots of the name table at their new places, so removing the
+ * first or the last child moves nothing and no removal moves more than half of
+ * the children. Adding a child when the run reaches the end of the array moves
+ * the run back to the front, growing the array if more than half of it is used.
+ * </p>
+ * 
+ * <p>
+ * Every node counts the files and directories below it and the depth of its
+ * deepest branch. Adding or removing a child updates the counts of each
+ * ancestor, so they can be read at any time without walking the subtree. The
+ * counts are updated atomically, so children can be added to different
+ * directories of one tree at the same time. Removing a child must not run at
+ * the same time as any other change to the same tree.
+ * </p>
+ * 
+ * <p>
+ * A file also keeps its size and the times it was created and last modified.
+ * Nothing here sets them; the tree and the importers do. Directories leave them
+ * at 0.
+ * </p>
  * 
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
 public class DirectoryNode {
-	private final static int MAX_CHILDREN = 10; // Max amount of children per node
-	private String name; // Name of the node
-	private DirectoryNode[] children; // Array of children
-	private String[] childrenNames; // Array of children Names
+	private final static DirectoryNode[] NO_CHILDREN = new DirectoryNode[0];
+	private final static int INITIAL_CAPACITY = 4; // Capacity of the first child array
+	private final static int LINEAR_SCAN_LIMIT = 8; // Children scanned without a hash table
+	private final static int INSERTION_SORT_LIMIT = 16; // Runs of the sorted index sorted by insertion
+	private final static AtomicIntegerFieldUpdater<DirectoryNode> DESCENDANT_FILES = AtomicIntegerFieldUpdater
+			.newUpdater(DirectoryNode.class, "descendantFileCount");
+	private final static AtomicIntegerFieldUpdater<DirectoryNode> DESCENDANT_DIRECTORIES = AtomicIntegerFieldUpdater
+			.newUpdater(DirectoryNode.class, "descendantDirectoryCount");
+	private final static AtomicIntegerFieldUpdater<DirectoryNode> MAX_DEPTH = AtomicIntegerFieldUpdater
+			.newUpdater(DirectoryNode.class, "maxDepth");
+	private final static AtomicLong SERIALS = new AtomicLong(); // Hands out the serial of each node
+	private static int defaultChildLimit = Integer.MAX_VALUE; // Limit given to new nodes
+
+	private final long serial = SERIALS.getAndIncrement(); // Tells apart nodes with equal attributes
+	private int nameId; // Dictionary ID of the name of the node
+	private int nameIndexSlot; // Where the node sits among the nodes with its name in a NameIndex
+	private DirectoryNode[] children; // Array of children, in insertion order
+	private int[] childrenNameIds; // Dictionary IDs of the children's names
+	private int childrenStart; // Place in the arrays of the first child
+	private int[] childTable; // Open-addressing table of (child place + 1), 0 if empty
+	private volatile SortedIndex sortedIndex; // Children sorted by type and name, or null until first needed
 	private DirectoryNode parent; // The parent of this node
 	private int childrenCount; // Number of children
+	private int childLimit; // Max amount of children for this node
 	private boolean isFile; // True if node is file, false otherwise
+	private volatile PendingChildren pendingChildren; // Children not built yet, or null
+	private volatile int descendantFileCount; // Files anywhere below the node
+	private volatile int descendantDirectoryCount; // Directories anywhere below the node
+	private volatile int maxDepth; // Levels below the node in its deepest branch
+	private long size; // Size of a file, in bytes
+	private long creationTime; // When a file was created, in milliseconds since the epoch
+	private long modificationTime; // When a file was last modified, in milliseconds since the epoch
+
+	/**
+	 * @return The child limit given to newly created nodes
+	 */
+	public static int getDefaultChildLimit() {
+		return defaultChildLimit;
+	}
+
+	/**
+	 * @param limit The new child limit to give to newly created nodes
+	 * @throws IllegalArgumentException If the limit is not positive
+	 */
+	public static void setDefaultChildLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The child limit must be positive.");
+		}
+		defaultChildLimit = limit;
+	}
 
 	/**
 	 * @return The name of this instance
 	 */
 	public String getName() {
-		return name;
+		return nameId == NameDictionary.NO_ID ? null : NameDictionary.nameOf(nameId);
 	}
 
 	/**
-	 * @param name The new name to set
+	 * Sets the name of a node that is being built. A node is never renamed once
+	 * built, since its parent's name table and any <code>NameIndex</code> holding
+	 * it are keyed by its name.
+	 * 
+	 * @param name The name to set
 	 */
-	public void setName(String name) {
-		this.name = name;
+	private void setName(String name) {
+		this.nameId = name == null ? NameDictionary.NO_ID : NameDictionary.intern(name);
 	}
 
 	/**
-	 * @return The children of this instance
+	 * @return A number no other node has, which orders nodes by creation
 	 */
-	public DirectoryNode[] getChildren() {
-		return children;
+	long getSerial() {
+		return serial;
 	}
 
 	/**
-	 * @param children The new children to set
+	 * @return The dictionary ID of the name of this instance
 	 */
-	public void setChildren(DirectoryNode[] children) {
-		this.children = children;
+	public int getNameId() {
+		return nameId;
 	}
 
 	/**
-	 * @return The childrenNames of this instance
+	 * @return Where this instance sits among the nodes with its name in the
+	 *         <code>NameIndex</code> holding it
 	 */
-	public String[] getChildrenNames() {
-		return childrenNames;
+	int getNameIndexSlot() {
+		return nameIndexSlot;
 	}
 
 	/**
-	 * @param childrenNames The new childrenNames to set
+	 * @param nameIndexSlot Where this instance now sits among the nodes with its
+	 *                      name in the <code>NameIndex</code> holding it
 	 */
-	public void setChildrenNames(String[] childrenNames) {
-		this.childrenNames = childrenNames;
+	void setNameIndexSlot(int nameIndexSlot) {
+		this.nameIndexSlot = nameIndexSlot;
+	}
+
+	/**
+	 * Copies the children of this instance. This never throws if another thread
+	 * changes the children while it runs; the copy is then only meaningful if no
+	 * change happened.
+	 * 
+	 * @return The children of this instance, in order
+	 */
+	public DirectoryNode[] getChildren() {
+		buildPendingChildren();
+		DirectoryNode[] nodes = children;
+		int start = childrenStart;
+		int count = childrenCount;
+		if (nodes == null || count <= 0 || start >= nodes.length) {
+			return NO_CHILDREN;
+		}
+		return Arrays.copyOfRange(nodes, start, Math.min(start + count, nodes.length));
+	}
+
+	/**
+	 * Gets a child by its place among the children.
+	 * 
+	 * <dl>
+	 * <dt>Preconditions:</dt>
+	 * <dd>0 &lt;= index &lt; <code>getChildrenCount()</code>, and no other thread
+	 * changes the children while this runs.</dd>
+	 * </dl>
+	 * 
+	 * @param index The index of the child
+	 * @return The child
+	 */
+	public DirectoryNode getChildAt(int index) {
+		buildPendingChildren();
+		return children[childrenStart + index];
 	}
 
 	/**
@@ -74,14 +205,96 @@ public class DirectoryNode {
 	 * @return The childrenCount of this instance
 	 */
 	public int getChildrenCount() {
+		buildPendingChildren();
 		return childrenCount;
 	}
 
 	/**
-	 * @param childrenCount The new childrenCount to set
+	 * @return The number of files anywhere below this instance
 	 */
-	public void setChildrenCount(int childrenCount) {
-		this.childrenCount = childrenCount;
+	public int getDescendantFileCount() {
+		return descendantFileCount;
+	}
+
+	/**
+	 * @return The number of directories anywhere below this instance
+	 */
+	public int getDescendantDirectoryCount() {
+		return descendantDirectoryCount;
+	}
+
+	/**
+	 * @return The number of levels below this instance in its deepest branch, 0 if
+	 *         it has no children
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return The size of this file in bytes, 0 for a directory
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param size The new size of this file, in bytes
+	 * @throws IllegalArgumentException If the size is negative
+	 */
+	public void setSize(long size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("The size cannot be negative.");
+		}
+		this.size = size;
+	}
+
+	/**
+	 * @return When this file was created, in milliseconds since the epoch
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @param creationTime When this file was created, in milliseconds since the
+	 *                     epoch
+	 */
+	public void setCreationTime(long creationTime) {
+		this.creationTime = creationTime;
+	}
+
+	/**
+	 * @return When this file was last modified, in milliseconds since the epoch
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @param modificationTime When this file was last modified, in milliseconds
+	 *                         since the epoch
+	 */
+	public void setModificationTime(long modificationTime) {
+		this.modificationTime = modificationTime;
+	}
+
+	/**
+	 * @return The max amount of children this instance can hold
+	 */
+	public int getChildLimit() {
+		return childLimit;
+	}
+
+	/**
+	 * @param childLimit The new max amount of children this instance can hold
+	 * @throws IllegalArgumentException If the limit is not positive
+	 */
+	public void setChildLimit(int childLimit) {
+		if (childLimit < 1) {
+			throw new IllegalArgumentException("The child limit must be positive.");
+		}
+		this.childLimit = childLimit;
 	}
 
 	/**
@@ -99,8 +312,9 @@ public class DirectoryNode {
 	}
 
 	/**
-	 * Adds the specified node as a child to the first available position in
-	 * <code>children</code>.
+	 * Adds the specified node as a child after the existing children. The child
+	 * array grows as needed, so the node can only be full once it holds
+	 * <code>getChildLimit()</code> children.
 	 * 
 	 * <dl>
 	 * <dt>Preconditions:</dt>
@@ -122,64 +336,685 @@ public class DirectoryNode {
 	 */
 	public void addChild(DirectoryNode node)
 			throws NotADirectoryException, FullDirectoryException, ConflictingNamesException {
-		if (childrenCount == MAX_CHILDREN) {
-			throw new FullDirectoryException("No more children can be added to this node.");
+		TreeResult result = new TreeResult();
+		switch (tryAddChild(node, result)) {
+		case TreeResult.FULL_DIRECTORY:
+			throw new FullDirectoryException(result.getMessage());
+		case TreeResult.NOT_A_DIRECTORY:
+			throw new NotADirectoryException(result.getMessage());
+		case TreeResult.CONFLICTING_NAMES:
+			throw new ConflictingNamesException(result.getMessage());
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Adds the specified node as a child after the existing children, like
+	 * <code>addChild</code>, but reports a failure in a result instead of
+	 * throwing.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>If the status is OK, the node has been added as a child and is the
+	 * result's node. Otherwise nothing has changed.</dd>
+	 * </dl>
+	 * 
+	 * @param node   The node to add
+	 * @param result Overwritten with the outcome
+	 * @return OK, FULL_DIRECTORY, NOT_A_DIRECTORY or CONFLICTING_NAMES
+	 */
+	int tryAddChild(DirectoryNode node, TreeResult result) {
+		buildPendingChildren();
+		if (childrenCount >= childLimit) {
+			return result.fail(TreeResult.FULL_DIRECTORY, "No more children can be added to this node.");
 		} else if (isFile) {
-			throw new NotADirectoryException("A file cannot have children.");
-		} else if (getChildIndex(node.getName()) != -1) {
-			throw new ConflictingNamesException("You cannot have two files or two directories with the same name.");
+			return result.fail(TreeResult.NOT_A_DIRECTORY, "A file cannot have children.");
+		} else if (getChildIndex(node.nameId) != -1) {
+			return result.fail(TreeResult.CONFLICTING_NAMES,
+					"You cannot have two files or two directories with the same name.");
+		}
+		if (children == null) {
+			children = new DirectoryNode[INITIAL_CAPACITY];
+			childrenNameIds = new int[INITIAL_CAPACITY];
+		} else if (childrenStart + childrenCount == children.length) {
+			int start = childrenStart;
+			int capacity = childrenCount * 2 > children.length ? childrenCount * 2 : children.length;
+			children = Arrays.copyOfRange(children, start, start + capacity);
+			childrenNameIds = Arrays.copyOfRange(childrenNameIds, start, start + capacity);
+			childrenStart = 0;
+			if (start > 0 && childTable != null) {
+				rebuildChildTable();
+			}
+		}
+		SortedIndex sorted = sortedIndex;
+		if (sorted != null) {
+			sortedIndex = sorted.with(findSortedPosition(sorted, node.getName(), node.isFile, false), childrenCount,
+					node.isFile);
 		}
-		children[childrenCount] = node;
-		childrenNames[childrenCount] = node.getName();
+		int position = childrenStart + childrenCount;
+		children[position] = node;
+		childrenNameIds[position] = node.nameId;
 		node.setParent(this);
 		childrenCount += 1;
+		if (childTable != null && childrenCount * 2 <= childTable.length) {
+			insertIntoTable(childTable, node.nameId, position);
+		} else if (childrenCount > LINEAR_SCAN_LIMIT) {
+			rebuildChildTable();
+		}
+		addToAncestors(node);
+		return result.succeed(node);
+	}
+
+	/**
+	 * Adds a new child's subtree to the counts of this node and every ancestor.
+	 * 
+	 * @param child The child that was added
+	 */
+	private void addToAncestors(DirectoryNode child) {
+		int files = child.descendantFileCount + (child.isFile ? 1 : 0);
+		int directories = child.descendantDirectoryCount + (child.isFile ? 0 : 1);
+		int depth = child.maxDepth + 1;
+		for (DirectoryNode ancestor = this; ancestor != null; ancestor = ancestor.parent, depth++) {
+			DESCENDANT_FILES.addAndGet(ancestor, files);
+			DESCENDANT_DIRECTORIES.addAndGet(ancestor, directories);
+			int current = ancestor.maxDepth;
+			while (current < depth && !MAX_DEPTH.compareAndSet(ancestor, current, depth)) {
+				current = ancestor.maxDepth;
+			}
+		}
+	}
+
+	/**
+	 * Takes a removed child's subtree out of the counts of this node and every
+	 * ancestor. A depth is only worked out again from the children while it is
+	 * shrinking, so most removals only touch the counts.
+	 * 
+	 * @param child The child that was removed
+	 */
+	private void removeFromAncestors(DirectoryNode child) {
+		int files = child.descendantFileCount + (child.isFile ? 1 : 0);
+		int directories = child.descendantDirectoryCount + (child.isFile ? 0 : 1);
+		int lostDepth = child.maxDepth + 1;
+		for (DirectoryNode ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+			DESCENDANT_FILES.addAndGet(ancestor, -files);
+			DESCENDANT_DIRECTORIES.addAndGet(ancestor, -directories);
+			if (lostDepth == 0) {
+				continue;
+			}
+			int oldDepth = ancestor.maxDepth;
+			if (oldDepth != lostDepth) {
+				lostDepth = 0;
+				continue;
+			}
+			// Stops at the first child as deep as the removed one, which is usually
+			// the first child checked
+			int depth = 0;
+			for (int i = 0; i < ancestor.childrenCount && depth < oldDepth; i++) {
+				depth = Math.max(depth, ancestor.children[ancestor.childrenStart + i].maxDepth + 1);
+			}
+			ancestor.maxDepth = depth;
+			lostDepth = depth == oldDepth ? 0 : oldDepth + 1;
+		}
 	}
 
 	/**
-	 * Removes a child of this DirectoryNode instance, if found.
+	 * Removes a child of this DirectoryNode instance, if found. The other
+	 * children keep their order.
 	 * 
 	 * @param name The name of the node to remove
 	 * @throws UnresolvedPathException if the node doesn't exist
 	 * @return The removed node
 	 */
 	public DirectoryNode removeChild(String name) throws UnresolvedPathException {
-		DirectoryNode removedNode = null;
+		DirectoryNode removedNode = tryRemoveChild(name);
+		if (removedNode == null) {
+			throw new UnresolvedPathException("That node does not exist.");
+		}
+		return removedNode;
+	}
+
+	/**
+	 * Removes a child of this DirectoryNode instance, if found, like
+	 * <code>removeChild</code>, but returns null instead of throwing if there is
+	 * no such child.
+	 * 
+	 * @param name The name of the node to remove
+	 * @return The removed node, or null if there was no child with the name
+	 */
+	DirectoryNode tryRemoveChild(String name) {
 		int index = getChildIndex(name);
 		if (index == -1) {
-			throw new UnresolvedPathException("That node does not exist.");
+			return null;
 		}
-		removedNode = children[index];
-		for (int i = index + 1; i < childrenCount + 1; i++) {
-			children[i - 1] = children[i];
+		int start = childrenStart;
+		int position = start + index;
+		DirectoryNode removedNode = children[position];
+		int last = childrenCount - 1;
+		// The side of the removed child with fewer children moves over the gap
+		boolean moveFront = index < last - index;
+		sortedIndex = null;
+		if (childTable != null) {
+			if (last > LINEAR_SCAN_LIMIT) {
+				removeFromTable(position, moveFront);
+			} else {
+				childTable = null;
+			}
 		}
-		childrenCount -= 1;
+		if (moveFront) {
+			System.arraycopy(children, start, children, start + 1, index);
+			System.arraycopy(childrenNameIds, start, childrenNameIds, start + 1, index);
+			children[start] = null;
+			childrenStart = last == 0 ? 0 : start + 1;
+		} else {
+			System.arraycopy(children, position + 1, children, position, last - index);
+			System.arraycopy(childrenNameIds, position + 1, childrenNameIds, position, last - index);
+			children[start + last] = null;
+			if (last == 0) {
+				childrenStart = 0;
+			}
+		}
+		childrenCount = last;
+		if (childTable != null && childrenCount * 8 < childTable.length) {
+			rebuildChildTable();
+		}
+		removedNode.setParent(null);
+		removeFromAncestors(removedNode);
 		return removedNode;
 	}
 
 	/**
-	 * Gets the index of specified child, if it exists.
+	 * Gets the index of specified child, if it exists. Small directories are
+	 * scanned directly; larger ones are looked up through a hash table of child
+	 * names.
+	 * 
+	 * <p>
+	 * This method never throws if another thread changes the children while it
+	 * runs, so it can be used for optimistic reads that are validated afterwards;
+	 * the result is only meaningful if no change happened.
+	 * </p>
 	 * 
 	 * @param name The name of the child
 	 * @return The index of the child, or -1 if not found.
 	 */
 	public int getChildIndex(String name) {
-		int index = -1;
-		for (int i = 0; i < childrenCount; i++) {
-			if (children[i].getName().equals(name)) {
-				index = i;
-				break;
+		int id = NameDictionary.lookup(name);
+		// A name that was never used cannot belong to a child
+		return id == NameDictionary.NO_ID ? -1 : getChildIndex(id);
+	}
+
+	/**
+	 * Gets the index of the child with the specified name ID, if it exists. Like
+	 * <code>getChildIndex(String)</code>, this never throws if the children
+	 * change while it runs.
+	 * 
+	 * @param nameId The dictionary ID of the name of the child
+	 * @return The index of the child, or -1 if not found.
+	 */
+	public int getChildIndex(int nameId) {
+		buildPendingChildren();
+		int start = childrenStart;
+		int position = findPosition(nameId);
+		return position < start ? -1 : position - start;
+	}
+
+	/**
+	 * Finds where the child with the specified name ID sits in the child arrays.
+	 * Like <code>getChildIndex</code>, this never throws if the children change
+	 * while it runs.
+	 * 
+	 * @param nameId The dictionary ID of the name of the child
+	 * @return The place of the child in the arrays, or -1 if not found.
+	 */
+	private int findPosition(int nameId) {
+		int[] table = childTable;
+		int[] ids = childrenNameIds;
+		if (ids == null) {
+			return -1;
+		}
+		if (table == null) {
+			int start = childrenStart;
+			int end = Math.min(start + childrenCount, ids.length);
+			for (int i = start; i < end; i++) {
+				if (ids[i] == nameId) {
+					return i;
+				}
 			}
+			return -1;
 		}
-		return index;
+		int mask = table.length - 1;
+		int slot = spread(nameId) & mask;
+		for (int probes = 0; probes < table.length; probes++, slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == 0) {
+				return -1;
+			} else if (entry <= ids.length && ids[entry - 1] == nameId) {
+				return entry - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the specified child, if it exists. Like <code>getChildIndex</code>,
+	 * this never throws if the children change while it runs.
+	 * 
+	 * @param name The name of the child
+	 * @return The child, or null if not found.
+	 */
+	public DirectoryNode getChild(String name) {
+		int id = NameDictionary.lookup(name);
+		return id == NameDictionary.NO_ID ? null : getChild(id);
+	}
+
+	/**
+	 * Gets the child with the specified name ID, if it exists.
+	 * 
+	 * @param nameId The dictionary ID of the name of the child
+	 * @return The child, or null if not found.
+	 */
+	public DirectoryNode getChild(int nameId) {
+		buildPendingChildren();
+		int position = findPosition(nameId);
+		DirectoryNode[] nodes = children;
+		return position != -1 && nodes != null && position < nodes.length ? nodes[position] : null;
+	}
+
+	/**
+	 * Gets a child by its place in the sorted child index, where the directories
+	 * come first by name and the files follow by name.
+	 * 
+	 * <dl>
+	 * <dt>Preconditions:</dt>
+	 * <dd>0 &lt;= position &lt; <code>getChildrenCount()</code>, and no other
+	 * thread changes the children while this runs.</dd>
+	 * </dl>
+	 * 
+	 * @param position The place of the child in the sorted child index
+	 * @return The child
+	 */
+	public DirectoryNode getSortedChild(int position) {
+		SortedIndex sorted = sortedIndex();
+		return children[childrenStart + sorted.order[position]];
+	}
+
+	/**
+	 * Gets the number of directories among the children, which come before the
+	 * files in the sorted child index.
+	 * 
+	 * <dl>
+	 * <dt>Preconditions:</dt>
+	 * <dd>No other thread changes the children while this runs.</dd>
+	 * </dl>
+	 * 
+	 * @return The number of child directories
+	 */
+	public int getSortedDirectoryCount() {
+		return sortedIndex().directoryCount;
+	}
+
+	/**
+	 * Finds where the children of one type whose names start with a prefix begin
+	 * or end in the sorted child index. Those children sit together, so they are
+	 * the ones from <code>findPrefix(prefix, isFile, false)</code> up to
+	 * <code>findPrefix(prefix, isFile, true)</code>. The empty prefix covers every
+	 * child of the type.
+	 * 
+	 * <dl>
+	 * <dt>Preconditions:</dt>
+	 * <dd>No other thread changes the children while this runs.</dd>
+	 * </dl>
+	 * 
+	 * @param prefix The prefix of the names
+	 * @param isFile True to search the files, false to search the directories
+	 * @param end    True for the place after the last child with the prefix, false
+	 *               for the place of the first one
+	 * @return The place in the sorted child index
+	 */
+	public int findPrefix(String prefix, boolean isFile, boolean end) {
+		return findSortedPosition(sortedIndex(), prefix, isFile, end);
+	}
+
+	/**
+	 * Binary searches one type's part of the sorted child index.
+	 * 
+	 * @param sorted The sorted child index
+	 * @param prefix The name or prefix searched for
+	 * @param isFile True to search the files, false to search the directories
+	 * @param end    True to skip past the names that start with the prefix
+	 * @return The first place whose name is not before the prefix, or, if end is
+	 *         true, the first place whose name is after every name starting with
+	 *         the prefix
+	 */
+	private int findSortedPosition(SortedIndex sorted, String prefix, boolean isFile, boolean end) {
+		int low = isFile ? sorted.directoryCount : 0;
+		int high = isFile ? sorted.order.length : sorted.directoryCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			String name = NameDictionary.nameOf(childrenNameIds[childrenStart + sorted.order[middle]]);
+			int order = name.compareTo(prefix);
+			if (order < 0 || end && name.startsWith(prefix)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the sorted child index, building it the first time it is needed.
+	 * Readers that build it at the same time each make the same index, and the
+	 * index is only published once it is complete, so a reader sees either none
+	 * or all of it.
+	 * 
+	 * @return The sorted child index
+	 */
+	private SortedIndex sortedIndex() {
+		buildPendingChildren();
+		SortedIndex sorted = sortedIndex;
+		if (sorted == null) {
+			// The directories go to the front and the files after them, then each part
+			// is sorted by name
+			int[] order = new int[childrenCount];
+			String[] names = new String[childrenCount];
+			int directories = 0;
+			for (int i = 0; i < childrenCount; i++) {
+				names[i] = NameDictionary.nameOf(childrenNameIds[childrenStart + i]);
+				if (!children[childrenStart + i].isFile) {
+					order[directories++] = i;
+				}
+			}
+			for (int i = 0, files = directories; files < childrenCount; i++) {
+				if (children[childrenStart + i].isFile) {
+					order[files++] = i;
+				}
+			}
+			int[] buffer = new int[childrenCount];
+			sortByName(order, 0, directories, names, buffer);
+			sortByName(order, directories, childrenCount, names, buffer);
+			sorted = new SortedIndex(order, directories);
+			sortedIndex = sorted;
+		}
+		return sorted;
+	}
+
+	/**
+	 * Sorts part of a list of child indexes by the names of the children. This is
+	 * a merge sort on the indexes themselves, so none of them is boxed.
+	 * 
+	 * @param order  The child indexes
+	 * @param from   The first place to sort
+	 * @param to     The place after the last one to sort
+	 * @param names  The name of each child, by index
+	 * @param buffer Scratch space as long as order
+	 */
+	private static void sortByName(int[] order, int from, int to, String[] names, int[] buffer) {
+		if (to - from <= INSERTION_SORT_LIMIT) {
+			for (int i = from + 1; i < to; i++) {
+				int index = order[i];
+				int place = i;
+				for (; place > from && names[order[place - 1]].compareTo(names[index]) > 0; place--) {
+					order[place] = order[place - 1];
+				}
+				order[place] = index;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sortByName(order, from, middle, names, buffer);
+		sortByName(order, middle, to, names, buffer);
+		if (names[order[middle - 1]].compareTo(names[order[middle]]) < 0) {
+			// Already in order, as when the children were added by name
+			return;
+		}
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right == to || left < middle && names[buffer[left]].compareTo(names[buffer[right]]) < 0) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
+	}
+
+	/**
+	 * The <code>SortedIndex</code> class is an unchanging list of a directory's
+	 * child indexes, directories first, then files, each by name. Adding a child
+	 * publishes a new list instead of editing the one readers may hold.
+	 */
+	private static final class SortedIndex {
+		private final int[] order; // Child indexes in sorted order
+		private final int directoryCount; // Directories at the front of order
+
+		/**
+		 * Makes the index with one more child.
+		 * 
+		 * @param position Where the child goes in the sorted order
+		 * @param index    The index of the child
+		 * @param isFile   True if the child is a file
+		 * @return The new index
+		 */
+		private SortedIndex with(int position, int index, boolean isFile) {
+			int[] indexes = new int[order.length + 1];
+			System.arraycopy(order, 0, indexes, 0, position);
+			indexes[position] = index;
+			System.arraycopy(order, position, indexes, position + 1, order.length - position);
+			return new SortedIndex(indexes, isFile ? directoryCount : directoryCount + 1);
+		}
+
+		/**
+		 * Returns an instance of SortedIndex
+		 * 
+		 * @param order          Child indexes in sorted order
+		 * @param directoryCount Directories at the front of order
+		 */
+		private SortedIndex(int[] order, int directoryCount) {
+			this.order = order;
+			this.directoryCount = directoryCount;
+		}
+	}
+
+	/**
+	 * @return The persistent node this instance's children will be built from, or
+	 *         null if they are already built
+	 */
+	public PersistentNode getPendingSource() {
+		PendingChildren pending = pendingChildren;
+		return pending == null ? null : pending.source;
+	}
+
+	/**
+	 * Creates a node from a persistent node. Its children are built, the same way,
+	 * the first time any of them is used, and the listener is then told about
+	 * them.
+	 * 
+	 * @param source   The persistent node to copy
+	 * @param listener Called with each node of the copy below this one once it
+	 *                 has been built. It runs on whichever thread first uses the
+	 *                 node's parent's children.
+	 * @return The copy, which has no parent
+	 */
+	public static DirectoryNode copyOf(PersistentNode source, Consumer<DirectoryNode> listener) {
+		DirectoryNode node = new DirectoryNode(source.getName(), source.isFile());
+		node.descendantFileCount = source.getDescendantFileCount();
+		node.descendantDirectoryCount = source.getDescendantDirectoryCount();
+		node.maxDepth = source.getMaxDepth();
+		node.size = source.getSize();
+		node.creationTime = source.getCreationTime();
+		node.modificationTime = source.getModificationTime();
+		if (source.getChildrenCount() > 0) {
+			node.pendingChildren = new PendingChildren(source, listener);
+		}
+		return node;
+	}
+
+	/**
+	 * Builds the children of a copied directory if they have not been built yet.
+	 * Threads that use the children at the same time wait for the first one to
+	 * finish.
+	 */
+	private void buildPendingChildren() {
+		if (pendingChildren == null) {
+			return;
+		}
+		PendingChildren pending;
+		DirectoryNode[] nodes;
+		int count;
+		synchronized (this) {
+			pending = pendingChildren;
+			if (pending == null) {
+				return;
+			}
+			PersistentNode[] sources = pending.source.getChildren();
+			nodes = new DirectoryNode[Math.max(sources.length, INITIAL_CAPACITY)];
+			int[] nameIds = new int[nodes.length];
+			for (int i = 0; i < sources.length; i++) {
+				nodes[i] = copyOf(sources[i], pending.listener);
+				nodes[i].parent = this;
+				nameIds[i] = nodes[i].nameId;
+			}
+			children = nodes;
+			childrenNameIds = nameIds;
+			childrenCount = count = sources.length;
+			if (childrenCount > LINEAR_SCAN_LIMIT) {
+				rebuildChildTable();
+			}
+			// Publishes the children to threads that read pendingChildren as null
+			pendingChildren = null;
+		}
+		for (int i = 0; i < count; i++) {
+			pending.listener.accept(nodes[i]);
+		}
+	}
+
+	/**
+	 * The <code>PendingChildren</code> class holds what a copied directory needs to
+	 * build its children later.
+	 */
+	private static class PendingChildren {
+		private final PersistentNode source; // The node the children are copied from
+		private final Consumer<DirectoryNode> listener; // Told about each child once it is built
+
+		/**
+		 * Returns an instance of PendingChildren
+		 * 
+		 * @param source   The node the children are copied from
+		 * @param listener Told about each child once it is built
+		 */
+		private PendingChildren(PersistentNode source, Consumer<DirectoryNode> listener) {
+			this.source = source;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Rebuilds the hash table of child names so that it is at most half full.
+	 */
+	private void rebuildChildTable() {
+		int capacity = Integer.highestOneBit(Math.max(childrenCount, LINEAR_SCAN_LIMIT)) * 4;
+		int[] table = new int[capacity];
+		for (int i = childrenStart; i < childrenStart + childrenCount; i++) {
+			insertIntoTable(table, childrenNameIds[i], i);
+		}
+		childTable = table;
+	}
+
+	/**
+	 * Takes a child out of the hash table of child names and points the slot of
+	 * each child on the side that moves over the gap at the place that child is
+	 * about to take. The slots after the removed one are shifted back over the
+	 * hole, so every name can still be found from its first slot.
+	 * 
+	 * @param position  The place of the removed child in the arrays
+	 * @param moveFront True if the children before the removed one move up a
+	 *                  place, false if the children after it move down
+	 */
+	private void removeFromTable(int position, boolean moveFront) {
+		int[] table = childTable;
+		int mask = table.length - 1;
+		int hole = spread(childrenNameIds[position]) & mask;
+		while (table[hole] != position + 1) {
+			hole = (hole + 1) & mask;
+		}
+		for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int home = spread(childrenNameIds[table[slot] - 1]) & mask;
+			// An entry may fill the hole only if the hole is on its probe path
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				table[hole] = table[slot];
+				hole = slot;
+			}
+		}
+		table[hole] = 0;
+		// Each child takes the value its neighbour had, so the moves go away from
+		// the gap and no two slots ever hold the same value
+		if (moveFront) {
+			for (int moved = position - 1; moved >= childrenStart; moved--) {
+				moveInTable(table, moved, moved + 1);
+			}
+		} else {
+			for (int moved = position + 1; moved < childrenStart + childrenCount; moved++) {
+				moveInTable(table, moved, moved - 1);
+			}
+		}
+	}
+
+	/**
+	 * Points a child's slot of the hash table of child names at a new place.
+	 * 
+	 * @param table The hash table of child names
+	 * @param from  The place of the child in the arrays before it moves
+	 * @param to    The place of the child in the arrays after it moves
+	 */
+	private void moveInTable(int[] table, int from, int to) {
+		int mask = table.length - 1;
+		int slot = spread(childrenNameIds[from]) & mask;
+		while (table[slot] != from + 1) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = to + 1;
+	}
+
+	/**
+	 * Stores a child index in the first free slot for its name.
+	 * 
+	 * @param table  The hash table to insert into
+	 * @param nameId The dictionary ID of the name of the child
+	 * @param index  The index of the child in <code>children</code>
+	 */
+	private static void insertIntoTable(int[] table, int nameId, int index) {
+		int mask = table.length - 1;
+		int slot = spread(nameId) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = index + 1;
+	}
+
+	/**
+	 * Scatters a name ID over the slots. IDs are handed out in order, so they are
+	 * multiplied by a large odd constant to keep runs of IDs from clustering.
+	 * 
+	 * @param nameId The name ID to spread
+	 * @return The spread hash code
+	 */
+	private static int spread(int nameId) {
+		int hash = nameId * 0x9E3779B1;
+		return hash ^ (hash >>> 16);
 	}
 
 	/**
 	 * Returns an instance of DirectoryNode
 	 */
 	public DirectoryNode() {
+		this.nameId = NameDictionary.NO_ID;
 		this.children = null;
-		this.childrenNames = null;
+		this.childrenNameIds = null;
+		this.childTable = null;
 		this.childrenCount = 0;
+		this.childLimit = defaultChildLimit;
 		this.parent = null;
 	}
 
@@ -192,12 +1027,8 @@ public class DirectoryNode {
 	 */
 	public DirectoryNode(String name, boolean isFile) {
 		this();
-		this.name = name;
+		setName(name);
 		this.isFile = isFile;
-		if (!isFile) {
-			this.children = new DirectoryNode[MAX_CHILDREN];
-			this.childrenNames = new String[MAX_CHILDREN];
-		}
 	}
 
 }
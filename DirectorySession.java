@@ -0,0 +1,707 @@
+
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * The <code>DirectorySession</code> class holds one user's position in a shared
+ * <code>DirectoryTree</code>. Many sessions can use the same tree from
+ * different threads at once, but a single session must only be used by one
+ * thread at a time.
+ * 
+ * <p>
+ * Most operations that can fail have two forms. The checked form throws an
+ * exception when it fails. The form whose name starts with <code>try</code>
+ * reports the failure in a <code>TreeResult</code> instead, so a caller that
+ * expects many misses, such as one probing for paths, does not pay for an
+ * exception each time. The checked forms call the <code>try</code> forms.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class DirectorySession {
+	private final DirectoryTree tree; // The tree this session moves through
+	private DirectoryNode cursor; // A pointer that can move throughout the tree
+	private DirectoryNode workingDirectoryNode; // The node workingDirectory was built for
+	private String workingDirectory; // The path of workingDirectoryNode, built on demand
+	private int workingDirectoryVersion; // The tree's structure version when it was built
+	private final OperationStatistics.Operation changeDirectoryStatistics; // Paths followed by cd
+
+	/**
+	 * @return The tree of this instance
+	 */
+	public DirectoryTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * @return The cursor of this instance
+	 */
+	public DirectoryNode getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @param cursor The new cursor to set
+	 */
+	public void setCursor(DirectoryNode cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Returns the path of the cursor. The path is built from the cursor's parent
+	 * pointers the first time it is asked for, and is reused until the cursor
+	 * moves or a node is moved within the tree. If the cursor's directory has
+	 * been removed, the cursor goes back to the root.
+	 *
+	 * @return The workingDirectory of this instance
+	 */
+	public String presentWorkingDirectory() {
+		int version = tree.getStructureVersion();
+		if (workingDirectoryNode != cursor || workingDirectoryVersion != version) {
+			workingDirectory = tree.getPath(cursor);
+			if (workingDirectory == null) {
+				resetCursor();
+				workingDirectory = tree.getPath(cursor);
+			}
+			workingDirectoryNode = cursor;
+			workingDirectoryVersion = version;
+		}
+		return workingDirectory;
+	}
+
+	/**
+	 * Moves the cursor to the root of the system.
+	 *
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor now points to the root</dd>
+	 * </dl>
+	 */
+	public void resetCursor() {
+		cursor = tree.getRoot();
+	}
+
+	/**
+	 * Moves the cursor to the specified child.
+	 *
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor now points to the appropriate child. If the name was not a
+	 * directory, a NotADirectoryException hs been thrown</dd>
+	 * </dl>
+	 *
+	 * @param name The name of the node to go to
+	 * @throws NotADirectoryException  If the target is not a directory
+	 * @throws UnresolvedPathException If the child cannot be found
+	 */
+	public void goToChild(String name) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryGoToChild(name, result);
+		result.checkPath();
+	}
+
+	/**
+	 * Moves the cursor to the specified child, like <code>goToChild</code>, but
+	 * reports a failure in a result instead of throwing. The cursor only moves if
+	 * the status is OK.
+	 *
+	 * @param name   The name of the node to go to
+	 * @param result Overwritten with the outcome, and the child if the status is
+	 *               OK
+	 * @return OK, UNRESOLVED_PATH if the child cannot be found, or
+	 *         NOT_A_DIRECTORY if it is a file
+	 */
+	public int tryGoToChild(String name, TreeResult result) {
+		DirectoryNode child = tree.lookupChild(cursor, name);
+		if (child == null) {
+			return result.fail(TreeResult.UNRESOLVED_PATH, "There is no such child.");
+		} else if (child.isFile()) {
+			return result.fail(TreeResult.NOT_A_DIRECTORY, "You cannot move to a file.");
+		}
+		cursor = child;
+		return result.succeed(child);
+	}
+
+	/**
+	 * Moves the cursor through the specified path. If any part of the path cannot
+	 * be followed, the cursor does not move.
+	 *
+	 * @param path The path to move through
+	 * @throws NotADirectoryException  If the cursor is at file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public void changeDirectory(String path) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryChangeDirectory(path, result);
+		result.checkPath();
+	}
+
+	/**
+	 * Moves the cursor through the specified path, like
+	 * <code>changeDirectory</code>, but reports a failure in a result instead of
+	 * throwing. The cursor only moves if the status is OK.
+	 *
+	 * @param path   The path to move through
+	 * @param result Overwritten with the outcome, and the new cursor if the status
+	 *               is OK
+	 * @return OK, NOT_A_DIRECTORY if the path passes through a file, or
+	 *         UNRESOLVED_PATH if the path is invalid
+	 */
+	public int tryChangeDirectory(String path, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			DirectoryNode node = resolvePath(path, result);
+			if (node == null) {
+				changeDirectoryStatistics.recordError(result.getErrorType());
+				return result.getStatus();
+			}
+			cursor = node;
+			return result.succeed(node);
+		} finally {
+			changeDirectoryStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Follows a path from the cursor without moving it.
+	 *
+	 * @param path The path to follow
+	 * @return The directory the path leads to
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	private DirectoryNode resolvePath(String path) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		DirectoryNode node = resolvePath(path, result);
+		return node == null ? result.checkPath() : node;
+	}
+
+	/**
+	 * Follows a path from the cursor without moving it or throwing.
+	 *
+	 * @param path   The path to follow
+	 * @param result Overwritten with the failure if the path cannot be followed
+	 * @return The directory the path leads to, or null if the path passes through
+	 *         a file or is invalid
+	 */
+	private DirectoryNode resolvePath(String path, TreeResult result) {
+		String[] pathArray = path.split("/");
+		DirectoryNode node = cursor;
+		for (int i = 0; i < pathArray.length; i++) {
+			DirectoryNode child = tree.lookupChild(node, pathArray[i]);
+			if (child == null) {
+				result.fail(TreeResult.UNRESOLVED_PATH, "The path is invalid.");
+				return null;
+			} else if (child.isFile()) {
+				result.fail(TreeResult.NOT_A_DIRECTORY, "You cannot move to a file.");
+				return null;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Hands the path of every node at or below a directory whose name matches a
+	 * pattern to an action, as each one is found.
+	 *
+	 * @param path    The path of the directory to search under from the cursor, or
+	 *                "/" to search the whole tree
+	 * @param pattern The test applied to each node name
+	 * @param action  Called with the path of each matching node
+	 * @return The number of matching nodes
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public int find(String path, NamePattern pattern, Consumer<String> action)
+			throws NotADirectoryException, UnresolvedPathException {
+		DirectoryNode directory = path.equals("/") ? tree.getRoot() : resolvePath(path);
+		return tree.findAll(directory, pattern, action);
+	}
+
+	/**
+	 * Hands the path of every file at or below a directory whose size or
+	 * modification time is within a range to an action, in ascending order of
+	 * the attribute.
+	 *
+	 * @param path   The path of the directory to search under from the cursor, or
+	 *               "/" to search the whole tree
+	 * @param bySize True to search by size in bytes, false by modification time
+	 *               in milliseconds since the epoch
+	 * @param from   The lowest size or time in the range
+	 * @param to     The highest size or time in the range
+	 * @param action Called with the path of each file in the range
+	 * @return The number of files in the range
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public int findInRange(String path, boolean bySize, long from, long to, Consumer<String> action)
+			throws NotADirectoryException, UnresolvedPathException {
+		DirectoryNode directory = path.equals("/") ? tree.getRoot() : resolvePath(path);
+		return tree.findInRange(directory, bySize, from, to, action);
+	}
+
+	/**
+	 * Completes the last name of a path from the cursor. Every child of the
+	 * directory the path leads to whose name starts with the last name is handed
+	 * to the action as the path with that name filled in, in name order.
+	 * Directories end with '/', so their own children can be completed next.
+	 *
+	 * @param partialPath The path typed so far
+	 * @param limit       The most completions handed to the action
+	 * @param action      Called with each completed path
+	 * @return The number of completions, including those past the limit
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path up to the last name is invalid
+	 */
+	public int complete(String partialPath, int limit, Consumer<String> action)
+			throws NotADirectoryException, UnresolvedPathException {
+		int split = partialPath.lastIndexOf('/');
+		DirectoryNode directory;
+		if (split == -1) {
+			directory = cursor;
+		} else {
+			directory = resolvePath(partialPath.substring(0, split));
+		}
+		String typed = partialPath.substring(0, split + 1);
+		return tree.listChildren(directory, partialPath.substring(split + 1), limit,
+				child -> action.accept(typed + child.getName() + (child.isFile() ? "" : "/")));
+	}
+
+	/**
+	 * Finds the node at a path from the cursor without moving it. Unlike
+	 * <code>changeDirectory</code>, the path may end at a file.
+	 *
+	 * @param path The path to follow
+	 * @return The node the path leads to
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public DirectoryNode lookupPath(String path) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryLookupPath(path, result);
+		return result.checkPath();
+	}
+
+	/**
+	 * Finds the node at a path from the cursor, like <code>lookupPath</code>, but
+	 * reports a failure in a result instead of throwing.
+	 *
+	 * @param path   The path to follow
+	 * @param result Overwritten with the outcome, and the node the path leads to
+	 *               if the status is OK
+	 * @return OK, NOT_A_DIRECTORY if the path passes through a file, or
+	 *         UNRESOLVED_PATH if the path is invalid
+	 */
+	public int tryLookupPath(String path, TreeResult result) {
+		int split = path.lastIndexOf('/');
+		DirectoryNode parent = split == -1 ? cursor : resolvePath(path.substring(0, split), result);
+		if (parent == null) {
+			return result.getStatus();
+		}
+		DirectoryNode node = tree.lookupChild(parent, path.substring(split + 1));
+		if (node == null) {
+			return result.fail(TreeResult.UNRESOLVED_PATH, "The path is invalid.");
+		}
+		return result.succeed(node);
+	}
+
+	/**
+	 * Moves the cursor up to its parent directory. If the cursor is at the root,
+	 * this does nothing.
+	 *
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor now points to the parent directory, if it exists.</dd>
+	 * </dl>
+	 */
+	public void goToParent() {
+		DirectoryNode parent = cursor.getParent();
+		if (parent != null) {
+			cursor = parent;
+		}
+	}
+
+	/**
+	 * Creates a new directory with the specified name in the cursor.
+	 *
+	 * @param name The name of the new directory
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the cursor does not have more room for a
+	 *                                   directory.
+	 * @throws NotADirectoryException    If the cursor is a file
+	 * @throws ConflictingNamesException If a directory with the same name already
+	 *                                   exists
+	 * @throws UnresolvedPathException   If the cursor has been removed from the
+	 *                                   tree
+	 */
+	public void makeDirectory(String name)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		tree.insertChild(cursor, name, false);
+	}
+
+	/**
+	 * Creates a new directory in the cursor, like <code>makeDirectory</code>, but
+	 * reports a failure in a result instead of throwing.
+	 *
+	 * @param name   The name of the new directory
+	 * @param result Overwritten with the outcome, and the new directory if the
+	 *               status is OK
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY,
+	 *         CONFLICTING_NAMES or UNRESOLVED_PATH
+	 */
+	public int tryMakeDirectory(String name, TreeResult result) {
+		return tree.tryInsertChild(cursor, name, false, 0, 0, 0, result);
+	}
+
+	/**
+	 * Creates every missing directory on a path from the cursor, like
+	 * <code>mkdir -p</code>. The cursor does not move.
+	 *
+	 * @param path The path of directories to create
+	 * @throws IllegalArgumentException If a name on the path contains any white
+	 *                                  space
+	 * @throws FullDirectoryException   If a directory on the path is full
+	 * @throws NotADirectoryException   If the path passes through a file
+	 * @throws UnresolvedPathException  If the cursor has been removed from the
+	 *                                  tree
+	 */
+	public void makeDirectories(String path)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, UnresolvedPathException {
+		tree.makeDirectories(cursor, path);
+	}
+
+	/**
+	 * Creates every missing directory on a path from the cursor, like
+	 * <code>makeDirectories</code>, but reports a failure in a result instead of
+	 * throwing.
+	 *
+	 * @param path   The path of directories to create
+	 * @param result Overwritten with the outcome, and the directory at the end of
+	 *               the path if the status is OK
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY or
+	 *         UNRESOLVED_PATH
+	 */
+	public int tryMakeDirectories(String path, TreeResult result) {
+		return tree.tryMakeDirectories(cursor, path, result);
+	}
+
+	/**
+	 * Creates a new file with the specified name in the cursor.
+	 *
+	 * @param name The name of the new file
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the cursor does not have more room for a
+	 *                                   file.
+	 * @throws NotADirectoryException    If the cursor is a file
+	 * @throws ConflictingNamesException If a file with the same name already exists
+	 * @throws UnresolvedPathException   If the cursor has been removed from the
+	 *                                   tree
+	 */
+	public void makeFile(String name)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		tree.insertChild(cursor, name, true);
+	}
+
+	/**
+	 * Creates a new file in the cursor, like <code>makeFile</code>, but reports a
+	 * failure in a result instead of throwing.
+	 *
+	 * @param name   The name of the new file
+	 * @param result Overwritten with the outcome, and the new file if the status
+	 *               is OK
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY,
+	 *         CONFLICTING_NAMES or UNRESOLVED_PATH
+	 */
+	public int tryMakeFile(String name, TreeResult result) {
+		long now = System.currentTimeMillis();
+		return tree.tryInsertChild(cursor, name, true, 0, now, now, result);
+	}
+
+	/**
+	 * Creates a file with the specified name in the cursor, or marks the existing
+	 * file with that name as modified now.
+	 *
+	 * @param name The name of the file
+	 * @param size The new size of the file in bytes, or -1 to keep the size of an
+	 *             existing file
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the file is new and the cursor does not
+	 *                                   have more room for it.
+	 * @throws NotADirectoryException    If the cursor is a file
+	 * @throws ConflictingNamesException If a directory with the same name already
+	 *                                   exists
+	 * @throws UnresolvedPathException   If the cursor has been removed from the
+	 *                                   tree
+	 */
+	public void touchFile(String name, long size)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		tree.touchFile(cursor, name, size);
+	}
+
+	/**
+	 * Creates or touches a file in the cursor, like <code>touchFile</code>, but
+	 * reports a failure in a result instead of throwing.
+	 *
+	 * @param name   The name of the file
+	 * @param size   The new size of the file in bytes, or -1 to keep it
+	 * @param result Overwritten with the outcome, and the file if the status is OK
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY,
+	 *         CONFLICTING_NAMES or UNRESOLVED_PATH
+	 */
+	public int tryTouchFile(String name, long size, TreeResult result) {
+		return tree.tryTouchFile(cursor, name, size, result);
+	}
+
+	/**
+	 * Moves the node located at sourcePath to targetPath. Both paths are relative
+	 * to the cursor, which does not move.
+	 *
+	 * @param sourcePath The source of the node
+	 * @param targetPath The destination of the node
+	 *
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If the sourcePath or targetPath are
+	 *                                   invalid.
+	 * @throws FullDirectoryException    If the directory at targetPath is already
+	 *                                   full.
+	 * @throws ConflictingNamesException If a node of the same type and name already
+	 *                                   exists
+	 */
+	public void moveDirectory(String sourcePath, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		tree.moveNode(cursor, sourcePath, targetPath);
+	}
+
+	/**
+	 * Moves the node located at sourcePath to targetPath, like
+	 * <code>moveDirectory</code>, but reports a failure in a result instead of
+	 * throwing.
+	 *
+	 * @param sourcePath The source of the node
+	 * @param targetPath The destination of the node
+	 * @param result     Overwritten with the outcome
+	 * @return OK, NOT_A_DIRECTORY, UNRESOLVED_PATH, FULL_DIRECTORY or
+	 *         CONFLICTING_NAMES
+	 */
+	public int tryMoveDirectory(String sourcePath, String targetPath, TreeResult result) {
+		return tree.tryMoveNodes(cursor, new String[] { sourcePath }, targetPath, result);
+	}
+
+	/**
+	 * Moves several nodes into one directory, with all paths relative to the
+	 * cursor. Nothing moves unless every node can.
+	 *
+	 * @param sourcePaths The sources of the nodes
+	 * @param targetPath  The destination of the nodes
+	 *
+	 * @throws IllegalArgumentException  If there are no sources, or more than
+	 *                                   <code>DirectoryTree.MAX_MOVE_SOURCES</code>
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If a sourcePath or the targetPath is
+	 *                                   invalid, or the target is inside a source.
+	 * @throws FullDirectoryException    If the directory at targetPath does not
+	 *                                   have room for the nodes.
+	 * @throws ConflictingNamesException If two nodes would have the same name in
+	 *                                   the target
+	 */
+	public void moveNodes(String[] sourcePaths, String targetPath) throws IllegalArgumentException,
+			NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		tree.moveNodes(cursor, sourcePaths, targetPath);
+	}
+
+	/**
+	 * Moves several nodes into one directory, like <code>moveNodes</code>, but
+	 * reports a failure in a result instead of throwing.
+	 *
+	 * @param sourcePaths The sources of the nodes
+	 * @param targetPath  The destination of the nodes
+	 * @param result      Overwritten with the outcome
+	 * @return OK, INVALID_ARGUMENT, NOT_A_DIRECTORY, UNRESOLVED_PATH,
+	 *         FULL_DIRECTORY or CONFLICTING_NAMES
+	 */
+	public int tryMoveNodes(String[] sourcePaths, String targetPath, TreeResult result) {
+		return tree.tryMoveNodes(cursor, sourcePaths, targetPath, result);
+	}
+
+	/**
+	 * Removes the node at a path from the cursor, with everything under it. If the
+	 * cursor was inside the removed subtree, it goes back to the root.
+	 *
+	 * @param path The path of the node to remove
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	public void removeNode(String path) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryRemoveNode(path, result);
+		result.checkPath();
+	}
+
+	/**
+	 * Removes the node at a path from the cursor, like <code>removeNode</code>,
+	 * but reports a failure in a result instead of throwing.
+	 *
+	 * @param path   The path of the node to remove
+	 * @param result Overwritten with the outcome, and the removed node if the
+	 *               status is OK
+	 * @return OK, NOT_A_DIRECTORY if the path passes through a file, or
+	 *         UNRESOLVED_PATH if the path is invalid
+	 */
+	public int tryRemoveNode(String path, TreeResult result) {
+		if (tree.tryRemoveNode(cursor, path, result) != TreeResult.OK) {
+			return result.getStatus();
+		}
+		for (DirectoryNode node = cursor; node != null; node = node.getParent()) {
+			if (node == result.getNode()) {
+				resetCursor();
+				break;
+			}
+		}
+		return TreeResult.OK;
+	}
+
+	/**
+	 * Copies the node at sourcePath, with everything under it, into the directory
+	 * at targetPath. Both paths are relative to the cursor, which does not move.
+	 *
+	 * @param sourcePath The path of the node to copy
+	 * @param targetPath The path of the directory to copy it into
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If the sourcePath or targetPath are
+	 *                                   invalid.
+	 * @throws FullDirectoryException    If the directory at targetPath is already
+	 *                                   full.
+	 * @throws ConflictingNamesException If the target already has a node with the
+	 *                                   source's name
+	 */
+	public void copyNode(String sourcePath, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		tree.copyNode(cursor, sourcePath, targetPath);
+	}
+
+	/**
+	 * Copies the node at sourcePath into the directory at targetPath, like
+	 * <code>copyNode</code>, but reports a failure in a result instead of
+	 * throwing.
+	 *
+	 * @param sourcePath The path of the node to copy
+	 * @param targetPath The path of the directory to copy it into
+	 * @param result     Overwritten with the outcome, and the copy if the status
+	 *                   is OK
+	 * @return OK, NOT_A_DIRECTORY, UNRESOLVED_PATH, FULL_DIRECTORY or
+	 *         CONFLICTING_NAMES
+	 */
+	public int tryCopyNode(String sourcePath, String targetPath, TreeResult result) {
+		return tree.tryCopyNode(cursor, sourcePath, targetPath, result);
+	}
+
+	/**
+	 * Attaches a subtree built outside the tree, such as one read by
+	 * <code>HostImport</code>, to the cursor or to a directory below it. The
+	 * cursor does not move.
+	 *
+	 * @param subtree    The root of the subtree, which must have no parent
+	 * @param targetPath The path of the directory to attach to, relative to the
+	 *                   cursor, or null for the cursor itself
+	 * @throws NotADirectoryException    If the target is not a directory
+	 * @throws UnresolvedPathException   If the target path is invalid
+	 * @throws FullDirectoryException    If the target directory is full
+	 * @throws ConflictingNamesException If the target already has a node with the
+	 *                                   subtree's name
+	 */
+	public void importSubtree(DirectoryNode subtree, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		TreeResult result = new TreeResult();
+		tryImportSubtree(subtree, targetPath, result);
+		result.check();
+	}
+
+	/**
+	 * Attaches a subtree built outside the tree to the cursor or to a directory
+	 * below it, like <code>importSubtree</code>, but reports a failure in a result
+	 * instead of throwing.
+	 *
+	 * @param subtree    The root of the subtree, which must have no parent
+	 * @param targetPath The path of the directory to attach to, relative to the
+	 *                   cursor, or null for the cursor itself
+	 * @param result     Overwritten with the outcome, and the subtree if the
+	 *                   status is OK
+	 * @return OK, NOT_A_DIRECTORY, UNRESOLVED_PATH, FULL_DIRECTORY or
+	 *         CONFLICTING_NAMES
+	 */
+	public int tryImportSubtree(DirectoryNode subtree, String targetPath, TreeResult result) {
+		DirectoryNode directory = targetPath == null ? cursor : resolvePath(targetPath, result);
+		if (directory == null) {
+			return result.getStatus();
+		}
+		return tree.tryAttachSubtree(directory, subtree, result);
+	}
+
+	/**
+	 * Prints out the directory tree that has the cursor as its root.
+	 */
+	public void printDirectoryTree() {
+		tree.printDirectoryTree(cursor, 0);
+	}
+
+	/**
+	 * Prints out the directory tree that has the cursor as its root, down to the
+	 * specified depth.
+	 *
+	 * @param maxDepth The most levels below the cursor to print.
+	 */
+	public void printDirectoryTree(int maxDepth) {
+		tree.printDirectoryTree(cursor, 0, maxDepth);
+	}
+
+	/**
+	 * Returns a string listing all the children of the cursor, in name order.
+	 * Names are separated by spaces " ". The whole listing is built in memory, so
+	 * large directories are better listed with <code>listDirectory(action)</code>.
+	 *
+	 * @return A formatted string of directory names
+	 */
+	public String listDirectory() {
+		StringJoiner names = new StringJoiner(" ");
+		listDirectory(names::add);
+		return names.toString();
+	}
+
+	/**
+	 * Hands the name of each child of the cursor to an action, in name order, as
+	 * the children are reached. No listing is built up first.
+	 *
+	 * @param action Called with the name of each child
+	 * @return The number of children listed
+	 */
+	public int listDirectory(Consumer<String> action) {
+		return tree.listChildren(cursor, "", Integer.MAX_VALUE, child -> action.accept(child.getName()));
+	}
+
+	/**
+	 * Returns an instance of DirectorySession
+	 *
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor points to the root of the tree</dd>
+	 * </dl>
+	 *
+	 * @param tree The tree this session moves through
+	 */
+	public DirectorySession(DirectoryTree tree) {
+		this.tree = tree;
+		this.cursor = tree.getRoot();
+		this.changeDirectoryStatistics = tree.getStatistics().operation("changeDirectory");
+	}
+}
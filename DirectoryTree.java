@@ -1,14 +1,100 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * The <code>DirectoryTree</code> class models a directory system using trees.
+ * The tree itself is shared state; the cursor methods of this class act on a
+ * default <code>DirectorySession</code>, and <code>newSession</code> gives
+ * every other thread a cursor of its own.
+ * 
+ * <p>
+ * Lookups, listings, <code>pwd</code> and <code>find</code> take no locks in
+ * the common case: they read optimistically and only retry under a read lock
+ * if a writer got in the way. Adding a node locks the parent directory's lock
+ * stripe, so additions to different directories run in parallel. Moving a node
+ * changes the shape of the tree and locks it exclusively.
+ * </p>
+ * 
+ * <p>
+ * Every change also publishes a new <code>TreeVersion</code>, an immutable copy
+ * of the tree that shares all unchanged subtrees with the version before it,
+ * through the tree's <code>VersionPublisher</code>. Printing, searching the
+ * whole tree and saving work from a pinned version, so they see one consistent
+ * tree and neither wait for writers nor hold them up. The version is a second
+ * copy of every node. That is a quarter to a half of what the tree keeps in
+ * all, depending on its shape, and the price of never making readers wait; the
+ * publisher explains why the mutable nodes are kept as well.
+ * </p>
+ * 
+ * <p>
+ * Removing a subtree only unlinks its root; its nodes are dropped from the
+ * tree's <code>TreeIndexes</code> a batch at a time by later changes. Copying
+ * a subtree shares the copied version of it, and the copy builds its nodes one
+ * directory at a time as they are first used, so copies are cheap until they
+ * are looked into.
+ * </p>
+ * 
+ * <p>
+ * A whole subtree built outside the tree, such as one imported from the host,
+ * is attached in one step: it is locked, versioned and indexed once rather
+ * than node by node.
+ * </p>
+ * 
+ * <p>
+ * Files are also indexed by size and by modification time, so a search for the
+ * files in a range of either only visits the files inside the range.
+ * <code>touchFile</code> updates an existing file by moving it between index
+ * entries.
+ * </p>
+ * 
+ * <p>
+ * Additions, moves, searches, printing and saving are timed, and their
+ * failures counted by exception type, in the tree's
+ * <code>OperationStatistics</code>.
+ * </p>
  * 
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
 public class DirectoryTree {
-	private DirectoryNode root; // The root of the system
-	private DirectoryNode cursor; // A pointer that can move throughout the tree
-	private String workingDirectory; // A string representing the current working directory
+	private static final int LOCK_STRIPES = 64; // Locks shared out among the directories
+	private static final DirectoryNode[] NO_NODES = new DirectoryNode[0];
+	private static final int LIST_CHUNK = 256; // Children copied out of a directory per lock
+	public static final int MAX_MOVE_SOURCES = MutationJournal.MAX_ARGUMENTS - 2; // Nodes one move can take
+
+	private volatile DirectoryNode root; // The root of the system
+	private final DirectorySession session; // The session used by the cursor methods
+	private volatile int structureVersion; // Changes whenever existing nodes are moved
+	private final TreeIndexes indexes = new TreeIndexes(); // The nodes by name, and the files by size and time
+	private final StampedLock structureLock = new StampedLock(); // Written while nodes move
+	private final StampedLock[] stripes; // Guard the children of the directories hashed to them
+	private final VersionPublisher versions; // Publishes and journals the version of each change
+	private final OperationStatistics statistics; // Latencies and errors of the tree's operations
+	private final OperationStatistics.Operation makeDirectoryStatistics; // Directories added
+	private final OperationStatistics.Operation makeFileStatistics; // Files added
+	private final OperationStatistics.Operation touchStatistics; // Files touched
+	private final OperationStatistics.Operation attachStatistics; // Subtrees attached in bulk
+	private final OperationStatistics.Operation moveStatistics; // Nodes moved
+	private final OperationStatistics.Operation removeStatistics; // Subtrees removed
+	private final OperationStatistics.Operation copyStatistics; // Subtrees copied
+	private final OperationStatistics.Operation findStatistics; // Lookups by exact name
+	private final OperationStatistics.Operation findMatchingStatistics; // Searches of the whole tree
+	private final OperationStatistics.Operation findInRangeStatistics; // Searches by size or modification time
+	private final OperationStatistics.Operation printStatistics; // Trees printed
+	private final OperationStatistics.Operation saveStatistics; // Snapshots saved
 
 	/**
 	 * @return The root of this instance
@@ -18,38 +104,107 @@ public class DirectoryTree {
 	}
 
 	/**
+	 * Replaces the whole tree. The default session's cursor is moved to the new
+	 * root; other sessions must reset their cursors.
+	 * 
 	 * @param root The new root to set
 	 */
 	public void setRoot(DirectoryNode root) {
-		this.root = root;
+		long stamp = structureLock.writeLock();
+		try {
+			this.root = root;
+			structureVersion++;
+			indexes.reset(root);
+			versions.reset(PersistentNode.copyOf(root), getSequence());
+			session.resetCursor();
+		} finally {
+			structureLock.unlockWrite(stamp);
+		}
 	}
 
 	/**
 	 * @return The cursor of this instance
 	 */
 	public DirectoryNode getCursor() {
-		return cursor;
+		return session.getCursor();
 	}
 
 	/**
 	 * @param cursor The new cursor to set
 	 */
 	public void setCursor(DirectoryNode cursor) {
-		this.cursor = cursor;
+		session.setCursor(cursor);
 	}
 
 	/**
+	 * Returns the path of the cursor. The path is built from the cursor's parent
+	 * pointers the first time it is asked for, and is reused until the cursor
+	 * moves or a node is moved within the tree.
+	 * 
 	 * @return The workingDirectory of this instance
 	 */
 	public String presentWorkingDirectory() {
-		return workingDirectory;
+		return session.presentWorkingDirectory();
+	}
+
+	/**
+	 * @return A number that changes whenever existing nodes are moved
+	 */
+	int getStructureVersion() {
+		return structureVersion;
+	}
+
+	/**
+	 * Pins the current version of the tree. The version never changes, however
+	 * the tree changes afterwards.
+	 * 
+	 * @return The version of the last change made to this instance
+	 */
+	public TreeVersion pinVersion() {
+		return versions.pin();
+	}
+
+	/**
+	 * Creates a new session over this tree, with its own cursor at the root.
+	 * 
+	 * @return The new session
+	 */
+	public DirectorySession newSession() {
+		return new DirectorySession(this);
+	}
+
+	/**
+	 * @return The sequence number of the last change made to this instance
+	 */
+	public long getSequence() {
+		return versions.getSequence();
+	}
+
+	/**
+	 * @return The latencies and errors of the operations on this instance
+	 */
+	public OperationStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return The journal changes to this instance are recorded in, or null
+	 */
+	public MutationJournal getJournal() {
+		return versions.getJournal();
 	}
 
 	/**
-	 * @param workingDirectory The new workingDirectory to set
+	 * Starts or stops recording changes. The journal takes its records from the
+	 * next sequence number on, so no changes should be made while it is set.
+	 * 
+	 * @param journal The journal to record changes in, or null to stop recording
 	 */
-	public void setWorkingDirectory(String workingDirectory) {
-		this.workingDirectory = workingDirectory;
+	public void setJournal(MutationJournal journal) {
+		if (journal != null) {
+			journal.startAfter(getSequence());
+		}
+		versions.setJournal(journal);
 	}
 
 	/**
@@ -63,8 +218,26 @@ public class DirectoryTree {
 	 */
 	public DirectoryTree() {
 		root = new DirectoryNode("root", false);
-		cursor = root;
-		workingDirectory = "root";
+		indexes.add(root);
+		versions = new VersionPublisher(new PersistentNode(root.getName(), false), this::buildPath);
+		stripes = new StampedLock[LOCK_STRIPES];
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			stripes[i] = new StampedLock();
+		}
+		statistics = new OperationStatistics();
+		makeDirectoryStatistics = statistics.operation("makeDirectory");
+		makeFileStatistics = statistics.operation("makeFile");
+		touchStatistics = statistics.operation("touchFile");
+		attachStatistics = statistics.operation("attachSubtree");
+		moveStatistics = statistics.operation("moveDirectory");
+		removeStatistics = statistics.operation("removeNode");
+		copyStatistics = statistics.operation("copyNode");
+		findStatistics = statistics.operation("find");
+		findMatchingStatistics = statistics.operation("findMatching");
+		findInRangeStatistics = statistics.operation("findInRange");
+		printStatistics = statistics.operation("printDirectoryTree");
+		saveStatistics = statistics.operation("save");
+		session = new DirectorySession(this);
 	}
 
 	/**
@@ -76,8 +249,7 @@ public class DirectoryTree {
 	 * </dl>
 	 */
 	public void resetCursor() {
-		cursor = root;
-		workingDirectory = "root";
+		session.resetCursor();
 	}
 
 	/**
@@ -95,16 +267,19 @@ public class DirectoryTree {
 	 * 
 	 */
 	public void goToChild(String name) throws NotADirectoryException, UnresolvedPathException {
-		int index = cursor.getChildIndex(name);
-		if (index != -1) {
-			if (cursor.getChildren()[index].isFile()) {
-				throw new NotADirectoryException("You cannot move to a file.");
-			}
-			cursor = cursor.getChildren()[index];
-			workingDirectory += "/" + cursor.getName();
-		} else {
-			throw new UnresolvedPathException("There is no such child.");
-		}
+		session.goToChild(name);
+	}
+
+	/**
+	 * Moves the cursor to the specified child, reporting a failure in a result
+	 * instead of throwing.
+	 * 
+	 * @param name   The name of the node to go to
+	 * @param result Overwritten with the outcome
+	 * @return OK, UNRESOLVED_PATH or NOT_A_DIRECTORY
+	 */
+	public int tryGoToChild(String name, TreeResult result) {
+		return session.tryGoToChild(name, result);
 	}
 
 	/**
@@ -115,19 +290,19 @@ public class DirectoryTree {
 	 * @throws UnresolvedPathException If the path is invalid
 	 */
 	public void changeDirectory(String path) throws NotADirectoryException, UnresolvedPathException {
-		String[] pathArray = path.split("/");
-		DirectoryNode originalCursor = cursor;
-		for (int i = 0; i < pathArray.length; i++) {
-			try {
-				goToChild(pathArray[i]);
-			} catch (UnresolvedPathException e) {
-				cursor = originalCursor;
-				throw new UnresolvedPathException("The path is invalid.");
-			} catch (NotADirectoryException e) {
-				cursor = originalCursor;
-				throw new NotADirectoryException("You cannot move to a file.");
-			}
-		}
+		session.changeDirectory(path);
+	}
+
+	/**
+	 * Moves the cursor through the specified path, reporting a failure in a
+	 * result instead of throwing.
+	 * 
+	 * @param path   The path to move through
+	 * @param result Overwritten with the outcome
+	 * @return OK, NOT_A_DIRECTORY or UNRESOLVED_PATH
+	 */
+	public int tryChangeDirectory(String path, TreeResult result) {
+		return session.tryChangeDirectory(path, result);
 	}
 
 	/**
@@ -136,13 +311,11 @@ public class DirectoryTree {
 	 * 
 	 * <dl>
 	 * <dt>Postconditions:</dt>
-	 * <dd>The cursor now points to the parent directory, if it exists. The working
-	 * directory has been updated.</dd>
+	 * <dd>The cursor now points to the parent directory, if it exists.</dd>
 	 * </dl>
 	 */
 	public void goToParent() {
-		cursor = cursor.getParent();
-		workingDirectory = workingDirectory.replaceAll("/[A-Za-z0-9]*$", "");
+		session.goToParent();
 	}
 
 	/**
@@ -167,14 +340,26 @@ public class DirectoryTree {
 	 *                                   directory.
 	 * @throws ConflictingNamesException If a directory with the same name already
 	 *                                   exists
+	 * @throws UnresolvedPathException   If the cursor has been removed from the
+	 *                                   tree
 	 */
 	public void makeDirectory(String name)
-			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException {
-		name = name.trim();
-		if (name.indexOf("/") != -1 || name.indexOf(" ") != -1) {
-			throw new IllegalArgumentException("File name should not have whitespace or '/' characters.");
-		}
-		cursor.addChild(new DirectoryNode(name, false));
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		session.makeDirectory(name);
+	}
+
+	/**
+	 * Creates a new directory in the cursor, reporting a failure in a result
+	 * instead of throwing.
+	 * 
+	 * @param name   The name of the new directory
+	 * @param result Overwritten with the outcome
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY,
+	 *         CONFLICTING_NAMES or UNRESOLVED_PATH
+	 */
+	public int tryMakeDirectory(String name, TreeResult result) {
+		return session.tryMakeDirectory(name, result);
 	}
 
 	/**
@@ -198,14 +383,26 @@ public class DirectoryTree {
 	 * @throws FullDirectoryException    If the cursor does not have more room for a
 	 *                                   file.
 	 * @throws ConflictingNamesException If a file with the same name already exists
+	 * @throws UnresolvedPathException   If the cursor has been removed from the
+	 *                                   tree
 	 */
 	public void makeFile(String name)
-			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException {
-		name = name.trim();
-		if (name.indexOf("/") != -1 || name.indexOf(" ") != -1) {
-			throw new IllegalArgumentException("File name should not have whitespace or '/' characters.");
-		}
-		cursor.addChild(new DirectoryNode(name, true));
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		session.makeFile(name);
+	}
+
+	/**
+	 * Creates a new file in the cursor, reporting a failure in a result instead
+	 * of throwing.
+	 * 
+	 * @param name   The name of the new file
+	 * @param result Overwritten with the outcome
+	 * @return OK, INVALID_ARGUMENT, FULL_DIRECTORY, NOT_A_DIRECTORY,
+	 *         CONFLICTING_NAMES or UNRESOLVED_PATH
+	 */
+	public int tryMakeFile(String name, TreeResult result) {
+		return session.tryMakeFile(name, result);
 	}
 
 	/**
@@ -225,167 +422,1965 @@ public class DirectoryTree {
 	 */
 	public void moveDirectory(String sourcePath, String targetPath)
 			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
-		DirectoryNode originalNode = cursor;
-		String originalWorkingDirectory = workingDirectory;
-		DirectoryNode removedNode = null;
-		// Get node to move
-		String[] sourcePathArray = sourcePath.split("/");
-		String sourcePathNode = sourcePathArray[sourcePathArray.length - 1];
-		sourcePathArray[sourcePathArray.length - 1] = "";
-		try {
-			// Go to node's parent and remove it
-			changeDirectory(String.join("/", sourcePathArray));
-			removedNode = cursor.removeChild(sourcePathNode);
-			// Go to targetPath and add node as child
-			cursor = originalNode;
-			changeDirectory(targetPath);
-			cursor.addChild(removedNode);
-			// Go back to original position
-			cursor = originalNode;
-			workingDirectory = originalWorkingDirectory;
-		} catch (Exception e) {
-			// Go back to original position
-			cursor = originalNode;
-			workingDirectory = originalWorkingDirectory;
-			// If node was removed while trying, restore node
-			changeDirectory(String.join("/", sourcePathArray));
-			cursor.addChild(removedNode);
-			// Go back to original position
-			cursor = originalNode;
-			workingDirectory = originalWorkingDirectory;
-			// Handle errors
-			if (e instanceof NotADirectoryException) {
-				throw new NotADirectoryException("The target path does not resolve to a directory.");
-			} else if (e instanceof UnresolvedPathException) {
-				throw new UnresolvedPathException("The target or source path is invalid");
-			} else if (e instanceof FullDirectoryException) {
-				throw new FullDirectoryException("The directory at the target path is full.");
-			} else if (e instanceof ConflictingNamesException) {
-				throw new ConflictingNamesException("You cannot have two nodes of the same type and name.");
+		session.moveDirectory(sourcePath, targetPath);
+	}
+
+	/**
+	 * Moves the node located at sourcePath to targetPath, reporting a failure in
+	 * a result instead of throwing.
+	 * 
+	 * @param sourcePath The source of the node
+	 * @param targetPath The destination of the node
+	 * @param result     Overwritten with the outcome
+	 * @return OK, NOT_A_DIRECTORY, UNRESOLVED_PATH, FULL_DIRECTORY or
+	 *         CONFLICTING_NAMES
+	 */
+	public int tryMoveDirectory(String sourcePath, String targetPath, TreeResult result) {
+		return session.tryMoveDirectory(sourcePath, targetPath, result);
+	}
+
+	/**
+	 * Looks up a child of a directory. The read is optimistic and takes no lock
+	 * unless a writer changes the directory at the same time.
+	 * 
+	 * @param directory The directory to look in
+	 * @param name      The name of the child
+	 * @return The child, or null if the directory has no child with that name
+	 */
+	public DirectoryNode lookupChild(DirectoryNode directory, String name) {
+		StampedLock lock = stripeOf(directory);
+		long stamp = lock.tryOptimisticRead();
+		DirectoryNode child = directory.getChild(name);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				child = directory.getChild(name);
+			} finally {
+				lock.unlockRead(stamp);
 			}
+		}
+		return child;
+	}
 
+	/**
+	 * Copies the children of a directory as they are at one moment, so they can be
+	 * walked while other threads change the directory.
+	 * 
+	 * @param directory The directory whose children are copied
+	 * @return The children, in order
+	 */
+	public DirectoryNode[] getChildren(DirectoryNode directory) {
+		if (directory.isFile()) {
+			return NO_NODES;
+		}
+		StampedLock lock = stripeOf(directory);
+		long stamp = lock.tryOptimisticRead();
+		DirectoryNode[] children = copyChildren(directory);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				children = copyChildren(directory);
+			} finally {
+				lock.unlockRead(stamp);
+			}
 		}
+		return children;
+	}
+
+	/**
+	 * Hands the children of a directory whose names start with a prefix to an
+	 * action, in name order.
+	 * 
+	 * @param directory The directory whose children are listed
+	 * @param prefix    The prefix of the names, which may be empty
+	 * @param limit     The most children handed to the action
+	 * @param action    Called with each listed child
+	 * @return The number of children with the prefix, including those past the
+	 *         limit
+	 */
+	public int listChildren(DirectoryNode directory, String prefix, int limit, Consumer<DirectoryNode> action) {
+		return listChildren(directory, prefix, false, 0, limit, action);
 	}
 
 	/**
-	 * Substep in recursion for the find method.
+	 * Hands one page of the children of a directory whose names start with a
+	 * prefix to an action, in name order or with the directories first. The
+	 * matching children are found by binary search in the directory's sorted child
+	 * index, so the time taken depends on the size of the page, not the size of
+	 * the directory.
 	 * 
-	 * @param name        Name of the desired file
-	 * @param currentNode The current node in the tree traversal
-	 * @param currentPath The current path in the tree traversal
-	 * @return The path if a match was found, else return the empty string
+	 * <p>
+	 * Children are copied out at most <code>LIST_CHUNK</code> at a time while the
+	 * directory is locked, and handed to the action once the lock is released, so
+	 * a listing of any size holds one chunk and never runs the action under the
+	 * lock. Each chunk after the first carries on after the last child handed
+	 * over, so a child added or removed meanwhile may or may not be listed, but
+	 * no other child is missed or listed twice.
+	 * </p>
+	 * 
+	 * @param directory The directory whose children are listed
+	 * @param prefix    The prefix of the names, which may be empty
+	 * @param byType    True to list the directories before the files, each by
+	 *                  name, false to list every child by name
+	 * @param offset    The number of matching children skipped
+	 * @param limit     The most children handed to the action
+	 * @param action    Called with each listed child
+	 * @return The number of children with the prefix, including those outside the
+	 *         page
+	 * @throws IllegalArgumentException If the offset or limit is negative
 	 */
-	public String find(String name, DirectoryNode currentNode, String currentPath) {
-		// Check if current node has a match
-		if (name.equals(currentNode.getName()))
-			return currentPath;
-		// Check if any children node has a match
-		DirectoryNode[] children = currentNode.getChildren();
-		for (int i = 0; i < currentNode.getChildrenCount(); i++) {
-			String result = find(name, children[i], currentPath + "/" + children[i].getName());
-			if (!result.equals(""))
-				return result;
+	public int listChildren(DirectoryNode directory, String prefix, boolean byType, int offset, int limit,
+			Consumer<DirectoryNode> action) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("The offset and limit cannot be negative.");
+		}
+		if (directory.isFile()) {
+			return 0;
+		}
+		DirectoryNode[] chunk = new DirectoryNode[Math.min(limit, LIST_CHUNK)];
+		int matches = 0;
+		int listed = 0;
+		DirectoryNode last = null;
+		StampedLock lock = stripeOf(directory);
+		while (true) {
+			int taken = 0;
+			int wanted = Math.min(chunk.length, limit - listed);
+			long stamp = lock.readLock();
+			try {
+				int directoryStart = directory.findPrefix(prefix, false, false);
+				int directoryEnd = directory.findPrefix(prefix, false, true);
+				int fileStart = directory.findPrefix(prefix, true, false);
+				int fileEnd = directory.findPrefix(prefix, true, true);
+				int nextDirectory = directoryStart;
+				int nextFile = fileStart;
+				if (last == null) {
+					matches = directoryEnd - directoryStart + fileEnd - fileStart;
+					if (byType) {
+						// The matching directories and files are already one run, directories first
+						nextDirectory += Math.min(offset, directoryEnd - directoryStart);
+						nextFile += Math.max(0, offset - (directoryEnd - directoryStart));
+					} else {
+						int skipped = takenFromFirstRun(directory, directoryStart, directoryEnd, fileStart, fileEnd,
+								Math.min(offset, matches));
+						nextDirectory += skipped;
+						nextFile += Math.min(offset, matches) - skipped;
+					}
+				} else if (byType && last.isFile()) {
+					nextDirectory = directoryEnd;
+					nextFile = placeAfter(directory, last, true, fileStart, fileEnd);
+				} else {
+					nextDirectory = placeAfter(directory, last, false, directoryStart, directoryEnd);
+					nextFile = byType ? fileStart : placeAfter(directory, last, true, fileStart, fileEnd);
+				}
+				while (taken < wanted && (nextDirectory < directoryEnd || nextFile < fileEnd)) {
+					boolean takeDirectory = nextDirectory < directoryEnd && (byType || nextFile == fileEnd
+							|| directory.getSortedChild(nextDirectory).getName()
+									.compareTo(directory.getSortedChild(nextFile).getName()) < 0);
+					chunk[taken++] = directory.getSortedChild(takeDirectory ? nextDirectory++ : nextFile++);
+				}
+			} finally {
+				lock.unlockRead(stamp);
+			}
+			for (int i = 0; i < taken; i++) {
+				action.accept(chunk[i]);
+			}
+			listed += taken;
+			if (taken < wanted || listed == limit) {
+				return matches;
+			}
+			last = chunk[taken - 1];
 		}
-		// Else, search failed for this tree: return empty string
-		return "";
 	}
 
 	/**
-	 * Substep in recursion for the printAllFound method.
+	 * Finds where the children of one type that come after a listed child begin
+	 * in the sorted child index.
+	 * 
+	 * @param directory The directory whose sorted child index is searched
+	 * @param last      The child listed last
+	 * @param isFile    True to search the files, false to search the directories
+	 * @param start     The place of the first child of the type with the prefix
+	 * @param end       The place after the last child of the type with the prefix
+	 * @return The place of the first child of the type after the listed one
+	 */
+	private static int placeAfter(DirectoryNode directory, DirectoryNode last, boolean isFile, int start, int end) {
+		String name = last.getName();
+		int place = Math.min(end, Math.max(start, directory.findPrefix(name, isFile, false)));
+		return place < end && directory.getSortedChild(place).getName().equals(name) ? place + 1 : place;
+	}
+
+	/**
+	 * Works out how many of the first children in name order come from the
+	 * directories, when the directories and the files are two runs of the sorted
+	 * child index, each sorted by name. This is a binary search, so pages deep
+	 * into a large directory are found without merging up to them.
 	 * 
-	 * @param name        Name of the desired file
-	 * @param currentNode The current node in the tree traversal
-	 * @param currentPath The current path in the tree traversal
-	 * @return The path if a match was found, else return the empty string
+	 * @param directory  The directory whose sorted child index is searched
+	 * @param firstStart The place of the first directory
+	 * @param firstEnd   The place after the last directory
+	 * @param otherStart The place of the first file
+	 * @param otherEnd   The place after the last file
+	 * @param count      The number of children at the front of the merged order
+	 * @return How many of those children are directories
 	 */
-	public void printAllFound(String name, DirectoryNode currentNode, String currentPath) {
-		// Check if current node has a match
-		if (name.equals(currentNode.getName()))
-			System.out.println(currentPath);
-		// Check if any children node has a match
-		DirectoryNode[] children = currentNode.getChildren();
-		for (int i = 0; i < currentNode.getChildrenCount(); i++) {
-			printAllFound(name, children[i], currentPath + "/" + children[i].getName());
+	private static int takenFromFirstRun(DirectoryNode directory, int firstStart, int firstEnd, int otherStart,
+			int otherEnd, int count) {
+		int low = Math.max(0, count - (otherEnd - otherStart));
+		int high = Math.min(count, firstEnd - firstStart);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			String first = directory.getSortedChild(firstStart + middle).getName();
+			String other = directory.getSortedChild(otherStart + count - middle - 1).getName();
+			if (first.compareTo(other) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
 		}
+		return low;
 	}
 
 	/**
-	 * Prints all paths that resolve to a file with the specified name.
+	 * Copies the used part of a directory's child array. This never throws if the
+	 * children change while it runs.
 	 * 
-	 * @param name Name of the desired file
+	 * @param directory The directory whose children are copied
+	 * @return The children, in order
 	 */
-	public void printAllFound(String name) {
-		printAllFound(name, root, "root");
+	private static DirectoryNode[] copyChildren(DirectoryNode directory) {
+		return directory.getChildren();
 	}
 
 	/**
-	 * Returns a string containing a path to the specified directory.
+	 * @param directory A directory of this tree
+	 * @return The lock that guards the directory's children
 	 */
-	public String find(String name) {
-		return find(name, root, "root");
+	private StampedLock stripeOf(DirectoryNode directory) {
+		int hash = System.identityHashCode(directory);
+		return stripes[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
 	}
 
 	/**
-	 * Prints out the directory tree of the current node using recursive pre-order
-	 * tree traversal.
+	 * Creates a node in a directory and records the change.
 	 * 
-	 * @param node  The node to start from.
-	 * @param depth The depth of the node.
+	 * @param directory The directory to add the node to
+	 * @param name      The name of the new node
+	 * @param isFile    True to create a file, false to create a directory
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters.
+	 * @throws FullDirectoryException    If the directory is full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 * @throws UnresolvedPathException   If the directory has been removed from the
+	 *                                   tree
+	 * @return The new node
 	 */
-	public void printDirectoryTree(DirectoryNode node, int depth) {
-		// Print out the name of current node
-		String indents = "";
-		for (int i = 0; i < depth; i++) {
-			indents += "    ";
+	DirectoryNode insertChild(DirectoryNode directory, String name, boolean isFile)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, ConflictingNamesException,
+			UnresolvedPathException {
+		long now = isFile ? System.currentTimeMillis() : 0;
+		return insertChild(directory, name, isFile, 0, now, now);
+	}
+
+	/**
+	 * Creates a node with the specified metadata in a directory and records the
+	 * change. The metadata of a directory should be 0.
+	 * 
+	 * @param directory        The directory to add the node to
+	 * @param name             The name of the new node
+	 * @param isFile           True to create a file, false to create a directory
+	 * @param size             The size of the file, in bytes
+	 * @param creationTime     When the file was created, in milliseconds since
+	 *                         the epoch
+	 * @param modificationTime When the file was last modified, in milliseconds
+	 *                         since the epoch
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters, or the size is negative
+	 * @throws FullDirectoryException    If the directory is full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If a node with the same name already exists
+	 * @throws UnresolvedPathException   If the directory has been removed from the
+	 *                                   tree
+	 * @return The new node
+	 */
+	DirectoryNode insertChild(DirectoryNode directory, String name, boolean isFile, long size, long creationTime,
+			long modificationTime) throws IllegalArgumentException, FullDirectoryException, NotADirectoryException,
+			ConflictingNamesException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryInsertChild(directory, name, isFile, size, creationTime, modificationTime, result);
+		return result.check();
+	}
+
+	/**
+	 * Creates a node with the specified metadata in a directory and records the
+	 * change, like <code>insertChild</code>, but reports a failure in a result
+	 * instead of throwing.
+	 * 
+	 * @param directory        The directory to add the node to
+	 * @param name             The name of the new node
+	 * @param isFile           True to create a file, false to create a directory
+	 * @param size             The size of the file, in bytes
+	 * @param creationTime     When the file was created
+	 * @param modificationTime When the file was last modified
+	 * @param result           Overwritten with the outcome, and the new node if
+	 *                         the status is OK
+	 * @return OK, INVALID_ARGUMENT if the name contains any white space or '/'
+	 *         characters or the size is negative, FULL_DIRECTORY,
+	 *         NOT_A_DIRECTORY, CONFLICTING_NAMES, or UNRESOLVED_PATH if the
+	 *         directory has been removed from the tree
+	 */
+	int tryInsertChild(DirectoryNode directory, String name, boolean isFile, long size, long creationTime,
+			long modificationTime, TreeResult result) {
+		OperationStatistics.Operation operation = isFile ? makeFileStatistics : makeDirectoryStatistics;
+		long start = System.nanoTime();
+		try {
+			addAndRecord(directory, name, isFile, size, creationTime, modificationTime, result);
+			return countFailure(operation, result);
+		} catch (RuntimeException e) {
+			operation.recordError(e);
+			throw e;
+		} finally {
+			operation.recordSince(start);
+			indexes.reclaim();
+		}
+	}
+
+	/**
+	 * Counts a failed operation in the statistics under the name of the exception
+	 * its checked form throws.
+	 * 
+	 * @param operation The statistics of the operation
+	 * @param result    The outcome of the operation
+	 * @return The status of the outcome
+	 */
+	private static int countFailure(OperationStatistics.Operation operation, TreeResult result) {
+		if (!result.isOk()) {
+			operation.recordError(result.getErrorType());
+		}
+		return result.getStatus();
+	}
+
+	/**
+	 * Does the work of <code>tryInsertChild</code>.
+	 * 
+	 * @param directory        The directory to add the node to
+	 * @param name             The name of the new node
+	 * @param isFile           True to create a file, false to create a directory
+	 * @param size             The size of the file, in bytes
+	 * @param creationTime     When the file was created
+	 * @param modificationTime When the file was last modified
+	 * @param result           Overwritten with the outcome
+	 * @return The status of the outcome
+	 */
+	private int addAndRecord(DirectoryNode directory, String name, boolean isFile, long size, long creationTime,
+			long modificationTime, TreeResult result) {
+		versions.checkJournal();
+		name = name.trim();
+		if (name.indexOf("/") != -1 || name.indexOf(" ") != -1) {
+			return result.fail(TreeResult.INVALID_ARGUMENT, "File name should not have whitespace or '/' characters.");
+		} else if (size < 0) {
+			return result.fail(TreeResult.INVALID_ARGUMENT, "The size cannot be negative.");
 		}
-		System.out.println(indents + (node.isFile() ? " " : "|") + "- " + node.getName());
-		if (!node.isFile()) {
-			// Advance to children nodes
-			DirectoryNode[] children = node.getChildren();
-			for (int i = 0; i < children.length; i++) {
-				if (children[i] != null)
-					printDirectoryTree(children[i], depth + 1);
+		DirectoryNode node = new DirectoryNode(name, isFile);
+		node.setSize(size);
+		node.setCreationTime(creationTime);
+		node.setModificationTime(modificationTime);
+		// The version shares the dictionary's copy of the name
+		PersistentNode version = new PersistentNode(node.getName(), isFile, size, creationTime, modificationTime);
+		// The shared structure lock keeps moves out, so the recorded path stays valid
+		long structureStamp = structureLock.readLock();
+		try {
+			int[] directoryPath = indexPathOf(directory);
+			if (directoryPath == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The directory has been removed.");
+			}
+			StampedLock lock = stripeOf(directory);
+			long stamp = lock.writeLock();
+			try {
+				if (directory.tryAddChild(node, result) != TreeResult.OK) {
+					return result.getStatus();
+				}
+				indexes.add(node);
+				// The version is published before the stripe is unlocked, so no one can
+				// find the new node and then miss it in the current version
+				UnaryOperator<PersistentNode> change = root -> root.withDescendant(directoryPath,
+						parent -> parent.withChildAppended(version));
+				if (isFile) {
+					versions.record(MutationJournal.MAKE_FILE, directory, change, name, Long.toString(size),
+							Long.toString(creationTime), Long.toString(modificationTime));
+				} else {
+					versions.record(MutationJournal.MAKE_DIRECTORY, directory, change, name);
+				}
+			} finally {
+				lock.unlockWrite(stamp);
 			}
+		} finally {
+			structureLock.unlockRead(structureStamp);
 		}
+		return result.succeed(node);
 	}
 
 	/**
-	 * Prints out the directory tree that has the current cursor as its root.
+	 * Creates a file in a directory, or, if the directory already has a file with
+	 * that name, marks the file as modified now, like <code>touch</code>. A
+	 * touched file is moved to its new entries in the size and modification time
+	 * indexes, and the rest of the tree is left alone.
 	 * 
-	 * <dl>
-	 * <dt>Postconditions:</dt>
-	 * <dd>The tree starting from the current path has been printed to the
-	 * user.</dd>
-	 * </dl>
+	 * @param directory The directory the file is in
+	 * @param name      The name of the file
+	 * @param size      The new size of the file in bytes, or -1 to keep the size
+	 *                  of an existing file and give a new file a size of 0
+	 * @return The new or touched file
+	 * @throws IllegalArgumentException  If the name contains any white space or '/'
+	 *                                   characters
+	 * @throws FullDirectoryException    If the file is new and the directory is
+	 *                                   full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If the directory has a directory with the
+	 *                                   name
+	 * @throws UnresolvedPathException   If the directory has been removed from the
+	 *                                   tree
 	 */
-	public void printDirectoryTree() {
-		printDirectoryTree(cursor, 0);
+	DirectoryNode touchFile(DirectoryNode directory, String name, long size) throws IllegalArgumentException,
+			FullDirectoryException, NotADirectoryException, ConflictingNamesException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryTouchFile(directory, name, size, result);
+		return result.check();
 	}
 
 	/**
-	 * Prints out the entire directory tree.
+	 * Creates or touches a file, like <code>touchFile</code>, but reports a
+	 * failure in a result instead of throwing.
+	 * 
+	 * @param directory The directory the file is in
+	 * @param name      The name of the file
+	 * @param size      The new size of the file in bytes, or -1 to keep it
+	 * @param result    Overwritten with the outcome, and the new or touched file if
+	 *                  the status is OK
+	 * @return OK, INVALID_ARGUMENT if the name contains any white space or '/'
+	 *         characters, FULL_DIRECTORY if the file is new and the directory is
+	 *         full, NOT_A_DIRECTORY, CONFLICTING_NAMES if the directory has a
+	 *         directory with the name, or UNRESOLVED_PATH if the directory has
+	 *         been removed from the tree
+	 */
+	int tryTouchFile(DirectoryNode directory, String name, long size, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			touchAndRecord(directory, name, size, System.currentTimeMillis(), result);
+			return countFailure(touchStatistics, result);
+		} catch (RuntimeException e) {
+			touchStatistics.recordError(e);
+			throw e;
+		} finally {
+			touchStatistics.recordSince(start);
+			indexes.reclaim();
+		}
+	}
+
+	/**
+	 * Does the work of <code>tryTouchFile</code>.
+	 * 
+	 * @param directory        The directory the file is in
+	 * @param name             The name of the file
+	 * @param size             The new size of the file, or -1 to keep it
+	 * @param modificationTime The new modification time of the file
+	 * @param result           Overwritten with the outcome
+	 * @return The status of the outcome
+	 */
+	private int touchAndRecord(DirectoryNode directory, String name, long size, long modificationTime,
+			TreeResult result) {
+		versions.checkJournal();
+		name = name.trim();
+		DirectoryNode file = directory.isFile() ? null : lookupChild(directory, name);
+		if (file == null) {
+			if (addAndRecord(directory, name, true, Math.max(size, 0), modificationTime, modificationTime,
+					result) != TreeResult.CONFLICTING_NAMES) {
+				return result.getStatus();
+			}
+			// Another thread made it first
+			file = lookupChild(directory, name);
+			if (file == null) {
+				return result.getStatus();
+			}
+		}
+		if (!file.isFile()) {
+			return result.fail(TreeResult.CONFLICTING_NAMES,
+					"You cannot have two files or two directories with the same name.");
+		}
+		long structureStamp = structureLock.readLock();
+		try {
+			int[] filePath = indexPathOf(file);
+			if (filePath == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The file has been removed.");
+			}
+			// The file may have been moved since it was looked up
+			DirectoryNode parent = file.getParent();
+			StampedLock lock = stripeOf(parent);
+			long stamp = lock.writeLock();
+			try {
+				indexes.touch(file, size, modificationTime);
+				long newSize = file.getSize();
+				versions.record(MutationJournal.TOUCH, parent,
+						root -> root.withDescendant(filePath, old -> old.withAttributes(newSize, modificationTime)),
+						file.getName(), Long.toString(newSize), Long.toString(modificationTime));
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		} finally {
+			structureLock.unlockRead(structureStamp);
+		}
+		return result.succeed(file);
+	}
+
+	/**
+	 * Creates every missing directory on a path, like <code>mkdir -p</code>. The
+	 * path is followed and extended in a single pass, without moving any cursor.
+	 * Directories that already exist are left as they are. The missing ones are
+	 * built as one detached chain and attached at once, so a deep path publishes
+	 * a single version.
+	 * 
+	 * @param from The directory the path starts from
+	 * @param path The path of directories to create
+	 * @return The directory at the end of the path
+	 * @throws IllegalArgumentException If a name on the path contains any white
+	 *                                  space
+	 * @throws FullDirectoryException   If a directory on the path is full
+	 * @throws NotADirectoryException   If the path passes through a file
+	 * @throws UnresolvedPathException  If the starting directory has been removed
+	 *                                  from the tree
+	 */
+	DirectoryNode makeDirectories(DirectoryNode from, String path)
+			throws IllegalArgumentException, FullDirectoryException, NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		if (tryMakeDirectories(from, path, result) == TreeResult.FULL_DIRECTORY) {
+			throw new FullDirectoryException(result.getMessage());
+		}
+		return result.checkPath();
+	}
+
+	/**
+	 * Creates every missing directory on a path, like
+	 * <code>makeDirectories</code>, but reports a failure in a result instead of
+	 * throwing.
+	 * 
+	 * @param from   The directory the path starts from
+	 * @param path   The path of directories to create
+	 * @param result Overwritten with the outcome, and the directory at the end of
+	 *               the path if the status is OK
+	 * @return OK, INVALID_ARGUMENT if a name on the path contains any white space,
+	 *         FULL_DIRECTORY, NOT_A_DIRECTORY if the path passes through a file,
+	 *         or UNRESOLVED_PATH if the starting directory has been removed from
+	 *         the tree
+	 */
+	int tryMakeDirectories(DirectoryNode from, String path, TreeResult result) {
+		String[] names = path.split("/");
+		DirectoryNode node = from;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].isEmpty()) {
+				continue;
+			}
+			DirectoryNode child = lookupChild(node, names[i]);
+			if (child == null) {
+				DirectoryNode bottom = buildChain(names, i, result);
+				if (bottom == null) {
+					return result.getStatus();
+				}
+				DirectoryNode top = bottom;
+				while (top.getParent() != null) {
+					top = top.getParent();
+				}
+				if (attachAndRecord(node, top, result) == TreeResult.OK) {
+					return result.succeed(bottom);
+				} else if (result.getStatus() != TreeResult.CONFLICTING_NAMES) {
+					return result.getStatus();
+				}
+				// Another thread made it first
+				child = lookupChild(node, names[i]);
+				if (child == null) {
+					return result.fail(TreeResult.UNRESOLVED_PATH, "The path changed while it was being made.");
+				}
+			}
+			if (child.isFile()) {
+				return result.fail(TreeResult.NOT_A_DIRECTORY, "The path passes through a file.");
+			}
+			node = child;
+		}
+		return result.succeed(node);
+	}
+
+	/**
+	 * Builds a detached chain of directories, each the only child of the one
+	 * before, from the names left on a path.
+	 * 
+	 * @param names  The names on the path, some of which may be empty
+	 * @param first  The index of the first name to build
+	 * @param result Overwritten with the outcome if a name is not valid
+	 * @return The last directory of the chain, or null if a name contains any
+	 *         white space
+	 */
+	private static DirectoryNode buildChain(String[] names, int first, TreeResult result) {
+		DirectoryNode bottom = null;
+		for (int i = first; i < names.length; i++) {
+			if (names[i].isEmpty()) {
+				continue;
+			}
+			String name = names[i].trim();
+			if (name.indexOf(" ") != -1) {
+				result.fail(TreeResult.INVALID_ARGUMENT, "File name should not have whitespace or '/' characters.");
+				return null;
+			}
+			DirectoryNode directory = new DirectoryNode(name, false);
+			if (bottom != null && bottom.tryAddChild(directory, result) != TreeResult.OK) {
+				return null;
+			}
+			bottom = directory;
+		}
+		return bottom;
+	}
+
+	/**
+	 * Attaches a subtree that was built outside the tree, such as by
+	 * <code>HostImport</code>, as a new child of a directory. The nodes below the
+	 * subtree's root are not checked again. They can be found by name once this
+	 * returns.
 	 * 
 	 * <dl>
-	 * <dt>Postconditions:</dt>
-	 * <dd>The tree starting from the root has been printed to the user.</dd>
+	 * <dt>Preconditions:</dt>
+	 * <dd>The subtree has no parent, and no other thread uses it.</dd>
 	 * </dl>
+	 * 
+	 * @param directory The directory to add the subtree to
+	 * @param subtree   The root of the subtree
+	 * @throws FullDirectoryException    If the directory is full
+	 * @throws NotADirectoryException    If the directory is a file
+	 * @throws ConflictingNamesException If a node with the same name as the
+	 *                                   subtree's root already exists
+	 * @throws UnresolvedPathException   If the directory has been removed from the
+	 *                                   tree
 	 */
-	public void printDirectoryTreeFromRoot() {
-		printDirectoryTree(root, 0);
+	void attachSubtree(DirectoryNode directory, DirectoryNode subtree)
+			throws FullDirectoryException, NotADirectoryException, ConflictingNamesException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryAttachSubtree(directory, subtree, result);
+		result.check();
 	}
 
 	/**
-	 * Returns a string listing all the children of the cursor. Names are separated
-	 * by spaces " ".
+	 * Attaches a subtree built outside the tree as a new child of a directory,
+	 * like <code>attachSubtree</code>, but reports a failure in a result instead
+	 * of throwing.
 	 * 
 	 * <dl>
-	 * <dt>Postconditions:</dt>
-	 * <dd>The cursor remains at its original location.</dd>
+	 * <dt>Preconditions:</dt>
+	 * <dd>The subtree has no parent, and no other thread uses it.</dd>
 	 * </dl>
 	 * 
-	 * @returns A formatted string of directory names
+	 * @param directory The directory to add the subtree to
+	 * @param subtree   The root of the subtree
+	 * @param result    Overwritten with the outcome, and the subtree if the status
+	 *                  is OK
+	 * @return OK, FULL_DIRECTORY, NOT_A_DIRECTORY, CONFLICTING_NAMES if a node
+	 *         with the same name as the subtree's root already exists, or
+	 *         UNRESOLVED_PATH if the directory has been removed from the tree
 	 */
-	public String listDirectory() {
-		return String.join(" ", cursor.getChildrenNames()).replaceAll(" null", "");
+	int tryAttachSubtree(DirectoryNode directory, DirectoryNode subtree, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			attachAndRecord(directory, subtree, result);
+			return countFailure(attachStatistics, result);
+		} catch (RuntimeException e) {
+			attachStatistics.recordError(e);
+			throw e;
+		} finally {
+			attachStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work of <code>tryAttachSubtree</code>.
+	 * 
+	 * @param directory The directory to add the subtree to
+	 * @param subtree   The root of the subtree
+	 * @param result    Overwritten with the outcome, and the subtree if the status
+	 *                  is OK
+	 * @return The status of the outcome
+	 */
+	private int attachAndRecord(DirectoryNode directory, DirectoryNode subtree, TreeResult result) {
+		versions.checkJournal();
+		// The subtree is still private, so its version is built before any lock
+		PersistentNode version = PersistentNode.copyOf(subtree);
+		long structureStamp = structureLock.readLock();
+		try {
+			int[] directoryPath = indexPathOf(directory);
+			if (directoryPath == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The directory has been removed.");
+			}
+			StampedLock lock = stripeOf(directory);
+			long stamp = lock.writeLock();
+			try {
+				if (directory.tryAddChild(subtree, result) != TreeResult.OK) {
+					return result.getStatus();
+				}
+				versions.recordSubtree(directory, subtree,
+						root -> root.withDescendant(directoryPath, parent -> parent.withChildAppended(version)));
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+			// Indexed once attached: a search that finds a detached node drops it
+			indexes.addSubtree(subtree);
+		} finally {
+			structureLock.unlockRead(structureStamp);
+		}
+		return result.succeed(subtree);
+	}
+
+	/**
+	 * Moves the node located at sourcePath to targetPath, with both paths relative
+	 * to a starting directory. The tree is locked exclusively for the move.
+	 * 
+	 * @param from       The directory the paths start from
+	 * @param sourcePath The source of the node
+	 * @param targetPath The destination of the node
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If the sourcePath or targetPath are
+	 *                                   invalid, or the target is inside the
+	 *                                   source.
+	 * @throws FullDirectoryException    If the directory at targetPath is already
+	 *                                   full.
+	 * @throws ConflictingNamesException If a node of the same type and name already
+	 *                                   exists
+	 */
+	void moveNode(DirectoryNode from, String sourcePath, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		moveNodes(from, new String[] { sourcePath }, targetPath);
+	}
+
+	/**
+	 * Moves every node located at one of sourcePaths into the directory at
+	 * targetPath, with all paths relative to a starting directory. Every path is
+	 * resolved and every move is checked before anything changes, so either all
+	 * the nodes move or none do. The nodes are added to the target in the order
+	 * given.
+	 * 
+	 * @param from        The directory the paths start from
+	 * @param sourcePaths The sources of the nodes
+	 * @param targetPath  The destination of the nodes
+	 * @throws IllegalArgumentException  If there are no sources, or more than
+	 *                                   <code>MAX_MOVE_SOURCES</code>
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If a sourcePath or the targetPath is
+	 *                                   invalid, the target is inside a source,
+	 *                                   or a source is inside another one.
+	 * @throws FullDirectoryException    If the directory at targetPath does not
+	 *                                   have room for the nodes.
+	 * @throws ConflictingNamesException If two nodes would have the same name in
+	 *                                   the target
+	 */
+	void moveNodes(DirectoryNode from, String[] sourcePaths, String targetPath) throws IllegalArgumentException,
+			NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		TreeResult result = new TreeResult();
+		tryMoveNodes(from, sourcePaths, targetPath, result);
+		result.check();
+	}
+
+	/**
+	 * Moves every node located at one of sourcePaths into the directory at
+	 * targetPath, like <code>moveNodes</code>, but reports a failure in a result
+	 * instead of throwing.
+	 * 
+	 * @param from        The directory the paths start from
+	 * @param sourcePaths The sources of the nodes
+	 * @param targetPath  The destination of the nodes
+	 * @param result      Overwritten with the outcome
+	 * @return OK, INVALID_ARGUMENT if there are no sources or more than
+	 *         <code>MAX_MOVE_SOURCES</code>, NOT_A_DIRECTORY if the targetPath
+	 *         does not resolve to a directory, UNRESOLVED_PATH if a path is
+	 *         invalid or a node would be moved into itself, FULL_DIRECTORY, or
+	 *         CONFLICTING_NAMES
+	 */
+	int tryMoveNodes(DirectoryNode from, String[] sourcePaths, String targetPath, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			moveAndRecord(from, sourcePaths, targetPath, result);
+			return countFailure(moveStatistics, result);
+		} catch (RuntimeException e) {
+			moveStatistics.recordError(e);
+			throw e;
+		} finally {
+			moveStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work of <code>tryMoveNodes</code>.
+	 * 
+	 * @param from        The directory the paths start from
+	 * @param sourcePaths The sources of the nodes
+	 * @param targetPath  The destination of the nodes
+	 * @param result      Overwritten with the outcome
+	 * @return The status of the outcome
+	 */
+	private int moveAndRecord(DirectoryNode from, String[] sourcePaths, String targetPath, TreeResult result) {
+		versions.checkJournal();
+		if (sourcePaths.length == 0 || sourcePaths.length > MAX_MOVE_SOURCES) {
+			return result.fail(TreeResult.INVALID_ARGUMENT,
+					"Between 1 and " + MAX_MOVE_SOURCES + " nodes can be moved at once.");
+		}
+		int count = sourcePaths.length;
+		long structureStamp = structureLock.writeLock();
+		try {
+			if (indexPathOf(from) == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The directory has been removed.");
+			}
+			// Resolve and check everything before the first change
+			DirectoryNode target = resolve(from, targetPath, result);
+			DirectoryNode[] sources = new DirectoryNode[count];
+			DirectoryNode[] sourceParents = new DirectoryNode[count];
+			for (int i = 0; i < count && target != null; i++) {
+				int split = sourcePaths[i].lastIndexOf('/');
+				sourceParents[i] = split == -1 ? from : resolve(from, sourcePaths[i].substring(0, split), result);
+				if (sourceParents[i] == null) {
+					target = null;
+				} else {
+					sources[i] = sourceParents[i].getChild(sourcePaths[i].substring(split + 1));
+				}
+			}
+			if (target == null) {
+				return result.getStatus() == TreeResult.NOT_A_DIRECTORY
+						? result.fail(TreeResult.NOT_A_DIRECTORY, "The target path does not resolve to a directory.")
+						: result.fail(TreeResult.UNRESOLVED_PATH, "The target or source path is invalid");
+			}
+			Set<DirectoryNode> sourceSet = new HashSet<>();
+			Set<Integer> sourceNameIds = new HashSet<>();
+			int added = 0;
+			for (int i = 0; i < count; i++) {
+				if (sources[i] == null) {
+					return result.fail(TreeResult.UNRESOLVED_PATH, "The target or source path is invalid");
+				} else if (!sourceSet.add(sources[i]) || !sourceNameIds.add(sources[i].getNameId())) {
+					return result.fail(TreeResult.CONFLICTING_NAMES,
+							"You cannot have two nodes of the same type and name.");
+				} else if (sourceParents[i] != target) {
+					if (target.getChildIndex(sources[i].getNameId()) != -1) {
+						return result.fail(TreeResult.CONFLICTING_NAMES,
+								"You cannot have two nodes of the same type and name.");
+					}
+					added++;
+				}
+			}
+			for (DirectoryNode node = target; node != null; node = node.getParent()) {
+				if (sourceSet.contains(node)) {
+					return result.fail(TreeResult.UNRESOLVED_PATH, "You cannot move a directory into itself.");
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				for (DirectoryNode node = sourceParents[i]; node != null; node = node.getParent()) {
+					if (sourceSet.contains(node)) {
+						return result.fail(TreeResult.UNRESOLVED_PATH,
+								"You cannot move a node along with its own directory.");
+					}
+				}
+			}
+			if (target.getChildrenCount() + added > target.getChildLimit()) {
+				return result.fail(TreeResult.FULL_DIRECTORY, "The directory at the target path is full.");
+			}
+			// Commit every move while all the changed directories are locked. No other
+			// thread can hold two stripes while this one holds the structure lock, so
+			// the order they are taken in does not matter.
+			List<StampedLock> locks = new ArrayList<>();
+			List<Long> stamps = new ArrayList<>();
+			for (int i = 0; i <= count; i++) {
+				StampedLock lock = stripeOf(i == count ? target : sourceParents[i]);
+				if (!locks.contains(lock)) {
+					stamps.add(lock.writeLock());
+					locks.add(lock);
+				}
+			}
+			int[][] sourceParentPaths = new int[count][];
+			int[] sourceIndexes = new int[count];
+			int[][] targetPaths = new int[count][];
+			try {
+				for (int i = 0; i < count; i++) {
+					sourceParentPaths[i] = indexPathOf(sourceParents[i]);
+					sourceIndexes[i] = sourceParents[i].getChildIndex(sources[i].getNameId());
+					if (sourceParents[i].tryRemoveChild(sources[i].getName()) == null) {
+						throw new IllegalStateException("A checked move could not be made.");
+					}
+					targetPaths[i] = indexPathOf(target);
+					if (target.tryAddChild(sources[i], result) != TreeResult.OK) {
+						throw new IllegalStateException("A checked move could not be made: " + result.getMessage());
+					}
+				}
+			} finally {
+				for (int i = locks.size() - 1; i >= 0; i--) {
+					locks.get(i).unlockWrite(stamps.get(i));
+				}
+			}
+			structureVersion++;
+			UnaryOperator<PersistentNode> change = root -> {
+				for (int i = 0; i < count; i++) {
+					int index = sourceIndexes[i];
+					PersistentNode moved = root.getDescendant(sourceParentPaths[i]).getChild(index);
+					root = root.withDescendant(sourceParentPaths[i], parent -> parent.withoutChild(index))
+							.withDescendant(targetPaths[i], parent -> parent.withChildAppended(moved));
+				}
+				return root;
+			};
+			if (count == 1) {
+				versions.record(MutationJournal.MOVE, from, change, sourcePaths[0], targetPath);
+			} else {
+				String[] arguments = new String[count + 1];
+				arguments[0] = targetPath;
+				System.arraycopy(sourcePaths, 0, arguments, 1, count);
+				versions.record(MutationJournal.MOVE_ALL, from, change, arguments);
+			}
+		} finally {
+			structureLock.unlockWrite(structureStamp);
+		}
+		return result.succeed(null);
+	}
+
+	/**
+	 * Removes the node located at a path, with everything under it. The subtree is
+	 * unlinked from its parent in one step, however large it is, and its nodes are
+	 * dropped from the name index later, a batch at a time.
+	 * 
+	 * @param from The directory the path starts from
+	 * @param path The path of the node to remove
+	 * @return The removed node
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	DirectoryNode removeNode(DirectoryNode from, String path) throws NotADirectoryException, UnresolvedPathException {
+		TreeResult result = new TreeResult();
+		tryRemoveNode(from, path, result);
+		return result.checkPath();
+	}
+
+	/**
+	 * Removes the node located at a path, with everything under it, like
+	 * <code>removeNode</code>, but reports a failure in a result instead of
+	 * throwing.
+	 * 
+	 * @param from   The directory the path starts from
+	 * @param path   The path of the node to remove
+	 * @param result Overwritten with the outcome, and the removed node if the
+	 *               status is OK
+	 * @return OK, NOT_A_DIRECTORY if the path passes through a file, or
+	 *         UNRESOLVED_PATH if the path is invalid
+	 */
+	int tryRemoveNode(DirectoryNode from, String path, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			removeAndRecord(from, path, result);
+			return countFailure(removeStatistics, result);
+		} catch (RuntimeException e) {
+			removeStatistics.recordError(e);
+			throw e;
+		} finally {
+			removeStatistics.recordSince(start);
+			indexes.reclaim();
+		}
+	}
+
+	/**
+	 * Does the work of <code>tryRemoveNode</code>.
+	 * 
+	 * @param from   The directory the path starts from
+	 * @param path   The path of the node to remove
+	 * @param result Overwritten with the outcome
+	 * @return The status of the outcome
+	 */
+	private int removeAndRecord(DirectoryNode from, String path, TreeResult result) {
+		versions.checkJournal();
+		int split = path.lastIndexOf('/');
+		String name = path.substring(split + 1);
+		DirectoryNode removed;
+		long structureStamp = structureLock.writeLock();
+		try {
+			if (indexPathOf(from) == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The directory has been removed.");
+			}
+			DirectoryNode parent = split == -1 ? from : resolve(from, path.substring(0, split), result);
+			if (parent == null) {
+				return result.getStatus();
+			}
+			int[] parentPath = indexPathOf(parent);
+			int index = parent.getChildIndex(name);
+			if (index == -1) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The path is invalid.");
+			}
+			StampedLock lock = stripeOf(parent);
+			long stamp = lock.writeLock();
+			try {
+				removed = parent.tryRemoveChild(name);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+			structureVersion++;
+			versions.record(MutationJournal.REMOVE, from,
+					root -> root.withDescendant(parentPath, directory -> directory.withoutChild(index)), path);
+		} finally {
+			structureLock.unlockWrite(structureStamp);
+		}
+		indexes.remove(removed);
+		return result.succeed(removed);
+	}
+
+	/**
+	 * Copies the node located at sourcePath, with everything under it, into the
+	 * directory at targetPath. The copy shares the source's nodes in the current
+	 * version, so it takes the same time however large the source is; its own
+	 * nodes are built as they are first used.
+	 * 
+	 * @param from       The directory the paths start from
+	 * @param sourcePath The path of the node to copy
+	 * @param targetPath The path of the directory to copy it into
+	 * @return The copy
+	 * @throws NotADirectoryException    If the targetPath does not resolve to a
+	 *                                   directory.
+	 * @throws UnresolvedPathException   If the sourcePath or targetPath are
+	 *                                   invalid.
+	 * @throws FullDirectoryException    If the directory at targetPath is already
+	 *                                   full.
+	 * @throws ConflictingNamesException If the target already has a node with the
+	 *                                   source's name
+	 */
+	DirectoryNode copyNode(DirectoryNode from, String sourcePath, String targetPath)
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		TreeResult result = new TreeResult();
+		tryCopyNode(from, sourcePath, targetPath, result);
+		return result.check();
+	}
+
+	/**
+	 * Copies the node located at sourcePath into the directory at targetPath, like
+	 * <code>copyNode</code>, but reports a failure in a result instead of
+	 * throwing.
+	 * 
+	 * @param from       The directory the paths start from
+	 * @param sourcePath The path of the node to copy
+	 * @param targetPath The path of the directory to copy it into
+	 * @param result     Overwritten with the outcome, and the copy if the status
+	 *                   is OK
+	 * @return OK, NOT_A_DIRECTORY if the targetPath does not resolve to a
+	 *         directory, UNRESOLVED_PATH if a path is invalid, FULL_DIRECTORY, or
+	 *         CONFLICTING_NAMES if the target already has a node with the
+	 *         source's name
+	 */
+	int tryCopyNode(DirectoryNode from, String sourcePath, String targetPath, TreeResult result) {
+		long start = System.nanoTime();
+		try {
+			copyAndRecord(from, sourcePath, targetPath, result);
+			return countFailure(copyStatistics, result);
+		} catch (RuntimeException e) {
+			copyStatistics.recordError(e);
+			throw e;
+		} finally {
+			copyStatistics.recordSince(start);
+			indexes.reclaim();
+		}
+	}
+
+	/**
+	 * Does the work of <code>tryCopyNode</code>.
+	 * 
+	 * @param from       The directory the paths start from
+	 * @param sourcePath The path of the node to copy
+	 * @param targetPath The path of the directory to copy it into
+	 * @param result     Overwritten with the outcome
+	 * @return The status of the outcome
+	 */
+	private int copyAndRecord(DirectoryNode from, String sourcePath, String targetPath, TreeResult result) {
+		versions.checkJournal();
+		// The shared structure lock keeps moves and removals out, so paths stay valid
+		long structureStamp = structureLock.readLock();
+		try {
+			DirectorySession resolver = newSession();
+			resolver.setCursor(from);
+			if (resolver.tryLookupPath(sourcePath, result) != TreeResult.OK) {
+				return result.getStatus();
+			}
+			DirectoryNode source = result.getNode();
+			if (resolver.tryLookupPath(targetPath, result) != TreeResult.OK) {
+				return result.getStatus();
+			}
+			DirectoryNode target = result.getNode();
+			int[] sourceIndexes = indexPathOf(source);
+			int[] targetIndexes = indexPathOf(target);
+			if (sourceIndexes == null || targetIndexes == null) {
+				return result.fail(TreeResult.UNRESOLVED_PATH, "The directory has been removed.");
+			} else if (target.isFile()) {
+				return result.fail(TreeResult.NOT_A_DIRECTORY, "The target path does not resolve to a directory.");
+			}
+			StampedLock lock = stripeOf(target);
+			long stamp = lock.writeLock();
+			try {
+				if (target.getChildIndex(source.getNameId()) != -1) {
+					return result.fail(TreeResult.CONFLICTING_NAMES,
+							"You cannot have two nodes of the same type and name.");
+				} else if (target.getChildrenCount() >= target.getChildLimit()) {
+					return result.fail(TreeResult.FULL_DIRECTORY, "The directory at the target path is full.");
+				}
+				// The source is read from the very version the copy is published on top of,
+				// so the copy holds exactly the changes numbered before it
+				PersistentNode[] copied = new PersistentNode[1];
+				versions.record(MutationJournal.COPY, from, root -> {
+					copied[0] = root.getDescendant(sourceIndexes);
+					return root.withDescendant(targetIndexes, parent -> parent.withChildAppended(copied[0]));
+				}, sourcePath, targetPath);
+				DirectoryNode copy = DirectoryNode.copyOf(copied[0], indexes::addBuilt);
+				if (target.tryAddChild(copy, result) != TreeResult.OK) {
+					throw new IllegalStateException("A checked copy could not be made: " + result.getMessage());
+				}
+				indexes.addBuilt(copy);
+				return result.succeed(copy);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		} finally {
+			structureLock.unlockRead(structureStamp);
+		}
+	}
+
+	/**
+	 * Follows a path from a directory without taking any locks. Callers must hold
+	 * the structure lock exclusively.
+	 * 
+	 * @param from   The directory the path starts from
+	 * @param path   The path to follow
+	 * @param result Overwritten with the failure if the path cannot be followed
+	 * @return The directory the path leads to, or null if the path passes through
+	 *         a file or is invalid
+	 */
+	private static DirectoryNode resolve(DirectoryNode from, String path, TreeResult result) {
+		DirectoryNode node = from;
+		for (String name : path.split("/")) {
+			DirectoryNode child = node.getChild(name);
+			if (child == null) {
+				result.fail(TreeResult.UNRESOLVED_PATH, "The path is invalid.");
+				return null;
+			} else if (child.isFile()) {
+				result.fail(TreeResult.NOT_A_DIRECTORY, "You cannot move to a file.");
+				return null;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Follows parent pointers from a node up to the root, noting the node's index
+	 * in each parent. Callers must hold the structure lock, so the indexes are
+	 * stable.
+	 * 
+	 * @param node The node to find
+	 * @return The index of each node on the path within its parent, starting
+	 *         below the root, or null if the node is not in this tree
+	 */
+	private int[] indexPathOf(DirectoryNode node) {
+		int length = 0;
+		DirectoryNode current = node;
+		for (; current != null && current != root; current = current.getParent()) {
+			length++;
+		}
+		if (current == null) {
+			return null;
+		}
+		int[] path = new int[length];
+		current = node;
+		for (int i = length - 1; i >= 0; i--) {
+			DirectoryNode parent = current.getParent();
+			path[i] = parent.getChildIndex(current.getNameId());
+			current = parent;
+		}
+		return path;
+	}
+
+	/**
+	 * Applies a change read back from a journal. Paths in the record start at the
+	 * root, so the change does not depend on where any cursor is.
+	 * 
+	 * @param sequence  The sequence number of the change
+	 * @param operation The journal operation code
+	 * @param arguments The arguments of the operation
+	 * @throws IOException If the change cannot be applied to this tree
+	 */
+	void applyJournalRecord(long sequence, byte operation, String[] arguments) throws IOException {
+		MutationJournal recordingJournal = versions.getJournal();
+		versions.setJournal(null);
+		try {
+			DirectorySession replaySession = newSession();
+			replaySession.setCursor(resolveFromRoot(arguments[0]));
+			switch (operation) {
+			case MutationJournal.MAKE_DIRECTORY:
+				replaySession.makeDirectory(arguments[1]);
+				break;
+			case MutationJournal.MAKE_FILE:
+				if (arguments.length > 2) {
+					// Files recorded with their metadata get it back
+					insertChild(replaySession.getCursor(), arguments[1], true, Long.parseLong(arguments[2]),
+							Long.parseLong(arguments[3]), Long.parseLong(arguments[4]));
+				} else {
+					replaySession.makeFile(arguments[1]);
+				}
+				break;
+			case MutationJournal.TOUCH:
+				TreeResult result = new TreeResult();
+				touchAndRecord(replaySession.getCursor(), arguments[1], Long.parseLong(arguments[2]),
+						Long.parseLong(arguments[3]), result);
+				result.check();
+				break;
+			case MutationJournal.MOVE:
+				replaySession.moveDirectory(arguments[1], arguments[2]);
+				break;
+			case MutationJournal.REMOVE:
+				replaySession.removeNode(arguments[1]);
+				break;
+			case MutationJournal.COPY:
+				replaySession.copyNode(arguments[1], arguments[2]);
+				break;
+			case MutationJournal.MOVE_ALL:
+				replaySession.moveNodes(Arrays.copyOfRange(arguments, 2, arguments.length), arguments[1]);
+				break;
+			default:
+				throw new IOException("Unknown journal operation " + operation);
+			}
+		} catch (NotADirectoryException | UnresolvedPathException | FullDirectoryException
+				| ConflictingNamesException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			// A number that does not parse is an IllegalArgumentException too
+			throw new IOException("Journal record " + sequence + " does not match the tree", e);
+		} finally {
+			versions.setJournal(recordingJournal);
+		}
+		versions.reset(versions.pin().getRoot(), sequence);
+	}
+
+	/**
+	 * Finds the directory at a path that starts with the root's name, such as one
+	 * returned by <code>getPath</code>.
+	 * 
+	 * @param path The path to follow
+	 * @return The directory the path leads to
+	 * @throws NotADirectoryException  If the path passes through a file
+	 * @throws UnresolvedPathException If the path is invalid
+	 */
+	private DirectoryNode resolveFromRoot(String path) throws NotADirectoryException, UnresolvedPathException {
+		DirectorySession resolver = newSession();
+		int slash = path.indexOf('/');
+		if (!(slash == -1 ? path : path.substring(0, slash)).equals(root.getName())) {
+			throw new UnresolvedPathException("The path does not start at the root.");
+		}
+		if (slash != -1) {
+			resolver.changeDirectory(path.substring(slash + 1));
+		}
+		return resolver.getCursor();
+	}
+
+	/**
+	 * Prints all paths that resolve to a node with the specified name, one per
+	 * line.
+	 * 
+	 * @param name Name of the desired nodes
+	 * @param out  Where the paths are written
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	public void printAllFound(String name, Appendable out) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		for (String path : findAll(name)) {
+			out.append(path).append(lineSeparator);
+		}
+	}
+
+	/**
+	 * Returns a string containing a path to the specified directory.
+	 * 
+	 * @param name Name of the desired node
+	 * @return The path of the first node found, or the empty string if there is
+	 *         none
+	 */
+	public String find(String name) {
+		List<String> paths = findAll(name);
+		return paths.isEmpty() ? "" : paths.get(0);
+	}
+
+	/**
+	 * Returns the paths of every node with the specified name. Matches are looked
+	 * up in the name index, so only the paths of matching nodes are built.
+	 * 
+	 * @param name Name of the desired nodes
+	 * @return The paths of the matching nodes, in pre-order
+	 */
+	public List<String> findAll(String name) {
+		List<String> paths = new ArrayList<>();
+		findAll(root, NamePattern.literal(name), paths::add);
+		return paths;
+	}
+
+	/**
+	 * Hands the path of every node at or below a directory whose name matches a
+	 * pattern to an action, in pre-order, the order a walk of the tree would find
+	 * them in. Matching names are looked up in the name index, so only the paths
+	 * of matching nodes are built, and a pattern with a fixed prefix only tests
+	 * the names that start with it. When the directory holds fewer nodes than the
+	 * index has matches, its subtree is walked in the current version instead.
+	 * 
+	 * @param directory The directory to search under
+	 * @param pattern   The test applied to each node name
+	 * @param action    Called with the path of each matching node
+	 * @return The number of matching nodes
+	 */
+	int findAll(DirectoryNode directory, NamePattern pattern, Consumer<String> action) {
+		long start = System.nanoTime();
+		try {
+			return findIndexed(directory, pattern, action);
+		} catch (RuntimeException e) {
+			findStatistics.recordError(e);
+			throw e;
+		} finally {
+			findStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work of <code>findAll</code>.
+	 * 
+	 * @param directory The directory to search under
+	 * @param pattern   The test applied to each node name
+	 * @param action    Called with the path of each matching node
+	 * @return The number of matching nodes
+	 */
+	private int findIndexed(DirectoryNode directory, NamePattern pattern, Consumer<String> action) {
+		Predicate<PersistentNode> test = node -> pattern.matches(node.getName());
+		int subtreeSize = directory.getDescendantFileCount() + directory.getDescendantDirectoryCount() + 1;
+		if (indexes.countMatching(pattern, subtreeSize) > subtreeSize) {
+			return findInSubtree(directory, test, action);
+		}
+		List<Match> matches = new ArrayList<>();
+		List<DirectoryNode> detached = new ArrayList<>();
+		indexes.forEachMatching(pattern, node -> {
+			Match match = matchWithin(node, directory);
+			if (match != null) {
+				matches.add(match);
+			} else if (getPath(node) == null) {
+				detached.add(node);
+			}
+		});
+		// Nodes that were removed from the tree are dropped from the index lazily
+		for (DirectoryNode node : detached) {
+			indexes.forget(node);
+		}
+		findInPendingCopies(directory, test, matches::add);
+		// The index hands the matches over by name, so they are put in tree order
+		matches.sort(null);
+		for (Match match : matches) {
+			action.accept(match.path);
+		}
+		return matches.size();
+	}
+
+	/**
+	 * Finds the matching nodes at or below a directory by walking its subtree in
+	 * the current version, in pre-order.
+	 * 
+	 * @param directory The directory to search under
+	 * @param test      Picks the nodes to find
+	 * @param action    Called with the path of each matching node
+	 * @return The number of matching nodes
+	 */
+	private int findInSubtree(DirectoryNode directory, Predicate<PersistentNode> test, Consumer<String> action) {
+		PersistentNode start;
+		Match top;
+		long stamp = structureLock.readLock();
+		try {
+			int[] order = indexPathOf(directory);
+			String path = buildPath(directory);
+			if (order == null || path == null) {
+				return 0;
+			}
+			top = new Match(order, path);
+			start = pinVersion().getRoot().getDescendant(order);
+		} finally {
+			structureLock.unlockRead(stamp);
+		}
+		int found = 0;
+		if (test.test(start)) {
+			found++;
+			action.accept(top.path);
+		}
+		return found + findBelow(test, start, top, match -> action.accept(match.path));
+	}
+
+	/**
+	 * Hands the path of every file at or below a directory whose size or
+	 * modification time is within a range to an action, as each one is found.
+	 * Files are looked up in a sorted index, so only the files inside the range
+	 * are visited, in ascending order of the attribute. Files in copies whose
+	 * nodes have not been built yet come after the others.
+	 * 
+	 * @param directory The directory to search under
+	 * @param bySize    True to search by size, false by modification time
+	 * @param from      The lowest size or time in the range
+	 * @param to        The highest size or time in the range
+	 * @param action    Called with the path of each file in the range
+	 * @return The number of files in the range
+	 */
+	int findInRange(DirectoryNode directory, boolean bySize, long from, long to, Consumer<String> action) {
+		long start = System.nanoTime();
+		try {
+			int[] found = new int[1];
+			indexes.forEachInRange(bySize, from, to, file -> {
+				String path = getPathWithin(file, directory);
+				if (path != null) {
+					found[0]++;
+					action.accept(path);
+				}
+			});
+			return found[0] + findInPendingCopies(directory, node -> {
+				long value = bySize ? node.getSize() : node.getModificationTime();
+				return node.isFile() && value >= from && value <= to;
+			}, match -> action.accept(match.path));
+		} catch (RuntimeException e) {
+			findInRangeStatistics.recordError(e);
+			throw e;
+		} finally {
+			findInRangeStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Finds the matching nodes below the copied directories at or below a
+	 * directory whose children have not been built yet, and so are not indexed.
+	 * Copies that have been built or removed since are forgotten.
+	 * 
+	 * @param directory The directory to search under
+	 * @param test      Picks the nodes to find
+	 * @param action    Called with each matching node
+	 * @return The number of matching nodes
+	 */
+	private int findInPendingCopies(DirectoryNode directory, Predicate<PersistentNode> test,
+			Consumer<Match> action) {
+		int found = 0;
+		for (DirectoryNode pending : indexes.getPendingDirectories()) {
+			PersistentNode source = pending.getPendingSource();
+			String path = source == null ? null : getPath(pending);
+			Match copy;
+			if (path == null) {
+				// Built since, so its nodes are in the index, or removed
+				indexes.forgetPending(pending);
+			} else if ((copy = matchWithin(pending, directory)) != null) {
+				found += findBelow(test, source, copy, action);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the matching nodes below a node of a version, such as a copied
+	 * directory whose children have not been built yet, and so are not indexed.
+	 * Nodes are visited in pre-order, and only the paths of matching nodes are
+	 * built.
+	 * 
+	 * @param test   Picks the nodes to find
+	 * @param source The version of the node to search below
+	 * @param top    The node's place in the tree and its path
+	 * @param action Called with each matching node
+	 * @return The number of matching nodes
+	 */
+	private static int findBelow(Predicate<PersistentNode> test, PersistentNode source, Match top,
+			Consumer<Match> action) {
+		int found = 0;
+		List<PersistentNode> levels = new ArrayList<>(); // The node being walked at each level
+		int[] indexes = new int[8]; // The child being walked at each level
+		levels.add(source);
+		indexes[0] = -1;
+		while (!levels.isEmpty()) {
+			int depth = levels.size() - 1;
+			PersistentNode parent = levels.get(depth);
+			if (++indexes[depth] == parent.getChildrenCount()) {
+				levels.remove(depth);
+				continue;
+			}
+			PersistentNode node = parent.getChild(indexes[depth]);
+			if (test.test(node)) {
+				found++;
+				int[] order = Arrays.copyOf(top.order, top.order.length + depth + 1);
+				StringBuilder path = new StringBuilder(top.path);
+				for (int i = 0; i <= depth; i++) {
+					order[top.order.length + i] = indexes[i];
+					path.append('/').append(i < depth ? levels.get(i + 1).getName() : node.getName());
+				}
+				action.accept(new Match(order, path.toString()));
+			}
+			if (depth + 1 == indexes.length) {
+				indexes = Arrays.copyOf(indexes, indexes.length * 2);
+			}
+			indexes[depth + 1] = -1;
+			levels.add(node);
+		}
+		return found;
+	}
+
+	/**
+	 * The <code>Match</code> class is a node found by a search: its path, and the
+	 * index of each node on the way to it, which orders matches as a walk of the
+	 * tree would find them.
+	 */
+	private static final class Match implements Comparable<Match> {
+		private final int[] order; // The index of each node on the path within its parent
+		private final String path; // The path of the node
+
+		/**
+		 * Orders matches in pre-order. A node comes before its descendants, and
+		 * otherwise the first index where the paths differ decides.
+		 * 
+		 * @param other The match to compare with
+		 * @return A negative number, zero or a positive number as this match comes
+		 *         before, at the same place as or after the other one
+		 */
+		@Override
+		public int compareTo(Match other) {
+			return Arrays.compare(order, other.order);
+		}
+
+		/**
+		 * Returns an instance of Match
+		 * 
+		 * @param order The index of each node on the path within its parent
+		 * @param path  The path of the node
+		 */
+		private Match(int[] order, String path) {
+			this.order = order;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Returns the paths of every node whose name satisfies the matcher, visiting
+	 * the whole tree in pre-order on the calling thread. The search runs over the
+	 * current version, so changes made while it runs are not seen.
+	 * 
+	 * @param matcher The test applied to each node name
+	 * @return The paths of the matching nodes, in pre-order
+	 */
+	public List<String> findMatching(Predicate<String> matcher) {
+		long start = System.nanoTime();
+		try {
+			return pinVersion().findMatching(matcher);
+		} catch (RuntimeException e) {
+			findMatchingStatistics.recordError(e);
+			throw e;
+		} finally {
+			findMatchingStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Returns the paths of every node whose name satisfies the matcher, splitting
+	 * the search by subtree across the specified pool. Every directory is searched
+	 * by its own task, and directories with more than <code>threshold</code>
+	 * children have their children split between several tasks.
+	 * 
+	 * @param matcher   The test applied to each node name. It must be safe to call
+	 *                  from several threads.
+	 * @param pool      The pool that runs the search
+	 * @param threshold The most children searched by a single task
+	 * @return The paths of the matching nodes, in the same pre-order as
+	 *         <code>findMatching(matcher)</code>
+	 * @throws IllegalArgumentException If the threshold is not positive
+	 */
+	public List<String> findMatching(Predicate<String> matcher, ForkJoinPool pool, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("The threshold must be positive.");
+		}
+		List<String> paths = new ArrayList<>();
+		if (matcher.test(root.getName())) {
+			paths.add(getPath(root));
+		}
+		DirectoryNode[] children = getChildren(root);
+		paths.addAll(pool.invoke(new SubtreeSearch(matcher, children, 0, children.length, threshold)));
+		return paths;
+	}
+
+	/**
+	 * The <code>SubtreeSearch</code> class is a fork/join task that searches a
+	 * range of a directory's children and their subtrees.
+	 */
+	private class SubtreeSearch extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Predicate<String> matcher; // The test applied to each node name
+		private final DirectoryNode[] children; // The children of the directory being searched
+		private final int from; // Index of the first child searched
+		private final int to; // Index after the last child searched
+		private final int threshold; // The most children searched by a single task
+
+		/**
+		 * Returns an instance of SubtreeSearch
+		 * 
+		 * @param matcher   The test applied to each node name
+		 * @param children  The children of the directory being searched
+		 * @param from      Index of the first child searched
+		 * @param to        Index after the last child searched
+		 * @param threshold The most children searched by a single task
+		 */
+		SubtreeSearch(Predicate<String> matcher, DirectoryNode[] children, int from, int to, int threshold) {
+			this.matcher = matcher;
+			this.children = children;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected List<String> compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				SubtreeSearch left = new SubtreeSearch(matcher, children, from, middle, threshold);
+				left.fork();
+				List<String> right = new SubtreeSearch(matcher, children, middle, to, threshold).compute();
+				List<String> paths = left.join();
+				paths.addAll(right);
+				return paths;
+			}
+			SubtreeSearch[] subtrees = new SubtreeSearch[to - from];
+			List<SubtreeSearch> forked = new ArrayList<>();
+			for (int i = from; i < to; i++) {
+				DirectoryNode[] grandchildren = getChildren(children[i]);
+				if (grandchildren.length > 0) {
+					subtrees[i - from] = new SubtreeSearch(matcher, grandchildren, 0, grandchildren.length, threshold);
+					forked.add(subtrees[i - from]);
+				}
+			}
+			invokeAll(forked);
+			// Merge each child with its subtree's matches to keep pre-order
+			List<String> paths = new ArrayList<>();
+			for (int i = from; i < to; i++) {
+				if (matcher.test(children[i].getName())) {
+					paths.add(getPath(children[i]));
+				}
+				if (subtrees[i - from] != null) {
+					paths.addAll(subtrees[i - from].join());
+				}
+			}
+			return paths;
+		}
+	}
+
+	/**
+	 * Builds the path of a node by following its parent pointers up to the root.
+	 * The read is optimistic and only takes a lock if a move happens at the same
+	 * time.
+	 * 
+	 * @param node The node whose path is built
+	 * @return The path from the root to the node, or null if the node is not in
+	 *         this tree
+	 */
+	public String getPath(DirectoryNode node) {
+		long stamp = structureLock.tryOptimisticRead();
+		String path = buildPath(node);
+		if (!structureLock.validate(stamp)) {
+			stamp = structureLock.readLock();
+			try {
+				path = buildPath(node);
+			} finally {
+				structureLock.unlockRead(stamp);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the path and place of a node if it is at or below a directory. The
+	 * structure lock is held while both are worked out, so they agree.
+	 * 
+	 * @param node      The node to place
+	 * @param directory The directory the node must be under
+	 * @return The node as a match, or null if the node is not under the directory
+	 *         in this tree
+	 */
+	private Match matchWithin(DirectoryNode node, DirectoryNode directory) {
+		long stamp = structureLock.readLock();
+		try {
+			String path = isWithin(node, directory) ? buildPath(node) : null;
+			return path == null ? null : new Match(indexPathOf(node), path);
+		} finally {
+			structureLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the path of a node if it is at or below a directory.
+	 * 
+	 * @param node      The node whose path is built
+	 * @param directory The directory the node must be under
+	 * @return The path from the root to the node, or null if the node is not under
+	 *         the directory in this tree
+	 */
+	private String getPathWithin(DirectoryNode node, DirectoryNode directory) {
+		long stamp = structureLock.tryOptimisticRead();
+		String path = isWithin(node, directory) ? buildPath(node) : null;
+		if (!structureLock.validate(stamp)) {
+			stamp = structureLock.readLock();
+			try {
+				path = isWithin(node, directory) ? buildPath(node) : null;
+			} finally {
+				structureLock.unlockRead(stamp);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Checks whether a node is a directory or one of its descendants, without
+	 * taking any locks.
+	 * 
+	 * @param node      The node to check
+	 * @param directory The directory the node may be under
+	 * @return True if the directory is the node or one of its ancestors
+	 */
+	private static boolean isWithin(DirectoryNode node, DirectoryNode directory) {
+		for (DirectoryNode current = node; current != null; current = current.getParent()) {
+			if (current == directory) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the path of a node without taking any locks. This never throws if
+	 * nodes are moved while it runs.
+	 * 
+	 * @param node The node whose path is built
+	 * @return The path from the root to the node, or null if the node is not in
+	 *         this tree
+	 */
+	private String buildPath(DirectoryNode node) {
+		DirectoryNode root = this.root;
+		int length = -1;
+		DirectoryNode current = node;
+		while (current != root) {
+			if (current == null) {
+				return null;
+			}
+			length += current.getName().length() + 1;
+			current = current.getParent();
+		}
+		length += root.getName().length() + 1;
+		char[] path = new char[length];
+		int end = length;
+		for (current = node; current != null && end > 0; current = current.getParent()) {
+			String name = current.getName();
+			int start = end - name.length();
+			if (start < 0) {
+				// A node was moved during the walk; the caller will retry
+				return null;
+			}
+			name.getChars(0, name.length(), path, start);
+			if (start > 0) {
+				path[start - 1] = '/';
+			}
+			end = start - 1;
+		}
+		return new String(path);
+	}
+
+	/**
+	 * Prints out the directory tree of the current node using pre-order tree
+	 * traversal.
+	 * 
+	 * @param node  The node to start from.
+	 * @param depth The depth of the node.
+	 */
+	public void printDirectoryTree(DirectoryNode node, int depth) {
+		printDirectoryTree(node, depth, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes out the directory tree of a node as it is in the current version.
+	 * Changes made while the tree is written are not seen.
+	 * 
+	 * @param node      The node to start from.
+	 * @param depth     The depth of the node, which sets its indentation.
+	 * @param maxDepth  The most levels below the node to write.
+	 * @param out       Where the tree is written
+	 * @param cancelled Checked periodically; the traversal stops once it returns
+	 *                  true
+	 * @return True if the whole tree was written, false if it was cancelled
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	public boolean printDirectoryTree(DirectoryNode node, int depth, int maxDepth, Appendable out,
+			BooleanSupplier cancelled) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return printVersion(node, depth, maxDepth, out, cancelled);
+		} catch (IOException | RuntimeException e) {
+			printStatistics.recordError(e);
+			throw e;
+		} finally {
+			printStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work of <code>printDirectoryTree</code>.
+	 * 
+	 * @param node      The node to start from.
+	 * @param depth     The depth of the node, which sets its indentation.
+	 * @param maxDepth  The most levels below the node to write.
+	 * @param out       Where the tree is written
+	 * @param cancelled Checked periodically; the traversal stops once it returns
+	 *                  true
+	 * @return True if the whole tree was written, false if it was cancelled
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	private boolean printVersion(DirectoryNode node, int depth, int maxDepth, Appendable out,
+			BooleanSupplier cancelled) throws IOException {
+		TreeVersion version;
+		PersistentNode start;
+		long stamp = structureLock.readLock();
+		try {
+			version = pinVersion();
+			int[] path = indexPathOf(node);
+			// A node outside the tree is copied as it is
+			start = path == null ? PersistentNode.copyOf(node) : version.getRoot().getDescendant(path);
+		} finally {
+			structureLock.unlockRead(stamp);
+		}
+		return version.printDirectoryTree(start, depth, maxDepth, out, cancelled);
+	}
+
+	/**
+	 * Prints out the directory tree of a node, down to the specified depth.
+	 * 
+	 * @param node     The node to start from.
+	 * @param depth    The depth of the node.
+	 * @param maxDepth The most levels below the node to print.
+	 */
+	public void printDirectoryTree(DirectoryNode node, int depth, int maxDepth) {
+		try {
+			printDirectoryTree(node, depth, maxDepth, System.out, () -> false);
+		} catch (IOException e) {
+			// PrintStream records errors instead of throwing them
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Prints out the directory tree that has the current cursor as its root.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The tree starting from the current path has been printed to the
+	 * user.</dd>
+	 * </dl>
+	 */
+	public void printDirectoryTree() {
+		session.printDirectoryTree();
+	}
+
+	/**
+	 * Prints out the directory tree that has the current cursor as its root, down
+	 * to the specified depth.
+	 * 
+	 * @param maxDepth The most levels below the cursor to print.
+	 */
+	public void printDirectoryTree(int maxDepth) {
+		session.printDirectoryTree(maxDepth);
+	}
+
+	/**
+	 * Prints out the entire directory tree.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The tree starting from the root has been printed to the user.</dd>
+	 * </dl>
+	 */
+	public void printDirectoryTreeFromRoot() {
+		printDirectoryTree(root, 0);
+	}
+
+	/**
+	 * Prints out the directory tree starting from the root, down to the specified
+	 * depth.
+	 * 
+	 * @param maxDepth The most levels below the root to print.
+	 */
+	public void printDirectoryTreeFromRoot(int maxDepth) {
+		TreeVersion version = pinVersion();
+		try {
+			version.printDirectoryTree(version.getRoot(), 0, maxDepth, System.out, () -> false);
+		} catch (IOException e) {
+			// PrintStream records errors instead of throwing them
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Saves the current version of the tree to a binary snapshot file. Changes
+	 * carry on while the snapshot is written and are not part of it.
+	 * 
+	 * @param path Where the snapshot is written
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	public void save(Path path) throws IOException {
+		long start = System.nanoTime();
+		try {
+			SnapshotFile.save(pinVersion(), path);
+		} catch (IOException | RuntimeException e) {
+			saveStatistics.recordError(e);
+			throw e;
+		} finally {
+			saveStatistics.recordSince(start);
+		}
+	}
+
+	/**
+	 * Loads a tree from a binary snapshot file written by <code>save</code>.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor of the returned tree points to its root.</dd>
+	 * </dl>
+	 * 
+	 * @param path Where the snapshot is read from
+	 * @return The loaded tree
+	 * @throws IOException If the snapshot cannot be read or is not valid
+	 */
+	public static DirectoryTree load(Path path) throws IOException {
+		SnapshotFile snapshot = SnapshotFile.load(path);
+		DirectoryTree tree = new DirectoryTree();
+		tree.setRoot(snapshot.getRoot());
+		tree.versions.reset(tree.pinVersion().getRoot(), snapshot.getSequence());
+		return tree;
+	}
+
+	/**
+	 * Returns a string listing all the children of the cursor, in name order.
+	 * Names are separated by spaces " ".
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The cursor remains at its original location.</dd>
+	 * </dl>
+	 * 
+	 * @returns A formatted string of directory names
+	 */
+	public String listDirectory() {
+		return session.listDirectory();
+	}
+
+	/**
+	 * Hands the name of each child of the cursor to an action, in name order, as
+	 * the children are reached.
+	 * 
+	 * @param action Called with the name of each child
+	 * @return The number of children listed
+	 */
+	public int listDirectory(Consumer<String> action) {
+		return session.listDirectory(action);
 	}
 }
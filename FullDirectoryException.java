@@ -3,6 +3,11 @@
  * <code>FullDirectoryException</code> is thrown when the current
  * <code>DirectoryNode</code> is full and cannot have more children.
  *
+ * <p>
+ * The exception is thrown for ordinary outcomes, such as a directory with no
+ * room left, so it does not fill in a stack trace.
+ * </p>
+ *
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
@@ -13,7 +18,7 @@ public class FullDirectoryException extends Exception {
 	 * Returns an instance of <code>FullDirectoryException</code>.
 	 */
 	public FullDirectoryException() {
-		super();
+		this(null);
 	}
 
 	/**
@@ -23,6 +28,6 @@ public class FullDirectoryException extends Exception {
 	 * @param message The message that accompanies the error.
 	 */
 	public FullDirectoryException(String message) {
-		super(message);
+		super(message, null, false, false);
 	}
 }
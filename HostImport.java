@@ -0,0 +1,238 @@
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>HostImport</code> class reads a directory hierarchy from the host
+ * file system into a detached <code>DirectoryNode</code> subtree, ready to be
+ * attached to a <code>DirectoryTree</code> in one step. Every host directory is
+ * listed by its own fork/join task, and each task only adds children to its own
+ * node, so the walk takes no locks and keeps every thread busy with file system
+ * calls.
+ * 
+ * <p>
+ * Symbolic links are imported as files and are not followed. Entries whose
+ * names the terminal could not type, because they contain whitespace, are
+ * skipped, as are entries that do not fit under their directory's child limit.
+ * A directory that cannot be listed is imported empty. Files keep their host
+ * size, creation time and modification time.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class HostImport {
+	public static final int DEFAULT_PARALLELISM = 2 * Runtime.getRuntime().availableProcessors(); // Listing threads
+
+	private final DirectoryNode root; // The root of the imported subtree
+	private final long nodeCount; // Nodes in the subtree, its root included
+	private final long skippedCount; // Entries left out of the subtree
+	private final long unreadableCount; // Directories that could not be listed
+	private final long elapsedNanos; // Time the walk took
+
+	/**
+	 * @return The root of the imported subtree, which has no parent
+	 */
+	public DirectoryNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return The amount of nodes in the subtree, its root included
+	 */
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return The amount of host entries left out of the subtree
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * @return The amount of host directories that could not be listed
+	 */
+	public long getUnreadableCount() {
+		return unreadableCount;
+	}
+
+	/**
+	 * @return The time the walk of the host took, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Reads a host file or directory, and everything under it, into a new
+	 * subtree. The subtree's root is named after the last element of the path.
+	 * 
+	 * @param path        The host file or directory to read
+	 * @param parallelism The amount of threads listing directories
+	 * @return The imported subtree and its counts
+	 * @throws IllegalArgumentException If the path has no name the terminal can
+	 *                                  use, or the parallelism is not positive
+	 * @throws IOException              If the path cannot be read
+	 */
+	public static HostImport read(Path path, int parallelism) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be positive.");
+		}
+		long start = System.nanoTime();
+		Path absolutePath = path.toAbsolutePath().normalize();
+		Path fileName = absolutePath.getFileName();
+		if (fileName == null || !isValidName(fileName.toString())) {
+			throw new IllegalArgumentException("The host path has no usable name.");
+		}
+		BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class,
+				LinkOption.NOFOLLOW_LINKS);
+		DirectoryNode root = newNode(fileName.toString(), attributes);
+		Counts counts = new Counts();
+		if (attributes.isDirectory()) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new ListTask(absolutePath, root, counts));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return new HostImport(root, counts.nodes.sum() + 1, counts.skipped.sum(), counts.unreadable.sum(),
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Creates the node for a host entry. A file is given the entry's size and
+	 * times.
+	 * 
+	 * @param name       The name of the entry
+	 * @param attributes The attributes of the entry
+	 * @return The new node
+	 */
+	private static DirectoryNode newNode(String name, BasicFileAttributes attributes) {
+		DirectoryNode node = new DirectoryNode(name, !attributes.isDirectory());
+		if (node.isFile()) {
+			node.setSize(Math.max(attributes.size(), 0));
+			node.setCreationTime(attributes.creationTime().toMillis());
+			node.setModificationTime(attributes.lastModifiedTime().toMillis());
+		}
+		return node;
+	}
+
+	/**
+	 * Checks that a host name can be typed as a single terminal argument.
+	 * 
+	 * @param name The name to check
+	 * @return True if the name is not empty and has no whitespace
+	 */
+	private static boolean isValidName(String name) {
+		if (name.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.isWhitespace(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The <code>Counts</code> class holds the totals every task of one walk adds
+	 * to.
+	 */
+	private static class Counts {
+		private final LongAdder nodes = new LongAdder(); // Nodes created below the root
+		private final LongAdder skipped = new LongAdder(); // Entries left out
+		private final LongAdder unreadable = new LongAdder(); // Directories that could not be listed
+	}
+
+	/**
+	 * The <code>ListTask</code> class is a fork/join task that lists one host
+	 * directory into its node, then lists the subdirectories in parallel.
+	 */
+	private static class ListTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory; // The host directory to list
+		private final DirectoryNode node; // The node its entries are added to
+		private final Counts counts; // The totals of the walk
+
+		/**
+		 * Returns an instance of ListTask
+		 * 
+		 * @param directory The host directory to list
+		 * @param node      The node its entries are added to
+		 * @param counts    The totals of the walk
+		 */
+		ListTask(Path directory, DirectoryNode node, Counts counts) {
+			this.directory = directory;
+			this.node = node;
+			this.counts = counts;
+		}
+
+		@Override
+		protected void compute() {
+			List<ListTask> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for (Path entry : entries) {
+					String name = entry.getFileName().toString();
+					if (!isValidName(name)) {
+						counts.skipped.increment();
+						continue;
+					}
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						counts.skipped.increment();
+						continue;
+					}
+					DirectoryNode child = newNode(name, attributes);
+					try {
+						node.addChild(child);
+					} catch (FullDirectoryException | NotADirectoryException | ConflictingNamesException e) {
+						counts.skipped.increment();
+						continue;
+					}
+					counts.nodes.increment();
+					if (attributes.isDirectory()) {
+						subdirectories.add(new ListTask(entry, child, counts));
+					}
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				counts.unreadable.increment();
+			}
+			invokeAll(subdirectories);
+		}
+	}
+
+	/**
+	 * Returns an instance of HostImport
+	 * 
+	 * @param root            The root of the imported subtree
+	 * @param nodeCount       Nodes in the subtree, its root included
+	 * @param skippedCount    Entries left out of the subtree
+	 * @param unreadableCount Directories that could not be listed
+	 * @param elapsedNanos    Time the walk took
+	 */
+	private HostImport(DirectoryNode root, long nodeCount, long skippedCount, long unreadableCount,
+			long elapsedNanos) {
+		this.root = root;
+		this.nodeCount = nodeCount;
+		this.skippedCount = skippedCount;
+		this.unreadableCount = unreadableCount;
+		this.elapsedNanos = elapsedNanos;
+	}
+}
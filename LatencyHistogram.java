@@ -0,0 +1,146 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The <code>LatencyHistogram</code> class counts latencies in buckets whose
+ * width grows with the value, so every recorded latency is kept to within about
+ * 3% of its true value however large it is. Recording is a couple of atomic
+ * increments and can be done from many threads at once.
+ * 
+ * <p>
+ * Values below 32 get a bucket each. Above that, each power of two is split
+ * into 32 equal buckets.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5; // Bits of precision kept for each value
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Buckets per power of two
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts; // Values recorded in each bucket
+	private final AtomicLong total; // Sum of every value recorded
+	private final AtomicLong max; // Largest value recorded
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param value The value to record; negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		total.addAndGet(value);
+		long largest = max.get();
+		while (value > largest && !max.compareAndSet(largest, value)) {
+			largest = max.get();
+		}
+	}
+
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return The largest value recorded, or 0 if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) total.get() / count;
+	}
+
+	/**
+	 * Finds the value that a percentage of the recorded values are at or below.
+	 * The value is the top of its bucket, so it is never below the true value.
+	 * 
+	 * @param percentile The percentage, from 0 to 100
+	 * @return The value, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded value. Values recorded at the same time may or may
+	 * not be kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @param value A non-negative value
+	 * @return The bucket the value is counted in
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param bucket A bucket index
+	 * @return The largest value counted in the bucket
+	 */
+	private static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Returns an empty instance of LatencyHistogram
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+}
@@ -0,0 +1,458 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * The <code>MutationJournal</code> class is an append-only log of the changes
+ * made to a <code>DirectoryTree</code>. Records are collected in memory and
+ * written and synced to disk as a group, once enough have piled up or a time
+ * limit has passed. Replaying the journal on top of the last snapshot restores
+ * every change that was synced before a crash.
+ * 
+ * <p>
+ * Appending a record only adds it to memory. Groups are written and synced by
+ * the journal's flusher thread, so a change to the tree never waits for the
+ * disk while it holds the tree's locks. If a write fails, the journal stops:
+ * the error is kept, every later flush throws it, and the tree checks
+ * <code>checkWritable</code> before it makes a change, so it never gets ahead
+ * of a journal that can no longer record it.
+ * </p>
+ * 
+ * <p>
+ * Changes to different directories may hand in their records out of order. The
+ * pending records are kept by sequence number, and a group only takes the run
+ * of records that follows the last one written, so the file always holds the
+ * changes in order and without gaps.
+ * </p>
+ * 
+ * <p>
+ * Each record holds its length, a CRC32 of its contents, and then its sequence
+ * number, its operation, and the operation's arguments. A record cut short by a
+ * crash fails its check and ends the replay.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class MutationJournal implements Closeable {
+	public static final byte MAKE_DIRECTORY = 1; // Arguments: directory path, name
+	public static final byte MAKE_FILE = 2; // Arguments: directory path, name[, size, creation time, modification time]
+	public static final byte MOVE = 3; // Arguments: cursor path, source path, target path
+	public static final byte REMOVE = 4; // Arguments: cursor path, path
+	public static final byte COPY = 5; // Arguments: cursor path, source path, target path
+	public static final byte MOVE_ALL = 6; // Arguments: cursor path, target path, source paths
+	public static final byte TOUCH = 7; // Arguments: directory path, name, size, modification time
+	public static final int MAX_ARGUMENTS = 127; // Arguments one record can hold
+
+	private static final String SEALED_SUFFIX = ".sealed"; // Suffix of a journal being compacted
+	private static final int MAX_RECORD_LENGTH = 1 << 24; // Longer lengths mean a damaged record
+
+	private final Path path; // The file records are appended to
+	private final int groupSize; // Records written before the group is synced
+	private final ScheduledExecutorService flusher; // Writes and syncs the groups
+	private final Object writeLock = new Object(); // Held while the file is written, synced or swapped
+	private FileChannel channel; // The open journal file, guarded by writeLock
+	private final ConcurrentSkipListMap<Long, byte[]> pending; // Records not yet written, by sequence number
+	private final AtomicInteger pendingCount; // Amount of records in pending
+	private final AtomicBoolean flushQueued; // True if the flusher has been asked to write pending
+	private volatile long nextSequence; // Sequence number of the next record to write, guarded by writeLock
+	private volatile IOException failure; // The write that stopped the journal, or null
+	private CompletableFuture<Void> compaction; // The running compaction, or null
+
+	/**
+	 * Adds a record to the journal. The record is only added to memory; the
+	 * flusher thread writes and syncs it with its group, once
+	 * <code>groupSize</code> records are pending or the group time has passed.
+	 * A record older than the journal's start is dropped.
+	 * 
+	 * @param sequence  The sequence number of the change
+	 * @param operation The operation code
+	 * @param arguments The arguments of the operation, at most
+	 *                  <code>MAX_ARGUMENTS</code>
+	 * @throws IllegalArgumentException If there are too many arguments
+	 */
+	public void append(long sequence, byte operation, String... arguments) {
+		byte[] record = encode(sequence, operation, arguments);
+		if (sequence < nextSequence) {
+			return;
+		}
+		pending.put(sequence, record);
+		if (pendingCount.incrementAndGet() >= groupSize && flushQueued.compareAndSet(false, true)) {
+			flusher.execute(this::flushInBackground);
+		}
+	}
+
+	/**
+	 * Starts the journal after a change, so the next record written is the one
+	 * that follows it. Pending records up to the change are dropped.
+	 * 
+	 * @param sequence The sequence number of the last change already kept
+	 *                 elsewhere
+	 */
+	void startAfter(long sequence) {
+		synchronized (writeLock) {
+			nextSequence = sequence + 1;
+			while (!pending.isEmpty() && pending.firstKey() <= sequence) {
+				pending.pollFirstEntry();
+				pendingCount.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Turns a change into the bytes of its record: the length and CRC32 of the
+	 * contents, then the sequence number, operation and arguments.
+	 * 
+	 * @param sequence  The sequence number of the change
+	 * @param operation The operation code
+	 * @param arguments The arguments of the operation
+	 * @return The record
+	 * @throws IllegalArgumentException If there are more than
+	 *                                  <code>MAX_ARGUMENTS</code> arguments
+	 */
+	private static byte[] encode(long sequence, byte operation, String[] arguments) {
+		if (arguments.length > MAX_ARGUMENTS) {
+			throw new IllegalArgumentException("A record holds at most " + MAX_ARGUMENTS + " arguments.");
+		}
+		byte[][] encoded = new byte[arguments.length][];
+		int length = Long.BYTES + 2;
+		for (int i = 0; i < arguments.length; i++) {
+			encoded[i] = arguments[i].getBytes(StandardCharsets.UTF_8);
+			length += Integer.BYTES + encoded[i].length;
+		}
+		ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + length);
+		record.position(2 * Integer.BYTES);
+		record.putLong(sequence);
+		record.put(operation);
+		record.put((byte) arguments.length);
+		for (byte[] bytes : encoded) {
+			record.putInt(bytes.length);
+			record.put(bytes);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 2 * Integer.BYTES, length);
+		record.putInt(0, length);
+		record.putInt(Integer.BYTES, (int) crc.getValue());
+		return record.array();
+	}
+
+	/**
+	 * Writes the pending records that follow the last one written and syncs the
+	 * journal to disk. Only the flusher, a compaction and <code>close</code> need
+	 * to call this, but a caller that must know its changes are on disk may call
+	 * it too.
+	 * 
+	 * @throws IOException If the records could not be written, or an earlier
+	 *                     write stopped the journal
+	 */
+	public void flush() throws IOException {
+		synchronized (writeLock) {
+			checkWritable();
+			if (!channel.isOpen()) {
+				// Closed, and everything appended before closing was written
+				return;
+			}
+			flushQueued.set(false);
+			ArrayList<ByteBuffer> group = new ArrayList<>();
+			byte[] record;
+			while ((record = pending.remove(nextSequence)) != null) {
+				group.add(ByteBuffer.wrap(record));
+				nextSequence++;
+			}
+			if (group.isEmpty()) {
+				return;
+			}
+			pendingCount.addAndGet(-group.size());
+			try {
+				ByteBuffer[] buffers = group.toArray(new ByteBuffer[0]);
+				while (buffers[buffers.length - 1].hasRemaining()) {
+					channel.write(buffers);
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				// Part of the group may have reached the file, so nothing more is written
+				failure = e;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending records on the flusher thread, reporting a failure
+	 * instead of throwing it.
+	 */
+	private void flushInBackground() {
+		boolean failedBefore = failure != null;
+		try {
+			flush();
+		} catch (IOException e) {
+			if (!failedBefore) {
+				System.err.println("ERROR: The journal could not be written: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Throws the error that stopped the journal, if a write has failed. Changes
+	 * should not be made once this throws, since they could not be recorded.
+	 * 
+	 * @throws IOException If an earlier write failed
+	 */
+	public void checkWritable() throws IOException {
+		IOException stopped = failure;
+		if (stopped != null) {
+			throw new IOException("The journal stopped after a failed write: " + stopped.getMessage(), stopped);
+		}
+	}
+
+	/**
+	 * Folds the journal into a new snapshot without stopping the writers. The
+	 * current journal is sealed and a new one is started; a background thread
+	 * then replays the sealed journal on top of the snapshot, writes the result
+	 * over the snapshot, and deletes the sealed journal.
+	 * 
+	 * @param snapshot The snapshot the journal was started from
+	 * @return A future completed once the compaction has finished
+	 * @throws IOException           If the journal could not be sealed
+	 * @throws IllegalStateException If a compaction is already running
+	 */
+	public CompletableFuture<Void> compact(Path snapshot) throws IOException {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Path sealed = sealedPath(path);
+		synchronized (writeLock) {
+			synchronized (this) {
+				if (compaction != null) {
+					throw new IllegalStateException("A compaction is already running.");
+				}
+				compaction = result;
+			}
+			try {
+				if (Files.exists(sealed)) {
+					// A previous compaction failed; fold its journal before sealing another
+					fold(snapshot, sealed);
+				}
+				flush();
+				channel.close();
+				Files.move(path, sealed, StandardCopyOption.ATOMIC_MOVE);
+				channel = openForAppend(path);
+			} catch (IOException | RuntimeException e) {
+				synchronized (this) {
+					compaction = null;
+				}
+				throw e;
+			}
+		}
+		Thread compactor = new Thread(() -> {
+			try {
+				fold(snapshot, sealed);
+				result.complete(null);
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			} finally {
+				synchronized (this) {
+					compaction = null;
+				}
+			}
+		}, "journal-compaction");
+		compactor.setDaemon(true);
+		compactor.start();
+		return result;
+	}
+
+	/**
+	 * Waits for a running compaction, writes every pending record, stops the
+	 * group timer, and closes the journal. Closing a closed journal does nothing.
+	 * 
+	 * @throws IOException If the records could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		CompletableFuture<Void> running;
+		synchronized (this) {
+			running = compaction;
+		}
+		if (running != null) {
+			try {
+				running.join();
+			} catch (CompletionException e) {
+				// The sealed journal is kept and folded on the next recovery
+			}
+		}
+		synchronized (writeLock) {
+			if (!channel.isOpen()) {
+				return;
+			}
+			flusher.shutdown();
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Replays the records of a journal file on top of a tree. Records with a
+	 * sequence number no greater than the tree's are skipped, since the tree
+	 * already holds them. Replay stops at the first incomplete or damaged record.
+	 * 
+	 * @param tree    The tree to apply the records to
+	 * @param journal The journal file to replay
+	 * @return The length of the journal up to the end of its last complete record
+	 * @throws IOException If the journal cannot be read, or a record cannot be
+	 *                     applied to the tree
+	 */
+	public static long replay(DirectoryTree tree, Path journal) throws IOException {
+		if (!Files.exists(journal)) {
+			return 0;
+		}
+		long validLength = 0;
+		try (InputStream file = Files.newInputStream(journal);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+			while (true) {
+				byte[] record;
+				int expectedCrc;
+				try {
+					int length = in.readInt();
+					expectedCrc = in.readInt();
+					if (length < 0 || length > MAX_RECORD_LENGTH) {
+						return validLength;
+					}
+					record = new byte[length];
+					in.readFully(record);
+				} catch (EOFException e) {
+					return validLength;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				if ((int) crc.getValue() != expectedCrc) {
+					return validLength;
+				}
+				validLength += 8 + record.length;
+				DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+				long sequence = recordIn.readLong();
+				byte operation = recordIn.readByte();
+				String[] arguments = new String[recordIn.readByte()];
+				for (int i = 0; i < arguments.length; i++) {
+					byte[] bytes = new byte[recordIn.readInt()];
+					recordIn.readFully(bytes);
+					arguments[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+				if (sequence > tree.getSequence()) {
+					tree.applyJournalRecord(sequence, operation, arguments);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores a tree from a snapshot and the journals written after it. A sealed
+	 * journal left behind by an unfinished compaction is folded into the snapshot
+	 * before the tree is returned, and a damaged record at the end of the journal
+	 * is cut off so that new records can follow the last complete one.
+	 * 
+	 * @param snapshot The snapshot to start from. If it does not exist, the tree
+	 *                 starts empty.
+	 * @param journal  The journal file
+	 * @return The restored tree, with its cursor at the root
+	 * @throws IOException If the snapshot or the journals cannot be read
+	 */
+	public static DirectoryTree recover(Path snapshot, Path journal) throws IOException {
+		Path sealed = sealedPath(journal);
+		if (Files.exists(sealed)) {
+			fold(snapshot, sealed);
+		}
+		DirectoryTree tree = Files.exists(snapshot) ? DirectoryTree.load(snapshot) : new DirectoryTree();
+		long validLength = replay(tree, journal);
+		if (Files.exists(journal) && Files.size(journal) > validLength) {
+			try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+				channel.truncate(validLength);
+			}
+		}
+		tree.resetCursor();
+		return tree;
+	}
+
+	/**
+	 * Replays a sealed journal on top of a snapshot, writes the result over the
+	 * snapshot, and deletes the sealed journal.
+	 * 
+	 * @param snapshot The snapshot to fold into
+	 * @param sealed   The sealed journal
+	 * @throws IOException If the files cannot be read or written
+	 */
+	private static void fold(Path snapshot, Path sealed) throws IOException {
+		DirectoryTree tree = Files.exists(snapshot) ? DirectoryTree.load(snapshot) : new DirectoryTree();
+		replay(tree, sealed);
+		tree.save(snapshot);
+		Files.delete(sealed);
+	}
+
+	/**
+	 * @param journal A journal file
+	 * @return Where the journal is moved while it is being compacted
+	 */
+	private static Path sealedPath(Path journal) {
+		return journal.resolveSibling(journal.getFileName() + SEALED_SUFFIX);
+	}
+
+	/**
+	 * Opens a journal file for appending, creating it if needed.
+	 * 
+	 * @param path The journal file
+	 * @return The open channel
+	 * @throws IOException If the file cannot be opened
+	 */
+	private static FileChannel openForAppend(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Returns an instance of MutationJournal that appends to the specified file.
+	 * 
+	 * @param path        The journal file
+	 * @param groupSize   Records written before the group is synced
+	 * @param groupMillis Most milliseconds a record waits before it is synced
+	 * @throws IOException              If the file cannot be opened
+	 * @throws IllegalArgumentException If groupSize or groupMillis is not positive
+	 */
+	public MutationJournal(Path path, int groupSize, long groupMillis) throws IOException {
+		if (groupSize < 1 || groupMillis < 1) {
+			throw new IllegalArgumentException("The group size and time must be positive.");
+		}
+		this.path = path;
+		this.groupSize = groupSize;
+		this.channel = openForAppend(path);
+		this.pending = new ConcurrentSkipListMap<>();
+		this.pendingCount = new AtomicInteger();
+		this.flushQueued = new AtomicBoolean();
+		this.nextSequence = 1;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "journal-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flushInBackground, groupMillis, groupMillis, TimeUnit.MILLISECONDS);
+	}
+}
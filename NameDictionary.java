@@ -0,0 +1,140 @@
+
+import java.util.Arrays;
+
+/**
+ * The <code>NameDictionary</code> class stores every node name once and gives
+ * it a small int ID. Nodes keep the ID instead of their own copy of the name,
+ * so the thousands of directories named <code>src</code> share one string, and
+ * two names are equal exactly when their IDs are.
+ * 
+ * <p>
+ * Looking a name up takes no lock. Adding a name takes the dictionary's lock,
+ * and names are never removed.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public final class NameDictionary {
+	public static final int NO_ID = -1; // Stands for a name that is not in the dictionary
+	private static final int INITIAL_CAPACITY = 1024; // Names the first arrays hold
+
+	private static final Object LOCK = new Object(); // Held while a name is added
+	private static volatile String[] names = new String[INITIAL_CAPACITY]; // Each name, by ID
+	private static volatile int[] table = new int[INITIAL_CAPACITY * 2]; // (ID + 1) by name hash, 0 if empty
+	private static int size; // Names in the dictionary, guarded by LOCK
+
+	/**
+	 * Gets the ID of a name, adding the name if it is new.
+	 * 
+	 * @param name The name
+	 * @return The ID of the name
+	 */
+	public static int intern(String name) {
+		int id = lookup(name);
+		if (id != NO_ID) {
+			return id;
+		}
+		synchronized (LOCK) {
+			id = lookup(name);
+			if (id != NO_ID) {
+				return id;
+			}
+			id = size;
+			String[] currentNames = names;
+			if (id == currentNames.length) {
+				currentNames = Arrays.copyOf(currentNames, id * 2);
+			}
+			currentNames[id] = name;
+			names = currentNames;
+			int[] currentTable = table;
+			if ((id + 1) * 2 > currentTable.length) {
+				currentTable = new int[currentTable.length * 2];
+				for (int i = 0; i < id; i++) {
+					insertIntoTable(currentTable, currentNames[i], i);
+				}
+				insertIntoTable(currentTable, name, id);
+				table = currentTable;
+			} else {
+				insertIntoTable(currentTable, name, id);
+			}
+			size = id + 1;
+			return id;
+		}
+	}
+
+	/**
+	 * Gets the ID of a name without adding it. A name added by another thread at
+	 * the same time may not be seen yet.
+	 * 
+	 * @param name The name
+	 * @return The ID of the name, or NO_ID if it is not in the dictionary
+	 */
+	public static int lookup(String name) {
+		// The table is read first: names always holds every ID the table can hold
+		int[] currentTable = table;
+		String[] currentNames = names;
+		int mask = currentTable.length - 1;
+		int slot = spread(name.hashCode()) & mask;
+		for (int probes = 0; probes < currentTable.length; probes++, slot = (slot + 1) & mask) {
+			int entry = currentTable[slot];
+			if (entry == 0) {
+				return NO_ID;
+			}
+			// An entry being added may be seen before its name; it is then skipped
+			if (entry <= currentNames.length && name.equals(currentNames[entry - 1])) {
+				return entry - 1;
+			}
+		}
+		return NO_ID;
+	}
+
+	/**
+	 * @param id The ID of a name
+	 * @return The name
+	 */
+	public static String nameOf(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return The number of names in the dictionary
+	 */
+	public static int size() {
+		synchronized (LOCK) {
+			return size;
+		}
+	}
+
+	/**
+	 * Stores an ID in the first free slot for its name.
+	 * 
+	 * @param table The hash table to insert into
+	 * @param name  The name
+	 * @param id    The ID of the name
+	 */
+	private static void insertIntoTable(int[] table, String name, int id) {
+		int mask = table.length - 1;
+		int slot = spread(name.hashCode()) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = id + 1;
+	}
+
+	/**
+	 * Mixes the high bits of a hash code into the low bits used for slots.
+	 * 
+	 * @param hash The hash code to spread
+	 * @return The spread hash code
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * The dictionary is only used through its static methods.
+	 */
+	private NameDictionary() {
+	}
+}
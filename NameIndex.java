@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * The <code>NameIndex</code> class maps node names to every node with that
+ * name, so nodes can be found without walking the tree. Names are keyed by
+ * their <code>NameDictionary</code> ID, so lookups compare ints. Names with a
+ * single node are stored without a list. The index can be used from many
+ * threads at once; each name's entry is only changed while its map bin is
+ * locked.
+ * 
+ * <p>
+ * Each node remembers its slot in its name's list, and a removed node's slot
+ * is taken by the last node of the list, so removing a node costs the same
+ * however many other nodes share its name. A node can be in one index at a
+ * time.
+ * </p>
+ * 
+ * <p>
+ * The names in the index are also kept sorted, so a pattern search only tests
+ * each distinct name once, and a pattern with a fixed prefix only visits the
+ * names that start with it.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class NameIndex {
+	private final Map<Integer, Object> nodesByName; // A DirectoryNode, or an ArrayList of them, by name ID
+	private final NavigableMap<String, Integer> sortedNames; // The ID of every name with an entry, by name
+
+	/**
+	 * Adds a node to the index.
+	 * 
+	 * @param node The node to add
+	 */
+	@SuppressWarnings("unchecked")
+	public void add(DirectoryNode node) {
+		nodesByName.compute(node.getNameId(), (nameId, entry) -> {
+			if (entry == null) {
+				sortedNames.put(node.getName(), nameId);
+				node.setNameIndexSlot(0);
+				return node;
+			} else if (entry instanceof DirectoryNode) {
+				ArrayList<DirectoryNode> nodes = new ArrayList<>(2);
+				nodes.add((DirectoryNode) entry);
+				nodes.add(node);
+				node.setNameIndexSlot(1);
+				return nodes;
+			}
+			ArrayList<DirectoryNode> nodes = (ArrayList<DirectoryNode>) entry;
+			node.setNameIndexSlot(nodes.size());
+			nodes.add(node);
+			return entry;
+		});
+	}
+
+	/**
+	 * Removes a node from the index, if present.
+	 * 
+	 * @param node The node to remove
+	 */
+	@SuppressWarnings("unchecked")
+	public void remove(DirectoryNode node) {
+		nodesByName.computeIfPresent(node.getNameId(), (nameId, entry) -> {
+			if (entry == node) {
+				sortedNames.remove(node.getName());
+				return null;
+			} else if (entry instanceof ArrayList) {
+				ArrayList<DirectoryNode> nodes = (ArrayList<DirectoryNode>) entry;
+				int slot = node.getNameIndexSlot();
+				if (slot >= nodes.size() || nodes.get(slot) != node) {
+					return entry;
+				}
+				DirectoryNode last = nodes.remove(nodes.size() - 1);
+				if (last != node) {
+					nodes.set(slot, last);
+					last.setNameIndexSlot(slot);
+				}
+				if (nodes.size() == 1) {
+					nodes.get(0).setNameIndexSlot(0);
+					return nodes.get(0);
+				}
+			}
+			return entry;
+		});
+	}
+
+	/**
+	 * Gets every indexed node with the specified name.
+	 * 
+	 * @param name The name to look up
+	 * @return The nodes with that name, in no particular order. The list is a
+	 *         copy and must not be modified.
+	 */
+	public List<DirectoryNode> get(String name) {
+		int nameId = NameDictionary.lookup(name);
+		if (nameId == NameDictionary.NO_ID) {
+			return Collections.emptyList();
+		}
+		return get(nameId);
+	}
+
+	/**
+	 * Hands every indexed node whose name matches a pattern to an action. Nodes
+	 * are visited by name in sorted order, and in no particular order within a
+	 * name. Only the names starting with the pattern's prefix are tested.
+	 * 
+	 * @param pattern The test applied to each distinct name
+	 * @param action  Called with each matching node
+	 */
+	public void forEachMatching(NamePattern pattern, Consumer<DirectoryNode> action) {
+		if (pattern.getLiteral() != null) {
+			get(pattern.getLiteral()).forEach(action);
+			return;
+		}
+		String prefix = pattern.getPrefix();
+		for (Map.Entry<String, Integer> name : sortedNames.tailMap(prefix).entrySet()) {
+			if (!name.getKey().startsWith(prefix)) {
+				break;
+			}
+			if (pattern.matches(name.getKey())) {
+				get(name.getValue()).forEach(action);
+			}
+		}
+	}
+
+	/**
+	 * Counts the indexed nodes whose name matches a pattern, stopping once the
+	 * count passes a limit. Only the names starting with the pattern's prefix are
+	 * tested.
+	 * 
+	 * @param pattern The test applied to each distinct name
+	 * @param limit   The count past which counting stops
+	 * @return The number of matching nodes, or a number past the limit if there
+	 *         are more than it
+	 */
+	public int countMatching(NamePattern pattern, int limit) {
+		if (pattern.getLiteral() != null) {
+			int nameId = NameDictionary.lookup(pattern.getLiteral());
+			return nameId == NameDictionary.NO_ID ? 0 : count(nameId);
+		}
+		String prefix = pattern.getPrefix();
+		int count = 0;
+		for (Map.Entry<String, Integer> name : sortedNames.tailMap(prefix).entrySet()) {
+			if (!name.getKey().startsWith(prefix) || count > limit) {
+				break;
+			}
+			if (pattern.matches(name.getKey())) {
+				count += count(name.getValue());
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the indexed nodes with the specified name ID. A list may be counted
+	 * while it changes, so the count is only a close estimate.
+	 * 
+	 * @param nameId The ID of the name to count
+	 * @return The number of nodes with that name
+	 */
+	private int count(int nameId) {
+		Object entry = nodesByName.get(nameId);
+		if (entry == null) {
+			return 0;
+		}
+		return entry instanceof DirectoryNode ? 1 : ((ArrayList<?>) entry).size();
+	}
+
+	/**
+	 * Gets every indexed node with the specified name ID.
+	 * 
+	 * @param nameId The ID of the name to look up
+	 * @return The nodes with that name, in no particular order. The list is a
+	 *         copy and must not be modified.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<DirectoryNode> get(int nameId) {
+		Object entry = nodesByName.get(nameId);
+		if (entry == null) {
+			return Collections.emptyList();
+		} else if (entry instanceof DirectoryNode) {
+			return Collections.singletonList((DirectoryNode) entry);
+		}
+		// Lists are changed in place, so copy this one while its bin is locked
+		ArrayList<DirectoryNode> copy = new ArrayList<>();
+		nodesByName.computeIfPresent(nameId, (key, current) -> {
+			if (current instanceof DirectoryNode) {
+				copy.add((DirectoryNode) current);
+			} else {
+				copy.addAll((ArrayList<DirectoryNode>) current);
+			}
+			return current;
+		});
+		return Collections.unmodifiableList(copy);
+	}
+
+	/**
+	 * Removes every node from the index.
+	 */
+	public void clear() {
+		nodesByName.clear();
+		sortedNames.clear();
+	}
+
+	/**
+	 * Returns an empty instance of NameIndex
+	 */
+	public NameIndex() {
+		nodesByName = new ConcurrentHashMap<>();
+		sortedNames = new ConcurrentSkipListMap<>();
+	}
+}
@@ -0,0 +1,147 @@
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>NamePattern</code> class is a node name test compiled once for a
+ * whole search. It is made from an exact name, a shell glob or a regular
+ * expression, and it knows the longest prefix every matching name must start
+ * with, so a search over sorted names can skip straight to the names that can
+ * match.
+ * 
+ * <p>
+ * Globs understand <code>*</code>, <code>?</code>, bracket classes such as
+ * <code>[a-c]</code> or <code>[!a-c]</code>, and <code>\</code> to escape the
+ * next character. Regular expressions must match the whole name. An instance
+ * reuses one matcher, so it must only be used by one search at a time.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public final class NamePattern {
+	private final String literal; // The only name that matches, or null if there are several
+	private final String prefix; // Every matching name starts with this
+	private final Matcher matcher; // Tests names that need more than the literal, or null
+
+	/**
+	 * @return The only name this pattern matches, or null if it can match
+	 *         several
+	 */
+	public String getLiteral() {
+		return literal;
+	}
+
+	/**
+	 * @return The prefix every name this pattern matches starts with, which may
+	 *         be empty
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Tests a node name against this pattern.
+	 * 
+	 * @param name The name to test
+	 * @return True if the name matches
+	 */
+	public boolean matches(String name) {
+		if (literal != null) {
+			return literal.equals(name);
+		}
+		return name.startsWith(prefix) && matcher.reset(name).matches();
+	}
+
+	/**
+	 * Makes a pattern that only matches one name.
+	 * 
+	 * @param name The name to match
+	 * @return The pattern
+	 */
+	public static NamePattern literal(String name) {
+		return new NamePattern(name, name, null);
+	}
+
+	/**
+	 * Compiles a shell glob. A glob with no wildcards matches only its own name.
+	 * 
+	 * @param glob The glob to compile
+	 * @return The pattern
+	 */
+	public static NamePattern glob(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literalPart = new StringBuilder();
+		boolean wildcard = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			int classEnd = c == '[' ? glob.indexOf(']', i + 2) : -1;
+			if (c == '*' || c == '?' || classEnd != -1) {
+				wildcard = true;
+				if (c == '*') {
+					regex.append(".*");
+				} else if (c == '?') {
+					regex.append('.');
+				} else {
+					// Bracket classes are copied with the shell's negation turned into the regex one
+					String members = glob.substring(i + 1, classEnd);
+					regex.append('[');
+					if (members.charAt(0) == '!' || members.charAt(0) == '^') {
+						regex.append('^');
+						members = members.substring(1);
+					}
+					for (int j = 0; j < members.length(); j++) {
+						char member = members.charAt(j);
+						if (member == '\\' || member == '[' || member == ']' || member == '&' || member == '^') {
+							regex.append('\\');
+						}
+						regex.append(member);
+					}
+					regex.append(']');
+					i = classEnd;
+				}
+				continue;
+			}
+			if (c == '\\' && i + 1 < glob.length()) {
+				c = glob.charAt(++i);
+			}
+			if (!wildcard) {
+				literalPart.append(c);
+			}
+			if ("\\.[]{}()*+-?^$|".indexOf(c) != -1) {
+				regex.append('\\');
+			}
+			regex.append(c);
+		}
+		if (!wildcard) {
+			return literal(literalPart.toString());
+		}
+		return new NamePattern(null, literalPart.toString(), Pattern.compile(regex.toString()).matcher(""));
+	}
+
+	/**
+	 * Compiles a regular expression that must match the whole name. No prefix is
+	 * worked out for it, so a search tests every name.
+	 * 
+	 * @param regex The regular expression to compile
+	 * @return The pattern
+	 * @throws java.util.regex.PatternSyntaxException If the expression is not
+	 *                                                valid
+	 */
+	public static NamePattern regex(String regex) {
+		return new NamePattern(null, "", Pattern.compile(regex).matcher(""));
+	}
+
+	/**
+	 * Returns an instance of NamePattern
+	 * 
+	 * @param literal The only name that matches, or null if there are several
+	 * @param prefix  Every matching name starts with this
+	 * @param matcher Tests names that need more than the literal, or null
+	 */
+	private NamePattern(String literal, String prefix, Matcher matcher) {
+		this.literal = literal;
+		this.prefix = prefix;
+		this.matcher = matcher;
+	}
+}
@@ -0,0 +1,518 @@
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The <code>NodeStore</code> class keeps a whole file tree in a few primitive
+ * columns instead of one object per node. A node is an int ID, and its parent,
+ * first and last child, siblings, child count and name are found at that index
+ * of the matching column. Names are stored once each, as UTF-8 bytes in a
+ * shared arena, and a single open-addressing table keyed by parent and name
+ * finds a child without walking its siblings.
+ * 
+ * <p>
+ * The columns can be kept on the Java heap or in direct buffers outside it. A
+ * store is not thread safe; <code>CompactDirectoryTree</code> guards it with a
+ * lock.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class NodeStore {
+	public static final int NONE = -1; // Stands for a missing node
+	private static final int ROOT = 0; // ID of the root
+	private static final int INITIAL_CAPACITY = 1024; // Nodes the first columns hold
+	private static final int INITIAL_ARENA_CAPACITY = 1 << 14; // Bytes the first name arena holds
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE / Integer.BYTES; // Most ints in a direct buffer
+	private static final int TABLE_LOAD_DIVISOR = 2; // The child table is kept at most half full
+
+	private final boolean offHeap; // True if the columns are direct buffers
+	private IntBuffer parents; // Parent of each node, or NONE
+	private IntBuffer firstChildren; // First child of each node, or NONE
+	private IntBuffer lastChildren; // Last child of each node, or NONE
+	private IntBuffer nextSiblings; // Next child of the same parent, or NONE
+	private IntBuffer previousSiblings; // Previous child of the same parent, or NONE
+	private IntBuffer childCounts; // Number of children of each node
+	private IntBuffer nameOffsets; // Where each node's name starts in the arena
+	private IntBuffer fileFlags; // Bit set of the nodes that are files
+	private ByteBuffer names; // Each name as a varint length followed by its UTF-8 bytes
+	private int namesLength; // Bytes of the arena in use
+	private IntBuffer childTable; // Open-addressing table of (node + 1) by parent and name, 0 if empty
+	private int childTableSize; // Nodes in the child table
+	private int capacity; // Nodes the columns hold
+	private int count; // Nodes in the store
+
+	/**
+	 * @return The ID of the root
+	 */
+	public int getRoot() {
+		return ROOT;
+	}
+
+	/**
+	 * @return The number of nodes in this instance, including the root
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return True if the columns of this instance are outside the Java heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The parent of the node, or NONE for the root and detached nodes
+	 */
+	public int getParent(int node) {
+		return parents.get(node);
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The first child of the node, or NONE if it has no children
+	 */
+	public int getFirstChild(int node) {
+		return firstChildren.get(node);
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The child after the node in its parent, or NONE if it is the last
+	 */
+	public int getNextSibling(int node) {
+		return nextSiblings.get(node);
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The number of children of the node
+	 */
+	public int getChildrenCount(int node) {
+		return childCounts.get(node);
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return True if the node is a file, false if it is a directory
+	 */
+	public boolean isFile(int node) {
+		return (fileFlags.get(node >>> 5) & (1 << node)) != 0;
+	}
+
+	/**
+	 * @param node A node ID
+	 * @return The name of the node
+	 */
+	public String getName(int node) {
+		int offset = nameOffsets.get(node);
+		int length = nameLengthAt(offset);
+		byte[] bytes = new byte[length];
+		names.get(offset + lengthPrefixSize(length), bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks the name of a node without decoding it.
+	 * 
+	 * @param node A node ID
+	 * @param name A name encoded as UTF-8
+	 * @return True if the node has that name
+	 */
+	public boolean hasName(int node, byte[] name) {
+		int offset = nameOffsets.get(node);
+		int length = nameLengthAt(offset);
+		if (length != name.length) {
+			return false;
+		}
+		offset += lengthPrefixSize(length);
+		for (int i = 0; i < length; i++) {
+			if (names.get(offset + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the child of a directory with the specified name.
+	 * 
+	 * @param parent The directory to look in
+	 * @param name   The name of the child
+	 * @return The child, or NONE if there is no child with that name
+	 */
+	public int findChild(int parent, String name) {
+		return findChild(parent, name.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Finds the child of a directory with the specified name.
+	 * 
+	 * @param parent The directory to look in
+	 * @param name   The name of the child, encoded as UTF-8
+	 * @return The child, or NONE if there is no child with that name
+	 */
+	public int findChild(int parent, byte[] name) {
+		int mask = childTable.capacity() - 1;
+		int hash = hash(name, 0, name.length);
+		for (int slot = slotOf(parent, hash, mask);; slot = (slot + 1) & mask) {
+			int entry = childTable.get(slot);
+			if (entry == 0) {
+				return NONE;
+			}
+			int node = entry - 1;
+			if (parents.get(node) == parent && hasName(node, name)) {
+				return node;
+			}
+		}
+	}
+
+	/**
+	 * Creates a node as the last child of a directory. The caller checks that
+	 * the directory has no child of the same name.
+	 * 
+	 * @param parent The directory to add the node to
+	 * @param name   The name of the new node
+	 * @param isFile True to create a file, false to create a directory
+	 * @return The ID of the new node
+	 * @throws IllegalStateException If the store cannot hold more nodes
+	 */
+	public int add(int parent, String name, boolean isFile) {
+		int node = allocate(name, isFile);
+		attach(node, parent);
+		return node;
+	}
+
+	/**
+	 * Unlinks a node from its parent. The node keeps its subtree and can be
+	 * attached somewhere else.
+	 * 
+	 * @param node The node to unlink; it must not be the root
+	 */
+	public void detach(int node) {
+		int parent = parents.get(node);
+		if (parent == NONE) {
+			return;
+		}
+		removeFromTable(node);
+		int previous = previousSiblings.get(node);
+		int next = nextSiblings.get(node);
+		if (previous == NONE) {
+			firstChildren.put(parent, next);
+		} else {
+			nextSiblings.put(previous, next);
+		}
+		if (next == NONE) {
+			lastChildren.put(parent, previous);
+		} else {
+			previousSiblings.put(next, previous);
+		}
+		childCounts.put(parent, childCounts.get(parent) - 1);
+		parents.put(node, NONE);
+		previousSiblings.put(node, NONE);
+		nextSiblings.put(node, NONE);
+	}
+
+	/**
+	 * Links a detached node in as the last child of a directory. The caller
+	 * checks that the directory has no child of the same name.
+	 * 
+	 * @param node   The detached node
+	 * @param parent The directory to add it to
+	 */
+	public void attach(int node, int parent) {
+		int last = lastChildren.get(parent);
+		if (last == NONE) {
+			firstChildren.put(parent, node);
+		} else {
+			nextSiblings.put(last, node);
+		}
+		previousSiblings.put(node, last);
+		nextSiblings.put(node, NONE);
+		lastChildren.put(parent, node);
+		childCounts.put(parent, childCounts.get(parent) + 1);
+		parents.put(node, parent);
+		insertIntoTable(node);
+	}
+
+	/**
+	 * @return The bytes reserved by the columns, the name arena and the child
+	 *         table of this instance
+	 */
+	public long getMemoryUsage() {
+		long ints = 7L * capacity + fileFlags.capacity() + childTable.capacity();
+		return ints * Integer.BYTES + names.capacity();
+	}
+
+	/**
+	 * Creates a detached node.
+	 * 
+	 * @param name   The name of the node
+	 * @param isFile True for a file, false for a directory
+	 * @return The ID of the node
+	 * @throws IllegalStateException If the store cannot hold more nodes
+	 */
+	private int allocate(String name, boolean isFile) {
+		if (count == capacity) {
+			if (capacity == MAX_CAPACITY) {
+				throw new IllegalStateException("The node store is full.");
+			}
+			resize((int) Math.min((long) capacity * 2, MAX_CAPACITY));
+		}
+		int node = count++;
+		parents.put(node, NONE);
+		firstChildren.put(node, NONE);
+		lastChildren.put(node, NONE);
+		nextSiblings.put(node, NONE);
+		previousSiblings.put(node, NONE);
+		childCounts.put(node, 0);
+		nameOffsets.put(node, appendName(name.getBytes(StandardCharsets.UTF_8)));
+		int word = fileFlags.get(node >>> 5);
+		fileFlags.put(node >>> 5, isFile ? word | (1 << node) : word & ~(1 << node));
+		return node;
+	}
+
+	/**
+	 * Adds a name to the arena.
+	 * 
+	 * @param bytes The name, encoded as UTF-8
+	 * @return Where the name starts in the arena
+	 * @throws IllegalStateException If the arena cannot grow any more
+	 */
+	private int appendName(byte[] bytes) {
+		int needed = namesLength + 5 + bytes.length;
+		if (needed < 0) {
+			throw new IllegalStateException("The name arena is full.");
+		}
+		if (needed > names.capacity()) {
+			ByteBuffer grown = allocateBytes((int) Math.min(Math.max((long) names.capacity() * 2, needed),
+					Integer.MAX_VALUE));
+			grown.put(0, names, 0, namesLength);
+			names = grown;
+		}
+		int offset = namesLength;
+		int length = bytes.length;
+		while (length >= 0x80) {
+			names.put(namesLength++, (byte) (length | 0x80));
+			length >>>= 7;
+		}
+		names.put(namesLength++, (byte) length);
+		names.put(namesLength, bytes);
+		namesLength += bytes.length;
+		return offset;
+	}
+
+	/**
+	 * Moves every column into buffers with room for more nodes.
+	 * 
+	 * @param newCapacity The number of nodes the new columns hold
+	 */
+	private void resize(int newCapacity) {
+		parents = grow(parents, newCapacity);
+		firstChildren = grow(firstChildren, newCapacity);
+		lastChildren = grow(lastChildren, newCapacity);
+		nextSiblings = grow(nextSiblings, newCapacity);
+		previousSiblings = grow(previousSiblings, newCapacity);
+		childCounts = grow(childCounts, newCapacity);
+		nameOffsets = grow(nameOffsets, newCapacity);
+		IntBuffer flags = allocateInts((newCapacity + 31) >>> 5);
+		flags.put(0, fileFlags, 0, fileFlags.capacity());
+		fileFlags = flags;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * @param column      A column
+	 * @param newCapacity The size of the new column
+	 * @return A copy of the column's nodes in a larger buffer
+	 */
+	private IntBuffer grow(IntBuffer column, int newCapacity) {
+		IntBuffer grown = allocateInts(newCapacity);
+		grown.put(0, column, 0, count);
+		return grown;
+	}
+
+	/**
+	 * @param size The number of ints
+	 * @return A zeroed buffer on or off the heap, as this store keeps its columns
+	 */
+	private IntBuffer allocateInts(int size) {
+		if (offHeap) {
+			return ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		return IntBuffer.allocate(size);
+	}
+
+	/**
+	 * @param size The number of bytes
+	 * @return A zeroed buffer on or off the heap, as this store keeps its columns
+	 */
+	private ByteBuffer allocateBytes(int size) {
+		return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Adds an attached node to the child table, growing it if it would be more
+	 * than half full.
+	 * 
+	 * @param node The node
+	 */
+	private void insertIntoTable(int node) {
+		if ((childTableSize + 1) * TABLE_LOAD_DIVISOR > childTable.capacity()) {
+			IntBuffer old = childTable;
+			childTable = allocateInts(old.capacity() * 2);
+			for (int i = 0; i < old.capacity(); i++) {
+				int entry = old.get(i);
+				if (entry != 0) {
+					placeInTable(entry - 1);
+				}
+			}
+		}
+		placeInTable(node);
+		childTableSize++;
+	}
+
+	/**
+	 * Puts a node in the first free slot from its home slot.
+	 * 
+	 * @param node The node
+	 */
+	private void placeInTable(int node) {
+		int mask = childTable.capacity() - 1;
+		int slot = homeSlotOf(node, mask);
+		while (childTable.get(slot) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		childTable.put(slot, node + 1);
+	}
+
+	/**
+	 * Removes a node from the child table, shifting back the nodes after it so
+	 * that no probe sequence is broken.
+	 * 
+	 * @param node The node
+	 */
+	private void removeFromTable(int node) {
+		int mask = childTable.capacity() - 1;
+		int hole = homeSlotOf(node, mask);
+		while (childTable.get(hole) != node + 1) {
+			hole = (hole + 1) & mask;
+		}
+		for (int slot = (hole + 1) & mask;; slot = (slot + 1) & mask) {
+			int entry = childTable.get(slot);
+			if (entry == 0) {
+				break;
+			}
+			int home = homeSlotOf(entry - 1, mask);
+			// The entry can fill the hole unless its home lies after the hole
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				childTable.put(hole, entry);
+				hole = slot;
+			}
+		}
+		childTable.put(hole, 0);
+		childTableSize--;
+	}
+
+	/**
+	 * @param node An attached node
+	 * @param mask The child table's capacity minus one
+	 * @return The slot the node's probe sequence starts at
+	 */
+	private int homeSlotOf(int node, int mask) {
+		int offset = nameOffsets.get(node);
+		int length = nameLengthAt(offset);
+		offset += lengthPrefixSize(length);
+		int hash = 1;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + names.get(offset + i);
+		}
+		return slotOf(parents.get(node), hash, mask);
+	}
+
+	/**
+	 * @param offset Where a name starts in the arena
+	 * @return The length in bytes of the name
+	 */
+	private int nameLengthAt(int offset) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = names.get(offset++);
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return length;
+	}
+
+	/**
+	 * @param length The length of a name
+	 * @return The number of bytes its length takes up in the arena
+	 */
+	private static int lengthPrefixSize(int length) {
+		int size = 1;
+		while (length >= 0x80) {
+			length >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @param bytes  An encoded name
+	 * @param offset Where the name starts
+	 * @param length The length of the name
+	 * @return The hash of the name
+	 */
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = 1;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + bytes[offset + i];
+		}
+		return hash;
+	}
+
+	/**
+	 * @param parent   The parent of a node
+	 * @param nameHash The hash of its name
+	 * @param mask     The child table's capacity minus one
+	 * @return The slot the node's probe sequence starts at
+	 */
+	private static int slotOf(int parent, int nameHash, int mask) {
+		int hash = parent * 0x9E3779B1 + nameHash;
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash & mask;
+	}
+
+	/**
+	 * Returns an instance of NodeStore that holds only a root directory
+	 * 
+	 * @param rootName The name of the root
+	 * @param offHeap  True to keep the columns in direct buffers outside the
+	 *                 Java heap
+	 */
+	public NodeStore(String rootName, boolean offHeap) {
+		this.offHeap = offHeap;
+		this.capacity = INITIAL_CAPACITY;
+		this.parents = allocateInts(capacity);
+		this.firstChildren = allocateInts(capacity);
+		this.lastChildren = allocateInts(capacity);
+		this.nextSiblings = allocateInts(capacity);
+		this.previousSiblings = allocateInts(capacity);
+		this.childCounts = allocateInts(capacity);
+		this.nameOffsets = allocateInts(capacity);
+		this.fileFlags = allocateInts(capacity >>> 5);
+		this.names = allocateBytes(INITIAL_ARENA_CAPACITY);
+		this.childTable = allocateInts(INITIAL_CAPACITY * TABLE_LOAD_DIVISOR);
+		allocate(rootName, false);
+	}
+}
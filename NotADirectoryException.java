@@ -3,6 +3,11 @@
  * <code>NotADirectoryException</code> is thrown when the user attempts to move
  * to node that is not a directory.
  *
+ * <p>
+ * The exception is thrown for ordinary outcomes, such as a path that passes
+ * through a file, so it does not fill in a stack trace.
+ * </p>
+ *
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
@@ -13,7 +18,7 @@ public class NotADirectoryException extends Exception {
 	 * Returns an instance of <code>NotADirectoryException</code>.
 	 */
 	public NotADirectoryException() {
-		super();
+		this(null);
 	}
 
 	/**
@@ -23,6 +28,6 @@ public class NotADirectoryException extends Exception {
 	 * @param message The message that accompanies the error.
 	 */
 	public NotADirectoryException(String message) {
-		super(message);
+		super(message, null, false, false);
 	}
 }
@@ -0,0 +1,186 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>OperationStatistics</code> class keeps a latency histogram and
+ * error counts for each of a set of named operations. Callers look an
+ * operation up once and keep it, so recording does not search the set.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class OperationStatistics {
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	private final Map<String, Operation> operations; // Every operation, by name
+
+	/**
+	 * Gets the statistics of an operation, creating them if needed.
+	 * 
+	 * @param name The name of the operation
+	 * @return The operation's statistics
+	 */
+	public Operation operation(String name) {
+		return operations.computeIfAbsent(name, Operation::new);
+	}
+
+	/**
+	 * Forgets everything recorded for every operation.
+	 */
+	public void reset() {
+		for (Operation operation : operations.values()) {
+			operation.latencies.reset();
+			operation.errors.clear();
+		}
+	}
+
+	/**
+	 * Writes a table with a row for each operation that has run: how many times
+	 * it ran, how many times it failed, and its latency percentiles in
+	 * microseconds. Each operation's failures are then broken down by exception
+	 * type.
+	 * 
+	 * @param out Where the table is written
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	public void print(Appendable out) throws IOException {
+		List<Operation> ran = new ArrayList<>();
+		for (Operation operation : operations.values()) {
+			if (operation.latencies.getCount() > 0 || !operation.errors.isEmpty()) {
+				ran.add(operation);
+			}
+		}
+		Collections.sort(ran, (a, b) -> a.name.compareTo(b.name));
+		String lineSeparator = System.lineSeparator();
+		out.append(String.format("%-20s %10s %8s %10s %10s %10s %10s %10s%s", "operation", "count", "errors",
+				"p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)", lineSeparator));
+		for (Operation operation : ran) {
+			LatencyHistogram latencies = operation.latencies;
+			out.append(String.format("%-20s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%s", operation.name,
+					latencies.getCount(), operation.getErrorCount(), micros(latencies.getValueAtPercentile(50)),
+					micros(latencies.getValueAtPercentile(90)), micros(latencies.getValueAtPercentile(99)),
+					micros(latencies.getValueAtPercentile(99.9)), micros(latencies.getMax()), lineSeparator));
+			for (Map.Entry<String, Long> error : operation.getErrors().entrySet()) {
+				out.append(String.format("    %-30s %10d%s", error.getKey(), error.getValue(), lineSeparator));
+			}
+		}
+	}
+
+	/**
+	 * @param nanos A time in nanoseconds
+	 * @return The time in microseconds
+	 */
+	private static double micros(long nanos) {
+		return nanos / NANOS_PER_MICRO;
+	}
+
+	/**
+	 * The <code>Operation</code> class is the statistics of a single operation.
+	 * Each run is timed with <code>System.nanoTime</code>:
+	 * 
+	 * <pre>
+	 * long start = System.nanoTime();
+	 * try {
+	 * 	...
+	 * } catch (Exception e) {
+	 * 	operation.recordError(e);
+	 * 	throw e;
+	 * } finally {
+	 * 	operation.recordSince(start);
+	 * }
+	 * </pre>
+	 */
+	public static class Operation {
+		private final String name; // The name of the operation
+		private final LatencyHistogram latencies; // How long each run took, in nanoseconds
+		private final ConcurrentHashMap<String, LongAdder> errors; // Failures by exception type
+
+		/**
+		 * @return The name of this instance
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The latencies of this instance, in nanoseconds
+		 */
+		public LatencyHistogram getLatencies() {
+			return latencies;
+		}
+
+		/**
+		 * Records a run that started at the specified time and has just ended.
+		 * 
+		 * @param start The value of <code>System.nanoTime</code> when the run started
+		 */
+		public void recordSince(long start) {
+			latencies.record(System.nanoTime() - start);
+		}
+
+		/**
+		 * Counts a failed run under the simple name of the exception's class.
+		 * 
+		 * @param e The exception the run failed with
+		 */
+		public void recordError(Throwable e) {
+			recordError(e.getClass().getSimpleName());
+		}
+
+		/**
+		 * Counts a failed run.
+		 * 
+		 * @param type What kind of failure it was
+		 */
+		public void recordError(String type) {
+			errors.computeIfAbsent(type, key -> new LongAdder()).increment();
+		}
+
+		/**
+		 * @return The number of failed runs of this instance
+		 */
+		public long getErrorCount() {
+			long count = 0;
+			for (LongAdder adder : errors.values()) {
+				count += adder.sum();
+			}
+			return count;
+		}
+
+		/**
+		 * @return The number of failed runs of this instance by kind, sorted by kind
+		 */
+		public Map<String, Long> getErrors() {
+			Map<String, Long> counts = new TreeMap<>();
+			for (Map.Entry<String, LongAdder> error : errors.entrySet()) {
+				counts.put(error.getKey(), error.getValue().sum());
+			}
+			return counts;
+		}
+
+		/**
+		 * Returns an instance of Operation with nothing recorded
+		 * 
+		 * @param name The name of the operation
+		 */
+		Operation(String name) {
+			this.name = name;
+			this.latencies = new LatencyHistogram();
+			this.errors = new ConcurrentHashMap<>();
+		}
+	}
+
+	/**
+	 * Returns an instance of OperationStatistics with no operations
+	 */
+	public OperationStatistics() {
+		operations = new ConcurrentHashMap<>();
+	}
+}
@@ -0,0 +1,549 @@
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * The <code>PersistentNode</code> class is an immutable copy of a
+ * <code>DirectoryNode</code>. Changing a node returns a new node and leaves the
+ * old one as it was, so a tree of these nodes can be read by any number of
+ * threads without locks.
+ * 
+ * <p>
+ * Children are kept in a trie with 32 slots per level. Adding, replacing or
+ * removing a child copies one slot array per level instead of the whole child
+ * list, and every child that did not change is shared with the old node.
+ * Children are found by index, which the live tree hands over, so there is no
+ * lookup by name. The first child need not sit at trie index 0: removing a
+ * child moves the children on the shorter side of it, as
+ * <code>DirectoryNode</code> does, so removing the first child only clears its
+ * slot and moves the start of the children along.
+ * </p>
+ * 
+ * <p>
+ * Each node also counts the files and directories below it and the depth of
+ * its deepest branch. A changed node works these out from the old node and the
+ * changed child, so the counts cost nothing extra to keep.
+ * </p>
+ * 
+ * <p>
+ * A file also keeps its size and the times it was created and last modified.
+ * Directories leave these at 0.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public final class PersistentNode {
+	private static final int BITS = 5; // Bits of a child index used per trie level
+	private static final int WIDTH = 1 << BITS; // Slots in each trie array
+	private static final int MASK = WIDTH - 1; // Picks a slot out of a shifted index
+	private static final Object[] EMPTY = new Object[0];
+	private static final PersistentNode[] NO_NODES = new PersistentNode[0];
+
+	private final String name; // The name of the node
+	private final boolean isFile; // True if the node is a file
+	private final Object[] trie; // Top level of the child trie
+	private final int shift; // Index bits below the top level of the trie
+	private final int offset; // Trie index of the first child
+	private final int childrenCount; // Number of children
+	private final int descendantFileCount; // Files anywhere below the node
+	private final int descendantDirectoryCount; // Directories anywhere below the node
+	private final int maxDepth; // Levels below the node in its deepest branch
+	private final long size; // Size of a file, in bytes
+	private final long creationTime; // When a file was created, in milliseconds since the epoch
+	private final long modificationTime; // When a file was last modified, in milliseconds since the epoch
+
+	/**
+	 * @return The name of this instance
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return True if this instance is a file
+	 */
+	public boolean isFile() {
+		return isFile;
+	}
+
+	/**
+	 * @return The number of files anywhere below this instance
+	 */
+	public int getDescendantFileCount() {
+		return descendantFileCount;
+	}
+
+	/**
+	 * @return The number of directories anywhere below this instance
+	 */
+	public int getDescendantDirectoryCount() {
+		return descendantDirectoryCount;
+	}
+
+	/**
+	 * @return The number of levels below this instance in its deepest branch, 0 if
+	 *         it has no children
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return The size of this file in bytes, 0 for a directory
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return When this file was created, in milliseconds since the epoch
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @return When this file was last modified, in milliseconds since the epoch
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @return The number of children of this instance
+	 */
+	public int getChildrenCount() {
+		return childrenCount;
+	}
+
+	/**
+	 * Gets the child at an index.
+	 * 
+	 * @param index The index of the child
+	 * @return The child
+	 * @throws IndexOutOfBoundsException If there is no child at the index
+	 */
+	public PersistentNode getChild(int index) {
+		if (index < 0 || index >= childrenCount) {
+			throw new IndexOutOfBoundsException("There is no child at index " + index + ".");
+		}
+		index += offset;
+		Object[] node = trie;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return (PersistentNode) node[index & MASK];
+	}
+
+	/**
+	 * @return The children of this instance, in order
+	 */
+	public PersistentNode[] getChildren() {
+		if (childrenCount == 0) {
+			return NO_NODES;
+		}
+		PersistentNode[] children = new PersistentNode[offset + childrenCount];
+		flatten(trie, shift, children, 0);
+		return offset == 0 ? children : Arrays.copyOfRange(children, offset, children.length);
+	}
+
+	/**
+	 * Follows a path of child indexes down from this node.
+	 * 
+	 * @param path The index of each node on the path within its parent
+	 * @return The node at the end of the path
+	 * @throws IndexOutOfBoundsException If the path does not exist
+	 */
+	public PersistentNode getDescendant(int[] path) {
+		PersistentNode node = this;
+		for (int index : path) {
+			node = node.getChild(index);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns a copy of this node with one child replaced.
+	 * 
+	 * @param index The index of the child to replace
+	 * @param child The new child
+	 * @return The changed copy
+	 * @throws IndexOutOfBoundsException If there is no child at the index
+	 */
+	public PersistentNode withChild(int index, PersistentNode child) {
+		if (index < 0 || index >= childrenCount) {
+			throw new IndexOutOfBoundsException("There is no child at index " + index + ".");
+		}
+		PersistentNode old = getChild(index);
+		int depth;
+		if (child.maxDepth + 1 >= maxDepth) {
+			depth = child.maxDepth + 1;
+		} else if (old.maxDepth + 1 < maxDepth) {
+			depth = maxDepth;
+		} else {
+			// The replaced child was the deepest, so the others decide, unless one of
+			// them is as deep
+			depth = child.maxDepth + 1;
+			for (int i = 0; i < childrenCount && depth < maxDepth; i++) {
+				if (i != index) {
+					depth = Math.max(depth, getChild(i).maxDepth + 1);
+				}
+			}
+		}
+		return new PersistentNode(name, isFile, set(trie, shift, offset + index, child), shift, offset, childrenCount,
+				descendantFileCount - old.fileCount() + child.fileCount(),
+				descendantDirectoryCount - old.directoryCount() + child.directoryCount(), depth, size, creationTime,
+				modificationTime);
+	}
+
+	/**
+	 * Returns a copy of this node with a child added after the others.
+	 * 
+	 * @param child The new child
+	 * @return The changed copy
+	 */
+	public PersistentNode withChildAppended(PersistentNode child) {
+		Object[] top = trie;
+		int topShift = shift;
+		if (offset + childrenCount == 1L << (shift + BITS)) {
+			// The trie is full, so it becomes the first slot of a new top level
+			top = new Object[] { trie };
+			topShift += BITS;
+		}
+		return new PersistentNode(name, isFile, append(top, topShift, offset + childrenCount, child), topShift,
+				offset, childrenCount + 1, descendantFileCount + child.fileCount(),
+				descendantDirectoryCount + child.directoryCount(), Math.max(maxDepth, child.maxDepth + 1), size,
+				creationTime, modificationTime);
+	}
+
+	/**
+	 * Returns a copy of this node with one child removed. The children after it
+	 * move down one index, as they do in <code>DirectoryNode</code>. If fewer
+	 * children come before the removed one than after it, those are stored one
+	 * trie index later and the start of the children moves along instead;
+	 * otherwise the trie arrays before the removed child are shared and the later
+	 * children are stored again. Once more slots are cleared at the start than
+	 * there are children, the trie is built again from the children.
+	 * 
+	 * @param index The index of the child to remove
+	 * @return The changed copy
+	 * @throws IndexOutOfBoundsException If there is no child at the index
+	 */
+	public PersistentNode withoutChild(int index) {
+		if (index < 0 || index >= childrenCount) {
+			throw new IndexOutOfBoundsException("There is no child at index " + index + ".");
+		}
+		int last = childrenCount - 1;
+		PersistentNode removed = getChild(index);
+		Object[] top;
+		int topShift = shift;
+		int first = offset;
+		if (index < last - index) {
+			top = trie;
+			for (int moved = index - 1; moved >= 0; moved--) {
+				top = set(top, topShift, offset + moved + 1, getChild(moved));
+			}
+			top = set(top, topShift, offset, null);
+			first++;
+		} else {
+			top = take(trie, shift, offset + index);
+			if (top == null) {
+				top = EMPTY;
+				topShift = 0;
+			}
+			while (topShift > 0 && top.length == 1) {
+				// A top level with one slot is dropped, as if the trie had never grown
+				top = (Object[]) top[0];
+				topShift -= BITS;
+			}
+			for (int moved = index + 1; moved <= last; moved++) {
+				if (first + moved - 1 == 1L << (topShift + BITS)) {
+					top = new Object[] { top };
+					topShift += BITS;
+				}
+				top = append(top, topShift, first + moved - 1, getChild(moved));
+			}
+		}
+		if (last == 0) {
+			top = EMPTY;
+			topShift = 0;
+			first = 0;
+		}
+		PersistentNode changed = new PersistentNode(name, isFile, top, topShift, first, last,
+				descendantFileCount - removed.fileCount(), descendantDirectoryCount - removed.directoryCount(),
+				maxDepth, size, creationTime, modificationTime);
+		if (first > last) {
+			// The cleared slots outnumber the children, so the trie is built again
+			PersistentNode[] children = changed.getChildren();
+			return build(name, isFile, size, creationTime, modificationTime,
+					Arrays.copyOf(children, children.length, Object[].class));
+		} else if (removed.maxDepth + 1 < maxDepth) {
+			return changed;
+		}
+		// The removed child was the deepest, so the others decide, unless one of
+		// them is as deep
+		int depth = 0;
+		for (int i = 0; i < last && depth < maxDepth; i++) {
+			depth = Math.max(depth, changed.getChild(i).maxDepth + 1);
+		}
+		return new PersistentNode(name, isFile, top, topShift, first, last, changed.descendantFileCount,
+				changed.descendantDirectoryCount, depth, size, creationTime, modificationTime);
+	}
+
+	/**
+	 * Returns a copy of this node with a new size and modification time. The
+	 * creation time and the children are kept.
+	 * 
+	 * @param size             The new size, in bytes
+	 * @param modificationTime The new modification time, in milliseconds since
+	 *                         the epoch
+	 * @return The changed copy
+	 */
+	public PersistentNode withAttributes(long size, long modificationTime) {
+		return new PersistentNode(name, isFile, trie, shift, offset, childrenCount, descendantFileCount,
+				descendantDirectoryCount, maxDepth, size, creationTime, modificationTime);
+	}
+
+	/**
+	 * Returns a copy of this node with one descendant changed. Only the nodes on
+	 * the path to the descendant are copied.
+	 * 
+	 * @param path   The index of each node on the path within its parent
+	 * @param change Makes the changed copy of the descendant
+	 * @return The changed copy of this node
+	 * @throws IndexOutOfBoundsException If the path does not exist
+	 */
+	public PersistentNode withDescendant(int[] path, UnaryOperator<PersistentNode> change) {
+		PersistentNode[] nodes = new PersistentNode[path.length + 1];
+		nodes[0] = this;
+		for (int i = 0; i < path.length; i++) {
+			nodes[i + 1] = nodes[i].getChild(path[i]);
+		}
+		PersistentNode changed = change.apply(nodes[path.length]);
+		for (int i = path.length - 1; i >= 0; i--) {
+			changed = nodes[i].withChild(path[i], changed);
+		}
+		return changed;
+	}
+
+	/**
+	 * Copies a directory tree. The nodes must not change during the copy.
+	 * 
+	 * @param node The root of the tree to copy
+	 * @return The copy
+	 */
+	public static PersistentNode copyOf(DirectoryNode node) {
+		// List the nodes in pre-order, then copy them in reverse so that each
+		// node's children are already copied when it is reached
+		ArrayDeque<DirectoryNode> stack = new ArrayDeque<>();
+		ArrayDeque<DirectoryNode> preOrder = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			DirectoryNode current = stack.pop();
+			preOrder.push(current);
+			for (int i = current.getChildrenCount() - 1; i >= 0; i--) {
+				stack.push(current.getChildAt(i));
+			}
+		}
+		ArrayDeque<PersistentNode> copies = new ArrayDeque<>();
+		while (!preOrder.isEmpty()) {
+			DirectoryNode current = preOrder.pop();
+			Object[] children = new Object[current.getChildrenCount()];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = copies.pop();
+			}
+			copies.push(build(current.getName(), current.isFile(), current.getSize(), current.getCreationTime(),
+					current.getModificationTime(), children));
+		}
+		return copies.pop();
+	}
+
+	/**
+	 * Creates a node from its children, building the trie a level at a time.
+	 * 
+	 * @param name             The name of the node
+	 * @param isFile           True if the node is a file
+	 * @param size             The size of a file, in bytes
+	 * @param creationTime     When a file was created
+	 * @param modificationTime When a file was last modified
+	 * @param children         The children of the node, which become part of the
+	 *                         trie
+	 * @return The new node
+	 */
+	private static PersistentNode build(String name, boolean isFile, long size, long creationTime,
+			long modificationTime, Object[] children) {
+		int files = 0;
+		int directories = 0;
+		int depth = 0;
+		for (Object value : children) {
+			PersistentNode child = (PersistentNode) value;
+			files += child.fileCount();
+			directories += child.directoryCount();
+			depth = Math.max(depth, child.maxDepth + 1);
+		}
+		Object[] level = children;
+		int levelShift = 0;
+		while (level.length > WIDTH) {
+			Object[] parents = new Object[(level.length + MASK) >>> BITS];
+			for (int i = 0; i < parents.length; i++) {
+				parents[i] = Arrays.copyOfRange(level, i << BITS, Math.min(level.length, (i + 1) << BITS));
+			}
+			level = parents;
+			levelShift += BITS;
+		}
+		return new PersistentNode(name, isFile, level, levelShift, 0, children.length, files, directories, depth,
+				size, creationTime, modificationTime);
+	}
+
+	/**
+	 * @return The number of files in the subtree of this instance, itself included
+	 */
+	private int fileCount() {
+		return descendantFileCount + (isFile ? 1 : 0);
+	}
+
+	/**
+	 * @return The number of directories in the subtree of this instance, itself
+	 *         included
+	 */
+	private int directoryCount() {
+		return descendantDirectoryCount + (isFile ? 0 : 1);
+	}
+
+	/**
+	 * Copies the trie arrays on the path to an index and stores a value there.
+	 * 
+	 * @param node  The trie array at this level
+	 * @param level The index bits below this level
+	 * @param index The index to store at
+	 * @param value The value to store
+	 * @return The copied trie array
+	 */
+	private static Object[] set(Object[] node, int level, int index, Object value) {
+		Object[] copy = node.clone();
+		int slot = (index >>> level) & MASK;
+		copy[slot] = level == 0 ? value : set((Object[]) node[slot], level - BITS, index, value);
+		return copy;
+	}
+
+	/**
+	 * Copies the trie arrays on the path to the next free index, growing them as
+	 * needed, and stores a value there.
+	 * 
+	 * @param node  The trie array at this level
+	 * @param level The index bits below this level
+	 * @param index The next free index
+	 * @param value The value to store
+	 * @return The copied trie array
+	 */
+	private static Object[] append(Object[] node, int level, int index, Object value) {
+		int slot = (index >>> level) & MASK;
+		Object[] copy = Arrays.copyOf(node, Math.max(node.length, slot + 1));
+		copy[slot] = level == 0 ? value
+				: append(slot < node.length ? (Object[]) node[slot] : EMPTY, level - BITS, index, value);
+		return copy;
+	}
+
+	/**
+	 * Copies the trie arrays on the path to the last value kept, leaving out
+	 * every value after it and any array that would only hold those.
+	 * 
+	 * @param node  The trie array at this level
+	 * @param level The index bits below this level
+	 * @param count The number of values kept from the start
+	 * @return The copied trie array, or null if no values are kept
+	 */
+	private static Object[] take(Object[] node, int level, int count) {
+		if (count == 0) {
+			return null;
+		}
+		int slot = ((count - 1) >>> level) & MASK;
+		Object[] copy = Arrays.copyOf(node, slot + 1);
+		if (level > 0) {
+			copy[slot] = take((Object[]) node[slot], level - BITS, ((count - 1) & ((1 << level) - 1)) + 1);
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies the values of a trie into an array in index order.
+	 * 
+	 * @param node  The trie array at this level
+	 * @param level The index bits below this level
+	 * @param out   Where the values are copied
+	 * @param next  The next free index of <code>out</code>
+	 * @return The next free index of <code>out</code> after the copy
+	 */
+	private static int flatten(Object[] node, int level, PersistentNode[] out, int next) {
+		if (level == 0) {
+			for (Object value : node) {
+				out[next++] = (PersistentNode) value;
+			}
+			return next;
+		}
+		for (Object child : node) {
+			next = flatten((Object[]) child, level - BITS, out, next);
+		}
+		return next;
+	}
+
+	/**
+	 * Returns an instance of PersistentNode with no children
+	 * 
+	 * @param name   The name of the node
+	 * @param isFile True if the node is a file
+	 */
+	public PersistentNode(String name, boolean isFile) {
+		this(name, isFile, 0, 0, 0);
+	}
+
+	/**
+	 * Returns an instance of PersistentNode with no children
+	 * 
+	 * @param name             The name of the node
+	 * @param isFile           True if the node is a file
+	 * @param size             The size of a file, in bytes
+	 * @param creationTime     When a file was created, in milliseconds since the
+	 *                         epoch
+	 * @param modificationTime When a file was last modified, in milliseconds
+	 *                         since the epoch
+	 */
+	public PersistentNode(String name, boolean isFile, long size, long creationTime, long modificationTime) {
+		this(name, isFile, EMPTY, 0, 0, 0, 0, 0, 0, size, creationTime, modificationTime);
+	}
+
+	/**
+	 * Returns an instance of PersistentNode
+	 * 
+	 * @param name                     The name of the node
+	 * @param isFile                   True if the node is a file
+	 * @param trie                     Top level of the child trie
+	 * @param shift                    Index bits below the top level of the trie
+	 * @param offset                   Trie index of the first child
+	 * @param childrenCount            Number of children
+	 * @param descendantFileCount      Files anywhere below the node
+	 * @param descendantDirectoryCount Directories anywhere below the node
+	 * @param maxDepth                 Levels below the node in its deepest branch
+	 * @param size                     Size of a file, in bytes
+	 * @param creationTime             When a file was created
+	 * @param modificationTime         When a file was last modified
+	 */
+	private PersistentNode(String name, boolean isFile, Object[] trie, int shift, int offset, int childrenCount,
+			int descendantFileCount, int descendantDirectoryCount, int maxDepth, long size, long creationTime,
+			long modificationTime) {
+		this.name = name;
+		this.isFile = isFile;
+		this.trie = trie;
+		this.shift = shift;
+		this.offset = offset;
+		this.childrenCount = childrenCount;
+		this.descendantFileCount = descendantFileCount;
+		this.descendantDirectoryCount = descendantDirectoryCount;
+		this.maxDepth = maxDepth;
+		this.size = size;
+		this.creationTime = creationTime;
+		this.modificationTime = modificationTime;
+	}
+}
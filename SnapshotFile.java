@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The <code>SnapshotFile</code> class saves and loads a whole directory tree in
+ * a compact binary format. A snapshot holds a header with the sequence number
+ * of the last change it contains, a dictionary of every
+ * distinct name, and then each node in pre-order as its name ID, a flag byte,
+ * and for directories the number of children or for files the size, creation
+ * time and modification time. IDs, counts, sizes and times are written as
+ * variable-length integers. Files are read and written through memory-mapped
+ * windows, so no per-node objects are serialized.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class SnapshotFile {
+	private static final int MAGIC = 0x44495254; // "DIRT"
+	private static final int VERSION = 3; // Version 1 had no sequence number, version 2 no file metadata
+	private static final byte FILE_FLAG = 1; // Set if the node is a file
+	private static final long WINDOW_SIZE = 1L << 26; // Bytes mapped at a time
+
+	private final DirectoryNode root; // The root of the loaded tree
+	private final long sequence; // Sequence number of the last change in the tree
+
+	/**
+	 * @return The root of the loaded tree
+	 */
+	public DirectoryNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return The sequence number of the last change in the loaded tree
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Writes a version of a tree to the specified path. The snapshot is
+	 * written to a temporary file first and then moved over the path, so an
+	 * existing snapshot is never left half written.
+	 * 
+	 * @param version The version of the tree to save
+	 * @param path    Where the snapshot is written
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	public static void save(TreeVersion version, Path path) throws IOException {
+		PersistentNode root = version.getRoot();
+		// First pass: build the name dictionary and measure the snapshot
+		Map<String, Integer> nameIds = new HashMap<>();
+		String[] names = new String[16];
+		byte[][] encodedNames = new byte[16][];
+		int[] nodeNameIds = new int[16];
+		int nodeCount = 0;
+		long size = 4 + 4 + 8 + 4 + 4;
+		ArrayDeque<PersistentNode> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			PersistentNode node = stack.pop();
+			Integer id = nameIds.get(node.getName());
+			if (id == null) {
+				id = nameIds.size();
+				nameIds.put(node.getName(), id);
+				if (id == names.length) {
+					names = Arrays.copyOf(names, id * 2);
+					encodedNames = Arrays.copyOf(encodedNames, id * 2);
+				}
+				names[id] = node.getName();
+				encodedNames[id] = node.getName().getBytes(StandardCharsets.UTF_8);
+				size += varIntSize(encodedNames[id].length) + encodedNames[id].length;
+			}
+			if (nodeCount == nodeNameIds.length) {
+				nodeNameIds = Arrays.copyOf(nodeNameIds, nodeCount * 2);
+			}
+			nodeNameIds[nodeCount++] = id;
+			size += varIntSize(id) + 1;
+			if (!node.isFile()) {
+				size += varIntSize(node.getChildrenCount());
+			} else {
+				size += varLongSize(node.getSize()) + varLongSize(node.getCreationTime())
+						+ varLongSize(node.getModificationTime());
+			}
+			pushChildren(stack, node);
+		}
+
+		// Second pass: write the snapshot in the same order
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedOutput out = new MappedOutput(channel, size);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(version.getSequence());
+			out.putInt(nameIds.size());
+			for (int i = 0; i < nameIds.size(); i++) {
+				out.putVarInt(encodedNames[i].length);
+				out.put(encodedNames[i]);
+			}
+			out.putInt(nodeCount);
+			int next = 0;
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				PersistentNode node = stack.pop();
+				out.putVarInt(nodeNameIds[next++]);
+				out.put(node.isFile() ? FILE_FLAG : 0);
+				if (!node.isFile()) {
+					out.putVarInt(node.getChildrenCount());
+				} else {
+					out.putVarLong(node.getSize());
+					out.putVarLong(node.getCreationTime());
+					out.putVarLong(node.getModificationTime());
+				}
+				pushChildren(stack, node);
+			}
+			out.force();
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a tree from the specified path.
+	 * 
+	 * @param path Where the snapshot is read from
+	 * @return The loaded snapshot
+	 * @throws IOException If the snapshot cannot be read or is not valid
+	 */
+	public static SnapshotFile load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedInput in = new MappedInput(channel);
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a directory tree snapshot: " + path);
+			}
+			int version = in.getInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ": " + path);
+			}
+			long sequence = version >= 2 ? in.getLong() : 0;
+			String[] names = new String[in.getInt()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = new String(in.get(in.getVarInt()), StandardCharsets.UTF_8);
+			}
+			int nodeCount = in.getInt();
+			DirectoryNode root = null;
+			// Directories that still expect children, and how many they expect
+			ArrayDeque<DirectoryNode> parents = new ArrayDeque<>();
+			int[] remaining = new int[16];
+			for (int i = 0; i < nodeCount; i++) {
+				int nameId = in.getVarInt();
+				if (nameId < 0 || nameId >= names.length) {
+					throw new IOException("Corrupt snapshot: bad name ID " + nameId);
+				}
+				boolean isFile = (in.getByte() & FILE_FLAG) != 0;
+				DirectoryNode node = new DirectoryNode(names[nameId], isFile);
+				if (isFile && version >= 3) {
+					long size = in.getVarLong();
+					if (size < 0) {
+						throw new IOException("Corrupt snapshot: negative size " + size);
+					}
+					node.setSize(size);
+					node.setCreationTime(in.getVarLong());
+					node.setModificationTime(in.getVarLong());
+				}
+				if (root == null) {
+					root = node;
+				} else if (parents.isEmpty()) {
+					throw new IOException("Corrupt snapshot: more than one root");
+				} else {
+					try {
+						parents.peek().addChild(node);
+					} catch (NotADirectoryException | FullDirectoryException | ConflictingNamesException e) {
+						throw new IOException("Corrupt snapshot: " + e.getMessage(), e);
+					}
+					if (--remaining[parents.size() - 1] == 0) {
+						parents.pop();
+					}
+				}
+				int childCount = isFile ? 0 : in.getVarInt();
+				if (childCount > 0) {
+					if (parents.size() == remaining.length) {
+						remaining = Arrays.copyOf(remaining, remaining.length * 2);
+					}
+					remaining[parents.size()] = childCount;
+					parents.push(node);
+				}
+			}
+			if (root == null || root.isFile() || !parents.isEmpty()) {
+				throw new IOException("Corrupt snapshot: incomplete tree");
+			}
+			return new SnapshotFile(root, sequence);
+		}
+	}
+
+	/**
+	 * Pushes the children of a node in reverse, so they are popped in order.
+	 * 
+	 * @param stack The traversal stack
+	 * @param node  The node whose children are pushed
+	 */
+	private static void pushChildren(ArrayDeque<PersistentNode> stack, PersistentNode node) {
+		PersistentNode[] children = node.getChildren();
+		for (int i = children.length - 1; i >= 0; i--) {
+			stack.push(children[i]);
+		}
+	}
+
+	/**
+	 * @param value A non-negative value
+	 * @return The amount of bytes used to write the value as a variable-length
+	 *         integer
+	 */
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @param value Any value
+	 * @return The amount of bytes used to write the value as a variable-length
+	 *         long
+	 */
+	private static int varLongSize(long value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * The <code>MappedOutput</code> class writes a file of known size through
+	 * successive memory-mapped windows.
+	 */
+	private static class MappedOutput {
+		private final FileChannel channel; // The file being written
+		private final long size; // Total size of the file
+		private MappedByteBuffer window; // The currently mapped part of the file
+		private long windowEnd; // File position just after the current window
+
+		/**
+		 * Returns an instance of MappedOutput
+		 * 
+		 * @param channel The file being written
+		 * @param size    Total size of the file
+		 */
+		MappedOutput(FileChannel channel, long size) {
+			this.channel = channel;
+			this.size = size;
+		}
+
+		/**
+		 * Writes a byte, mapping the next window when the current one is full.
+		 * 
+		 * @param value The byte to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void put(byte value) throws IOException {
+			if (window == null || !window.hasRemaining()) {
+				if (window != null) {
+					window.force();
+				}
+				long length = Math.min(WINDOW_SIZE, size - windowEnd);
+				window = channel.map(FileChannel.MapMode.READ_WRITE, windowEnd, length);
+				windowEnd += length;
+			}
+			window.put(value);
+		}
+
+		/**
+		 * Writes every byte of an array.
+		 * 
+		 * @param values The bytes to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void put(byte[] values) throws IOException {
+			for (byte value : values) {
+				put(value);
+			}
+		}
+
+		/**
+		 * Writes a big-endian int.
+		 * 
+		 * @param value The int to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void putInt(int value) throws IOException {
+			put((byte) (value >>> 24));
+			put((byte) (value >>> 16));
+			put((byte) (value >>> 8));
+			put((byte) value);
+		}
+
+		/**
+		 * Writes a big-endian long.
+		 * 
+		 * @param value The long to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void putLong(long value) throws IOException {
+			putInt((int) (value >>> 32));
+			putInt((int) value);
+		}
+
+		/**
+		 * Writes a non-negative int seven bits at a time, lowest bits first.
+		 * 
+		 * @param value The int to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void putVarInt(int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			put((byte) value);
+		}
+
+		/**
+		 * Writes a long seven bits at a time, lowest bits first. Negative values
+		 * take ten bytes.
+		 * 
+		 * @param value The long to write
+		 * @throws IOException If the next window cannot be mapped
+		 */
+		void putVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			put((byte) value);
+		}
+
+		/**
+		 * Forces the last window to be written to the file.
+		 */
+		void force() {
+			if (window != null) {
+				window.force();
+			}
+		}
+	}
+
+	/**
+	 * The <code>MappedInput</code> class reads a file through successive
+	 * memory-mapped windows.
+	 */
+	private static class MappedInput {
+		private final FileChannel channel; // The file being read
+		private final long size; // Total size of the file
+		private MappedByteBuffer window; // The currently mapped part of the file
+		private long windowEnd; // File position just after the current window
+
+		/**
+		 * Returns an instance of MappedInput
+		 * 
+		 * @param channel The file being read
+		 * @throws IOException If the size of the file cannot be read
+		 */
+		MappedInput(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		/**
+		 * Reads a byte, mapping the next window when the current one is used up.
+		 * 
+		 * @return The byte read
+		 * @throws IOException If the file has ended or cannot be mapped
+		 */
+		byte getByte() throws IOException {
+			if (window == null || !window.hasRemaining()) {
+				if (windowEnd == size) {
+					throw new IOException("Corrupt snapshot: unexpected end of file");
+				}
+				long length = Math.min(WINDOW_SIZE, size - windowEnd);
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length);
+				windowEnd += length;
+			}
+			return window.get();
+		}
+
+		/**
+		 * Reads the specified amount of bytes.
+		 * 
+		 * @param length The amount of bytes to read
+		 * @return The bytes read
+		 * @throws IOException If the file has ended or cannot be mapped
+		 */
+		byte[] get(int length) throws IOException {
+			if (length < 0 || length > size) {
+				throw new IOException("Corrupt snapshot: bad length " + length);
+			}
+			byte[] values = new byte[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = getByte();
+			}
+			return values;
+		}
+
+		/**
+		 * Reads a big-endian int.
+		 * 
+		 * @return The int read
+		 * @throws IOException If the file has ended or cannot be mapped
+		 */
+		int getInt() throws IOException {
+			return (getByte() & 0xFF) << 24 | (getByte() & 0xFF) << 16 | (getByte() & 0xFF) << 8 | (getByte() & 0xFF);
+		}
+
+		/**
+		 * Reads a big-endian long.
+		 * 
+		 * @return The long read
+		 * @throws IOException If the file has ended or cannot be mapped
+		 */
+		long getLong() throws IOException {
+			return (long) getInt() << 32 | (getInt() & 0xFFFFFFFFL);
+		}
+
+		/**
+		 * Reads an int written by <code>MappedOutput.putVarInt</code>.
+		 * 
+		 * @return The int read
+		 * @throws IOException If the file has ended, cannot be mapped, or holds a
+		 *                     malformed value
+		 */
+		int getVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				byte b = getByte();
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Corrupt snapshot: bad variable-length integer");
+		}
+
+		/**
+		 * Reads a long written by <code>MappedOutput.putVarLong</code>.
+		 * 
+		 * @return The long read
+		 * @throws IOException If the file has ended, cannot be mapped, or holds a
+		 *                     malformed value
+		 */
+		long getVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = getByte();
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Corrupt snapshot: bad variable-length integer");
+		}
+	}
+
+	/**
+	 * Returns an instance of SnapshotFile
+	 * 
+	 * @param root     The root of the loaded tree
+	 * @param sequence Sequence number of the last change in the tree
+	 */
+	private SnapshotFile(DirectoryNode root, long sequence) {
+		this.root = root;
+		this.sequence = sequence;
+	}
+}
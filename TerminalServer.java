@@ -0,0 +1,560 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The <code>TerminalServer</code> class serves terminal sessions to clients
+ * connected over a TCP or Unix-domain socket. Each connection gets its own
+ * <code>BashTerminal</code>, and so its own cursor, over the shared tree.
+ * 
+ * <p>
+ * A single selector thread reads from and writes to every connection. Lines
+ * are handed to a pool of workers that only hold a thread while a command
+ * runs, so idle sessions cost a buffer each rather than a thread. A session
+ * whose client reads output slower than it is produced is made to wait once
+ * <code>OUTPUT_LIMIT</code> bytes are queued, and a session that sends commands
+ * faster than they run stops being read from.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class TerminalServer implements Closeable {
+	private static final int READ_BUFFER_SIZE = 1 << 12; // Bytes read from a client at a time
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 13; // Bytes a session buffers before queueing them
+	private static final int OUTPUT_LIMIT = 1 << 20; // Queued output bytes that make a session wait
+	private static final int PENDING_LINE_LIMIT = 256; // Queued lines that stop a client being read
+	private static final int MAX_LINE_LENGTH = 1 << 16; // Longest line a client may send
+	private static final String REJECTED_LINE = new String("rejected"); // Queued in place of a line that was too long; compared by identity
+
+	private final ServerSocketChannel server; // Accepts new connections
+	private final Selector selector; // Watches every channel
+	private final ExecutorService workers; // Runs the commands of the sessions
+	private final Function<OutputStream, BashTerminal> sessions; // Starts a session for a connection
+	private final ConcurrentLinkedQueue<Connection> changed; // Connections whose interest must be updated
+	private final Set<Connection> connections; // Every open connection
+	private final AtomicBoolean closed; // True once close has been called
+	private final ByteBuffer readBuffer; // Shared by every read on the selector thread
+
+	/**
+	 * @return The address this server is listening on
+	 * @throws IOException If the address cannot be read
+	 */
+	public SocketAddress getAddress() throws IOException {
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * Accepts connections and moves bytes to and from them until the server is
+	 * closed.
+	 * 
+	 * <dl>
+	 * <dt>Postconditions:</dt>
+	 * <dd>The server has been closed, and every connection with it.</dd>
+	 * </dl>
+	 * 
+	 * @throws IOException If the server socket fails
+	 */
+	public void serve() throws IOException {
+		try {
+			while (selector.isOpen()) {
+				selector.select();
+				Connection connection;
+				while ((connection = changed.poll()) != null) {
+					connection.updateInterest();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					} else if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					if (key.isWritable()) {
+						connection.writeOutput();
+					}
+					if (key.isValid() && key.isReadable()) {
+						connection.readInput();
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// The server was closed from another thread
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Accepts a pending connection and starts a session for it.
+	 * 
+	 * @throws IOException If the connection cannot be accepted
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		connections.add(connection);
+		connection.terminal = sessions.apply(connection.output);
+		connection.terminal.greet();
+	}
+
+	/**
+	 * Asks the selector thread to update the interest of a connection.
+	 * 
+	 * @param connection The connection that changed
+	 */
+	private void requestUpdate(Connection connection) {
+		changed.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops accepting connections and closes every open connection. Commands
+	 * that are running are given a short time to finish. This may be called from
+	 * any thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed.getAndSet(true)) {
+			return;
+		}
+		try {
+			server.close();
+			for (Connection connection : connections) {
+				connection.close();
+			}
+		} finally {
+			selector.close();
+			workers.shutdown();
+			try {
+				workers.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The <code>Connection</code> class is the state of one client: its channel,
+	 * the lines it has sent that have not run yet, and the output waiting to be
+	 * sent to it. Every field but the channel and key is guarded by the
+	 * connection's monitor.
+	 */
+	private class Connection {
+		private final SocketChannel channel; // The client's socket
+		private SelectionKey key; // The channel's registration with the selector
+		private BashTerminal terminal; // The session run for this client
+		private final ByteArrayOutputStream partialLine; // Bytes after the last line break read
+		private final ArrayDeque<String> lines; // Lines read that have not run yet
+		private final ArrayDeque<ByteBuffer> queuedOutput; // Output not yet written to the client
+		private final ConnectionOutput output; // The stream the session writes to
+		private int queuedBytes; // Bytes left in queuedOutput
+		private boolean running; // True while a worker is running this session's lines
+		private boolean inputEnded; // True once the client has stopped sending
+		private boolean finished; // True once the session has ended
+		private boolean closed; // True once the channel has been closed
+		private boolean discardingLine; // True while the rest of a line that was too long is dropped
+
+		/**
+		 * Reads whatever the client has sent and queues each complete line. Runs on
+		 * the selector thread. A line longer than <code>MAX_LINE_LENGTH</code> is
+		 * never run, not even in part: its bytes are dropped up to the next line
+		 * break, and the client is told instead.
+		 */
+		void readInput() {
+			int read;
+			try {
+				readBuffer.clear();
+				read = channel.read(readBuffer);
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			synchronized (this) {
+				if (read == -1) {
+					inputEnded = true;
+				} else {
+					byte[] bytes = readBuffer.array();
+					int start = 0;
+					for (int i = 0; i < read; i++) {
+						if (bytes[i] == '\n') {
+							collectLine(bytes, start, i - start);
+							if (discardingLine) {
+								discardingLine = false;
+							} else {
+								lines.add(takeLine());
+							}
+							start = i + 1;
+						}
+					}
+					collectLine(bytes, start, read - start);
+				}
+				if (inputEnded && partialLine.size() > 0) {
+					lines.add(takeLine());
+				}
+				scheduleLines();
+				updateInterest();
+			}
+		}
+
+		/**
+		 * Adds bytes to the line being collected, or drops them if the line is too
+		 * long. The first time a line grows too long, what was collected is dropped
+		 * and the rejection is queued in its place. The caller must hold this
+		 * connection's monitor.
+		 * 
+		 * @param bytes  The bytes read
+		 * @param start  The first byte of the line in bytes
+		 * @param length The number of bytes of the line
+		 */
+		private void collectLine(byte[] bytes, int start, int length) {
+			if (discardingLine) {
+				return;
+			}
+			partialLine.write(bytes, start, length);
+			if (partialLine.size() > MAX_LINE_LENGTH) {
+				partialLine.reset();
+				discardingLine = true;
+				lines.add(REJECTED_LINE);
+			}
+		}
+
+		/**
+		 * Decodes and clears the line collected so far. The caller must hold this
+		 * connection's monitor.
+		 * 
+		 * @return The line, without any line break
+		 */
+		private String takeLine() {
+			String line = new String(partialLine.toByteArray(), StandardCharsets.UTF_8);
+			partialLine.reset();
+			int end = line.length();
+			if (end > 0 && line.charAt(end - 1) == '\r') {
+				end--;
+			}
+			return line.substring(0, end);
+		}
+
+		/**
+		 * Hands this session to a worker if it has lines to run and no worker has
+		 * it. The caller must hold this connection's monitor.
+		 */
+		private void scheduleLines() {
+			if (!running && !finished && (!lines.isEmpty() || inputEnded)) {
+				running = true;
+				workers.execute(this::runLines);
+			}
+		}
+
+		/**
+		 * Runs queued lines until there are none left or the session ends. Runs on a
+		 * worker thread, and only one worker runs a session at a time.
+		 */
+		private void runLines() {
+			while (true) {
+				String line;
+				synchronized (this) {
+					line = closed ? null : lines.poll();
+					if (line == null) {
+						running = false;
+						if (inputEnded || closed) {
+							finish();
+						}
+						return;
+					}
+					if (lines.size() == PENDING_LINE_LIMIT - 1) {
+						// The client may be read from again
+						requestUpdate(this);
+					}
+				}
+				boolean keepRunning;
+				try {
+					if (line == REJECTED_LINE) {
+						terminal.reportRejectedLine("The line was longer than " + MAX_LINE_LENGTH
+								+ " bytes and was not run.");
+						keepRunning = true;
+					} else {
+						keepRunning = terminal.parseCommand(line);
+					}
+				} catch (RuntimeException e) {
+					terminal.reportError(e);
+					keepRunning = true;
+				}
+				terminal.flush();
+				if (!keepRunning) {
+					synchronized (this) {
+						running = false;
+						finish();
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Ends the session. The channel is closed once its output has been sent. The
+		 * caller must hold this connection's monitor.
+		 */
+		private void finish() {
+			if (!finished) {
+				finished = true;
+				lines.clear();
+				requestUpdate(this);
+			}
+		}
+
+		/**
+		 * Queues output for the client, waiting while too much is queued already.
+		 * Runs on a worker thread.
+		 * 
+		 * @param bytes The output to send
+		 * @throws IOException If the connection is closed
+		 */
+		synchronized void queueOutput(ByteBuffer bytes) throws IOException {
+			while (queuedBytes >= OUTPUT_LIMIT && !closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the client to read.");
+				}
+			}
+			if (closed) {
+				throw new IOException("The connection is closed.");
+			}
+			boolean wasEmpty = queuedOutput.isEmpty();
+			queuedOutput.add(bytes);
+			queuedBytes += bytes.remaining();
+			if (wasEmpty) {
+				requestUpdate(this);
+			}
+		}
+
+		/**
+		 * Writes as much queued output as the client will take. Runs on the selector
+		 * thread.
+		 */
+		void writeOutput() {
+			try {
+				synchronized (this) {
+					while (!queuedOutput.isEmpty()) {
+						ByteBuffer next = queuedOutput.peek();
+						queuedBytes -= channel.write(next);
+						if (next.hasRemaining()) {
+							break;
+						}
+						queuedOutput.poll();
+					}
+					if (queuedBytes < OUTPUT_LIMIT) {
+						notifyAll();
+					}
+					updateInterest();
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Sets which events the selector watches for, and closes the channel once a
+		 * finished session's output has been sent. Runs on the selector thread.
+		 */
+		synchronized void updateInterest() {
+			if (closed) {
+				return;
+			} else if (finished && queuedOutput.isEmpty()) {
+				close();
+				return;
+			}
+			int interest = 0;
+			if (!inputEnded && !finished && lines.size() < PENDING_LINE_LIMIT) {
+				interest |= SelectionKey.OP_READ;
+			}
+			if (!queuedOutput.isEmpty()) {
+				interest |= SelectionKey.OP_WRITE;
+			}
+			key.interestOps(interest);
+		}
+
+		/**
+		 * Closes the channel and wakes a session waiting to queue output.
+		 */
+		synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			connections.remove(this);
+			queuedOutput.clear();
+			queuedBytes = 0;
+			notifyAll();
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing more can be sent to the client
+			}
+		}
+
+		/**
+		 * Returns an instance of Connection
+		 * 
+		 * @param channel The client's socket
+		 */
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			this.partialLine = new ByteArrayOutputStream();
+			this.lines = new ArrayDeque<>();
+			this.queuedOutput = new ArrayDeque<>();
+			this.output = new ConnectionOutput(this);
+		}
+	}
+
+	/**
+	 * The <code>ConnectionOutput</code> class is the stream a session writes its
+	 * output to. Bytes are collected into blocks and queued on the connection.
+	 */
+	private static class ConnectionOutput extends OutputStream {
+		private final Connection connection; // Where full blocks are queued
+		private byte[] block = new byte[OUTPUT_BUFFER_SIZE]; // Bytes not yet queued
+		private int length; // Bytes used in block
+
+		@Override
+		public void write(int b) throws IOException {
+			if (length == block.length) {
+				flush();
+			}
+			block[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int count) throws IOException {
+			while (count > 0) {
+				if (length == block.length) {
+					flush();
+				}
+				int copied = Math.min(count, block.length - length);
+				System.arraycopy(bytes, offset, block, length, copied);
+				length += copied;
+				offset += copied;
+				count -= copied;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (length > 0) {
+				ByteBuffer full = ByteBuffer.wrap(block, 0, length);
+				block = new byte[OUTPUT_BUFFER_SIZE];
+				length = 0;
+				connection.queueOutput(full);
+			}
+		}
+
+		/**
+		 * Returns an instance of ConnectionOutput
+		 * 
+		 * @param connection Where full blocks are queued
+		 */
+		ConnectionOutput(Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Opens a server on a TCP address.
+	 * 
+	 * @param address  The address to listen on
+	 * @param sessions Starts a session that writes to the specified stream
+	 * @return The server, which must then be run with <code>serve</code>
+	 * @throws IOException If the address cannot be listened on
+	 */
+	public static TerminalServer openTcp(SocketAddress address, Function<OutputStream, BashTerminal> sessions)
+			throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.bind(address);
+			return new TerminalServer(server, sessions);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a server on a Unix-domain socket file.
+	 * 
+	 * @param address  The socket file to listen on, which must not exist yet
+	 * @param sessions Starts a session that writes to the specified stream
+	 * @return The server, which must then be run with <code>serve</code>
+	 * @throws IOException If the socket file cannot be listened on
+	 */
+	public static TerminalServer openUnix(UnixDomainSocketAddress address,
+			Function<OutputStream, BashTerminal> sessions) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			server.bind(address);
+			return new TerminalServer(server, sessions);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns an instance of TerminalServer
+	 * 
+	 * @param server   The bound server socket
+	 * @param sessions Starts a session that writes to the specified stream
+	 * @throws IOException If the selector cannot be opened
+	 */
+	private TerminalServer(ServerSocketChannel server, Function<OutputStream, BashTerminal> sessions)
+			throws IOException {
+		this.server = server;
+		this.sessions = sessions;
+		this.selector = Selector.open();
+		this.workers = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "terminal-session");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.changed = new ConcurrentLinkedQueue<>();
+		this.connections = ConcurrentHashMap.newKeySet();
+		this.closed = new AtomicBoolean();
+		this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+}
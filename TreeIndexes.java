@@ -0,0 +1,216 @@
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The <code>TreeIndexes</code> class keeps the indexes of a
+ * <code>DirectoryTree</code>: every node by name, and every file by size and by
+ * modification time. It also keeps the copied directories whose children have
+ * not been built yet, since the nodes below them are in no index.
+ * 
+ * <p>
+ * A removed subtree is not unindexed at once. Its root is queued, and every
+ * later change unindexes a batch of the queued nodes, so removing a subtree
+ * takes the same time however large it is. Until a node is unindexed, a search
+ * may find it and must check that it is still in the tree.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class TreeIndexes {
+	private static final int RECLAIM_STEP = 1024; // Removed nodes unindexed after each change
+
+	private final NameIndex names = new NameIndex(); // Every node in the tree, by name
+	private final AttributeIndex sizes = new AttributeIndex(DirectoryNode::getSize); // Files by size
+	private final AttributeIndex modificationTimes = new AttributeIndex(DirectoryNode::getModificationTime); // Files by modification time
+	private final Set<DirectoryNode> pendingDirectories = ConcurrentHashMap.newKeySet(); // Copies not yet built
+	private final ArrayDeque<DirectoryNode> removedNodes = new ArrayDeque<>(); // Still to be unindexed
+
+	/**
+	 * Empties every index and indexes a new tree.
+	 * 
+	 * @param root The root of the new tree
+	 */
+	public void reset(DirectoryNode root) {
+		names.clear();
+		sizes.clear();
+		modificationTimes.clear();
+		pendingDirectories.clear();
+		synchronized (removedNodes) {
+			removedNodes.clear();
+		}
+		addSubtree(root);
+	}
+
+	/**
+	 * Adds a node to the name index, and to the size and modification time
+	 * indexes if it is a file.
+	 * 
+	 * @param node The node to add
+	 */
+	public void add(DirectoryNode node) {
+		names.add(node);
+		if (node.isFile()) {
+			sizes.add(node);
+			modificationTimes.add(node);
+		}
+	}
+
+	/**
+	 * Adds a node of a copy once it has been built, and remembers it if its own
+	 * children are still to be built.
+	 * 
+	 * @param node The node that was built
+	 */
+	public void addBuilt(DirectoryNode node) {
+		add(node);
+		if (node.getPendingSource() != null) {
+			pendingDirectories.add(node);
+		}
+	}
+
+	/**
+	 * Adds a node and all of its descendants. No other thread may change the
+	 * subtree while it is added.
+	 * 
+	 * @param subtree The root of the subtree to add
+	 */
+	public void addSubtree(DirectoryNode subtree) {
+		ArrayDeque<DirectoryNode> stack = new ArrayDeque<>();
+		stack.push(subtree);
+		while (!stack.isEmpty()) {
+			DirectoryNode node = stack.pop();
+			add(node);
+			for (int i = node.getChildrenCount() - 1; i >= 0; i--) {
+				stack.push(node.getChildAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Changes the size and modification time of a file, moving it to its new
+	 * entries in the size and modification time indexes. The caller must hold the
+	 * lock of the file's directory.
+	 * 
+	 * @param file             The file to change
+	 * @param size             The new size of the file, or -1 to keep it
+	 * @param modificationTime The new modification time of the file
+	 */
+	public void touch(DirectoryNode file, long size, long modificationTime) {
+		sizes.remove(file);
+		modificationTimes.remove(file);
+		if (size >= 0) {
+			file.setSize(size);
+		}
+		file.setModificationTime(modificationTime);
+		sizes.add(file);
+		modificationTimes.add(file);
+	}
+
+	/**
+	 * Queues a subtree that has been unlinked from the tree, so its nodes are
+	 * unindexed by later calls to <code>reclaim</code>.
+	 * 
+	 * @param subtree The root of the removed subtree
+	 */
+	public void remove(DirectoryNode subtree) {
+		synchronized (removedNodes) {
+			removedNodes.push(subtree);
+		}
+	}
+
+	/**
+	 * Unindexes a batch of the queued removed nodes, and forgets the copies among
+	 * them that were still to be built.
+	 */
+	public void reclaim() {
+		synchronized (removedNodes) {
+			for (int i = 0; i < RECLAIM_STEP && !removedNodes.isEmpty(); i++) {
+				DirectoryNode node = removedNodes.pop();
+				forget(node);
+				if (node.getPendingSource() != null) {
+					// Its descendants were never built, so were never indexed
+					pendingDirectories.remove(node);
+					continue;
+				}
+				for (int j = node.getChildrenCount() - 1; j >= 0; j--) {
+					removedNodes.push(node.getChildAt(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops a node that a search found outside the tree, ahead of its turn to be
+	 * reclaimed.
+	 * 
+	 * @param node The node to drop
+	 */
+	public void forget(DirectoryNode node) {
+		names.remove(node);
+		if (node.isFile()) {
+			sizes.remove(node);
+			modificationTimes.remove(node);
+		}
+	}
+
+	/**
+	 * Counts the indexed nodes whose names match a pattern, stopping early once
+	 * the count passes a limit.
+	 * 
+	 * @param pattern The test applied to each name
+	 * @param limit   The count past which counting stops
+	 * @return The number of matching nodes, or a number over the limit
+	 */
+	public int countMatching(NamePattern pattern, int limit) {
+		return names.countMatching(pattern, limit);
+	}
+
+	/**
+	 * Hands every indexed node whose name matches a pattern to an action, in name
+	 * order. Nodes that have been removed from the tree may be among them.
+	 * 
+	 * @param pattern The test applied to each name
+	 * @param action  Called with each matching node
+	 */
+	public void forEachMatching(NamePattern pattern, Consumer<DirectoryNode> action) {
+		names.forEachMatching(pattern, action);
+	}
+
+	/**
+	 * Hands every indexed file whose size or modification time is within a range
+	 * to an action, in ascending order of the attribute. Files that have been
+	 * removed from the tree may be among them.
+	 * 
+	 * @param bySize True to search by size, false by modification time
+	 * @param from   The lowest size or time in the range
+	 * @param to     The highest size or time in the range
+	 * @param action Called with each file in the range
+	 */
+	public void forEachInRange(boolean bySize, long from, long to, Consumer<DirectoryNode> action) {
+		(bySize ? sizes : modificationTimes).forEachInRange(from, to, action);
+	}
+
+	/**
+	 * Gets the copied directories whose children have not been built yet. Some
+	 * may have been built or removed since, and can be forgotten with
+	 * <code>forgetPending</code> while the set is being walked.
+	 * 
+	 * @return The copies still to be built
+	 */
+	public Iterable<DirectoryNode> getPendingDirectories() {
+		return pendingDirectories;
+	}
+
+	/**
+	 * Forgets a copied directory that has been built or removed.
+	 * 
+	 * @param directory The directory to forget
+	 */
+	public void forgetPending(DirectoryNode directory) {
+		pendingDirectories.remove(directory);
+	}
+}
@@ -0,0 +1,160 @@
+
+/**
+ * The <code>TreeResult</code> class holds the outcome of a tree operation
+ * called through its exception-free form: a status code, a message, and for
+ * operations that find or make a node, the node. A failed lookup then costs no
+ * more than a successful one, which matters when many lookups miss.
+ * 
+ * <p>
+ * One instance can be reused for any number of calls by one thread; each call
+ * overwrites it. The checked-exception forms of the operations call the
+ * exception-free ones and then <code>check</code> or <code>checkPath</code>,
+ * which throw the exception the status stands for.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public final class TreeResult {
+	public static final int OK = 0; // The operation succeeded
+	public static final int UNRESOLVED_PATH = 1; // A path could not be followed
+	public static final int NOT_A_DIRECTORY = 2; // A directory was needed but a file was found
+	public static final int FULL_DIRECTORY = 3; // A directory had no room for another child
+	public static final int CONFLICTING_NAMES = 4; // A name was already taken
+	public static final int INVALID_ARGUMENT = 5; // A name or other argument was not valid
+
+	private int status; // The status code of the last operation
+	private String message; // What went wrong, or null if nothing did
+	private DirectoryNode node; // The node the last operation found or made, or null
+
+	/**
+	 * @return The status code of the last operation
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return True if the last operation succeeded
+	 */
+	public boolean isOk() {
+		return status == OK;
+	}
+
+	/**
+	 * @return What went wrong in the last operation, or null if it succeeded
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return The node the last operation found or made, or null if it failed or
+	 *         has no node to give
+	 */
+	public DirectoryNode getNode() {
+		return node;
+	}
+
+	/**
+	 * @return The simple name of the exception the status stands for, or null if
+	 *         the last operation succeeded
+	 */
+	public String getErrorType() {
+		switch (status) {
+		case UNRESOLVED_PATH:
+			return "UnresolvedPathException";
+		case NOT_A_DIRECTORY:
+			return "NotADirectoryException";
+		case FULL_DIRECTORY:
+			return "FullDirectoryException";
+		case CONFLICTING_NAMES:
+			return "ConflictingNamesException";
+		case INVALID_ARGUMENT:
+			return "IllegalArgumentException";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Records a success.
+	 * 
+	 * @param node The node the operation found or made, or null
+	 * @return OK
+	 */
+	int succeed(DirectoryNode node) {
+		this.status = OK;
+		this.message = null;
+		this.node = node;
+		return OK;
+	}
+
+	/**
+	 * Records a failure.
+	 * 
+	 * @param status  The status code of the failure
+	 * @param message What went wrong
+	 * @return The status code
+	 */
+	int fail(int status, String message) {
+		this.status = status;
+		this.message = message;
+		this.node = null;
+		return status;
+	}
+
+	/**
+	 * Throws the exception the status of an operation that only follows paths
+	 * stands for.
+	 * 
+	 * @return The node the operation found, or null
+	 * @throws NotADirectoryException   If the status is NOT_A_DIRECTORY
+	 * @throws UnresolvedPathException  If the status is UNRESOLVED_PATH
+	 * @throws IllegalArgumentException If the status is INVALID_ARGUMENT
+	 * @throws IllegalStateException    If the status is any other failure
+	 */
+	public DirectoryNode checkPath() throws NotADirectoryException, UnresolvedPathException {
+		switch (status) {
+		case OK:
+			return node;
+		case UNRESOLVED_PATH:
+			throw new UnresolvedPathException(message);
+		case NOT_A_DIRECTORY:
+			throw new NotADirectoryException(message);
+		case INVALID_ARGUMENT:
+			throw new IllegalArgumentException(message);
+		default:
+			throw new IllegalStateException("A path lookup cannot fail with status " + status + ".");
+		}
+	}
+
+	/**
+	 * Throws the exception the status of any operation stands for.
+	 * 
+	 * @return The node the operation found or made, or null
+	 * @throws NotADirectoryException    If the status is NOT_A_DIRECTORY
+	 * @throws UnresolvedPathException   If the status is UNRESOLVED_PATH
+	 * @throws FullDirectoryException    If the status is FULL_DIRECTORY
+	 * @throws ConflictingNamesException If the status is CONFLICTING_NAMES
+	 * @throws IllegalArgumentException  If the status is INVALID_ARGUMENT
+	 */
+	public DirectoryNode check()
+			throws NotADirectoryException, UnresolvedPathException, FullDirectoryException, ConflictingNamesException {
+		switch (status) {
+		case FULL_DIRECTORY:
+			throw new FullDirectoryException(message);
+		case CONFLICTING_NAMES:
+			throw new ConflictingNamesException(message);
+		default:
+			return checkPath();
+		}
+	}
+
+	/**
+	 * Returns an instance of TreeResult that holds a success with no node
+	 */
+	public TreeResult() {
+		status = OK;
+	}
+}
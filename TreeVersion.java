@@ -0,0 +1,139 @@
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * The <code>TreeVersion</code> class is the state of a
+ * <code>DirectoryTree</code> after one change. A version never changes once it
+ * is published, so a reader that holds on to it sees the same tree for as long
+ * as it likes while writers carry on. Versions share every subtree that did not
+ * change between them.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public final class TreeVersion {
+	private static final int PRINT_BUFFER_SIZE = 1 << 16; // Characters collected before each write
+	private static final int CANCEL_CHECK_INTERVAL = 1024; // Nodes printed between cancellation checks
+
+	private final PersistentNode root; // The root of the tree in this version
+	private final long sequence; // Sequence number of the last change in this version
+
+	/**
+	 * @return The root of this instance
+	 */
+	public PersistentNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return The sequence number of the last change in this instance
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the paths of every node whose name satisfies the matcher, visiting
+	 * the whole tree in pre-order.
+	 * 
+	 * @param matcher The test applied to each node name
+	 * @return The paths of the matching nodes, in pre-order
+	 */
+	public List<String> findMatching(Predicate<String> matcher) {
+		List<String> paths = new ArrayList<>();
+		ArrayDeque<PersistentNode> stack = new ArrayDeque<>();
+		ArrayDeque<String> parentPaths = new ArrayDeque<>();
+		stack.push(root);
+		parentPaths.push("");
+		while (!stack.isEmpty()) {
+			PersistentNode node = stack.pop();
+			String parentPath = parentPaths.pop();
+			String path = parentPath.isEmpty() ? node.getName() : parentPath + "/" + node.getName();
+			if (matcher.test(node.getName())) {
+				paths.add(path);
+			}
+			PersistentNode[] children = node.getChildren();
+			for (int i = children.length - 1; i >= 0; i--) {
+				stack.push(children[i]);
+				parentPaths.push(path);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Writes out the directory tree of a node in this version using pre-order tree
+	 * traversal. The traversal keeps its own stack, so deep trees cannot overflow
+	 * the call stack, and output is collected into large blocks before being
+	 * appended to <code>out</code>.
+	 * 
+	 * @param node      The node to start from.
+	 * @param depth     The depth of the node, which sets its indentation.
+	 * @param maxDepth  The most levels below the node to write.
+	 * @param out       Where the tree is written
+	 * @param cancelled Checked periodically; the traversal stops once it returns
+	 *                  true
+	 * @return True if the whole tree was written, false if it was cancelled
+	 * @throws IOException If <code>out</code> cannot be written to
+	 */
+	public boolean printDirectoryTree(PersistentNode node, int depth, int maxDepth, Appendable out,
+			BooleanSupplier cancelled) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		StringBuilder buffer = new StringBuilder(PRINT_BUFFER_SIZE);
+		ArrayList<String> indents = new ArrayList<>();
+		indents.add("");
+		ArrayDeque<PersistentNode> stack = new ArrayDeque<>();
+		int[] depths = new int[16];
+		stack.push(node);
+		depths[0] = 0;
+		int printed = 0;
+		while (!stack.isEmpty()) {
+			int level = depths[stack.size() - 1];
+			PersistentNode current = stack.pop();
+			while (indents.size() <= depth + level) {
+				indents.add(indents.get(indents.size() - 1) + "    ");
+			}
+			buffer.append(indents.get(depth + level)).append(current.isFile() ? " " : "|").append("- ")
+					.append(current.getName()).append(lineSeparator);
+			if (buffer.length() >= PRINT_BUFFER_SIZE) {
+				out.append(buffer);
+				buffer.setLength(0);
+			}
+			if (++printed % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+				out.append(buffer);
+				return false;
+			}
+			if (level < maxDepth) {
+				// Push children in reverse so they are popped in order
+				PersistentNode[] children = current.getChildren();
+				int count = children.length;
+				if (stack.size() + count > depths.length) {
+					depths = Arrays.copyOf(depths, Math.max(depths.length * 2, stack.size() + count));
+				}
+				for (int i = count - 1; i >= 0; i--) {
+					depths[stack.size()] = level + 1;
+					stack.push(children[i]);
+				}
+			}
+		}
+		out.append(buffer);
+		return true;
+	}
+
+	/**
+	 * Returns an instance of TreeVersion
+	 * 
+	 * @param root     The root of the tree in this version
+	 * @param sequence Sequence number of the last change in this version
+	 */
+	TreeVersion(PersistentNode root, long sequence) {
+		this.root = root;
+		this.sequence = sequence;
+	}
+}
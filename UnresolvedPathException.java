@@ -3,6 +3,11 @@
  * <code>UnresolvedPathException</code> is thrown when the passed in path cannot
  * be be resolved.
  *
+ * <p>
+ * The exception is thrown for ordinary outcomes, such as a path that does not
+ * exist, so it does not fill in a stack trace.
+ * </p>
+ *
  * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
  *         Brook ID: 110261379
  **/
@@ -13,7 +18,7 @@ public class UnresolvedPathException extends Exception {
 	 * Returns an instance of <code>UnresolvedPathException</code>.
 	 */
 	public UnresolvedPathException() {
-		super();
+		this(null);
 	}
 
 	/**
@@ -23,6 +28,6 @@ public class UnresolvedPathException extends Exception {
 	 * @param message The message that accompanies the error.
 	 */
 	public UnresolvedPathException(String message) {
-		super(message);
+		super(message, null, false, false);
 	}
 }
@@ -0,0 +1,219 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * The <code>VersionPublisher</code> class holds the current
+ * <code>TreeVersion</code> of a <code>DirectoryTree</code> and the journal its
+ * changes are recorded in. Each change is published as a new version with a
+ * single compare-and-set, which also hands out the change's sequence number,
+ * and is then handed to the journal under that number. Changes to different
+ * directories share no lock; if another change was published first, only the
+ * path copy is redone.
+ * 
+ * <p>
+ * The versions mirror the tree's <code>DirectoryNode</code>s rather than
+ * replace them. The mutable nodes know their parents, which the shared nodes of
+ * a version cannot, so cursors, <code>pwd</code> and the paths built for
+ * search results follow parent pointers instead of walking down from the root,
+ * and a node can be changed in place under its directory's lock. The versions
+ * are what a reader pins to see one consistent tree while writers carry on:
+ * printing, searches of whole subtrees, saving, journal compaction, and copies,
+ * which share the copied version until they are first changed. Each node of
+ * the mirror costs about 90 bytes on a 64-bit JVM with compressed pointers.
+ * </p>
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class VersionPublisher {
+	private final AtomicReference<TreeVersion> current; // The version of the last change
+	private final Function<DirectoryNode, String> paths; // Builds the path of a directory for the journal
+	private volatile MutationJournal journal; // Where changes are recorded, or null
+
+	/**
+	 * Pins the current version. The version never changes, however the tree
+	 * changes afterwards.
+	 * 
+	 * @return The version of the last change
+	 */
+	public TreeVersion pin() {
+		return current.get();
+	}
+
+	/**
+	 * @return The sequence number of the last change
+	 */
+	public long getSequence() {
+		return current.get().getSequence();
+	}
+
+	/**
+	 * @return The journal changes are recorded in, or null
+	 */
+	public MutationJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Starts or stops recording changes. The journal is used as it is, so it must
+	 * already expect the record after the current sequence number.
+	 * 
+	 * @param journal The journal to record changes in, or null to stop recording
+	 */
+	public void setJournal(MutationJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Replaces the current version without recording a change, as when a whole
+	 * tree is loaded.
+	 * 
+	 * @param root     The root of the new version
+	 * @param sequence The sequence number of the new version
+	 */
+	public void reset(PersistentNode root, long sequence) {
+		current.set(new TreeVersion(root, sequence));
+	}
+
+	/**
+	 * Refuses a change before it is made if the journal has stopped after a
+	 * failed write, so the tree never holds a change the journal cannot record.
+	 * 
+	 * @throws UncheckedIOException If the journal has stopped
+	 */
+	public void checkJournal() {
+		MutationJournal recordingJournal = journal;
+		if (recordingJournal != null) {
+			try {
+				recordingJournal.checkWritable();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Publishes the version made by a change and records the change in the
+	 * journal, if there is one. The journal puts records back in sequence order
+	 * and only holds them in memory, so this never waits for the disk or for
+	 * changes to other directories. Callers must hold the tree's structure lock,
+	 * so the directory's path is stable.
+	 * 
+	 * @param operation The journal operation code
+	 * @param directory The directory the change was made from
+	 * @param change    Makes the root of the new version from the current one. It
+	 *                  may be called more than once, and its last result is
+	 *                  published.
+	 * @param arguments The arguments of the operation after the directory
+	 */
+	public void record(byte operation, DirectoryNode directory, UnaryOperator<PersistentNode> change,
+			String... arguments) {
+		MutationJournal recordingJournal = journal;
+		String[] record = null;
+		if (recordingJournal != null) {
+			record = new String[arguments.length + 1];
+			record[0] = paths.apply(directory);
+			System.arraycopy(arguments, 0, record, 1, arguments.length);
+		}
+		long sequence = publish(change, 1);
+		if (recordingJournal != null) {
+			recordingJournal.append(sequence, operation, record);
+		}
+	}
+
+	/**
+	 * Publishes the version made by attaching a subtree, and records every node of
+	 * the subtree in the journal, if there is one, as if it had been made one at a
+	 * time. Each node uses up a sequence number, so replaying the journal ends at
+	 * the same sequence number. Callers must hold the tree's structure lock.
+	 * 
+	 * @param directory The directory the subtree was attached to
+	 * @param subtree   The root of the subtree
+	 * @param change    Makes the root of the new version from the current one
+	 */
+	public void recordSubtree(DirectoryNode directory, DirectoryNode subtree, UnaryOperator<PersistentNode> change) {
+		MutationJournal recordingJournal = journal;
+		long count = countNodes(subtree);
+		long sequence = publish(change, count) - count;
+		if (recordingJournal == null) {
+			return;
+		}
+		ArrayDeque<DirectoryNode> stack = new ArrayDeque<>();
+		ArrayDeque<String> parentPaths = new ArrayDeque<>();
+		stack.push(subtree);
+		parentPaths.push(paths.apply(directory));
+		while (!stack.isEmpty()) {
+			DirectoryNode node = stack.pop();
+			String parentPath = parentPaths.pop();
+			if (node.isFile()) {
+				recordingJournal.append(++sequence, MutationJournal.MAKE_FILE, parentPath, node.getName(),
+						Long.toString(node.getSize()), Long.toString(node.getCreationTime()),
+						Long.toString(node.getModificationTime()));
+			} else {
+				recordingJournal.append(++sequence, MutationJournal.MAKE_DIRECTORY, parentPath, node.getName());
+			}
+			String path = parentPath + "/" + node.getName();
+			for (int i = node.getChildrenCount() - 1; i >= 0; i--) {
+				stack.push(node.getChildAt(i));
+				parentPaths.push(path);
+			}
+		}
+	}
+
+	/**
+	 * Publishes the version made by a change, retrying the change on top of any
+	 * version another thread published first. The changes made by callers holding
+	 * the structure lock only append to or touch directories they have locked,
+	 * so they give the same tree in either order.
+	 * 
+	 * @param change  Makes the root of the new version from the current one
+	 * @param changes The amount of sequence numbers the change uses up
+	 * @return The sequence number of the published version
+	 */
+	private long publish(UnaryOperator<PersistentNode> change, long changes) {
+		while (true) {
+			TreeVersion version = current.get();
+			TreeVersion next = new TreeVersion(change.apply(version.getRoot()), version.getSequence() + changes);
+			if (current.compareAndSet(version, next)) {
+				return next.getSequence();
+			}
+		}
+	}
+
+	/**
+	 * Counts the nodes of a subtree that no other thread is changing.
+	 * 
+	 * @param subtree The root of the subtree
+	 * @return The amount of nodes in the subtree, its root included
+	 */
+	private static long countNodes(DirectoryNode subtree) {
+		long count = 0;
+		ArrayDeque<DirectoryNode> stack = new ArrayDeque<>();
+		stack.push(subtree);
+		while (!stack.isEmpty()) {
+			DirectoryNode node = stack.pop();
+			count++;
+			for (int i = node.getChildrenCount() - 1; i >= 0; i--) {
+				stack.push(node.getChildAt(i));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns an instance of VersionPublisher
+	 * 
+	 * @param root  The root of the first version, numbered 0
+	 * @param paths Builds the path from the root of a directory in the tree, for
+	 *              the journal
+	 */
+	public VersionPublisher(PersistentNode root, Function<DirectoryNode, String> paths) {
+		this.current = new AtomicReference<>(new TreeVersion(root, 0));
+		this.paths = paths;
+	}
+}
@@ -0,0 +1,75 @@
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The <code>BashTerminalWorkload</code> class builds a chain of nested
+ * directories and runs the commands measured by
+ * <code>bench.TerminalBenchmark</code> on it. The terminal writes to a stream
+ * that throws its output away.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class BashTerminalWorkload implements bench.TerminalWorkload {
+	private final DirectorySession session; // The session the terminal runs its commands in
+	private final BashTerminal terminal; // Parses and runs the command lines
+	private final DirectoryNode deepest; // The last directory of the chain
+	private final String path; // The path to the deepest directory from the root
+	private final String changeDirectoryLine; // The cd command for the path
+
+	@Override
+	public int tokenize() {
+		return CommandRegistry.tokenize(changeDirectoryLine).length;
+	}
+
+	@Override
+	public boolean parsePresentWorkingDirectory() {
+		session.setCursor(deepest);
+		return terminal.parseCommand("pwd");
+	}
+
+	@Override
+	public String presentWorkingDirectory() {
+		session.setCursor(deepest);
+		return session.presentWorkingDirectory();
+	}
+
+	@Override
+	public boolean parseChangeDirectory() {
+		session.resetCursor();
+		return terminal.parseCommand(changeDirectoryLine);
+	}
+
+	@Override
+	public void changeDirectory() {
+		session.resetCursor();
+		try {
+			session.changeDirectory(path);
+		} catch (NotADirectoryException | UnresolvedPathException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns an instance of BashTerminalWorkload
+	 * 
+	 * @param depth Directories in the chain below the root
+	 * @throws Exception If the chain cannot be built
+	 */
+	public BashTerminalWorkload(int depth) throws Exception {
+		DirectoryTree tree = new DirectoryTree();
+		session = tree.newSession();
+		StringBuilder chain = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			chain.append(i == 0 ? "" : "/").append("d").append(i);
+		}
+		path = chain.toString();
+		session.makeDirectories(path);
+		deepest = session.lookupPath(path);
+		changeDirectoryLine = "cd " + path;
+		terminal = new BashTerminal(session, new PrintStream(OutputStream.nullOutputStream(), false,
+				StandardCharsets.UTF_8));
+	}
+}
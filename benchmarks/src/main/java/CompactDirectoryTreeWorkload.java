@@ -0,0 +1,162 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+
+/**
+ * The <code>CompactDirectoryTreeWorkload</code> class builds the same trees as
+ * <code>DirectoryTreeWorkload</code> in a <code>CompactDirectoryTree</code>
+ * and runs the operations measured by <code>bench.DirectoryTreeBenchmark</code>
+ * on it.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class CompactDirectoryTreeWorkload implements bench.TreeWorkload {
+	private static final int CHAIN_LENGTH = 256; // Directories in each chain of a deep tree
+	private static final int FAN_OUT = 8; // Children of each directory in a balanced tree
+	private static final int VOCABULARY = 1000; // Distinct names in a repeated tree
+
+	private final CompactDirectoryTree tree; // The tree the operations run on
+	private final int last; // The node created last
+	private final String lastName; // The name of the last node
+	private final String lastPath; // The path to the last node from the root
+	private final String moveSource; // The directory moved by moveDirectory
+	private final String moveTarget; // Where it is moved to
+	private final String moveBackSource; // Where it is after the move
+	private final String moveBackTarget; // Where it is moved back to
+	private final CountingSink sink = new CountingSink(); // Takes the printed tree
+
+	@Override
+	public void changeDirectory() {
+		tree.resetCursor();
+		try {
+			tree.changeDirectory(lastPath);
+		} catch (NotADirectoryException | UnresolvedPathException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void goToParent() {
+		tree.setCursor(last);
+		tree.goToParent();
+	}
+
+	@Override
+	public void moveDirectory() {
+		tree.resetCursor();
+		try {
+			tree.moveDirectory(moveSource, moveTarget);
+			tree.moveDirectory(moveBackSource, moveBackTarget);
+		} catch (NotADirectoryException | UnresolvedPathException | FullDirectoryException
+				| ConflictingNamesException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String find() {
+		return tree.find(lastName);
+	}
+
+	@Override
+	public long printDirectoryTree() {
+		sink.count = 0;
+		try {
+			tree.printDirectoryTree(tree.getRoot(), 0, Integer.MAX_VALUE, sink, () -> false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sink.count;
+	}
+
+	@Override
+	public String listDirectory() {
+		tree.resetCursor();
+		return tree.listDirectory();
+	}
+
+	/**
+	 * The <code>CountingSink</code> class counts the characters appended to it and
+	 * throws them away.
+	 */
+	private static class CountingSink implements Appendable {
+		private long count; // Characters appended since the count was reset
+
+		@Override
+		public Appendable append(CharSequence text) {
+			count += text.length();
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence text, int start, int end) {
+			count += end - start;
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) {
+			count++;
+			return this;
+		}
+	}
+
+	/**
+	 * Returns an instance of CompactDirectoryTreeWorkload
+	 * 
+	 * @param shape     "wide", "deep", "balanced" or "repeated"
+	 * @param nodeCount Nodes in the tree besides the root
+	 * @param offHeap   True to keep the tree outside the Java heap
+	 * @throws IllegalArgumentException If the shape is not known
+	 * @throws Exception                If the tree cannot be built
+	 */
+	public CompactDirectoryTreeWorkload(String shape, int nodeCount, boolean offHeap) throws Exception {
+		tree = new CompactDirectoryTree(offHeap);
+		int root = tree.getRoot();
+		int newest = root;
+		int[] childCounts = new int[nodeCount + 1];
+		ArrayDeque<Integer> unfilled = new ArrayDeque<>();
+		unfilled.add(root);
+		for (int i = 0; i < nodeCount; i++) {
+			int parent;
+			switch (shape) {
+			case "wide":
+				parent = root;
+				break;
+			case "deep":
+				parent = i % CHAIN_LENGTH == 0 ? root : newest;
+				break;
+			case "balanced":
+			case "repeated":
+				parent = unfilled.peek();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown tree shape " + shape);
+			}
+			// Siblings are made one after another, so their repeated names still differ
+			String name = shape.equals("repeated") ? "n" + i % VOCABULARY : "d" + i;
+			newest = tree.insertChild(parent, name, false);
+			if (!shape.equals("wide") && !shape.equals("deep")) {
+				unfilled.add(newest);
+				if (++childCounts[parent] == FAN_OUT) {
+					unfilled.poll();
+				}
+			}
+		}
+		last = newest;
+		lastName = tree.getName(last);
+		lastPath = tree.getPath(last).substring(tree.getName(root).length() + 1);
+		tree.setCursor(last);
+		tree.makeDirectory("moveFrom");
+		tree.makeDirectory("moveTo");
+		tree.changeDirectory("moveFrom");
+		tree.makeDirectory("moved");
+		tree.resetCursor();
+		moveSource = lastPath + "/moveFrom/moved";
+		moveTarget = lastPath + "/moveTo";
+		moveBackSource = lastPath + "/moveTo/moved";
+		moveBackTarget = lastPath + "/moveFrom";
+	}
+}
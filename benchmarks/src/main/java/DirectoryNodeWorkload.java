@@ -0,0 +1,90 @@
+
+/**
+ * The <code>DirectoryNodeWorkload</code> class runs the operations measured by
+ * <code>bench.DirectoryNodeBenchmark</code> on a <code>DirectoryNode</code>.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class DirectoryNodeWorkload implements bench.NodeWorkload {
+	private final DirectoryNode[] nodes; // The children of a full directory
+	private final String[] missing; // Names in use that are not children of the full directory
+	private final DirectoryNode full; // A directory holding every node
+	private DirectoryNode growing; // The directory addChild adds to
+	private int next; // The child the next lookup or removal uses
+
+	@Override
+	public void addChild() {
+		if (growing.getChildrenCount() == nodes.length) {
+			growing = new DirectoryNode("growing", false);
+		}
+		try {
+			growing.addChild(new DirectoryNode(nodes[growing.getChildrenCount()].getName(), false));
+		} catch (FullDirectoryException | NotADirectoryException | ConflictingNamesException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int getChildIndex() {
+		int index = full.getChildIndex(nodes[next].getName());
+		next = next + 1 == nodes.length ? 0 : next + 1;
+		return index;
+	}
+
+	@Override
+	public int getMissingChildIndex() {
+		int index = full.getChildIndex(missing[next]);
+		next = next + 1 == nodes.length ? 0 : next + 1;
+		return index;
+	}
+
+	@Override
+	public void removeChild() {
+		try {
+			full.addChild(full.removeChild(nodes[next].getName()));
+		} catch (UnresolvedPathException | FullDirectoryException | NotADirectoryException
+				| ConflictingNamesException e) {
+			throw new IllegalStateException(e);
+		}
+		next = next + 1 == nodes.length ? 0 : next + 1;
+	}
+
+	@Override
+	public void emptyDirectory() {
+		try {
+			for (DirectoryNode node : nodes) {
+				full.removeChild(node.getName());
+			}
+			for (DirectoryNode node : nodes) {
+				full.addChild(node);
+			}
+		} catch (UnresolvedPathException | FullDirectoryException | NotADirectoryException
+				| ConflictingNamesException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns an instance of DirectoryNodeWorkload
+	 * 
+	 * @param childCount Children in a full directory
+	 * @throws FullDirectoryException    If the default child limit is too low
+	 * @throws NotADirectoryException    Never; the directory is not a file
+	 * @throws ConflictingNamesException Never; every name is different
+	 */
+	public DirectoryNodeWorkload(int childCount)
+			throws FullDirectoryException, NotADirectoryException, ConflictingNamesException {
+		nodes = new DirectoryNode[childCount];
+		missing = new String[childCount];
+		full = new DirectoryNode("full", false);
+		for (int i = 0; i < childCount; i++) {
+			nodes[i] = new DirectoryNode("child" + i, i % 2 == 0);
+			full.addChild(nodes[i]);
+			missing[i] = "other" + i;
+			// Interned by a node elsewhere, so the lookup reaches the table
+			new DirectoryNode(missing[i], false);
+		}
+		growing = new DirectoryNode("growing", false);
+	}
+}
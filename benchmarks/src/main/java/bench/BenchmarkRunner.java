@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The <code>BenchmarkRunner</code> class runs the benchmarks with the usual JMH
+ * command line, but writes the results as JSON by default so runs from two
+ * commits can be diffed.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public class BenchmarkRunner {
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json"; // Used unless -rff is given
+
+	/**
+	 * Runs the benchmarks selected by the JMH command line arguments.
+	 * 
+	 * @param args JMH command line arguments, such as a benchmark pattern or
+	 *             <code>-p shape=deep</code>
+	 * @throws CommandLineOptionException If the arguments are not valid
+	 * @throws RunnerException            If a benchmark fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			builder.result(DEFAULT_RESULT_FILE);
+		}
+		new Runner(builder.build()).run();
+	}
+}
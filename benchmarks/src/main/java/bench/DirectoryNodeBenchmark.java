@@ -0,0 +1,95 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The <code>DirectoryNodeBenchmark</code> class measures adding, looking up
+ * and removing the children of a single directory as the directory grows.
+ * Lookups, hits or misses, and single removals should take the same time
+ * however many children there are, and emptying a directory should take time
+ * in step with its children.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryNodeBenchmark {
+	@Param({ "10", "1000", "100000", "1000000" })
+	public int childCount; // Children in a full directory
+
+	private NodeWorkload workload; // Runs the operations on the terminal's classes
+
+	/**
+	 * Builds a full directory.
+	 * 
+	 * @throws ReflectiveOperationException If the workload cannot be created
+	 */
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		workload = Workloads.create(NodeWorkload.class, "DirectoryNodeWorkload", childCount);
+	}
+
+	/**
+	 * Measures <code>DirectoryNode.addChild</code>.
+	 */
+	@Benchmark
+	public void addChild() {
+		workload.addChild();
+	}
+
+	/**
+	 * Measures <code>DirectoryNode.getChildIndex</code>.
+	 * 
+	 * @return The index found
+	 */
+	@Benchmark
+	public int getChildIndex() {
+		return workload.getChildIndex();
+	}
+
+	/**
+	 * Measures <code>DirectoryNode.getChildIndex</code> for a name that is not a
+	 * child.
+	 * 
+	 * @return The index found
+	 */
+	@Benchmark
+	public int getMissingChildIndex() {
+		return workload.getMissingChildIndex();
+	}
+
+	/**
+	 * Measures <code>DirectoryNode.removeChild</code>, along with adding the child
+	 * back so the directory stays full.
+	 */
+	@Benchmark
+	public void removeChild() {
+		workload.removeChild();
+	}
+
+	/**
+	 * Measures removing every child of a directory with
+	 * <code>DirectoryNode.removeChild</code>, along with adding them back.
+	 */
+	@Benchmark
+	public void emptyDirectory() {
+		workload.emptyDirectory();
+	}
+}
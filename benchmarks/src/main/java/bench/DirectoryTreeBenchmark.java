@@ -0,0 +1,112 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The <code>DirectoryTreeBenchmark</code> class measures the tree operations
+ * behind the terminal's commands on trees of different shapes and sizes. A wide
+ * tree has every node under the root, a deep tree is made of long chains of
+ * nested directories, and a balanced tree gives every directory the same
+ * number of children. Each tree is built with the object backend,
+ * <code>DirectoryTree</code>, and with the compact backend,
+ * <code>CompactDirectoryTree</code>, on and off the heap.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryTreeBenchmark {
+	@Param({ "wide", "deep", "balanced" })
+	public String shape; // How the nodes are arranged
+
+	@Param({ "1000", "100000" })
+	public int nodeCount; // Nodes in the tree besides the root
+
+	@Param({ "object", "compact", "compact-offheap" })
+	public String backend; // Which tree class holds the nodes
+
+	private TreeWorkload workload; // Runs the operations on the terminal's classes
+
+	/**
+	 * Builds the tree.
+	 * 
+	 * @throws ReflectiveOperationException If the workload cannot be created
+	 */
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		workload = Workloads.createTree(backend, shape, nodeCount);
+	}
+
+	/**
+	 * Measures <code>DirectoryTree.changeDirectory</code>.
+	 */
+	@Benchmark
+	public void changeDirectory() {
+		workload.changeDirectory();
+	}
+
+	/**
+	 * Measures <code>DirectoryTree.goToParent</code>.
+	 */
+	@Benchmark
+	public void goToParent() {
+		workload.goToParent();
+	}
+
+	/**
+	 * Measures two calls of <code>DirectoryTree.moveDirectory</code>.
+	 */
+	@Benchmark
+	public void moveDirectory() {
+		workload.moveDirectory();
+	}
+
+	/**
+	 * Measures <code>DirectoryTree.find</code>.
+	 * 
+	 * @return The path found
+	 */
+	@Benchmark
+	public String find() {
+		return workload.find();
+	}
+
+	/**
+	 * Measures <code>DirectoryTree.printDirectoryTree</code> over the whole tree.
+	 * 
+	 * @return The number of characters printed
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long printDirectoryTree() {
+		return workload.printDirectoryTree();
+	}
+
+	/**
+	 * Measures <code>DirectoryTree.listDirectory</code> at the root.
+	 * 
+	 * @return The listing
+	 */
+	@Benchmark
+	public String listDirectory() {
+		return workload.listDirectory();
+	}
+}
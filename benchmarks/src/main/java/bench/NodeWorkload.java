@@ -0,0 +1,44 @@
+package bench;
+
+/**
+ * The <code>NodeWorkload</code> interface is the set of directory node
+ * operations measured by <code>DirectoryNodeBenchmark</code>. The terminal's
+ * classes are in the default package, which JMH benchmarks cannot see, so the
+ * operations are run by an implementation in the default package.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public interface NodeWorkload {
+	/**
+	 * Adds the next child to a directory, starting a new directory each time the
+	 * current one is full.
+	 */
+	void addChild();
+
+	/**
+	 * Looks up the next child of a full directory by name.
+	 * 
+	 * @return The index of the child
+	 */
+	int getChildIndex();
+
+	/**
+	 * Looks up a name that is in use elsewhere but is not a child of a full
+	 * directory.
+	 * 
+	 * @return -1
+	 */
+	int getMissingChildIndex();
+
+	/**
+	 * Removes the next child of a full directory and adds it back at the end.
+	 */
+	void removeChild();
+
+	/**
+	 * Removes every child of a full directory, first to last, and adds them all
+	 * back.
+	 */
+	void emptyDirectory();
+}
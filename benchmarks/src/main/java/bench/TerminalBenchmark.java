@@ -0,0 +1,97 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The <code>TerminalBenchmark</code> class measures what
+ * <code>BashTerminal.parseCommand</code> adds to a command: splitting the line
+ * into words, finding the command, checking its arguments and recording its
+ * latency. Each of pwd and cd is measured through the terminal and again as the
+ * session call it runs, on a chain of directories as deep as
+ * <code>depth</code>.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerminalBenchmark {
+	@Param({ "1", "16" })
+	public int depth; // Directories in the chain below the root
+
+	private TerminalWorkload workload; // Runs the commands on the terminal's classes
+
+	/**
+	 * Builds the chain of directories.
+	 * 
+	 * @throws ReflectiveOperationException If the workload cannot be created
+	 */
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		workload = Workloads.create(TerminalWorkload.class, "BashTerminalWorkload", depth);
+	}
+
+	/**
+	 * Measures <code>CommandRegistry.tokenize</code> on the cd line.
+	 * 
+	 * @return The number of words
+	 */
+	@Benchmark
+	public int tokenize() {
+		return workload.tokenize();
+	}
+
+	/**
+	 * Measures <code>BashTerminal.parseCommand("pwd")</code>.
+	 * 
+	 * @return True while the terminal keeps running
+	 */
+	@Benchmark
+	public boolean parsePresentWorkingDirectory() {
+		return workload.parsePresentWorkingDirectory();
+	}
+
+	/**
+	 * Measures <code>DirectorySession.presentWorkingDirectory</code>.
+	 * 
+	 * @return The path
+	 */
+	@Benchmark
+	public String presentWorkingDirectory() {
+		return workload.presentWorkingDirectory();
+	}
+
+	/**
+	 * Measures <code>BashTerminal.parseCommand</code> on a cd line.
+	 * 
+	 * @return True while the terminal keeps running
+	 */
+	@Benchmark
+	public boolean parseChangeDirectory() {
+		return workload.parseChangeDirectory();
+	}
+
+	/**
+	 * Measures <code>DirectorySession.changeDirectory</code>.
+	 */
+	@Benchmark
+	public void changeDirectory() {
+		workload.changeDirectory();
+	}
+}
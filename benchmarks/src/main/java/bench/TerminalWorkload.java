@@ -0,0 +1,47 @@
+package bench;
+
+/**
+ * The <code>TerminalWorkload</code> interface is the set of terminal commands
+ * measured by <code>TerminalBenchmark</code>. Each command is run both as a
+ * line parsed by <code>BashTerminal</code> and as the session call behind it,
+ * so the cost of tokenizing and dispatching a line shows as the difference.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public interface TerminalWorkload {
+	/**
+	 * Splits the cd line into words, without running it.
+	 * 
+	 * @return The number of words
+	 */
+	int tokenize();
+
+	/**
+	 * Runs "pwd" through the terminal, with the cursor at the deepest directory.
+	 * 
+	 * @return True while the terminal keeps running
+	 */
+	boolean parsePresentWorkingDirectory();
+
+	/**
+	 * Builds the path of the deepest directory through the session.
+	 * 
+	 * @return The path
+	 */
+	String presentWorkingDirectory();
+
+	/**
+	 * Moves the cursor to the root, then runs "cd" with the path of the deepest
+	 * directory through the terminal.
+	 * 
+	 * @return True while the terminal keeps running
+	 */
+	boolean parseChangeDirectory();
+
+	/**
+	 * Moves the cursor to the root, then follows the path of the deepest
+	 * directory through the session.
+	 */
+	void changeDirectory();
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The <code>TreeFootprintBenchmark</code> class builds a large tree with each
+ * backend and reports the memory it keeps, on and off the heap, as the
+ * <code>bytesPerNode</code> counter next to the build time. Memory is measured
+ * after a full collection, so the build time includes the collections too. A
+ * repeated tree is laid out like a balanced one but reuses a thousand names,
+ * the way real trees repeat names like <code>src</code>.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TreeFootprintBenchmark {
+	private static final int COLLECTIONS = 3; // Full collections run before memory is read
+
+	@Param({ "object", "compact", "compact-offheap" })
+	public String backend; // Which tree class holds the nodes
+
+	@Param({ "wide", "balanced", "repeated" })
+	public String shape; // How the nodes are arranged
+
+	@Param({ "1000000" })
+	public int nodeCount; // Nodes in the tree besides the root
+
+	private TreeWorkload workload; // Keeps the tree alive until it is measured
+
+	/**
+	 * The <code>Footprint</code> class holds the counter JMH reports beside each
+	 * build.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long bytesPerNode; // Memory kept by the last tree built, per node
+
+		/**
+		 * Clears the counter before each iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void clear() {
+			bytesPerNode = 0;
+		}
+	}
+
+	/**
+	 * Measures building a tree, and records the memory the tree keeps.
+	 * 
+	 * @param footprint Where the memory per node is recorded
+	 * @throws ReflectiveOperationException If the workload cannot be created
+	 */
+	@Benchmark
+	public void build(Footprint footprint) throws ReflectiveOperationException {
+		long before = usedMemory();
+		workload = Workloads.createTree(backend, shape, nodeCount);
+		footprint.bytesPerNode = (usedMemory() - before) / nodeCount;
+	}
+
+	/**
+	 * Lets the tree of the last iteration be collected.
+	 */
+	@TearDown(Level.Iteration)
+	public void release() {
+		workload = null;
+	}
+
+	/**
+	 * @return The bytes in use on the heap and in direct buffers after a few full
+	 *         collections
+	 */
+	private static long usedMemory() {
+		for (int i = 0; i < COLLECTIONS; i++) {
+			System.gc();
+		}
+		long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				used += pool.getMemoryUsed();
+			}
+		}
+		return used;
+	}
+}
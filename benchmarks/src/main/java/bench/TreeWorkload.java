@@ -0,0 +1,48 @@
+package bench;
+
+/**
+ * The <code>TreeWorkload</code> interface is the set of directory tree
+ * operations measured by <code>DirectoryTreeBenchmark</code>. Each operation
+ * works on the node created last, which is the deepest node of deep and
+ * balanced trees.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+public interface TreeWorkload {
+	/**
+	 * Moves the cursor from the root to the last node.
+	 */
+	void changeDirectory();
+
+	/**
+	 * Moves the cursor from the last node to its parent.
+	 */
+	void goToParent();
+
+	/**
+	 * Moves a directory next to the last node into a sibling directory and back.
+	 */
+	void moveDirectory();
+
+	/**
+	 * Finds the last node by name.
+	 * 
+	 * @return The path of the node
+	 */
+	String find();
+
+	/**
+	 * Prints the whole tree into a sink that only counts characters.
+	 * 
+	 * @return The number of characters printed
+	 */
+	long printDirectoryTree();
+
+	/**
+	 * Lists the children of the root.
+	 * 
+	 * @return The listing
+	 */
+	String listDirectory();
+}
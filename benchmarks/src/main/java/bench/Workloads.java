@@ -0,0 +1,73 @@
+package bench;
+
+/**
+ * The <code>Workloads</code> class creates the default-package implementations
+ * of the workload interfaces by name.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+final class Workloads {
+	/**
+	 * Creates a workload whose constructor takes a size.
+	 * 
+	 * @param <T>       The workload interface
+	 * @param type      The workload interface
+	 * @param className The default-package class that implements it
+	 * @param size      The size argument of the constructor
+	 * @return The new workload
+	 * @throws ReflectiveOperationException If the class cannot be created
+	 */
+	static <T> T create(Class<T> type, String className, int size) throws ReflectiveOperationException {
+		return type.cast(Class.forName(className).getConstructor(int.class).newInstance(size));
+	}
+
+	/**
+	 * Creates a workload whose constructor takes a tree shape and a size.
+	 * 
+	 * @param <T>       The workload interface
+	 * @param type      The workload interface
+	 * @param className The default-package class that implements it
+	 * @param shape     The shape argument of the constructor
+	 * @param size      The size argument of the constructor
+	 * @return The new workload
+	 * @throws ReflectiveOperationException If the class cannot be created
+	 */
+	static <T> T create(Class<T> type, String className, String shape, int size)
+			throws ReflectiveOperationException {
+		return type.cast(Class.forName(className).getConstructor(String.class, int.class).newInstance(shape, size));
+	}
+
+	/**
+	 * Creates the tree workload of a backend.
+	 * 
+	 * @param backend   "object" for <code>DirectoryTree</code>, "compact" for
+	 *                  <code>CompactDirectoryTree</code> on the heap, or
+	 *                  "compact-offheap" for it off the heap
+	 * @param shape     The shape of the tree
+	 * @param nodeCount Nodes in the tree besides the root
+	 * @return The new workload
+	 * @throws ReflectiveOperationException If the class cannot be created
+	 * @throws IllegalArgumentException     If the backend is not known
+	 */
+	static TreeWorkload createTree(String backend, String shape, int nodeCount)
+			throws ReflectiveOperationException {
+		switch (backend) {
+		case "object":
+			return create(TreeWorkload.class, "DirectoryTreeWorkload", shape, nodeCount);
+		case "compact":
+		case "compact-offheap":
+			return TreeWorkload.class.cast(Class.forName("CompactDirectoryTreeWorkload")
+					.getConstructor(String.class, int.class, boolean.class)
+					.newInstance(shape, nodeCount, backend.equals("compact-offheap")));
+		default:
+			throw new IllegalArgumentException("Unknown tree backend " + backend);
+		}
+	}
+
+	/**
+	 * Workloads are only created through <code>create</code>.
+	 */
+	private Workloads() {
+	}
+}
@@ -0,0 +1,161 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The <code>BashTerminalTest</code> class runs command lines through a
+ * terminal and checks what it prints, including the errors for arguments it
+ * cannot use.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class BashTerminalTest {
+	private DirectoryTree tree; // The tree of each test
+	private DirectorySession session; // The session the terminal runs its commands in
+	private ByteArrayOutputStream printed; // Everything the terminal has printed
+	private BashTerminal terminal; // Runs the command lines
+
+	@BeforeEach
+	void createTerminal() throws Exception {
+		tree = new DirectoryTree();
+		session = tree.newSession();
+		session.makeDirectories("src/main/java");
+		session.makeDirectories("src/test");
+		session.changeDirectory("src/main");
+		session.makeFile("Main.java");
+		session.makeFile("Util.java");
+		session.resetCursor();
+		session.makeFile("README");
+		session.makeFile("Makefile");
+		printed = new ByteArrayOutputStream();
+		terminal = new BashTerminal(session, new PrintStream(printed, true, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param lines The command lines to run, in order
+	 * @return Every line the terminal printed while running them
+	 */
+	private List<String> run(String... lines) {
+		printed.reset();
+		for (String line : lines) {
+			terminal.parseCommand(line);
+		}
+		String output = printed.toString(StandardCharsets.UTF_8);
+		return output.isEmpty() ? List.of() : Arrays.asList(output.split("\\R"));
+	}
+
+	@Test
+	void findMatchesGlobsAndRegularExpressions() {
+		assertEquals(List.of("root/src/main/Main.java"), run("find Main.java"));
+		assertEquals(List.of("root/src/main/Main.java", "root/src/main/Util.java"), run("find -name *.java"));
+		assertEquals(List.of("root/Makefile"), run("find -name M?k*"));
+		assertEquals(List.of("root/src/main/Main.java", "root/Makefile"), run("find -name [LM]a*"));
+		assertEquals(List.of("root/README"), run("find -name [!a-z]*[!a-z]"));
+		assertEquals(List.of("root/src/main/Util.java"), run("find -regex U.*\\.java"));
+		// A regular expression has to match the whole name
+		assertEquals(List.of("ERROR: No such file exists."), run("find -regex ava"));
+
+		// A directory before the option limits the search to it
+		assertEquals(List.of("root/src/main/java", "root/src/main/Main.java"), run("find src/main -name [jM]*"));
+		assertEquals(List.of("ERROR: No such file exists."), run("find src/test -name *.java"));
+		assertEquals(List.of("ERROR: 'nowhere' cannot be found."), run("find nowhere -name *"));
+		assertEquals(List.of("ERROR: 'README' is not a directory."), run("find README -name *"));
+		assertEquals(List.of("ERROR: '[a' is not a valid pattern."), run("find -regex [a"));
+	}
+
+	/**
+	 * Runs a command line, then waits until the clock has moved on, so each file
+	 * it touches is older than the next.
+	 *
+	 * @param line The command line to run
+	 * @throws InterruptedException If the wait is interrupted
+	 */
+	private void runThenTick(String line) throws InterruptedException {
+		run(line);
+		long touched = System.currentTimeMillis();
+		while (System.currentTimeMillis() <= touched) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	void findBySizeAndModificationTime() throws Exception {
+		runThenTick("touch --size 100 small");
+		runThenTick("touch --size 2k medium");
+		runThenTick("touch --size 3M large");
+
+		assertEquals(List.of("root/small"), run("find -size 100"));
+		assertEquals(List.of("root/small"), run("find -size 100c"));
+		assertEquals(List.of("root/medium", "root/large"), run("find -size +1k"));
+		assertEquals(List.of("root/medium"), run("find -size 2k"));
+		assertEquals(List.of("root/large"), run("find -size 3M"));
+		assertEquals(List.of("root/small", "root/medium"), run("find -size -3M").subList(4, 6));
+		assertEquals(List.of("root/src/main/Main.java", "root/src/main/Util.java"),
+				run("find src -size -1").stream().sorted().toList());
+		assertEquals(List.of("ERROR: No such file exists."), run("find -size +3M"));
+		assertEquals(List.of("ERROR: No such file exists."), run("find src -size +0"));
+		assertEquals(List.of("ERROR: '1x' is not a valid size."), run("find -size 1x"));
+
+		// Touching a file moves it in both the size and the time order
+		long before = System.currentTimeMillis();
+		runThenTick("touch --size 50 small");
+		assertEquals(List.of("ERROR: No such file exists."), run("find -size 100"));
+		assertEquals(List.of("root/small"), run("find -size 50"));
+		assertEquals(List.of("root/large", "root/small"), run("find -newer medium"));
+		assertEquals(List.of("root/small"), run("find -newer large"));
+		assertEquals(List.of("root/small"), run("find -newer " + (before - 1)));
+		assertEquals(List.of("ERROR: No such file exists."), run("find -newer small"));
+		assertEquals(7, run("find -newer 1970-01-01T00:00:00Z").size());
+		assertEquals(List.of("ERROR: 'src' is neither a file nor a time."), run("find -newer src"));
+		assertEquals(List.of("ERROR: 'yesterday' is neither a file nor a time."), run("find -newer yesterday"));
+	}
+
+	@Test
+	void diskUsageFollowsMovesAndRemovals() {
+		assertEquals(List.of("4 files, 4 directories, max depth 3", "8"), run("du", "count"));
+		assertEquals(List.of("2 files, 1 directories, max depth 1", "5"), run("du src/main", "count src"));
+
+		run("mv src/main src/test");
+		assertEquals(List.of("2 files, 3 directories, max depth 3"), run("du src"));
+		assertEquals(List.of("4 files, 4 directories, max depth 4"), run("du"));
+		run("mv README Makefile src/test/main/java");
+		assertEquals(List.of("4 files, 2 directories, max depth 3", "6"), run("du src/test", "count src/test"));
+		assertEquals(List.of("4 files, 4 directories, max depth 5", "8"), run("du", "count"));
+
+		run("cd src/test", "rm -r main");
+		assertEquals(List.of("0 files, 0 directories, max depth 0", "0"), run("du", "count"));
+		assertEquals(List.of("0 files, 2 directories, max depth 2", "2"), run("cd /", "du", "count"));
+		assertEquals(List.of("ERROR: 'main' cannot be found."), run("du main"));
+		assertEquals(List.of("ERROR: 'x/y' cannot be found."), run("count x/y"));
+	}
+
+	@Test
+	void listPrintsOnePageOfSortedChildren() {
+		assertEquals(List.of(" - Makefile", " - README", "|- src"), run("ls --sort name"));
+		assertEquals(List.of("|- src", " - Makefile", " - README"), run("ls --sort type"));
+		assertEquals(List.of(" - Makefile", " - README"), run("ls --sort type --offset 1 --limit 2"));
+		assertEquals(List.of(" - README"), run("ls --offset 1 --limit 1"));
+		assertEquals(List.of(" - Main.java", " - Util.java", "|- java"), run("ls src/main/*"));
+		assertEquals(List.of("|- java", " - Main.java"), run("ls src/main/* --sort type --limit 2"));
+		assertEquals(List.of(" - Makefile"), run("ls Ma*"));
+		run("cd src");
+		assertEquals(List.of("|- main"), run("ls m*"));
+		assertEquals(List.of("|- src"), run("ls -R s* --offset 0"));
+
+		assertEquals(List.of("ERROR: 'nowhere' cannot be found."), run("ls nowhere/*"));
+		assertEquals(List.of("ERROR: 'main/Main.java' is not a directory."), run("ls main/Main.java/*"));
+		for (String invalid : new String[] { "ls --sort size", "ls --offset -1", "ls --limit", "ls --max-depth 1 --limit 1",
+				"ls -R main/*" }) {
+			assertEquals(List.of("That is not a valid command."), run(invalid), invalid);
+		}
+	}
+}
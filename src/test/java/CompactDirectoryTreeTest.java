@@ -0,0 +1,323 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The <code>CompactDirectoryTreeTest</code> class runs the same command scripts
+ * on a <code>DirectoryTree</code> and a <code>CompactDirectoryTree</code>, on and
+ * off the heap, and checks that every command has the same outcome and that the
+ * trees end up holding the same nodes.
+ *
+ * <p>
+ * The backends do not keep children in the same order once nodes move, so
+ * listings and searches are compared as sorted lists.
+ * </p>
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class CompactDirectoryTreeTest {
+	private static final String[] NAMES = { "a", "b", "c", "d", "e" }; // Names used by the random scripts
+	private static final int RANDOM_COMMANDS = 3000; // Commands in each random script
+
+	/**
+	 * The commands of a script, as the two backends run them. Each command
+	 * returns what it printed, or the simple name of the exception it threw.
+	 **/
+	private interface Backend {
+		/**
+		 * Runs one command line.
+		 *
+		 * @param command The command name
+		 * @param args    Its arguments
+		 * @return What the command printed, or an empty string
+		 * @throws Exception If the command fails
+		 */
+		String run(String command, String[] args) throws Exception;
+
+		/**
+		 * @return Every node of the tree as a path, with a trailing '/' for
+		 *         directories, sorted
+		 * @throws Exception If the tree cannot be written out
+		 */
+		List<String> nodes() throws Exception;
+	}
+
+	/**
+	 * @param lines Names or paths separated by spaces or line breaks
+	 * @return The names or paths, sorted
+	 */
+	private static List<String> sorted(String lines) {
+		List<String> words = new ArrayList<>(Arrays.asList(lines.trim().split("\\s+")));
+		words.remove("");
+		Collections.sort(words);
+		return words;
+	}
+
+	/**
+	 * Turns the output of <code>printDirectoryTree</code> into the sorted paths of
+	 * every node, so that trees whose children are in different orders compare
+	 * equal.
+	 *
+	 * @param printed The printed tree
+	 * @return Every node as a path, with a trailing '/' for directories, sorted
+	 */
+	private static List<String> pathsOf(String printed) {
+		List<String> paths = new ArrayList<>();
+		List<String> parents = new ArrayList<>();
+		for (String line : printed.split(System.lineSeparator())) {
+			int dash = line.indexOf("- ");
+			int level = (dash - 1) / 4;
+			String name = line.substring(dash + 2);
+			String path = level == 0 ? name : parents.get(level - 1) + "/" + name;
+			while (parents.size() > level) {
+				parents.remove(parents.size() - 1);
+			}
+			parents.add(path);
+			paths.add(line.charAt(dash - 1) == '|' ? path + "/" : path);
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * Runs commands on a <code>DirectoryTree</code>.
+	 **/
+	private static final class ObjectBackend implements Backend {
+		private final DirectoryTree tree = new DirectoryTree(); // The tree the commands change
+
+		@Override
+		public String run(String command, String[] args) throws Exception {
+			switch (command) {
+			case "mkdir":
+				tree.makeDirectory(args[0]);
+				return "";
+			case "touch":
+				tree.makeFile(args[0]);
+				return "";
+			case "cd":
+				tree.changeDirectory(args[0]);
+				return "";
+			case "cd..":
+				tree.goToParent();
+				return "";
+			case "cd/":
+				tree.resetCursor();
+				return "";
+			case "mv":
+				tree.moveDirectory(args[0], args[1]);
+				return "";
+			case "ls":
+				return String.join(" ", sorted(tree.listDirectory()));
+			case "pwd":
+				return tree.presentWorkingDirectory();
+			case "find":
+				return String.join(" ", sorted(String.join(" ", tree.findAll(args[0]))));
+			default:
+				throw new IllegalArgumentException(command);
+			}
+		}
+
+		@Override
+		public List<String> nodes() throws Exception {
+			StringBuilder printed = new StringBuilder();
+			tree.printDirectoryTree(tree.getRoot(), 0, Integer.MAX_VALUE, printed, () -> false);
+			return pathsOf(printed.toString());
+		}
+	}
+
+	/**
+	 * Runs commands on a <code>CompactDirectoryTree</code>.
+	 **/
+	private static final class CompactBackend implements Backend {
+		private final CompactDirectoryTree tree; // The tree the commands change
+
+		/**
+		 * Returns an instance of CompactBackend
+		 *
+		 * @param offHeap True to keep the nodes outside the Java heap
+		 */
+		private CompactBackend(boolean offHeap) {
+			tree = new CompactDirectoryTree(offHeap);
+		}
+
+		@Override
+		public String run(String command, String[] args) throws Exception {
+			switch (command) {
+			case "mkdir":
+				tree.makeDirectory(args[0]);
+				return "";
+			case "touch":
+				tree.makeFile(args[0]);
+				return "";
+			case "cd":
+				tree.changeDirectory(args[0]);
+				return "";
+			case "cd..":
+				tree.goToParent();
+				return "";
+			case "cd/":
+				tree.resetCursor();
+				return "";
+			case "mv":
+				tree.moveDirectory(args[0], args[1]);
+				return "";
+			case "ls":
+				return String.join(" ", sorted(tree.listDirectory()));
+			case "pwd":
+				return tree.presentWorkingDirectory();
+			case "find":
+				return String.join(" ", sorted(String.join(" ", tree.findAll(args[0]))));
+			default:
+				throw new IllegalArgumentException(command);
+			}
+		}
+
+		@Override
+		public List<String> nodes() throws Exception {
+			StringBuilder printed = new StringBuilder();
+			tree.printDirectoryTree(tree.getRoot(), 0, Integer.MAX_VALUE, printed, () -> false);
+			return pathsOf(printed.toString());
+		}
+	}
+
+	/**
+	 * Runs a script on a <code>DirectoryTree</code> and on compact trees on and
+	 * off the heap, checking each command's outcome and the final trees.
+	 *
+	 * @param script The command lines, one command and its arguments each
+	 * @throws Exception If a tree cannot be written out
+	 */
+	private static void runOnEveryBackend(List<String> script) throws Exception {
+		Backend expected = new ObjectBackend();
+		Backend[] compact = { new CompactBackend(false), new CompactBackend(true) };
+		for (int line = 0; line < script.size(); line++) {
+			String[] words = script.get(line).split(" ");
+			String[] args = Arrays.copyOfRange(words, 1, words.length);
+			String outcome = outcomeOf(expected, words[0], args);
+			for (Backend backend : compact) {
+				assertEquals(outcome, outcomeOf(backend, words[0], args),
+						"line " + (line + 1) + ": " + script.get(line));
+			}
+		}
+		for (Backend backend : compact) {
+			assertEquals(expected.nodes(), backend.nodes());
+		}
+	}
+
+	/**
+	 * @param backend The backend to run the command on
+	 * @param command The command name
+	 * @param args    Its arguments
+	 * @return What the command printed, or the simple name of the exception it
+	 *         threw
+	 */
+	private static String outcomeOf(Backend backend, String command, String[] args) {
+		try {
+			return backend.run(command, args);
+		} catch (Exception e) {
+			return e.getClass().getSimpleName();
+		}
+	}
+
+	@Test
+	void fixedScriptHasTheSameOutcomes() throws Exception {
+		runOnEveryBackend(List.of("mkdir src", "mkdir docs", "touch README", "cd src", "mkdir main", "mkdir test",
+				"cd main", "touch Main.java", "touch Main.java", "mkdir Main.java", "pwd", "cd/", "ls",
+				"cd README", "cd nowhere", "cd src/main", "pwd", "cd..", "cd..", "cd..", "pwd", "mv docs src/main",
+				"mv src src/main", "mv README src/nowhere", "mv README README", "mv nowhere src", "mkdir bad/name",
+				"touch has_underscore", "find Main.java", "find docs", "find nothing", "ls", "cd src",
+				"ls", "mv main/docs test", "cd test", "ls", "find docs"));
+	}
+
+	@Test
+	void randomScriptsHaveTheSameOutcomes() throws Exception {
+		for (long seed = 1; seed <= 5; seed++) {
+			runOnEveryBackend(randomScript(seed));
+		}
+	}
+
+	@Test
+	void fullDirectoriesFailTheSameWay() throws Exception {
+		int limit = DirectoryNode.getDefaultChildLimit();
+		DirectoryNode.setDefaultChildLimit(3);
+		try {
+			for (long seed = 6; seed <= 8; seed++) {
+				runOnEveryBackend(randomScript(seed));
+			}
+		} finally {
+			DirectoryNode.setDefaultChildLimit(limit);
+		}
+	}
+
+	/**
+	 * @param seed Seeds the choice of commands
+	 * @return A script of random commands
+	 */
+	private static List<String> randomScript(long seed) {
+		Random random = new Random(seed);
+		List<String> script = new ArrayList<>();
+		for (int i = 0; i < RANDOM_COMMANDS; i++) {
+			script.add(randomCommand(random));
+		}
+		return script;
+	}
+
+	/**
+	 * @param random Chooses the command and its arguments
+	 * @return A command line over a small set of names, so that names clash and
+	 *         paths both resolve and fail
+	 */
+	private static String randomCommand(Random random) {
+		switch (random.nextInt(12)) {
+		case 0:
+		case 1:
+		case 2:
+			return "mkdir " + randomName(random);
+		case 3:
+			return "touch " + randomName(random);
+		case 4:
+			return "cd " + randomPath(random);
+		case 5:
+			return "cd..";
+		case 6:
+			return "cd/";
+		case 7:
+		case 8:
+			return "mv " + randomPath(random) + " " + randomPath(random);
+		case 9:
+			return "ls";
+		case 10:
+			return "pwd";
+		default:
+			return "find " + randomName(random);
+		}
+	}
+
+	/**
+	 * @param random Chooses the name
+	 * @return One of the script names
+	 */
+	private static String randomName(Random random) {
+		return NAMES[random.nextInt(NAMES.length)];
+	}
+
+	/**
+	 * @param random Chooses the names
+	 * @return A path of one to three script names
+	 */
+	private static String randomPath(Random random) {
+		StringBuilder path = new StringBuilder(randomName(random));
+		for (int i = random.nextInt(3); i > 0; i--) {
+			path.append('/').append(randomName(random));
+		}
+		return path.toString();
+	}
+}
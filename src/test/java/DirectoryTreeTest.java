@@ -0,0 +1,378 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The <code>DirectoryTreeTest</code> class checks the copies, the counts kept
+ * by each directory, and the status codes of the exception-free operations.
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class DirectoryTreeTest {
+	private DirectoryTree tree; // The tree of each test
+	private DirectorySession session; // A session at the root of the tree
+	private TreeResult result; // Reused by every exception-free call
+
+	@TempDir
+	Path directory; // Holds the snapshot of a test
+
+	@BeforeEach
+	void createTree() throws Exception {
+		tree = new DirectoryTree();
+		session = tree.newSession();
+		result = new TreeResult();
+		session.makeDirectories("src/main/java");
+		session.makeDirectories("src/test");
+		session.changeDirectory("src/main");
+		session.makeFile("Main.java");
+		session.makeFile("Util.java");
+		session.resetCursor();
+		session.makeFile("README");
+	}
+
+	/**
+	 * Checks the counts a directory keeps of the nodes below it.
+	 *
+	 * @param path        The path of the directory from the root
+	 * @param files       The expected amount of files below it
+	 * @param directories The expected amount of directories below it
+	 * @param depth       The expected depth of its deepest descendant
+	 * @throws Exception If the path cannot be followed
+	 */
+	private void assertCounts(String path, int files, int directories, int depth) throws Exception {
+		DirectoryNode node = path.isEmpty() ? tree.getRoot() : session.lookupPath(path);
+		assertEquals(files, node.getDescendantFileCount(), path + " files");
+		assertEquals(directories, node.getDescendantDirectoryCount(), path + " directories");
+		assertEquals(depth, node.getMaxDepth(), path + " depth");
+	}
+
+	/**
+	 * @param path    The path of a directory from the root, or "/" for the root
+	 * @param pattern The test applied to each node name
+	 * @return The path of every matching node at or below the directory, in
+	 *         pre-order
+	 * @throws Exception If the path cannot be followed
+	 */
+	private List<String> find(String path, NamePattern pattern) throws Exception {
+		List<String> found = new ArrayList<>();
+		session.find(path, pattern, found::add);
+		return found;
+	}
+
+	/**
+	 * @param path The path of a directory from the root
+	 * @return The names of its children, in name order
+	 * @throws Exception If the path cannot be followed
+	 */
+	private String listOf(String path) throws Exception {
+		session.changeDirectory(path);
+		try {
+			return session.listDirectory();
+		} finally {
+			session.resetCursor();
+		}
+	}
+
+	/**
+	 * @param directory A directory
+	 * @return The names of its children, in the order they are kept
+	 */
+	private static List<String> childNamesOf(DirectoryNode directory) {
+		List<String> names = new ArrayList<>();
+		for (DirectoryNode child : directory.getChildren()) {
+			names.add(child.getName());
+		}
+		return names;
+	}
+
+	@Test
+	void removalKeepsTheOrderOfTheOtherChildren() throws Exception {
+		session.makeDirectory("few");
+		session.makeDirectory("many");
+		session.changeDirectory("few");
+		for (String name : new String[] { "a", "b", "c", "d" }) {
+			session.makeDirectory(name);
+		}
+		session.resetCursor();
+		session.changeDirectory("many");
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			session.makeFile("f" + i);
+			expected.add("f" + i);
+		}
+		session.resetCursor();
+
+		session.removeNode("few/a");
+		assertEquals(List.of("b", "c", "d"), childNamesOf(session.lookupPath("few")));
+		// A directory this large looks its children up through a name table
+		for (String name : new String[] { "f0", "f17", "f39", "f18" }) {
+			session.removeNode("many/" + name);
+			expected.remove(name);
+		}
+		assertEquals(expected, childNamesOf(session.lookupPath("many")));
+		for (String name : expected) {
+			assertEquals(name, session.lookupPath("many/" + name).getName());
+		}
+
+		// The tree version a snapshot is written from keeps the same order
+		Path snapshot = directory.resolve("order.snapshot");
+		tree.save(snapshot);
+		DirectorySession loaded = DirectoryTree.load(snapshot).newSession();
+		assertEquals(List.of("b", "c", "d"), childNamesOf(loaded.lookupPath("few")));
+		assertEquals(expected, childNamesOf(loaded.lookupPath("many")));
+	}
+
+	/**
+	 * @param directory A directory
+	 * @param prefix    The prefix of the names listed
+	 * @param byType    True to list the directories first
+	 * @param offset    The number of matching children skipped
+	 * @param limit     The most children listed
+	 * @return The names of the listed children, in the order they were listed
+	 */
+	private List<String> pageOf(DirectoryNode directory, String prefix, boolean byType, int offset, int limit) {
+		List<String> names = new ArrayList<>();
+		tree.listChildren(directory, prefix, byType, offset, limit, child -> names.add(child.getName()));
+		return names;
+	}
+
+	@Test
+	void listingPagesThroughSortedChildren() throws Exception {
+		session.makeDirectory("big");
+		session.changeDirectory("big");
+		List<String> byName = new ArrayList<>();
+		List<String> directories = new ArrayList<>();
+		List<String> files = new ArrayList<>();
+		// Made out of order, with the directories and files interleaved by name
+		for (int i = 599; i >= 0; i--) {
+			String name = String.format("n%03d", i);
+			if (i % 2 == 0) {
+				session.makeDirectory(name);
+				directories.add(0, name);
+			} else {
+				session.makeFile(name);
+				files.add(0, name);
+			}
+			byName.add(0, name);
+		}
+		session.resetCursor();
+		DirectoryNode big = session.lookupPath("big");
+		List<String> byType = new ArrayList<>(directories);
+		byType.addAll(files);
+
+		assertEquals(byName, pageOf(big, "", false, 0, Integer.MAX_VALUE));
+		assertEquals(byType, pageOf(big, "", true, 0, Integer.MAX_VALUE));
+		// Pages that start and end inside the chunks the listing is copied out in
+		assertEquals(byName.subList(250, 550), pageOf(big, "", false, 250, 300));
+		assertEquals(byType.subList(290, 310), pageOf(big, "", true, 290, 20));
+		assertEquals(byName.subList(100, 200), pageOf(big, "n1", false, 0, Integer.MAX_VALUE));
+		assertEquals(List.of("n196", "n198", "n101"), pageOf(big, "n1", true, 48, 3));
+		assertEquals(List.of(), pageOf(big, "", false, 600, 10));
+		assertEquals(List.of(), pageOf(big, "", true, 0, 0));
+		assertEquals(100, tree.listChildren(big, "n1", false, 10, 5, child -> {
+		}));
+		assertThrows(IllegalArgumentException.class, () -> pageOf(big, "", false, -1, 10));
+	}
+
+	@Test
+	void copyIsLazyAndIndependentOfItsSource() throws Exception {
+		session.copyNode("src", "src/test");
+		DirectoryNode copy = session.lookupPath("src/test/src");
+		assertNotNull(copy.getPendingSource());
+		assertCounts("src/test/src", 2, 3, 2);
+
+		// Changing the source after the copy leaves the copy as it was
+		session.changeDirectory("src/main");
+		session.makeFile("Extra.java");
+		session.removeNode("Util.java");
+		session.resetCursor();
+		assertEquals("Main.java Util.java java", listOf("src/test/src/main"));
+		assertEquals("Extra.java Main.java java", listOf("src/main"));
+
+		// The copy is filled in once it is first changed
+		session.changeDirectory("src/test/src/main");
+		session.makeFile("Copy.java");
+		session.resetCursor();
+		assertNull(session.lookupPath("src/test/src").getPendingSource());
+		assertCounts("src/test/src", 3, 3, 2);
+		assertEquals(List.of("root/src/test/src", "root/src/test/src/main", "root/src/test/src/main/java",
+				"root/src/test/src/main/Main.java", "root/src/test/src/main/Util.java",
+				"root/src/test/src/main/Copy.java", "root/src/test/src/test"),
+				find("src/test/src", NamePattern.glob("*")));
+	}
+
+	@Test
+	void countsFollowMovesAndRemovals() throws Exception {
+		assertCounts("", 3, 4, 3);
+		session.moveDirectory("src/main", "src/test");
+		assertCounts("src", 2, 3, 3);
+		assertCounts("src/test", 2, 2, 2);
+		assertCounts("src/test/main", 2, 1, 1);
+
+		session.moveNodes(new String[] { "README", "src/test/main/java" }, "src");
+		assertCounts("", 3, 4, 4);
+		assertCounts("src", 3, 3, 3);
+		assertCounts("src/test/main", 2, 0, 1);
+
+		session.removeNode("src/test");
+		assertCounts("", 1, 2, 2);
+		assertCounts("src", 1, 1, 1);
+		assertEquals(List.of("root", "root/src", "root/src/README", "root/src/java"), find("/", NamePattern.glob("*")));
+	}
+
+	@Test
+	void moveOfManyNodesIsAllOrNothing() throws Exception {
+		session.makeDirectory("lib");
+		session.changeDirectory("lib");
+		session.makeFile("README");
+		session.resetCursor();
+		String before = tree.findAll("java").toString() + find("/", NamePattern.glob("*"));
+
+		// Each of these fails on a check made before anything is moved
+		assertEquals(TreeResult.UNRESOLVED_PATH,
+				session.tryMoveNodes(new String[] { "src/test", "nothing" }, "lib", result));
+		assertEquals(TreeResult.CONFLICTING_NAMES,
+				session.tryMoveNodes(new String[] { "src/test", "README" }, "lib", result));
+		assertEquals(TreeResult.CONFLICTING_NAMES,
+				session.tryMoveNodes(new String[] { "src/test", "src/test" }, "lib", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH,
+				session.tryMoveNodes(new String[] { "src/test", "src" }, "src/main", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH,
+				session.tryMoveNodes(new String[] { "src", "src/main/java" }, "lib", result));
+		assertEquals("You cannot move a node along with its own directory.", result.getMessage());
+		assertEquals(TreeResult.NOT_A_DIRECTORY,
+				session.tryMoveNodes(new String[] { "src/test" }, "lib/README", result));
+		assertEquals(TreeResult.INVALID_ARGUMENT, session.tryMoveNodes(new String[0], "lib", result));
+		session.lookupPath("lib").setChildLimit(2);
+		assertEquals(TreeResult.FULL_DIRECTORY,
+				session.tryMoveNodes(new String[] { "src/test", "src/main/java" }, "lib", result));
+		assertThrows(FullDirectoryException.class,
+				() -> session.moveNodes(new String[] { "src/test", "src/main/java" }, "lib"));
+		assertEquals(before, tree.findAll("java").toString() + find("/", NamePattern.glob("*")));
+		assertCounts("", 4, 5, 3);
+
+		// A node already in the target takes no more room there
+		assertEquals(TreeResult.OK,
+				session.tryMoveNodes(new String[] { "lib/README", "src/test" }, "lib", result));
+		assertEquals(List.of("README", "test"), childNamesOf(session.lookupPath("lib")));
+		assertCounts("lib", 1, 1, 1);
+		assertCounts("src", 2, 2, 2);
+	}
+
+	@Test
+	void copyCountsReachTheRoot() throws Exception {
+		session.copyNode("src/main", "src/test");
+		assertCounts("", 5, 6, 4);
+		session.removeNode("src/main");
+		assertCounts("", 3, 4, 4);
+		assertCounts("src/test", 2, 2, 2);
+	}
+
+	@Test
+	void tryOperationsReportEachFailure() throws Exception {
+		assertEquals(TreeResult.OK, session.tryMakeDirectory("lib", result));
+		assertEquals("lib", result.getNode().getName());
+		assertEquals(TreeResult.CONFLICTING_NAMES, session.tryMakeFile("lib", result));
+		assertEquals(TreeResult.INVALID_ARGUMENT, session.tryMakeDirectory("a b", result));
+		assertEquals(TreeResult.INVALID_ARGUMENT, session.tryMakeDirectories("x/a b", result));
+		assertEquals(TreeResult.NOT_A_DIRECTORY, session.tryMakeDirectories("README/x", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryChangeDirectory("nowhere", result));
+		assertEquals(TreeResult.NOT_A_DIRECTORY, session.tryChangeDirectory("README", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryLookupPath("src/nothing", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryRemoveNode("src/nothing", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryCopyNode("nothing", "src", result));
+		assertEquals(TreeResult.CONFLICTING_NAMES, session.tryCopyNode("src/main", "src", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryMoveDirectory("src", "src/main", result));
+		assertEquals(TreeResult.NOT_A_DIRECTORY, session.tryMoveNodes(new String[] { "lib" }, "README", result));
+		assertEquals(TreeResult.INVALID_ARGUMENT, session.tryTouchFile("a/b", 1, result));
+		assertEquals(TreeResult.CONFLICTING_NAMES, session.tryTouchFile("lib", 1, result));
+		assertEquals("ConflictingNamesException", result.getErrorType());
+		assertThrows(ConflictingNamesException.class, result::check);
+
+		session.lookupPath("lib").setChildLimit(1);
+		assertEquals(TreeResult.OK, session.tryMakeDirectories("lib/one", result));
+		assertEquals(TreeResult.FULL_DIRECTORY, session.tryMakeDirectories("lib/two/three", result));
+		assertNull(result.getNode());
+		assertThrows(FullDirectoryException.class, result::check);
+
+		assertEquals(TreeResult.OK, session.tryMakeDirectories("lib/one/two/three", result));
+		assertSame(session.lookupPath("lib/one/two/three"), result.getNode());
+		assertCounts("lib", 0, 3, 3);
+	}
+
+	@Test
+	void oneResultIsReusedAcrossCalls() throws Exception {
+		DirectoryNode main = session.lookupPath("src/main");
+		assertEquals(TreeResult.OK, session.tryChangeDirectory("src/main", result));
+		assertSame(main, result.getNode());
+		assertNull(result.getMessage());
+		assertNull(result.getErrorType());
+
+		// A failure clears what the last success left, and the cursor stays put
+		assertEquals(TreeResult.NOT_A_DIRECTORY, session.tryGoToChild("Main.java", result));
+		assertNull(result.getNode());
+		assertEquals("You cannot move to a file.", result.getMessage());
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryChangeDirectory("java/nothing", result));
+		assertSame(main, session.getCursor());
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryGoToChild("nothing", result));
+		assertSame(main, session.getCursor());
+
+		// A success clears what the last failure left
+		assertEquals(TreeResult.OK, session.tryGoToChild("java", result));
+		assertTrue(result.isOk());
+		assertNull(result.getMessage());
+		assertSame(session.getCursor(), result.checkPath());
+		session.resetCursor();
+		assertEquals(TreeResult.OK, session.tryRemoveNode("src/main/Util.java", result));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryRemoveNode("src/main/Util.java", result));
+		assertEquals(TreeResult.OK, session.tryMoveNodes(new String[] { "README" }, "src/test", result));
+		assertEquals(TreeResult.OK, session.tryCopyNode("src/test/README", "src", result));
+		assertCounts("", 3, 4, 3);
+	}
+
+	@Test
+	void exceptionsCarryNoStackTrace() {
+		for (Exception e : new Exception[] { new UnresolvedPathException(), new NotADirectoryException(),
+				new FullDirectoryException(), new ConflictingNamesException() }) {
+			assertEquals(0, e.getStackTrace().length, e.getClass().getSimpleName());
+		}
+		UnresolvedPathException thrown = assertThrows(UnresolvedPathException.class,
+				() -> session.changeDirectory("nowhere"));
+		assertEquals(0, thrown.getStackTrace().length);
+		assertNull(thrown.getCause());
+		NotADirectoryException file = assertThrows(NotADirectoryException.class, () -> session.goToChild("README"));
+		assertEquals(0, file.getStackTrace().length);
+		assertThrows(ConflictingNamesException.class, () -> session.makeDirectory("src"));
+		session.getCursor().setChildLimit(2);
+		FullDirectoryException full = assertThrows(FullDirectoryException.class, () -> session.makeFile("LICENSE"));
+		assertEquals(0, full.getStackTrace().length);
+	}
+
+	@Test
+	void tryImportReportsEachFailure() throws Exception {
+		DirectoryNode subtree = new DirectoryNode("imported", false);
+		subtree.addChild(new DirectoryNode("inner", true));
+		assertEquals(TreeResult.UNRESOLVED_PATH, session.tryImportSubtree(subtree, "nowhere", result));
+		assertEquals(TreeResult.NOT_A_DIRECTORY, session.tryImportSubtree(subtree, "README", result));
+		assertEquals(TreeResult.OK, session.tryImportSubtree(subtree, "src", result));
+		assertSame(subtree, result.getNode());
+		assertCounts("src", 3, 4, 2);
+
+		DirectoryNode clash = new DirectoryNode("imported", true);
+		assertEquals(TreeResult.CONFLICTING_NAMES, session.tryImportSubtree(clash, "src", result));
+		assertEquals(List.of("root/src/imported/inner"), find("/", NamePattern.literal("inner")));
+	}
+}
@@ -0,0 +1,116 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The <code>HostImportTest</code> class imports hierarchies made on the host
+ * and checks that every entry is read with its size and times, that the
+ * entries the terminal could not use are counted and left out, and that the
+ * import command attaches the subtree with its counts.
+ * 
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class HostImportTest {
+	private static final long MODIFIED_MILLIS = 1_600_000_000_000L; // The time set on the large file
+	private static final int WIDE_DIRECTORY_COUNT = 40; // Directories in the wide hierarchy
+	private static final int WIDE_FILE_COUNT = 25; // Files in each of those directories
+
+	@TempDir
+	Path host; // Holds the hierarchies of a test
+
+	private Path project; // The hierarchy most tests import
+
+	@BeforeEach
+	void createHierarchy() throws Exception {
+		project = host.resolve("project");
+		Files.createDirectories(project.resolve("a/b"));
+		Files.createDirectories(project.resolve("c"));
+		Files.write(project.resolve("a/x.txt"), new byte[10]);
+		Files.write(project.resolve("y.bin"), new byte[3000]);
+		Files.setLastModifiedTime(project.resolve("y.bin"), FileTime.fromMillis(MODIFIED_MILLIS));
+		Files.createFile(project.resolve("with space"));
+		Files.createSymbolicLink(project.resolve("link"), project.resolve("a"));
+	}
+
+	@Test
+	void readCopiesEveryUsableEntry() throws Exception {
+		HostImport imported = HostImport.read(project, 2);
+		assertEquals(7, imported.getNodeCount());
+		assertEquals(1, imported.getSkippedCount());
+		assertEquals(0, imported.getUnreadableCount());
+
+		DirectoryTree tree = new DirectoryTree();
+		DirectorySession session = tree.newSession();
+		session.importSubtree(imported.getRoot(), null);
+		DirectoryNode root = session.lookupPath("project");
+		assertEquals(3, root.getDescendantFileCount());
+		assertEquals(3, root.getDescendantDirectoryCount());
+		assertEquals(2, root.getMaxDepth());
+		assertFalse(session.lookupPath("project/a/b").isFile());
+		assertEquals(10, session.lookupPath("project/a/x.txt").getSize());
+		assertEquals(3000, session.lookupPath("project/y.bin").getSize());
+		assertEquals(MODIFIED_MILLIS, session.lookupPath("project/y.bin").getModificationTime());
+		// Links are not followed
+		assertTrue(session.lookupPath("project/link").isFile());
+		assertThrows(UnresolvedPathException.class, () -> session.lookupPath("project/with"));
+	}
+
+	@Test
+	void readOfAWideHierarchyMissesNothing() throws Exception {
+		Path wide = host.resolve("wide");
+		for (int i = 0; i < WIDE_DIRECTORY_COUNT; i++) {
+			Path directory = Files.createDirectories(wide.resolve("d" + i % 4).resolve("d" + i));
+			for (int j = 0; j < WIDE_FILE_COUNT; j++) {
+				Files.createFile(directory.resolve("f" + j));
+			}
+		}
+		HostImport imported = HostImport.read(wide, 8);
+		assertEquals(1 + 4 + WIDE_DIRECTORY_COUNT * (1 + WIDE_FILE_COUNT), imported.getNodeCount());
+		assertEquals(WIDE_DIRECTORY_COUNT * WIDE_FILE_COUNT, imported.getRoot().getDescendantFileCount());
+		assertEquals(4 + WIDE_DIRECTORY_COUNT, imported.getRoot().getDescendantDirectoryCount());
+		assertEquals(3, imported.getRoot().getMaxDepth());
+
+		assertThrows(NoSuchFileException.class, () -> HostImport.read(host.resolve("missing"), 2));
+		assertThrows(IllegalArgumentException.class, () -> HostImport.read(project.resolve("with space"), 2));
+		assertThrows(IllegalArgumentException.class, () -> HostImport.read(project, 0));
+	}
+
+	@Test
+	void importCommandAttachesTheHierarchy() throws Exception {
+		DirectoryTree tree = new DirectoryTree();
+		DirectorySession session = tree.newSession();
+		session.makeDirectories("src/test");
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		BashTerminal terminal = new BashTerminal(session, new PrintStream(printed, true, StandardCharsets.UTF_8));
+
+		terminal.parseCommand("import " + project + " src/test");
+		terminal.parseCommand("import " + project + " src/test");
+		terminal.parseCommand("import " + host.resolve("missing") + " src");
+		terminal.parseCommand("import " + project + " nowhere");
+		terminal.parseCommand("du src/test/project");
+		List<String> lines = List.of(printed.toString(StandardCharsets.UTF_8).split("\\R"));
+		assertEquals(6, lines.size(), lines::toString);
+		assertTrue(lines.get(0).startsWith("Imported 7 nodes in "), lines.get(0));
+		assertEquals("Skipped 1 entries; 0 directories could not be read.", lines.get(1));
+		assertEquals("ERROR: There cannot be two directories or two files with the same name.", lines.get(2));
+		assertEquals("ERROR: '" + host.resolve("missing") + "' cannot be found on the host.", lines.get(3));
+		assertEquals("ERROR: 'nowhere' cannot be found.", lines.get(4));
+		assertEquals("3 files, 3 directories, max depth 2", lines.get(5));
+	}
+}
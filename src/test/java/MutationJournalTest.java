@@ -0,0 +1,194 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The <code>MutationJournalTest</code> class checks that a tree restored from a
+ * snapshot and its journal holds every change that was recorded, including
+ * after a crash cut the journal short and after a compaction.
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class MutationJournalTest {
+	@TempDir
+	Path directory; // Holds the snapshot and journal of each test
+
+	/**
+	 * Writes out the whole tree of the current version, one node per line.
+	 *
+	 * @param tree The tree to write out
+	 * @return The tree as text
+	 * @throws IOException Never, since the text is kept in memory
+	 */
+	static String describe(DirectoryTree tree) throws IOException {
+		StringBuilder out = new StringBuilder();
+		tree.printDirectoryTree(tree.getRoot(), 0, Integer.MAX_VALUE, out, () -> false);
+		return out.toString();
+	}
+
+	/**
+	 * Makes one change of each kind the journal records, from a session at the
+	 * root of a tree.
+	 *
+	 * @param tree The tree to change
+	 * @throws Exception If a change fails
+	 */
+	static void changeEveryWay(DirectoryTree tree) throws Exception {
+		DirectorySession session = tree.newSession();
+		session.makeDirectories("a/b/c");
+		session.makeDirectory("d");
+		session.makeFile("notes");
+		session.touchFile("notes", 42);
+		session.changeDirectory("a");
+		session.makeFile("f");
+		session.resetCursor();
+		session.copyNode("a", "d");
+		session.moveDirectory("notes", "a/b");
+		session.moveNodes(new String[] { "a/f", "d/a/b/c" }, "d");
+		session.removeNode("a/b/c");
+	}
+
+	/**
+	 * Opens a journal that only syncs when it is closed or flushed.
+	 *
+	 * @param path The journal file
+	 * @return The open journal
+	 * @throws IOException If the file cannot be opened
+	 */
+	private static MutationJournal openJournal(Path path) throws IOException {
+		return new MutationJournal(path, 1 << 20, TimeUnit.HOURS.toMillis(1));
+	}
+
+	@Test
+	void replayRestoresEveryRecordedChange() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = MutationJournal.recover(snapshot, journalFile);
+		tree.setJournal(openJournal(journalFile));
+		changeEveryWay(tree);
+		tree.getJournal().close();
+
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(describe(tree), describe(recovered));
+		assertEquals(tree.getSequence(), recovered.getSequence());
+		assertEquals(42, recovered.newSession().lookupPath("a/b/notes").getSize());
+	}
+
+	@Test
+	void replaySkipsChangesTheSnapshotHolds() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = new DirectoryTree();
+		tree.setJournal(openJournal(journalFile));
+		DirectorySession session = tree.newSession();
+		session.makeDirectory("kept");
+		tree.save(snapshot);
+		session.makeDirectory("later");
+		tree.getJournal().close();
+
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(describe(tree), describe(recovered));
+		assertEquals(2, recovered.getSequence());
+	}
+
+	@Test
+	void tornRecordIsCutOffAndLaterRecordsFollowIt() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = MutationJournal.recover(snapshot, journalFile);
+		tree.setJournal(openJournal(journalFile));
+		changeEveryWay(tree);
+		tree.getJournal().close();
+		String before = describe(tree);
+		long validLength = Files.size(journalFile);
+
+		// A record whose length promises more bytes than were written before a crash
+		ByteBuffer torn = ByteBuffer.allocate(12).putInt(64).putInt(0).putInt(7);
+		torn.flip();
+		Files.write(journalFile, torn.array(), StandardOpenOption.APPEND);
+
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(before, describe(recovered));
+		assertEquals(validLength, Files.size(journalFile));
+
+		recovered.setJournal(openJournal(journalFile));
+		recovered.newSession().makeDirectory("after");
+		recovered.getJournal().close();
+		DirectoryTree again = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(describe(recovered), describe(again));
+		assertTrue(again.newSession().lookupPath("after") != null);
+	}
+
+	@Test
+	void damagedRecordEndsTheReplay() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = new DirectoryTree();
+		tree.setJournal(openJournal(journalFile));
+		DirectorySession session = tree.newSession();
+		session.makeDirectory("first");
+		tree.getJournal().flush();
+		long firstLength = Files.size(journalFile);
+		session.makeDirectory("second");
+		tree.getJournal().close();
+
+		// Flip one byte in the second record, so its checksum no longer matches
+		byte[] bytes = Files.readAllBytes(journalFile);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(journalFile, bytes);
+
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(1, recovered.getSequence());
+		assertFalse(describe(recovered).contains("second"));
+		assertEquals(firstLength, Files.size(journalFile));
+	}
+
+	@Test
+	void compactionFoldsTheJournalIntoTheSnapshot() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = MutationJournal.recover(snapshot, journalFile);
+		tree.setJournal(openJournal(journalFile));
+		changeEveryWay(tree);
+		tree.getJournal().compact(snapshot).get(1, TimeUnit.MINUTES);
+		assertTrue(Files.exists(snapshot));
+		assertEquals(tree.getSequence(), DirectoryTree.load(snapshot).getSequence());
+
+		// Changes made after the compaction go to the new journal
+		tree.newSession().makeDirectories("x/y");
+		tree.getJournal().close();
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(describe(tree), describe(recovered));
+		assertEquals(tree.getSequence(), recovered.getSequence());
+	}
+
+	@Test
+	void unfinishedCompactionIsFoldedOnRecovery() throws Exception {
+		Path snapshot = directory.resolve("tree.snapshot");
+		Path journalFile = directory.resolve("tree.journal");
+		DirectoryTree tree = new DirectoryTree();
+		tree.setJournal(openJournal(journalFile));
+		changeEveryWay(tree);
+		tree.getJournal().close();
+		// A crash after sealing leaves the sealed journal and an empty new one
+		Files.move(journalFile, directory.resolve("tree.journal.sealed"));
+		Files.createFile(journalFile);
+
+		DirectoryTree recovered = MutationJournal.recover(snapshot, journalFile);
+		assertEquals(describe(tree), describe(recovered));
+		assertFalse(Files.exists(directory.resolve("tree.journal.sealed")));
+		assertTrue(Files.exists(snapshot));
+	}
+}
@@ -0,0 +1,73 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The <code>NameIndexTest</code> class checks that nodes sharing a name are
+ * removed from the index correctly and without scanning the others.
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class NameIndexTest {
+	private static final int SHARED_NAME_COUNT = 200000; // Directories named "src" in the large tree
+	private static final int MKDIR_COUNT = 400; // Directories made after the large tree is removed
+
+	@Test
+	void removalKeepsTheOtherNodesWithTheName() {
+		NameIndex index = new NameIndex();
+		List<DirectoryNode> nodes = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			DirectoryNode node = new DirectoryNode("shared", false);
+			nodes.add(node);
+			index.add(node);
+		}
+		// First, last, middle and a node that was never added
+		index.remove(nodes.get(0));
+		index.remove(nodes.get(9));
+		index.remove(nodes.get(4));
+		index.remove(new DirectoryNode("shared", false));
+		assertEquals(new HashSet<>(List.of(nodes.get(1), nodes.get(2), nodes.get(3), nodes.get(5), nodes.get(6),
+				nodes.get(7), nodes.get(8))), new HashSet<>(index.get("shared")));
+
+		for (int i : new int[] { 1, 2, 3, 5, 6, 7 }) {
+			index.remove(nodes.get(i));
+		}
+		assertEquals(List.of(nodes.get(8)), index.get("shared"));
+		index.add(nodes.get(0));
+		index.remove(nodes.get(8));
+		assertEquals(List.of(nodes.get(0)), index.get("shared"));
+		index.remove(nodes.get(0));
+		assertEquals(List.of(), index.get("shared"));
+	}
+
+	@Test
+	void changesStayFastAfterRemovingManyNodesWithOneName() throws Exception {
+		DirectoryTree tree = new DirectoryTree();
+		DirectorySession session = tree.newSession();
+		DirectoryNode top = new DirectoryNode("top", false);
+		for (int i = 0; i < SHARED_NAME_COUNT; i++) {
+			DirectoryNode project = new DirectoryNode("project" + i, false);
+			project.addChild(new DirectoryNode("src", false));
+			top.addChild(project);
+		}
+		session.importSubtree(top, null);
+		session.removeNode("top");
+
+		// Each change unindexes a share of the removed nodes, so these drain them all
+		long start = System.nanoTime();
+		for (int i = 0; i < MKDIR_COUNT; i++) {
+			session.makeDirectory("made" + i);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(List.of(), tree.findAll("src"));
+		assertTrue(millis < 1500, MKDIR_COUNT + " mkdir calls took " + millis + " ms");
+	}
+}
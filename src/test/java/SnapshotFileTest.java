@@ -0,0 +1,130 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The <code>SnapshotFileTest</code> class checks that snapshots are read back
+ * as they were written, and that snapshots written by earlier versions of the
+ * format can still be read.
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class SnapshotFileTest {
+	private static final int MAGIC = 0x44495254; // "DIRT"
+
+	@TempDir
+	Path directory; // Holds the snapshots of each test
+
+	/**
+	 * Writes a snapshot in an earlier version of the format, for a root with a
+	 * directory "a" holding a file "f", and a file "g" beside it. Every count and
+	 * ID is below 128, so each variable-length integer is a single byte.
+	 *
+	 * @param version  The format version, 1 or 2
+	 * @param sequence The sequence number written by version 2
+	 * @return The snapshot bytes
+	 * @throws IOException Never, since the bytes are kept in memory
+	 */
+	private static byte[] oldSnapshot(int version, long sequence) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(version);
+		if (version >= 2) {
+			out.writeLong(sequence);
+		}
+		String[] names = { "root", "a", "f", "g" };
+		out.writeInt(names.length);
+		for (String name : names) {
+			byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+			out.writeByte(encoded.length);
+			out.write(encoded);
+		}
+		out.writeInt(4);
+		// Name ID, flag, then the child count of a directory
+		out.write(new byte[] { 0, 0, 2 });
+		out.write(new byte[] { 1, 0, 1 });
+		out.write(new byte[] { 2, 1 });
+		out.write(new byte[] { 3, 1 });
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	void currentVersionKeepsTheTreeSequenceAndFileMetadata() throws Exception {
+		DirectoryTree tree = new DirectoryTree();
+		DirectorySession session = tree.newSession();
+		session.makeDirectories("a/b");
+		session.makeFile("f");
+		session.touchFile("f", 1234);
+		session.copyNode("a", "a/b");
+		Path snapshot = directory.resolve("tree.snapshot");
+		tree.save(snapshot);
+
+		DirectoryTree loaded = DirectoryTree.load(snapshot);
+		assertEquals(MutationJournalTest.describe(tree), MutationJournalTest.describe(loaded));
+		assertEquals(tree.getSequence(), loaded.getSequence());
+		DirectoryNode file = loaded.newSession().lookupPath("f");
+		DirectoryNode original = session.lookupPath("f");
+		assertEquals(1234, file.getSize());
+		assertEquals(original.getCreationTime(), file.getCreationTime());
+		assertEquals(original.getModificationTime(), file.getModificationTime());
+		assertEquals(4, loaded.getRoot().getDescendantDirectoryCount());
+	}
+
+	@Test
+	void versionOneLoadsWithoutSequenceOrMetadata() throws Exception {
+		Path snapshot = directory.resolve("v1.snapshot");
+		Files.write(snapshot, oldSnapshot(1, 0));
+
+		SnapshotFile loaded = SnapshotFile.load(snapshot);
+		assertEquals(0, loaded.getSequence());
+		DirectoryNode root = loaded.getRoot();
+		assertEquals("root", root.getName());
+		assertEquals(1, root.getDescendantDirectoryCount());
+		assertEquals(2, root.getDescendantFileCount());
+		assertEquals(0, root.getChild("a").getChild("f").getSize());
+	}
+
+	@Test
+	void versionTwoLoadsItsSequence() throws Exception {
+		Path snapshot = directory.resolve("v2.snapshot");
+		Files.write(snapshot, oldSnapshot(2, 17));
+
+		DirectoryTree loaded = DirectoryTree.load(snapshot);
+		assertEquals(17, loaded.getSequence());
+		assertEquals("a g", loaded.listDirectory());
+		assertEquals(0, loaded.newSession().lookupPath("g").getModificationTime());
+	}
+
+	@Test
+	void unknownVersionIsRejected() throws Exception {
+		Path snapshot = directory.resolve("v9.snapshot");
+		byte[] bytes = oldSnapshot(2, 0);
+		bytes[7] = 9;
+		Files.write(snapshot, bytes);
+
+		assertThrows(IOException.class, () -> SnapshotFile.load(snapshot));
+	}
+
+	@Test
+	void truncatedSnapshotIsRejected() throws Exception {
+		Path snapshot = directory.resolve("short.snapshot");
+		byte[] bytes = oldSnapshot(2, 0);
+		Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 2));
+
+		assertThrows(IOException.class, () -> SnapshotFile.load(snapshot));
+	}
+}
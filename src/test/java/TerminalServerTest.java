@@ -0,0 +1,149 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The <code>TerminalServerTest</code> class runs clients against a server on
+ * the loopback address and checks that lines that are too long are never run,
+ * that clients that do not read their output are held back without losing any
+ * of it, and that a client that goes away does not stop the others.
+ *
+ * @author Sayan Sivakumaran e-mail: sayan.sivakumaran@stonybrook.edu Stony
+ *         Brook ID: 110261379
+ **/
+class TerminalServerTest {
+	private static final int LONG_LINE_LENGTH = 70000; // Longer than the server accepts, and than one read
+	private static final int DIRECTORY_COUNT = 2000; // Directories listed by each ls
+	private static final int LIST_COUNT = 100; // ls commands sent without reading, for megabytes of output
+	private static final int TIMEOUT_MILLIS = 20000; // Longest a client waits for the server
+
+	private DirectoryTree tree; // The tree every session shares
+	private TerminalServer server; // The server of each test
+	private Thread serving; // Runs the server
+
+	@BeforeEach
+	void startServer() throws Exception {
+		tree = new DirectoryTree();
+		server = TerminalServer.openTcp(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				output -> new BashTerminal(tree.newSession(), new PrintStream(output, false, StandardCharsets.UTF_8)));
+		serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}, "test-server");
+		serving.start();
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.close();
+		serving.join(TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @return A client connected to the server
+	 * @throws IOException If the server cannot be reached
+	 */
+	private Socket connect() throws IOException {
+		Socket client = new Socket();
+		client.connect(server.getAddress(), TIMEOUT_MILLIS);
+		client.setSoTimeout(TIMEOUT_MILLIS);
+		return client;
+	}
+
+	/**
+	 * @param client A client whose session has been sent the exit command
+	 * @return Everything the session sent until it ended
+	 * @throws IOException If the server stops answering
+	 */
+	private static String readToEnd(Socket client) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		client.getInputStream().transferTo(received);
+		return received.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param client A client whose session has been sent the exit command
+	 * @return Every line the session sent until it ended
+	 * @throws IOException If the server stops answering
+	 */
+	private static List<String> readLinesToEnd(Socket client) throws IOException {
+		return Arrays.asList(readToEnd(client).split("\\R"));
+	}
+
+	@Test
+	void longLineIsRejectedWithoutRunningAnyOfIt() throws Exception {
+		try (Socket client = connect()) {
+			OutputStream out = client.getOutputStream();
+			out.write(("mkdir " + "x".repeat(LONG_LINE_LENGTH) + "\n").getBytes(StandardCharsets.UTF_8));
+			out.write("mkdir ok\nexit\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			List<String> lines = readLinesToEnd(client);
+			assertTrue(lines.contains("ERROR: The line was longer than 65536 bytes and was not run."),
+					lines::toString);
+		}
+		assertEquals("ok", tree.listDirectory());
+	}
+
+	@Test
+	void clientThatDoesNotReadGetsAllOfItsOutputLater() throws Exception {
+		DirectorySession session = tree.newSession();
+		for (int i = 0; i < DIRECTORY_COUNT; i++) {
+			session.makeDirectory("d" + i);
+		}
+		StringBuilder listing = new StringBuilder();
+		tree.printDirectoryTree(tree.getRoot(), 0, Integer.MAX_VALUE, listing, () -> false);
+		try (Socket client = connect()) {
+			OutputStream out = client.getOutputStream();
+			out.write(("ls\n".repeat(LIST_COUNT) + "exit\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			// The session fills the output it may queue and waits for the client
+			Thread.sleep(500);
+			String received = readToEnd(client);
+			int listings = 0;
+			for (int at = received.indexOf(listing.toString()); at != -1; at = received.indexOf(listing.toString(),
+					at + 1)) {
+				listings++;
+			}
+			assertEquals(LIST_COUNT, listings);
+		}
+	}
+
+	@Test
+	void clientThatGoesAwayLeavesTheOthersServed() throws Exception {
+		for (int i = 0; i < DIRECTORY_COUNT; i++) {
+			tree.newSession().makeDirectory("d" + i);
+		}
+		try (Socket gone = connect()) {
+			gone.setSoLinger(true, 0);
+			gone.getOutputStream().write("ls\n".repeat(LIST_COUNT).getBytes(StandardCharsets.UTF_8));
+			gone.getOutputStream().flush();
+			Thread.sleep(200);
+		}
+		try (Socket client = connect()) {
+			client.getOutputStream().write("mkdir after\npwd\nexit\n".getBytes(StandardCharsets.UTF_8));
+			client.getOutputStream().flush();
+			List<String> lines = readLinesToEnd(client);
+			assertTrue(lines.contains("Program terminating normally"), lines::toString);
+		}
+		assertFalse(tree.newSession().lookupPath("after").isFile());
+	}
+}